@@ -0,0 +1,204 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import ij.ImagePlus;
+import ij.WindowManager;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.scijava.Context;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Tracks the active {@link ImagePlus} per thread of execution.
+ * <p>
+ * ImageJ 1.x has a single, global notion of the current image: whichever
+ * window is in front, unless a thread registered a temporary image via
+ * {@link WindowManager#setTempCurrentImage(ImagePlus)}. Modules running
+ * concurrently on different threads therefore used to fight over the same
+ * image. This class scopes the active image to the thread which
+ * {@link #activate(ImagePlus) activates} it <em>and</em> to all threads
+ * spawned from it via the {@link ThreadService}, so that each pipeline can
+ * have its own active image.
+ * </p>
+ * <p>
+ * Within an activated scope, ImageJ 1.x's
+ * {@link WindowManager#getCurrentImage()} returns the scoped image on the
+ * activating thread. Threads spawned from it resolve the scoped image via
+ * {@link #getActiveImage()}, and can make it visible to ImageJ 1.x code
+ * running on them via {@link #inherit()}.
+ * </p>
+ */
+public class ActiveImageContext {
+
+	/**
+	 * Marks a thread which {@link #activate(ImagePlus) activated} null, masking
+	 * the images of its ancestors.
+	 */
+	private static final Object MASKED = new Object();
+
+	private final Context context;
+
+	/** The images explicitly activated, or {@link #MASKED}, per thread. */
+	private final ConcurrentWeakIdentityMap<Thread, Object> images =
+		new ConcurrentWeakIdentityMap<>();
+
+	private ThreadService threadService;
+
+	public ActiveImageContext(final Context context) {
+		this.context = context;
+	}
+
+	// -- ActiveImageContext methods --
+
+	/**
+	 * Makes the given image the active one for the current thread and the
+	 * threads spawned from it, until the returned scope is closed.
+	 * <p>
+	 * Scopes nest: closing a scope restores whatever image was active on the
+	 * current thread before it was opened.
+	 * </p>
+	 *
+	 * @param imp the image to activate, or null to mask any inherited image
+	 *          so that the global current image is used again
+	 * @return the scope, to be closed (on the same thread) when done
+	 */
+	public Scope activate(final ImagePlus imp) {
+		final Thread thread = Thread.currentThread();
+		final Object previous = images.put(thread, imp == null ? MASKED : imp);
+		final ImagePlus previousTemp = WindowManager.getTempCurrentImage();
+		WindowManager.setTempCurrentImage(imp);
+		return new Scope(thread, previous, previousTemp);
+	}
+
+	/**
+	 * Activates, for the current thread, the image which it inherits from the
+	 * thread that spawned it (if any). This makes the image visible to ImageJ
+	 * 1.x code calling {@link WindowManager#getCurrentImage()} on this thread.
+	 *
+	 * @return the scope, to be closed (on the same thread) when done
+	 */
+	public Scope inherit() {
+		final Thread thread = Thread.currentThread();
+		final Object own = images.get(thread);
+		final Object active = own != null ? own : inheritedActivation(thread);
+		if (!(active instanceof ImagePlus)) {
+			// nothing to inherit, or masked; keep whatever is in effect now
+			return new Scope(thread, own, WindowManager.getTempCurrentImage());
+		}
+		return activate((ImagePlus) active);
+	}
+
+	/**
+	 * Gets the active image of the current thread.
+	 * <p>
+	 * This is the image temporarily made current on this thread (either via
+	 * {@link #activate(ImagePlus)} or by ImageJ 1.x itself, e.g. in macro batch
+	 * mode), else the image activated by the closest ancestor thread, else the
+	 * globally current image of ImageJ 1.x. Activating null on this thread or
+	 * an ancestor masks the images of the threads further up.
+	 * </p>
+	 */
+	public ImagePlus getActiveImage() {
+		final ImagePlus temp = WindowManager.getTempCurrentImage();
+		if (temp != null) return temp;
+		final Thread thread = Thread.currentThread();
+		final Object active = images.get(thread) == MASKED ? MASKED : //
+			inheritedActivation(thread);
+		return active instanceof ImagePlus ? (ImagePlus) active : WindowManager
+			.getCurrentImage();
+	}
+
+	// -- Helper classes --
+
+	/** An activation of an image, restoring the previous one when closed. */
+	public class Scope implements AutoCloseable {
+
+		private final Thread thread;
+		private final Object previous;
+		private final ImagePlus previousTemp;
+		private boolean closed;
+
+		private Scope(final Thread thread, final Object previous,
+			final ImagePlus previousTemp)
+		{
+			this.thread = thread;
+			this.previous = previous;
+			this.previousTemp = previousTemp;
+		}
+
+		@Override
+		public void close() {
+			if (closed) return;
+			if (thread != Thread.currentThread()) {
+				throw new IllegalStateException("Scope opened on " +
+					thread.getName() + " cannot be closed on " +
+					Thread.currentThread().getName());
+			}
+			closed = true;
+			if (previous == null) images.remove(thread);
+			else images.put(thread, previous);
+			WindowManager.setTempCurrentImage(previousTemp);
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Walks up the {@link ThreadService} parents of the given thread, returning
+	 * the first explicit activation: an image, or {@link #MASKED}.
+	 */
+	private Object inheritedActivation(final Thread thread) {
+		if (images.isEmpty()) return null;
+		final ThreadService threadService = threadService();
+		if (threadService == null) return null;
+		final Set<Thread> seen = new HashSet<>();
+		seen.add(thread);
+		for (Thread t = threadService.getParent(thread); t != null &&
+			seen.add(t); t = threadService.getParent(t))
+		{
+			final Object active = images.get(t);
+			if (active != null) return active;
+		}
+		return null;
+	}
+
+	private ThreadService threadService() {
+		if (threadService == null) {
+			threadService = context.getService(ThreadService.class);
+		}
+		return threadService;
+	}
+}
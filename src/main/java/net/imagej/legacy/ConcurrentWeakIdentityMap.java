@@ -0,0 +1,328 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe map with weakly referenced keys which are compared by
+ * identity rather than by {@link Object#equals(Object)}.
+ * <p>
+ * This is the concurrent counterpart of a {@link java.util.WeakHashMap}
+ * keyed by identity: it is backed by a {@link ConcurrentHashMap}, so lookups
+ * never block and updates only contend within the same hash bin. Entries
+ * whose key has been garbage collected are purged lazily on subsequent
+ * updates. Iteration is weakly consistent and skips cleared entries; the
+ * values remain strongly referenced until then, exactly as with
+ * {@code WeakHashMap}.
+ * </p>
+ * <p>
+ * Neither null keys nor null values are supported.
+ * </p>
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class ConcurrentWeakIdentityMap<K, V> extends AbstractMap<K, V>
+	implements ConcurrentMap<K, V>
+{
+
+	// -- Fields --
+
+	private final ConcurrentHashMap<Object, V> map = new ConcurrentHashMap<>();
+
+	private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+
+	/** Number of entries purged because their key was garbage collected. */
+	private final AtomicLong clearedCount = new AtomicLong();
+
+	private Set<Map.Entry<K, V>> entrySet;
+
+	// -- ConcurrentWeakIdentityMap methods --
+
+	/**
+	 * Gets the number of entries which have been purged from this map because
+	 * their key was garbage collected.
+	 */
+	public long getClearedCount() {
+		return clearedCount.get();
+	}
+
+	/**
+	 * Gets the number of live entries, after purging those whose key has been
+	 * garbage collected.
+	 */
+	public int getLiveCount() {
+		expungeStaleEntries();
+		return map.size();
+	}
+
+	// -- Map methods --
+
+	@Override
+	public int size() {
+		return getLiveCount();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return map.containsKey(new LookupKey(key));
+	}
+
+	@Override
+	public boolean containsValue(final Object value) {
+		return map.containsValue(value);
+	}
+
+	@Override
+	public V get(final Object key) {
+		return map.get(new LookupKey(key));
+	}
+
+	@Override
+	public V put(final K key, final V value) {
+		expungeStaleEntries();
+		return map.put(new WeakKey<>(key, queue), value);
+	}
+
+	@Override
+	public V remove(final Object key) {
+		expungeStaleEntries();
+		return map.remove(new LookupKey(key));
+	}
+
+	@Override
+	public void clear() {
+		while (queue.poll() != null) {
+			// the entries are about to be removed anyway
+		}
+		map.clear();
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		if (entrySet == null) entrySet = new EntrySet();
+		return entrySet;
+	}
+
+	// -- ConcurrentMap methods --
+
+	@Override
+	public V putIfAbsent(final K key, final V value) {
+		expungeStaleEntries();
+		return map.putIfAbsent(new WeakKey<>(key, queue), value);
+	}
+
+	@Override
+	public boolean remove(final Object key, final Object value) {
+		expungeStaleEntries();
+		return map.remove(new LookupKey(key), value);
+	}
+
+	@Override
+	public boolean replace(final K key, final V oldValue, final V newValue) {
+		return map.replace(new LookupKey(key), oldValue, newValue);
+	}
+
+	@Override
+	public V replace(final K key, final V value) {
+		return map.replace(new LookupKey(key), value);
+	}
+
+	// -- Helper methods --
+
+	/** Removes the entries whose keys have been garbage collected. */
+	private void expungeStaleEntries() {
+		Object ref;
+		while ((ref = queue.poll()) != null) {
+			if (map.remove(ref) != null) clearedCount.incrementAndGet();
+		}
+	}
+
+	/** Gets the referent of a key stored in the backing map. */
+	@SuppressWarnings("unchecked")
+	private static <K> K referent(final Object key) {
+		return ((WeakKey<K>) key).get();
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * A weak reference to a key, compared by identity of its referent. A
+	 * cleared reference is only equal to itself, so that it can still be
+	 * removed from the backing map.
+	 */
+	private static class WeakKey<K> extends WeakReference<K> {
+
+		private final int hash;
+
+		private WeakKey(final K key, final ReferenceQueue<K> queue) {
+			super(nonNull(key), queue);
+			hash = System.identityHashCode(key);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) return true;
+			final Object referent = get();
+			if (referent == null) return false;
+			if (o instanceof WeakKey) return referent == ((WeakKey<?>) o).get();
+			if (o instanceof LookupKey) return referent == ((LookupKey) o).key;
+			return false;
+		}
+	}
+
+	/**
+	 * A strong, short-lived key used to query the backing map without
+	 * allocating a weak reference.
+	 */
+	private static class LookupKey {
+
+		private final Object key;
+		private final int hash;
+
+		private LookupKey(final Object key) {
+			this.key = nonNull(key);
+			hash = System.identityHashCode(key);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) return true;
+			if (o instanceof WeakKey) return key == ((WeakKey<?>) o).get();
+			return false;
+		}
+	}
+
+	private static <T> T nonNull(final T key) {
+		if (key == null) throw new NullPointerException("Null keys unsupported");
+		return key;
+	}
+
+	/** The live entries of the backing map, with their keys dereferenced. */
+	private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+		@Override
+		public Iterator<Map.Entry<K, V>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public int size() {
+			return ConcurrentWeakIdentityMap.this.size();
+		}
+
+		@Override
+		public void clear() {
+			ConcurrentWeakIdentityMap.this.clear();
+		}
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+		private final Iterator<Map.Entry<Object, V>> iter =
+			map.entrySet().iterator();
+
+		/** Next entry to return, with a strong reference to its key. */
+		private Map.Entry<K, V> next;
+
+		/** Last entry returned, for {@link #remove()}. */
+		private Map.Entry<K, V> last;
+
+		@Override
+		public boolean hasNext() {
+			while (next == null && iter.hasNext()) {
+				final Map.Entry<Object, V> entry = iter.next();
+				final K key = referent(entry.getKey());
+				if (key != null) next = new Entry(key, entry.getValue());
+			}
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			last = next;
+			next = null;
+			return last;
+		}
+
+		@Override
+		public void remove() {
+			if (last == null) throw new IllegalStateException();
+			ConcurrentWeakIdentityMap.this.remove(last.getKey());
+			last = null;
+		}
+	}
+
+	/** An entry which writes through to the backing map. */
+	private class Entry extends SimpleEntry<K, V> {
+
+		private Entry(final K key, final V value) {
+			super(key, value);
+		}
+
+		@Override
+		public V setValue(final V value) {
+			if (value == null) throw new NullPointerException();
+			ConcurrentWeakIdentityMap.this.put(getKey(), value);
+			return super.setValue(value);
+		}
+	}
+
+}
@@ -168,12 +168,13 @@ public class DefaultLegacyHooks extends LegacyHooks {
 
 	@Override
 	public void registerImage(final Object o) {
-		if (!legacyService.isSyncEnabled()) return;
-
 		final ImagePlus image = (ImagePlus) o;
 		if (image == null) return;
 		if (!image.isProcessor()) return;
 		if (image.getWindow() == null) return;
+		if (helper != null) helper.getImageIndex().add(image);
+
+		if (!legacyService.isSyncEnabled()) return;
 		legacyService.log().debug("register legacy image: " + image);
 		try {
 			legacyService.getImageMap().registerLegacyImage(image);
@@ -187,6 +188,7 @@ public class DefaultLegacyHooks extends LegacyHooks {
 	public void unregisterImage(final Object o) {
 		final ImagePlus image = (ImagePlus) o;
 		if (image == null) return;
+		if (helper != null) helper.getImageIndex().remove(image);
 		legacyService.log().debug("unregister legacy image: " + image);
 		try {
 			final ImageDisplay disp =
@@ -275,6 +277,8 @@ public class DefaultLegacyHooks extends LegacyHooks {
 
 	@Override
 	public void runAfterRefreshMenus() {
+		// NB: ImageJ 1.x replaced its menu bar, dropping our menu items
+		if (helper != null) helper.refreshMenuItems();
 		if (afterRefreshMenus != null) {
 			for (final Runnable run : afterRefreshMenus) {
 				run.run();
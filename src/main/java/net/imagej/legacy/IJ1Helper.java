@@ -31,6 +31,7 @@
 
 package net.imagej.legacy;
 
+import ij.CommandListener;
 import ij.Executer;
 import ij.IJ;
 import ij.ImageJ;
@@ -45,7 +46,12 @@ import ij.io.DirectoryChooser;
 import ij.io.OpenDialog;
 import ij.io.Opener;
 import ij.io.SaveDialog;
+import ij.macro.Debugger;
 import ij.macro.Interpreter;
+import ij.macro.MacroConstants;
+import ij.macro.Program;
+import ij.macro.Symbol;
+import ij.macro.Tokenizer;
 import ij.measure.ResultsTable;
 import ij.plugin.Commands;
 import ij.plugin.PlugIn;
@@ -60,21 +66,29 @@ import java.awt.Frame;
 import java.awt.Image;
 import java.awt.Menu;
 import java.awt.MenuBar;
+import java.awt.MenuContainer;
 import java.awt.MenuItem;
 import java.awt.Panel;
 import java.awt.Window;
 import java.awt.image.ImageProducer;
 import java.io.File;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -84,6 +98,8 @@ import java.util.concurrent.Callable;
 import javax.swing.SwingUtilities;
 
 import net.imagej.display.ImageDisplay;
+import net.imagej.legacy.plugin.MacroProfiler;
+import net.imagej.legacy.plugin.MacroProgramCache;
 import net.imagej.legacy.search.SearchBarHacker;
 import net.imagej.patcher.LegacyHooks;
 
@@ -93,6 +109,7 @@ import org.scijava.MenuEntry;
 import org.scijava.MenuPath;
 import org.scijava.event.EventHandler;
 import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
 import org.scijava.module.ModuleInfo;
 import org.scijava.platform.event.AppAboutEvent;
 import org.scijava.platform.event.AppOpenFilesEvent;
@@ -131,6 +148,9 @@ public class IJ1Helper extends AbstractContextual {
 	/** Whether we are in the process of forcibly shutting down ImageJ1. */
 	private boolean disposing;
 
+	/** Index of the displayed images by ID and title. */
+	private final LegacyImageIndex imageIndex = new LegacyImageIndex();
+
 	public IJ1Helper(final LegacyService legacyService) {
 		setContext(legacyService.getContext());
 		this.legacyService = legacyService;
@@ -426,7 +446,16 @@ public class IJ1Helper extends AbstractContextual {
 	}
 
 	public ImagePlus getImage(final int imageID) {
-		return WindowManager.getImage(imageID);
+		return imageIndex.getImage(imageID);
+	}
+
+	public ImagePlus getImage(final String title) {
+		return imageIndex.getImage(title);
+	}
+
+	/** Gets the index of displayed images by ID and title. */
+	public LegacyImageIndex getImageIndex() {
+		return imageIndex;
 	}
 
 	/**
@@ -621,17 +650,201 @@ public class IJ1Helper extends AbstractContextual {
 	 *           {@link Interpreter}.
 	 */
 	public Object getVariable(final Object interpreter, final String name) {
+		return getTextVariable((Interpreter) interpreter, name);
+	}
+
+	/** Creates a new macro {@link Interpreter}. */
+	public static Object newInterpreter() {
+		return new Interpreter();
+	}
+
+	/** Tokenizes the given macro source into a {@link Program}. */
+	public static Object tokenizeMacro(final String source) {
+		return new Tokenizer().tokenize(source);
+	}
+
+	/**
+	 * Gets the functions ImageJ 1.x appends to every macro, as given by
+	 * {@link Interpreter#getAdditionalFunctions()}.
+	 *
+	 * @return the source of the functions, or null if there are none
+	 */
+	public static String getAdditionalMacroFunctions() {
+		return Interpreter.getAdditionalFunctions();
+	}
+
+	/**
+	 * Gets whether macro inputs can be set directly on the {@link Interpreter}.
+	 * This needs access to its internals, which may not be available in every
+	 * version of ImageJ 1.x; they are resolved on first use.
+	 *
+	 * @see #runCachedMacro
+	 */
+	public static boolean isMacroInterpreterAccessible() {
+		return MacroInternals.INSTANCE != null;
+	}
+
+	/**
+	 * Finds the top-level user function definitions of a tokenized macro, as
+	 * the macro {@link Tokenizer} found them. Definitions sharing a line with
+	 * a statement outside of any function are left out; of several definitions
+	 * with the same name, only the last one is kept.
+	 *
+	 * @param program the tokenized macro, as given by
+	 *          {@link #tokenizeMacro(String)}
+	 * @return the first and last source line of each definition, by name, in
+	 *         source order
+	 * @throws IllegalStateException if the interpreter's internals are not
+	 *           accessible
+	 * @see #isMacroInterpreterAccessible()
+	 */
+	public static Map<String, int[]> getMacroFunctionLines(
+		final Object program)
+	{
+		final MacroInternals internals = MacroInternals.INSTANCE;
+		if (internals == null) {
+			throw new IllegalStateException("Cannot access the macro interpreter");
+		}
+		final Program pgm = (Program) program;
+		final int[] lines;
+		try {
+			lines = (int[]) internals.getLineNumbers.invoke(pgm);
+		}
+		catch (final Throwable t) {
+			throw new IllegalStateException(t);
+		}
+		// NB: The last token is EOF.
+		final int size = Math.min(pgm.getSize(), lines.length);
+		final String[] owners = new String[size];
+		MacroHook.functions(pgm, owners, new boolean[size]);
+		final int[] code = pgm.getCode();
+		final Map<String, int[]> functions = new LinkedHashMap<>();
+		final Set<Integer> statements = new HashSet<>();
+		for (int i = 0; i < size; i++) {
+			if (owners[i] == null) statements.add(lines[i]);
+			else if ((code[i] & MacroConstants.TOK_MASK) == //
+				MacroConstants.FUNCTION)
+			{
+				functions.remove(owners[i]);
+				functions.put(owners[i], new int[] { lines[i], lines[i] });
+			}
+			else functions.get(owners[i])[1] = lines[i];
+		}
+		functions.values().removeIf(range -> statements.contains(range[0]) ||
+			statements.contains(range[1]));
+		return functions;
+	}
+
+	/**
+	 * Runs the given macro source with the given input variables, taking the
+	 * tokenized program from the given cache.
+	 * <p>
+	 * The inputs are pushed onto the interpreter's stack before the program
+	 * starts, where the macro finds them just like variables it assigned
+	 * itself. If the program declares {@code var} globals, the inputs count as
+	 * globals too, and are thus also visible inside user functions. If the
+	 * interpreter's internals are not accessible (see
+	 * {@link #isMacroInterpreterAccessible()}), the macro is run as text
+	 * instead, with the inputs prepended as assignments.
+	 * </p>
+	 *
+	 * @param interpreter the {@link Interpreter} to run the macro; it can be
+	 *          queried for the resulting variables afterwards
+	 * @param source the macro source
+	 * @param arg the macro argument, as given by {@code getArgument()}
+	 * @param inputs values of the input variables, by name
+	 * @param cache where to take the tokenized program from
+	 * @param state variables of previous runs, as opaque objects by name, or
+	 *          null; they are visible to the macro as global variables, and
+	 *          the variables left by a successful run are added to them
+	 * @return the value returned by the macro, or {@code "[aborted]"} if the
+	 *         macro was aborted, as for {@link IJ#runMacro(String, String)}
+	 * @throws ClassCastException if the given interpreter is not an
+	 *           {@link Interpreter}.
+	 */
+	public static String runCachedMacro(final Object interpreter,
+		final String source, final String arg, final Map<String, ?> inputs,
+		final MacroProgramCache cache, final Map<String, Object> state)
+	{
+		return runMacro((Interpreter) interpreter, source, arg, inputs, cache,
+			state);
+	}
+
+	/**
+	 * Gets the variables of the given macro {@link Interpreter}, after it has
+	 * run a macro.
+	 * <p>
+	 * Numbers are returned as {@link Double}s and strings as {@link String}s.
+	 * Arrays are returned as {@code double[]} if all their elements are
+	 * numbers, as {@code String[]} if all their elements are strings, and as
+	 * {@code Object[]} of {@link Double}s and {@link String}s otherwise. If
+	 * several variables have the same name, the innermost one wins. Without
+	 * access to the interpreter's internals, arrays are left out.
+	 * </p>
+	 *
+	 * @param interpreter the {@link Interpreter} to query
+	 * @return the values of the variables, by name
+	 * @throws ClassCastException if the given interpreter is not an
+	 *           {@link Interpreter}.
+	 */
+	public static Map<String, Object> getMacroVariables(
+		final Object interpreter)
+	{
 		final Interpreter interp = (Interpreter) interpreter;
+		final MacroInternals internals = MacroInternals.INSTANCE;
+		if (internals == null) return getTextVariables(interp);
+		try {
+			return internals.values(internals.stackVariables(interp));
+		}
+		catch (final Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
 
-		// might be a string
-		final String sValue = interp.getStringVariable(name);
-		if (sValue != null) return sValue;
+	/**
+	 * Converts variables carried over by {@link #runCachedMacro} to their
+	 * values, as {@link #getMacroVariables(Object)} does.
+	 */
+	public static Map<String, Object> getMacroValues(
+		final Map<String, Object> state)
+	{
+		final MacroInternals internals = MacroInternals.INSTANCE;
+		if (internals == null) return new LinkedHashMap<>(state);
+		try {
+			return internals.values(state);
+		}
+		catch (final Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
 
-		// probably a number
-		final double nValue = interp.getVariable2(name);
-		if (!Double.isNaN(nValue)) return nValue;
+	/**
+	 * Notifies the given listener of the statements the given macro
+	 * {@link Interpreter} runs, and of the commands run meanwhile, until
+	 * {@link #removeMacroListener(Object)}. The listener takes the place of
+	 * the interpreter's {@link Debugger}.
+	 *
+	 * @throws ClassCastException if the given interpreter is not an
+	 *           {@link Interpreter}.
+	 */
+	public static void addMacroListener(final Object interpreter,
+		final MacroListener listener)
+	{
+		final Interpreter interp = (Interpreter) interpreter;
+		final MacroHook hook = new MacroHook(listener);
+		interp.setDebugger(hook);
+		// NB: Avoid the debugger's side effects in Interpreter#getVariables().
+		interp.setDebugMode(Debugger.FAST_TRACE);
+		Executer.addCommandListener(hook);
+	}
 
-		return null;
+	/** Stops notifying the listener added to the given {@link Interpreter}. */
+	public static void removeMacroListener(final Object interpreter) {
+		final Interpreter interp = (Interpreter) interpreter;
+		final Debugger debugger = interp.getDebugger();
+		if (!(debugger instanceof MacroHook)) return;
+		Executer.removeCommandListener((MacroHook) debugger);
+		interp.setDebugger(null);
 	}
 
 	/** Returns true if the object is an instance of {@link ImagePlus}. */
@@ -778,6 +991,12 @@ public class IJ1Helper extends AbstractContextual {
 
 	private boolean menuInitialized;
 
+	/** Inserts the menu items; null if there is no ImageJ1 frame. */
+	private IJ1MenuWrapper menuWrapper;
+
+	/** The menu items added by {@link #addMenuItems()}, keyed on identifier. */
+	private final Map<String, InstalledItem> installedItems = new HashMap<>();
+
 	@SuppressWarnings("unchecked")
 	public Hashtable<String, String> getCommands() {
 		return Menus.getCommands();
@@ -798,11 +1017,67 @@ public class IJ1Helper extends AbstractContextual {
 	 */
 	public synchronized void addMenuItems() {
 		if (menuInitialized) return;
-		final Map<String, ModuleInfo> modules = //
-			legacyService.getScriptsAndNonLegacyCommands();
-		final Hashtable<String, String> ij1Commands = getCommands();
 		final ImageJ ij1 = hasInstance() ? IJ.getInstance() : null;
-		final IJ1MenuWrapper wrapper = ij1 == null ? null : new IJ1MenuWrapper(ij1);
+		menuWrapper = ij1 == null ? null : new IJ1MenuWrapper(ij1);
+		installMenuItems(legacyService.getScriptsAndNonLegacyCommands().values());
+		menuInitialized = true;
+	}
+
+	/**
+	 * Adds the given legacy-compatible scripts and commands to the ImageJ1 menu
+	 * structure, leaving all other menu items alone. Before the menus were
+	 * built by {@link #addMenuItems()}, this does nothing, since the initial
+	 * build picks up all the modules anyway.
+	 */
+	public synchronized void addMenuItems(
+		final Collection<? extends ModuleInfo> modules)
+	{
+		if (!menuInitialized) return;
+		installMenuItems(modules);
+	}
+
+	/**
+	 * Removes the given scripts and commands from the ImageJ1 menu structure,
+	 * restoring any ImageJ1 commands they were overriding.
+	 */
+	public synchronized void removeMenuItems(
+		final Collection<? extends ModuleInfo> modules)
+	{
+		if (!menuInitialized) return;
+		final Hashtable<String, String> ij1Commands = getCommands();
+		for (final ModuleInfo info : modules) {
+			final InstalledItem installed = //
+				installedItems.remove(info.getIdentifier());
+			if (installed == null) continue;
+			if (installed.overridden != null) {
+				ij1Commands.put(installed.label, installed.overridden);
+			}
+			else if (info.getIdentifier().equals(ij1Commands.get(installed.label))) {
+				ij1Commands.remove(installed.label);
+			}
+			if (installed.item != null && !installed.reused) {
+				final MenuContainer parent = installed.item.getParent();
+				if (parent instanceof Menu) ((Menu) parent).remove(installed.item);
+			}
+		}
+	}
+
+	/**
+	 * Re-adds the legacy-compatible scripts and commands after
+	 * <i>Help&gt;Refresh Menus</i> replaced the ImageJ1 menu bar, from the
+	 * modules already known rather than by rescanning them.
+	 */
+	public synchronized void refreshMenuItems() {
+		if (!menuInitialized) return;
+		installedItems.clear();
+		menuInitialized = false;
+		addMenuItems();
+	}
+
+	private void installMenuItems(
+		final Collection<? extends ModuleInfo> modules)
+	{
+		final Hashtable<String, String> ij1Commands = getCommands();
 		class Item implements Comparable<Item> {
 
 			private double weight;
@@ -830,9 +1105,9 @@ public class IJ1Helper extends AbstractContextual {
 			}
 		}
 		final List<Item> items = new ArrayList<>();
-		for (final Entry<String, ModuleInfo> entry : modules.entrySet()) {
-			final String key = entry.getKey();
-			final ModuleInfo info = entry.getValue();
+		for (final ModuleInfo info : modules) {
+			final String key = info.getIdentifier();
+			if (installedItems.containsKey(key)) continue;
 			final MenuEntry leaf = info.getMenuPath().getLeaf();
 			if (leaf == null) continue;
 			final MenuPath path = info.getMenuPath();
@@ -848,26 +1123,47 @@ public class IJ1Helper extends AbstractContextual {
 		// sort by menu weight, then alphabetically
 		Collections.sort(items);
 		for (final Item item : items) {
-			if (ij1Commands.containsKey(item.name)) {
+			final boolean reused = ij1Commands.containsKey(item.name);
+			MenuItem menuItem = null;
+			if (reused) {
 				log.info("Overriding " + item.name + //
 					"; identifier: " + item.identifier + //
 					"; jar: " + ClassUtils.getLocation(item.info.getDelegateClassName()));
-				if (wrapper != null) try {
-					wrapper.create(item.path, true);
+				if (menuWrapper != null) try {
+					menuItem = menuWrapper.create(item.path, true);
 				}
 				catch (final Throwable t) {
 					log.error(t);
 				}
 			}
-			else if (wrapper != null) try {
-				wrapper.create(item.path, false);
+			else if (menuWrapper != null) try {
+				menuItem = menuWrapper.create(item.path, false);
 			}
 			catch (final Throwable t) {
 				log.error(t);
 			}
-			ij1Commands.put(item.name, item.identifier);
+			final String overridden = ij1Commands.put(item.name, item.identifier);
+			installedItems.put(item.identifier, new InstalledItem(item.name,
+				menuItem, reused, overridden));
+		}
+	}
+
+	/** A menu item installed by {@link #installMenuItems}. */
+	private static class InstalledItem {
+
+		private final String label;
+		private final MenuItem item;
+		private final boolean reused;
+		private final String overridden;
+
+		private InstalledItem(final String label, final MenuItem item,
+			final boolean reused, final String overridden)
+		{
+			this.label = label;
+			this.item = item;
+			this.reused = reused;
+			this.overridden = overridden;
 		}
-		menuInitialized = true;
 	}
 
 	/**
@@ -1029,7 +1325,473 @@ public class IJ1Helper extends AbstractContextual {
 		}
 	}
 
-	private <T> T runMacroFriendly(final Callable<T> call) {
+	/**
+	 * Listens to the statements a macro {@link Interpreter} runs, see
+	 * {@link IJ1Helper#addMacroListener(Object, MacroListener)}.
+	 */
+	public interface MacroListener {
+
+		/**
+		 * Called before each statement.
+		 *
+		 * @param line the line number of the statement
+		 * @param function the innermost user function, or null outside of user
+		 *          functions, or if unknown
+		 * @param entry whether the statement is the first one of the function
+		 * @param startOfLocals the stack index where the local variables of the
+		 *          function start; it grows with each nested function call
+		 */
+		void statement(int line, String function, boolean entry,
+			int startOfLocals);
+
+		/** Called before each command, on whichever thread runs it. */
+		void command(String command);
+	}
+
+	/** Notifies a {@link MacroListener} as the interpreter's debugger. */
+	private static class MacroHook implements Debugger, CommandListener {
+
+		private final MacroListener listener;
+
+		/** The program of the previous statement. */
+		private Program program;
+
+		/** The user function of each token of {@link #program}. */
+		private String[] owners;
+
+		/** Whether each token of {@link #program} starts a function body. */
+		private boolean[] entries;
+
+		private MacroHook(final MacroListener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public int debug(final Interpreter interp, final int mode) {
+			final MacroInternals internals = MacroInternals.INSTANCE;
+			if (internals == null) {
+				listener.statement(interp.getLineNumber(), null, false, 0);
+				return 0;
+			}
+			final Program pgm;
+			final int pc, startOfLocals;
+			try {
+				pgm = (Program) internals.getProgram.invoke(interp);
+				pc = (int) internals.getPc.invoke(interp);
+				startOfLocals = (int) internals.getStartOfLocals.invoke(interp);
+			}
+			catch (final Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			if (pgm != program) {
+				program = pgm;
+				owners = new String[Math.min(pgm.getSize() + 1, pgm.getCode().length)];
+				entries = new boolean[owners.length];
+				functions(pgm, owners, entries);
+			}
+			final boolean inRange = pc >= 0 && pc < owners.length;
+			listener.statement(interp.getLineNumber(), inRange ? owners[pc] : null,
+				inRange && entries[pc], startOfLocals);
+			return 0;
+		}
+
+		@Override
+		public String commandExecuting(final String command) {
+			listener.command(command);
+			return command;
+		}
+
+		/**
+		 * Maps each token of the program to its enclosing user function, and
+		 * marks the first token of each function body.
+		 */
+		private static void functions(final Program pgm, final String[] owners,
+			final boolean[] entries)
+		{
+			final int[] code = pgm.getCode();
+			final Symbol[] table = pgm.getSymbolTable();
+			for (int i = 0; i < owners.length - 1; i++) {
+				if ((code[i] & MacroConstants.TOK_MASK) != MacroConstants.FUNCTION) {
+					continue;
+				}
+				final String name = table[code[i + 1] >> MacroConstants.TOK_SHIFT].str;
+				int j = i + 1, depth = 0;
+				while (j < owners.length && //
+					(code[j] & MacroConstants.TOK_MASK) != '{')
+				{
+					j++;
+				}
+				if (j + 1 < owners.length) entries[j + 1] = true;
+				for (; j < owners.length; j++) {
+					final int token = code[j] & MacroConstants.TOK_MASK;
+					if (token == '{') depth++;
+					else if (token == '}' && --depth == 0) break;
+				}
+				for (int k = i; k <= j && k < owners.length; k++) {
+					owners[k] = name;
+				}
+				i = j;
+			}
+		}
+	}
+
+	/**
+	 * Accesses the internals of the macro {@link Interpreter}, to run tokenized
+	 * macros with their inputs pushed directly onto the interpreter's stack,
+	 * and to read typed variables back.
+	 * <p>
+	 * The interpreter's variables and stack are not public API, so they are
+	 * accessed through method handles, resolved when first needed. If any of
+	 * them is missing, e.g. in a different version of ImageJ 1.x, this is
+	 * logged once and macros are run as text instead.
+	 * </p>
+	 */
+	private static final class MacroInternals {
+
+		/** The resolved internals, or null if they are not accessible. */
+		private static final MacroInternals INSTANCE = resolve();
+
+		/** Size of the interpreter's stack, as in {@code Interpreter.STACK_SIZE}. */
+		private static final int STACK_SIZE = 1000;
+
+		/** Variable types, as in {@code Variable.getType()}. */
+		private static final int VALUE = 0, ARRAY = 1, STRING = 2;
+
+		/** {@code ij.macro.Variable} */
+		private final Class<?> variable;
+
+		/** {@code Variable(int symTabIndex, double value, String str)} */
+		private final MethodHandle newVariable;
+
+		/** {@code Variable(int symTabIndex, double value, String str, Variable[])} */
+		private final MethodHandle newArrayVariable;
+
+		/** {@code Variable(double[])} */
+		private final MethodHandle newDoublesVariable;
+
+		/** {@code Variable(int[])} */
+		private final MethodHandle newIntsVariable;
+
+		/** {@code Variable(byte[])}, treating the bytes as unsigned */
+		private final MethodHandle newBytesVariable;
+
+		private final MethodHandle getSymTabIndex, setSymTabIndex, getType,
+				getValue, getString, getArray, getArraySize, cloneVariable;
+
+		private final MethodHandle getStack, setStack, getTopOfStack,
+				setTopOfStack, setTopOfGlobals, setArgument, getReturnValue, getProgram,
+				getPc, getStartOfLocals;
+
+		private final MethodHandle hasFunctions, getLineNumbers;
+
+		private MacroInternals() throws ReflectiveOperationException {
+			variable = Class.forName("ij.macro.Variable", false, Interpreter.class
+				.getClassLoader());
+			final Class<?> variables = Array.newInstance(variable, 0).getClass();
+			newVariable = constructor(variable, int.class, double.class,
+				String.class);
+			newArrayVariable = constructor(variable, int.class, double.class,
+				String.class, variables);
+			newDoublesVariable = constructor(variable, double[].class);
+			newIntsVariable = constructor(variable, int[].class);
+			newBytesVariable = constructor(variable, byte[].class);
+
+			getSymTabIndex = accessor(variable, "symTabIndex", false);
+			setSymTabIndex = accessor(variable, "symTabIndex", true);
+			getType = method(variable, "getType");
+			getValue = method(variable, "getValue");
+			getString = method(variable, "getString");
+			getArray = method(variable, "getArray");
+			getArraySize = method(variable, "getArraySize");
+			cloneVariable = method(variable, "clone");
+
+			getStack = accessor(Interpreter.class, "stack", false);
+			setStack = accessor(Interpreter.class, "stack", true);
+			getTopOfStack = accessor(Interpreter.class, "topOfStack", false);
+			setTopOfStack = accessor(Interpreter.class, "topOfStack", true);
+			setTopOfGlobals = accessor(Interpreter.class, "topOfGlobals", true);
+			setArgument = accessor(Interpreter.class, "argument", true);
+			getReturnValue = accessor(Interpreter.class, "returnValue", false);
+			getProgram = accessor(Interpreter.class, "pgm", false);
+			getPc = accessor(Interpreter.class, "pc", false);
+			getStartOfLocals = accessor(Interpreter.class, "startOfLocals", false);
+
+			hasFunctions = accessor(Program.class, "hasFunctions", false);
+			getLineNumbers = accessor(Program.class, "lineNumbers", false);
+		}
+
+		/** Runs a tokenized macro with the given input variables. */
+		private String run(final Interpreter interpreter, final Program program,
+			final String arg, final Map<String, ?> inputs,
+			final Map<String, Object> state) throws Throwable
+		{
+			if (state != null) restore(interpreter, program, state, inputs);
+			if (program.hasVars() && (boolean) hasFunctions.invoke(program)) {
+				// NB: Restored variables end up among the program's globals.
+				interpreter.saveGlobals(program);
+			}
+			setArgument.invoke(interpreter, arg);
+			for (final Entry<String, ?> entry : inputs.entrySet()) {
+				setVariable(interpreter, program, entry.getKey(), entry.getValue());
+			}
+			if (state != null) {
+				setTopOfGlobals.invoke(interpreter, (int) getTopOfStack.invoke(
+					interpreter));
+			}
+			interpreter.runMacro(program, 0, null);
+			if (state != null) {
+				for (final Entry<String, Object> entry : stackVariables(interpreter)
+					.entrySet())
+				{
+					state.put(entry.getKey(), cloneVariable.invoke(entry.getValue()));
+				}
+			}
+			return (String) getReturnValue.invoke(interpreter);
+		}
+
+		/**
+		 * Pushes a variable with the given value onto the interpreter's stack.
+		 * Variables the program never mentions are skipped.
+		 */
+		private void setVariable(final Interpreter interpreter,
+			final Program program, final String name, final Object value)
+			throws Throwable
+		{
+			if (value == null) return;
+			final int symTabIndex = symbolIndex(program, name);
+			if (symTabIndex < 0) return;
+			push(interpreter, variable(symTabIndex, value));
+		}
+
+		/** Converts variables to their values. */
+		private Map<String, Object> values(final Map<String, Object> variables)
+			throws Throwable
+		{
+			final Map<String, Object> values = new LinkedHashMap<>();
+			for (final Entry<String, Object> entry : variables.entrySet()) {
+				values.put(entry.getKey(), value(entry.getValue()));
+			}
+			return values;
+		}
+
+		/** Gets the variables on the interpreter's stack, innermost last. */
+		private Map<String, Object> stackVariables(final Interpreter interpreter)
+			throws Throwable
+		{
+			final Map<String, Object> variables = new LinkedHashMap<>();
+			final Program program = (Program) getProgram.invoke(interpreter);
+			final Object[] stack = (Object[]) getStack.invoke(interpreter);
+			if (program == null || stack == null) return variables;
+			final Symbol[] table = program.getSymbolTable();
+			final int top = (int) getTopOfStack.invoke(interpreter);
+			for (int i = 0; i <= top; i++) {
+				final int symTabIndex = (int) getSymTabIndex.invoke(stack[i]);
+				if (symTabIndex < 0 || symTabIndex >= table.length) continue;
+				final Symbol symbol = table[symTabIndex];
+				if (symbol == null || symbol.str == null) continue;
+				variables.remove(symbol.str);
+				variables.put(symbol.str, stack[i]);
+			}
+			return variables;
+		}
+
+		/**
+		 * Pushes the variables of previous runs which the program mentions,
+		 * except those overridden by inputs.
+		 */
+		private void restore(final Interpreter interpreter, final Program program,
+			final Map<String, Object> state, final Map<String, ?> inputs)
+			throws Throwable
+		{
+			for (final Entry<String, Object> entry : state.entrySet()) {
+				if (inputs.get(entry.getKey()) != null) continue;
+				final int symTabIndex = symbolIndex(program, entry.getKey());
+				if (symTabIndex < 0) continue;
+				final Object v = cloneVariable.invoke(entry.getValue());
+				push(interpreter, withIndex(v, symTabIndex));
+			}
+		}
+
+		private void push(final Interpreter interpreter, final Object v)
+			throws Throwable
+		{
+			Object[] stack = (Object[]) getStack.invoke(interpreter);
+			if (stack == null) {
+				stack = (Object[]) Array.newInstance(variable, STACK_SIZE);
+				setStack.invoke(interpreter, stack);
+			}
+			final int top = (int) getTopOfStack.invoke(interpreter) + 1;
+			if (top >= STACK_SIZE - 2) {
+				throw new IllegalStateException("Stack overflow");
+			}
+			stack[top] = v;
+			setTopOfStack.invoke(interpreter, top);
+		}
+
+		/** Converts a value to a variable, as ImageJ 1.x macros would see it. */
+		private Object variable(final int symTabIndex, final Object value)
+			throws Throwable
+		{
+			if (value instanceof double[]) {
+				return withIndex(newDoublesVariable.invoke((double[]) value),
+					symTabIndex);
+			}
+			if (value instanceof int[]) {
+				return withIndex(newIntsVariable.invoke((int[]) value), symTabIndex);
+			}
+			if (value instanceof byte[]) {
+				return withIndex(newBytesVariable.invoke((byte[]) value),
+					symTabIndex);
+			}
+			if (value instanceof String[]) {
+				final String[] strings = (String[]) value;
+				final Object[] array = (Object[]) Array.newInstance(variable,
+					strings.length);
+				for (int i = 0; i < strings.length; i++) {
+					array[i] = newVariable.invoke(0, 0.0, String.valueOf(strings[i]));
+				}
+				return newArrayVariable.invoke(symTabIndex, 0.0, (String) null,
+					array);
+			}
+			if (value.getClass().isArray()) {
+				// NB: ImageJ 1.x only supports 1-dimensional arrays.
+				final int length = Array.getLength(value);
+				final Object[] array = (Object[]) Array.newInstance(variable, length);
+				for (int i = 0; i < length; i++) {
+					final Object element = Array.get(value, i);
+					array[i] = element == null || element.getClass().isArray() ? //
+						newVariable.invoke(0, 0.0, String.valueOf(element)) : //
+						variable(0, element);
+				}
+				return newArrayVariable.invoke(symTabIndex, 0.0, (String) null,
+					array);
+			}
+			if (value instanceof ImagePlus) {
+				return variable(symTabIndex, ((ImagePlus) value).getID());
+			}
+			if (value instanceof File) {
+				return variable(symTabIndex, ((File) value).getAbsolutePath());
+			}
+			if (value instanceof Number) {
+				final double d = ((Number) value).doubleValue();
+				return newVariable.invoke(symTabIndex, d, (String) null);
+			}
+			if (value instanceof Boolean) {
+				final double d = (Boolean) value ? 1 : 0;
+				return newVariable.invoke(symTabIndex, d, (String) null);
+			}
+			// NB: Fall back to the text form of unsupported types.
+			return newVariable.invoke(symTabIndex, 0.0, value.toString());
+		}
+
+		private Object withIndex(final Object v, final int symTabIndex)
+			throws Throwable
+		{
+			setSymTabIndex.invoke(v, symTabIndex);
+			return v;
+		}
+
+		/** Converts a variable to the value it holds. */
+		private Object value(final Object v) throws Throwable {
+			switch ((int) getType.invoke(v)) {
+				case ARRAY:
+					final Object[] array = (Object[]) getArray.invoke(v);
+					return array(array, (int) getArraySize.invoke(v));
+				case STRING:
+					return getString.invoke(v);
+				default:
+					return getValue.invoke(v);
+			}
+		}
+
+		/** Converts the elements of an array variable to a typed array. */
+		private Object array(final Object[] array, final int size)
+			throws Throwable
+		{
+			boolean numbers = true, strings = true;
+			for (int i = 0; i < size; i++) {
+				final int type = (int) getType.invoke(array[i]);
+				numbers &= type == VALUE;
+				strings &= type == STRING;
+			}
+			if (numbers) {
+				final double[] values = new double[size];
+				for (int i = 0; i < size; i++) {
+					values[i] = (double) getValue.invoke(array[i]);
+				}
+				return values;
+			}
+			final Object[] values = strings ? new String[size] : new Object[size];
+			for (int i = 0; i < size; i++) {
+				values[i] = value(array[i]);
+			}
+			return values;
+		}
+
+		/** Finds the given identifier in the program's symbol table. */
+		private static int symbolIndex(final Program program, final String name) {
+			final Symbol[] table = program.getSymbolTable();
+			for (int i = 0; i < table.length && table[i] != null; i++) {
+				if (table[i].type == MacroConstants.WORD &&
+					name.equals(table[i].str))
+				{
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private static MacroInternals resolve() {
+			try {
+				return new MacroInternals();
+			}
+			catch (final ReflectiveOperationException | RuntimeException
+					| LinkageError exc)
+			{
+				final LegacyService legacyService = LegacyService.getInstance();
+				LogService log = legacyService == null ? null : legacyService.log();
+				if (log == null) log = new StderrLogService();
+				log.warn("Cannot access the ImageJ 1.x macro interpreter; " +
+					"running macros as text instead", exc);
+				return null;
+			}
+		}
+
+		private static MethodHandle constructor(final Class<?> c,
+			final Class<?>... types) throws ReflectiveOperationException
+		{
+			final Constructor<?> constructor = c.getDeclaredConstructor(types);
+			constructor.setAccessible(true);
+			return MethodHandles.lookup().unreflectConstructor(constructor);
+		}
+
+		private static MethodHandle method(final Class<?> c, final String name)
+			throws ReflectiveOperationException
+		{
+			final Method m = c.getDeclaredMethod(name);
+			m.setAccessible(true);
+			return MethodHandles.lookup().unreflect(m);
+		}
+
+		private static MethodHandle accessor(final Class<?> c, final String name,
+			final boolean setter) throws ReflectiveOperationException
+		{
+			final Field f = c.getDeclaredField(name);
+			f.setAccessible(true);
+			return setter ? MethodHandles.lookup().unreflectSetter(f) : //
+				MethodHandles.lookup().unreflectGetter(f);
+		}
+	}
+
+	/**
+	 * Runs the given code the way ImageJ 1.x runs macros, such that e.g.
+	 * {@link Macro#getOptions()} and {@link Macro#abort()} work, and clears the
+	 * macro {@link Interpreter} instance afterwards.
+	 *
+	 * @param call the code to run
+	 * @return the result of the code
+	 */
+	public <T> T runMacroFriendly(final Callable<T> call) {
 		if (EventQueue.isDispatchThread()) {
 			throw new IllegalStateException("Cannot run macro from the EDT!");
 		}
@@ -1098,6 +1860,35 @@ public class IJ1Helper extends AbstractContextual {
 		});
 	}
 
+	/**
+	 * Evaluates the specified macro, recording where it spends its time.
+	 *
+	 * @param macro the macro to evaluate
+	 * @param arg the macro argument
+	 * @param profiler the profiler to record the timings
+	 * @return the return value
+	 */
+	public String runMacro(final String macro, final String arg,
+		final MacroProfiler profiler)
+	{
+		return runMacroFriendly(new Callable<String>() {
+
+			@Override
+			public String call() throws Exception {
+				final Interpreter interpreter = new Interpreter();
+				profiler.attach(interpreter);
+				try {
+					return runCachedMacro(interpreter, macro, arg, Collections
+						.<String, Object> emptyMap(), MacroProgramCache.getSharedCache(),
+						null);
+				}
+				finally {
+					profiler.detach(interpreter);
+				}
+			}
+		});
+	}
+
 	/**
 	 * Evaluates the specified macro.
 	 *
@@ -1115,6 +1906,27 @@ public class IJ1Helper extends AbstractContextual {
 		});
 	}
 
+	/**
+	 * Evaluates the specified macro file, recording where it spends its time.
+	 * Unlike {@link #runMacroFile(String, String)}, the path is not looked up
+	 * in the macros folder.
+	 *
+	 * @param path the macro file to evaluate
+	 * @param arg the macro argument
+	 * @param profiler the profiler to record the timings
+	 * @return the return value
+	 */
+	public String runMacroFile(final String path, final String arg,
+		final MacroProfiler profiler)
+	{
+		final String macro = IJ.openAsString(path);
+		if (macro == null || macro.startsWith("Error: ")) {
+			throw new IllegalArgumentException("Cannot read macro " + path +
+				(macro == null ? "" : ": " + macro.substring(7)));
+		}
+		return runMacro(macro, arg, profiler);
+	}
+
 	/**
 	 * Opens an image using ImageJ 1.x.
 	 *
@@ -1384,6 +2196,157 @@ public class IJ1Helper extends AbstractContextual {
 		}
 	}
 
+	/**
+	 * Runs a macro with the given input variables.
+	 *
+	 * @see #runCachedMacro
+	 */
+	private static String runMacro(final Interpreter interpreter,
+		final String source, final String arg, final Map<String, ?> inputs,
+		final MacroProgramCache cache, final Map<String, Object> state)
+	{
+		final MacroInternals internals = MacroInternals.INSTANCE;
+		// NB: Without a GUI, run in batch mode as Macro_Runner does, but restore
+		// the previous setting afterwards instead of leaking it to the JVM.
+		final boolean headless = IJ.getInstance() == null;
+		final boolean batchMode = Interpreter.batchMode;
+		try {
+			if (headless) Interpreter.batchMode = true;
+			if (internals == null) {
+				return runMacroText(interpreter, source, arg, inputs, state);
+			}
+			IJ.resetEscape();
+			final String macro = withAdditionalFunctions(source);
+			final Program program = (Program) cache.checkout(macro);
+			try {
+				return internals.run(interpreter, program, arg, inputs, state);
+			}
+			finally {
+				cache.release(macro, program);
+			}
+		}
+		catch (final Throwable e) {
+			// NB: Same as ij.plugin.Macro_Runner#runMacro(String, String).
+			interpreter.abortMacro();
+			IJ.showStatus("");
+			IJ.showProgress(1.0);
+			final ImagePlus imp = WindowManager.getCurrentImage();
+			if (imp != null) imp.unlock();
+			final String msg = e.getMessage();
+			if (e instanceof RuntimeException && Macro.MACRO_CANCELED.equals(msg)) {
+				return "[aborted]";
+			}
+			IJ.handleException(e);
+		}
+		finally {
+			if (headless) Interpreter.batchMode = batchMode;
+		}
+		return "[aborted]";
+	}
+
+	/**
+	 * Runs a macro as text, with the input variables, and those of previous
+	 * runs, prepended as assignments. This is the fallback for when the
+	 * interpreter's internals are not accessible.
+	 */
+	private static String runMacroText(final Interpreter interpreter,
+		final String source, final String arg, final Map<String, ?> inputs,
+		final Map<String, Object> state)
+	{
+		// NB: Keep the assignments on the first line, so that line numbers in
+		// error messages still match the macro source.
+		final StringBuilder macro = new StringBuilder();
+		if (state != null) {
+			for (final Entry<String, Object> entry : state.entrySet()) {
+				if (inputs.get(entry.getKey()) != null) continue;
+				appendAssignment(macro, entry.getKey(), entry.getValue());
+			}
+		}
+		for (final Entry<String, ?> entry : inputs.entrySet()) {
+			appendAssignment(macro, entry.getKey(), entry.getValue());
+		}
+		final String returnValue = interpreter.run(macro.append(source)
+			.toString(), arg);
+		if (state != null) state.putAll(getTextVariables(interpreter));
+		return returnValue;
+	}
+
+	private static String withAdditionalFunctions(final String source) {
+		final String additional = Interpreter.getAdditionalFunctions();
+		if (additional == null) return source;
+		if (source.endsWith("\n") || additional.startsWith("\n")) {
+			return source + additional;
+		}
+		return source + "\n" + additional;
+	}
+
+	private static void appendAssignment(final StringBuilder macro,
+		final String name, final Object value)
+	{
+		if (value == null) return;
+		macro.append(name).append(" = ").append(macroValue(value, true));
+		macro.append("; ");
+	}
+
+	/** Converts a value to macro source, as ImageJ 1.x macros would see it. */
+	private static String macroValue(final Object v, final boolean top) {
+		if (top && v.getClass().isArray()) {
+			// NB: ImageJ 1.x only supports 1-dimensional arrays.
+			final StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < Array.getLength(v); i++) {
+				if (i > 0) sb.append(", ");
+				final Object element = Array.get(v, i);
+				sb.append(element == null ? "\"null\"" : macroValue(element, false));
+			}
+			return "newArray(" + sb.toString() + ")";
+		}
+		else if (v instanceof ImagePlus) {
+			return Integer.toString(((ImagePlus) v).getID());
+		}
+		else if (v instanceof File) {
+			return macroValue(((File) v).getAbsolutePath(), false);
+		}
+		else if (v instanceof Number || v instanceof Boolean) {
+			return v.toString();
+		}
+		return "\"" + quote(v.toString()) + "\"";
+	}
+
+	/** Escapes the given string for a macro string literal. */
+	private static String quote(final String value) {
+		String quoted = value.replaceAll("([\"\\\\])", "\\\\$1");
+		quoted = quoted.replaceAll("\f", "\\\\f").replaceAll("\n", "\\\\n");
+		quoted = quoted.replaceAll("\r", "\\\\r").replaceAll("\t", "\\\\t");
+		return quoted;
+	}
+
+	/** Gets the variables of the interpreter from their text form. */
+	private static Map<String, Object> getTextVariables(
+		final Interpreter interpreter)
+	{
+		final Map<String, Object> variables = new LinkedHashMap<>();
+		for (final String var : interpreter.getVariables()) {
+			final String name = var.substring(0, var.indexOf('\t'));
+			final Object value = getTextVariable(interpreter, name);
+			if (value != null) variables.put(name, value);
+		}
+		return variables;
+	}
+
+	private static Object getTextVariable(final Interpreter interp,
+		final String name)
+	{
+		// might be a string
+		final String sValue = interp.getStringVariable(name);
+		if (sValue != null) return sValue;
+
+		// probably a number
+		final double nValue = interp.getVariable2(name);
+		if (!Double.isNaN(nValue)) return nValue;
+
+		return null;
+	}
+
 	/** Escapes the given string according to the Java language specification. */
 	private String escape(final String s) {
 		// NB: It would be nice to use the StringEscapeUtils.escapeJava method of
@@ -0,0 +1,212 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Locates and maintains the on-disk caches which speed up warm starts of the
+ * legacy layer.
+ * <p>
+ * The caches live in the directory given by the {@value #DIRECTORY_PROPERTY}
+ * system property, defaulting to {@code ~/.imagej/cache/legacy}. Setting the
+ * property to an empty value, or to {@code none}, disables all of them.
+ * </p>
+ * <p>
+ * A cache is only ever a shortcut: its consumers must validate it against
+ * {@link #stamps(Iterable) stamps} of the inputs it was derived from, and
+ * fall back to doing the work when it is missing, stale or unreadable.
+ * </p>
+ */
+public final class LegacyCaches {
+
+	/** System property overriding the cache directory. */
+	public static final String DIRECTORY_PROPERTY = "imagej.legacy.cache.dir";
+
+	private LegacyCaches() {
+		// prevent instantiation of utility class
+	}
+
+	// -- LegacyCaches methods --
+
+	/**
+	 * Gets the cache directory, creating it as needed.
+	 *
+	 * @return the directory, or null if caching is disabled or the directory
+	 *         cannot be created
+	 */
+	public static File getDirectory() {
+		final String value = System.getProperty(DIRECTORY_PROPERTY);
+		final File dir;
+		if (value == null) {
+			final File home = new File(System.getProperty("user.home"));
+			dir = new File(new File(new File(home, ".imagej"), "cache"), "legacy");
+		}
+		else if (value.trim().isEmpty() || value.trim().equals("none")) {
+			return null;
+		}
+		else dir = new File(value);
+		if (!dir.isDirectory() && !dir.mkdirs()) return null;
+		return dir.canWrite() ? dir : null;
+	}
+
+	/**
+	 * Gets a file in the cache directory.
+	 *
+	 * @return the file, which need not exist yet, or null if caching is
+	 *         disabled
+	 */
+	public static File getFile(final String name) {
+		final File dir = getDirectory();
+		return dir == null ? null : new File(dir, name);
+	}
+
+	/**
+	 * Stamps the given files, and all files below the given directories, with
+	 * their sizes and modification times. Two stamp maps are equal if and only
+	 * if no file was added, removed or modified in between (as far as the file
+	 * system's time resolution can tell).
+	 *
+	 * @param sources files and directories to stamp; missing ones are skipped
+	 * @return a sorted map from absolute path to {@code size:mtime}
+	 */
+	public static Map<String, String> stamps(final Iterable<File> sources) {
+		final Map<String, String> stamps = new TreeMap<>();
+		for (final File source : sources) {
+			if (source != null) stamp(source.toPath(), stamps);
+		}
+		return stamps;
+	}
+
+	/**
+	 * Computes the SHA-1 checksum of the given file, for caches which need to
+	 * be keyed by content rather than by file stamps.
+	 *
+	 * @return the checksum as lower-case hex string
+	 */
+	public static String checksum(final File file) throws IOException {
+		try (final DigestInputStream in = new DigestInputStream(Files
+			.newInputStream(file.toPath()), MessageDigest.getInstance("SHA-1")))
+		{
+			final byte[] buffer = new byte[65536];
+			while (in.read(buffer) >= 0) {
+				// just digest
+			}
+			return hex(in.getMessageDigest().digest());
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Atomically replaces the given file with the given bytes, so that
+	 * concurrently starting instances never see a partially written cache.
+	 */
+	public static void write(final File file, final byte[] bytes)
+		throws IOException
+	{
+		final Path target = file.toPath();
+		final Path temp = Files.createTempFile(target.getParent(), //
+			file.getName(), ".tmp");
+		try {
+			Files.write(temp, bytes);
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (final IOException exc) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	// -- Helper methods --
+
+	private static void stamp(final Path root,
+		final Map<String, String> stamps)
+	{
+		// one stat per entry, unlike File#isDirectory, #length and friends
+		final SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult visitFile(final Path path,
+				final BasicFileAttributes attrs)
+			{
+				if (attrs.isDirectory()) return FileVisitResult.CONTINUE;
+				stamps.put(path.toAbsolutePath().toString(), attrs.size() + ":" +
+					attrs.lastModifiedTime().toMillis());
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(final Path path,
+				final IOException exc)
+			{
+				// missing or unreadable entries, and symlink loops, are skipped
+				return FileVisitResult.CONTINUE;
+			}
+		};
+		try {
+			Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+				Integer.MAX_VALUE, visitor);
+		}
+		catch (final IOException exc) {
+			// the visitor never throws
+		}
+	}
+
+	private static String hex(final byte[] digest) {
+		final StringBuilder hex = new StringBuilder();
+		for (final byte b : digest) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,379 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.gui.ImageWindow;
+import ij.macro.Interpreter;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index of the open ImageJ 1.x images by ID and by title.
+ * <p>
+ * {@link WindowManager#getImage(int)} and {@link WindowManager#getImage(String)}
+ * scan all open windows and batch mode images on each call, which adds up
+ * when batch jobs hold hundreds of images. Displayed images are indexed
+ * through the {@link DefaultLegacyHooks#registerImage(Object)} and
+ * {@link DefaultLegacyHooks#unregisterImage(Object)} hooks. Batch mode images
+ * are indexed by the {@link BatchModeTable} which replaces the macro
+ * interpreter's plain table of them on first use. Lookups by ID take constant
+ * time; lookups by title scan the batch mode images once, rather than once
+ * per image like the {@link WindowManager}.
+ * </p>
+ * <p>
+ * Windows may close and titles may change behind the index' back. Therefore,
+ * every hit is validated against the image's window, stale entries are
+ * dropped, and lookups which cannot be answered from the index fall back to
+ * the {@link WindowManager}.
+ * </p>
+ */
+public class LegacyImageIndex {
+
+	/** The {@code Interpreter.imageTable} field, or null if inaccessible. */
+	private static final Field IMAGE_TABLE = imageTableField();
+
+	private final Map<Integer, ImagePlus> byID = new ConcurrentHashMap<>();
+
+	/** Images by title, in order of registration. Guarded by {@code this}. */
+	private final Map<String, Set<ImagePlus>> byTitle = new HashMap<>();
+
+	/**
+	 * The title each image was indexed under, in order of registration.
+	 * Guarded by {@code this}.
+	 */
+	private final Map<ImagePlus, String> titles = new LinkedHashMap<>();
+
+	// -- LegacyImageIndex methods --
+
+	/** Adds the given image to the index, or updates its title. */
+	public void add(final ImagePlus imp) {
+		byID.put(imp.getID(), imp);
+		indexTitle(imp);
+	}
+
+	/** Removes the given image from the index. */
+	public void remove(final ImagePlus imp) {
+		byID.remove(imp.getID(), imp);
+		synchronized (this) {
+			final String title = titles.remove(imp);
+			if (title != null) removeTitle(title, imp);
+		}
+	}
+
+	/** Gets the number of indexed images. */
+	public int size() {
+		return byID.size();
+	}
+
+	/**
+	 * Gets the image with the given ID, as {@link WindowManager#getImage(int)}
+	 * would.
+	 */
+	public ImagePlus getImage(final int imageID) {
+		final BatchModeTable batchImages = batchModeTable();
+		if (batchImages != null) {
+			final ImagePlus imp = batchImages.getImage(imageID);
+			if (imp != null) return imp;
+		}
+		final ImagePlus imp = byID.get(imageID);
+		if (imp != null) {
+			if (isDisplayed(imp)) return imp;
+			remove(imp);
+		}
+		return WindowManager.getImage(imageID);
+	}
+
+	/**
+	 * Gets the first image with the given title, as
+	 * {@link WindowManager#getImage(String)} would.
+	 */
+	public ImagePlus getImage(final String title) {
+		// NB: In batch mode, images without windows take precedence.
+		final BatchModeTable batchImages = batchModeTable();
+		if (batchImages != null) {
+			final ImagePlus imp = batchImages.getImage(title);
+			if (imp != null) return imp;
+		}
+		if (batchImages != null || !Interpreter.isBatchMode()) {
+			final List<ImagePlus> stale = new ArrayList<>();
+			ImagePlus match = null;
+			synchronized (this) {
+				final Set<ImagePlus> candidates = byTitle.get(title);
+				if (candidates != null) {
+					for (final ImagePlus imp : candidates) {
+						if (!isDisplayed(imp)) stale.add(imp);
+						else if (title.equals(imp.getTitle())) {
+							match = imp;
+							break;
+						}
+					}
+				}
+			}
+			for (final ImagePlus imp : stale) remove(imp);
+			if (match != null) return match;
+		}
+		final ImagePlus imp = WindowManager.getImage(title);
+		// the image may have been renamed since it was indexed
+		if (imp != null && byID.get(imp.getID()) == imp) indexTitle(imp);
+		return imp;
+	}
+
+	/**
+	 * Gets the open images, in the order {@link WindowManager#getIDList()}
+	 * would list them: batch mode images first, then displayed ones.
+	 */
+	public List<ImagePlus> getImages() {
+		final List<ImagePlus> images = new ArrayList<>();
+		final BatchModeTable batchImages = batchModeTable();
+		if (batchImages != null) images.addAll(batchImages.getImages());
+		else if (Interpreter.isBatchMode()) {
+			// NB: An unknown table of batch mode images cannot be indexed.
+			final int[] imageIDs = WindowManager.getIDList();
+			if (imageIDs == null) return images;
+			for (final int imageID : imageIDs) {
+				final ImagePlus imp = getImage(imageID);
+				if (imp != null) images.add(imp);
+			}
+			return images;
+		}
+		final List<ImagePlus> stale = new ArrayList<>();
+		synchronized (this) {
+			for (final ImagePlus imp : titles.keySet()) {
+				if (isDisplayed(imp)) images.add(imp);
+				else stale.add(imp);
+			}
+		}
+		for (final ImagePlus imp : stale) remove(imp);
+		return images;
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets the indexed table of the current thread's batch mode images,
+	 * replacing the plain one of the macro interpreter as needed.
+	 *
+	 * @return the table, or null when not in batch mode or when the table is
+	 *         of an unknown kind
+	 */
+	static BatchModeTable batchModeTable() {
+		if (IMAGE_TABLE == null || !Interpreter.isBatchMode()) return null;
+		try {
+			final Object table = IMAGE_TABLE.get(null);
+			if (table instanceof BatchModeTable) {
+				return ((BatchModeTable) table).forCurrentThread();
+			}
+			if (table == null || table.getClass() != Vector.class) return null;
+			// NB: The interpreter mutates the table under its monitor, and only
+			// ever replaces it by null.
+			synchronized (table) {
+				if (IMAGE_TABLE.get(null) != table) return null;
+				final BatchModeTable indexed = new BatchModeTable((Vector<?>) table);
+				IMAGE_TABLE.set(null, indexed);
+				return indexed;
+			}
+		}
+		catch (final IllegalAccessException exc) {
+			return null;
+		}
+	}
+
+	private static Field imageTableField() {
+		try {
+			final Field field = Interpreter.class.getDeclaredField("imageTable");
+			field.setAccessible(true);
+			return field;
+		}
+		catch (final NoSuchFieldException | RuntimeException exc) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks whether the given image is still shown in its window, i.e. whether
+	 * the {@link WindowManager} would still know about it.
+	 */
+	boolean isDisplayed(final ImagePlus imp) {
+		final ImageWindow window = imp.getWindow();
+		return window != null && !window.isClosed() &&
+			window.getImagePlus() == imp;
+	}
+
+	private synchronized void indexTitle(final ImagePlus imp) {
+		final String title = imp.getTitle();
+		final String previous = titles.put(imp, title);
+		if (previous != null) {
+			if (previous.equals(title)) return;
+			removeTitle(previous, imp);
+		}
+		Set<ImagePlus> images = byTitle.get(title);
+		if (images == null) {
+			images = new LinkedHashSet<>();
+			byTitle.put(title, images);
+		}
+		images.add(imp);
+	}
+
+	private void removeTitle(final String title, final ImagePlus imp) {
+		final Set<ImagePlus> images = byTitle.get(title);
+		if (images == null) return;
+		for (final Iterator<ImagePlus> iter = images.iterator(); iter.hasNext();) {
+			if (iter.next() == imp) iter.remove();
+		}
+		if (images.isEmpty()) byTitle.remove(title);
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * A table of batch mode images, as kept by the macro interpreter in
+	 * {@code Interpreter.imageTable}, which indexes its images by ID.
+	 * <p>
+	 * The interpreter only adds images via {@link #add(Object)}, and removes
+	 * them via {@link #remove(int)}; both keep the index up to date. Any other
+	 * modification is noticed by its modification count, and causes the index
+	 * to be rebuilt on the next lookup.
+	 * </p>
+	 */
+	public static class BatchModeTable extends Vector<Object> {
+
+		private static final long serialVersionUID = 1L;
+
+		private transient Map<Integer, ImagePlus> byID;
+		private transient int indexedModCount;
+
+		public BatchModeTable() {
+			// NB: Default constructor.
+		}
+
+		public BatchModeTable(final Collection<?> images) {
+			super(images);
+		}
+
+		/**
+		 * Gets the table holding the batch mode images of the current thread:
+		 * this one, unless overridden.
+		 */
+		public BatchModeTable forCurrentThread() {
+			return this;
+		}
+
+		/** Gets the image with the given ID, or null if there is none. */
+		public synchronized ImagePlus getImage(final int imageID) {
+			return index().get(imageID);
+		}
+
+		/** Gets the first image with the given title, or null if there is none. */
+		public synchronized ImagePlus getImage(final String title) {
+			for (int i = 0; i < elementCount; i++) {
+				final Object o = elementData[i];
+				if (o instanceof ImagePlus && title.equals(((ImagePlus) o).getTitle()))
+				{
+					return (ImagePlus) o;
+				}
+			}
+			return null;
+		}
+
+		/** Gets the images, in order of addition. */
+		public synchronized List<ImagePlus> getImages() {
+			final List<ImagePlus> images = new ArrayList<>(elementCount);
+			for (int i = 0; i < elementCount; i++) {
+				final Object o = elementData[i];
+				if (o instanceof ImagePlus) images.add((ImagePlus) o);
+			}
+			return images;
+		}
+
+		// -- Vector methods --
+
+		@Override
+		public synchronized boolean add(final Object e) {
+			final boolean indexed = isIndexed();
+			super.add(e);
+			if (indexed) {
+				if (e instanceof ImagePlus) byID.put(((ImagePlus) e).getID(),
+					(ImagePlus) e);
+				indexedModCount = modCount;
+			}
+			return true;
+		}
+
+		@Override
+		public synchronized Object remove(final int index) {
+			final boolean indexed = isIndexed();
+			final Object o = super.remove(index);
+			if (indexed) {
+				if (o instanceof ImagePlus && !contains(o)) {
+					byID.remove(((ImagePlus) o).getID(), o);
+				}
+				indexedModCount = modCount;
+			}
+			return o;
+		}
+
+		// -- Helper methods --
+
+		private boolean isIndexed() {
+			return byID != null && indexedModCount == modCount;
+		}
+
+		private Map<Integer, ImagePlus> index() {
+			if (!isIndexed()) {
+				final Map<Integer, ImagePlus> map = new HashMap<>();
+				for (int i = elementCount - 1; i >= 0; i--) {
+					final Object o = elementData[i];
+					if (o instanceof ImagePlus) map.put(((ImagePlus) o).getID(),
+						(ImagePlus) o);
+				}
+				byID = map;
+				indexedModCount = modCount;
+			}
+			return byID;
+		}
+	}
+
+}
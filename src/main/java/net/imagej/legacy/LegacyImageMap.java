@@ -40,7 +40,6 @@ import java.lang.ref.WeakReference;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.imagej.Data;
@@ -128,26 +127,27 @@ public class LegacyImageMap extends AbstractContextual {
 
 	/**
 	 * A mapping of {@link ImagePlus} instances created in legacy mode to
-	 * shadowing {@link ImageDisplay} instances. Uses a {@link WeakHashMap} so any
-	 * {@code ImageDisplays} are disposed when the {@code ImagePlus} key is
-	 * garbage collected - but maintains hard references to the
-	 * {@code ImageDisplay}s otherwise.
+	 * shadowing {@link ImageDisplay} instances. Uses a
+	 * {@link ConcurrentWeakIdentityMap} so any {@code ImageDisplays} are disposed
+	 * when the {@code ImagePlus} key is garbage collected - but maintains hard
+	 * references to the {@code ImageDisplay}s otherwise.
 	 */
-	private final Map<ImagePlus, ImageDisplay> legacyDisplayTable =
-		new WeakHashMap<>();
+	private final ConcurrentWeakIdentityMap<ImagePlus, ImageDisplay>
+		legacyDisplayTable = new ConcurrentWeakIdentityMap<>();
 
 	/**
 	 * Legacy mode mapping of {@link ImageDisplay}s to {@link ImagePlus}es. Uses
 	 * {@link WeakReference}s for both keys and values.
 	 */
-	private final Map<ImageDisplay, WeakReference<ImagePlus>> legacyImagePlusTable =
-		new WeakHashMap<>();
+	private final ConcurrentWeakIdentityMap<ImageDisplay, WeakReference<ImagePlus>>
+		legacyImagePlusTable = new ConcurrentWeakIdentityMap<>();
 
 	/**
-	 * Effectively a {@code WeakHashSet} for tracking known {@link ImagePlus}es.
+	 * Effectively a concurrent {@code WeakHashSet} for tracking known
+	 * {@link ImagePlus}es.
 	 */
-	private final Map<ImagePlus, Object> imagePluses =
-		new WeakHashMap<>();
+	private final ConcurrentWeakIdentityMap<ImagePlus, Boolean> imagePluses =
+		new ConcurrentWeakIdentityMap<>();
 
 	/**
 	 * The {@link ImageTranslator} to use when creating {@link ImagePlus} and
@@ -160,6 +160,11 @@ public class LegacyImageMap extends AbstractContextual {
 	 */
 	private final LegacyService legacyService;
 
+	/**
+	 * Keeps the pixels of the {@link ImagePlus} shadows within the heap budget.
+	 */
+	private final LegacyImageMemoryManager memoryManager;
+
 	@Parameter
 	private ImageDisplayService imageDisplayService;
 
@@ -174,6 +179,7 @@ public class LegacyImageMap extends AbstractContextual {
 		imagePlusTable = new ConcurrentHashMap<>();
 		displayTable = new ConcurrentHashMap<>();
 		imageTranslator = new DefaultImageTranslator(legacyService);
+		memoryManager = new LegacyImageMemoryManager(legacyService.log());
 	}
 
 	// -- LegacyImageMap methods --
@@ -185,7 +191,9 @@ public class LegacyImageMap extends AbstractContextual {
 	public ImageDisplay lookupDisplay(final ImagePlus imp) {
 		if (imp == null) return null;
 		if (legacyService.isLegacyMode()) return legacyDisplayTable.get(imp);
-		return displayTable.get(imp);
+		final ImageDisplay display = displayTable.get(imp);
+		if (display != null) memoryManager.touch(imp);
+		return display;
 	}
 
 	/**
@@ -199,7 +207,9 @@ public class LegacyImageMap extends AbstractContextual {
 				legacyImagePlusTable.get(display);
 			return weakReference == null ? null : weakReference.get();
 		}
-		return imagePlusTable.get(display);
+		final ImagePlus imp = imagePlusTable.get(display);
+		memoryManager.touch(imp);
+		return imp;
 	}
 
 	/**
@@ -267,8 +277,7 @@ public class LegacyImageMap extends AbstractContextual {
 		// It is possible that this method can get hit multiple times from the
 		// display that is being created by the imageTranslator. Thus we want to
 		// avoid an infinite loop.
-		if (display == null && !imagePluses.containsKey(imp)) {
-			imagePluses.put(imp, null);
+		if (display == null && imagePluses.putIfAbsent(imp, true) == null) {
 			// mapping does not exist; mirror legacy image to display
 			display = imageTranslator.createDisplay(imp);
 			addMapping(display, imp);
@@ -308,13 +317,17 @@ public class LegacyImageMap extends AbstractContextual {
 			}
 			imagePlusTable.clear();
 			displayTable.clear();
+			memoryManager.clear();
 		}
 		else {
 			// migrate from legacyImagePlusTable and legacyDisplayTable to modern
 			// versions.
-			for (final ImagePlus imp : legacyDisplayTable.keySet()) {
+			for (final Map.Entry<ImagePlus, ImageDisplay> entry : legacyDisplayTable
+				.entrySet())
+			{
+				final ImagePlus imp = entry.getKey();
+				final ImageDisplay display = entry.getValue();
 				final ImageWindow window = imp.getWindow();
-				final ImageDisplay display = legacyDisplayTable.get(imp);
 				if (window == null || window.isClosed()) {
 					// This ImagePlus was closed, so we can remove it from our mappings
 					unregisterLegacyImage(imp);
@@ -348,7 +361,12 @@ public class LegacyImageMap extends AbstractContextual {
 	 * delete the associated {@link ImagePlus}.
 	 */
 	public void unregisterDisplay(final ImageDisplay display, final boolean deleteImp) {
-		final ImagePlus imp = lookupImagePlus(display);
+		// NB: Do not touch the image, which is about to be forgotten anyway.
+		final ImagePlus imp;
+		if (display == null || legacyService.isLegacyMode()) {
+			imp = lookupImagePlus(display);
+		}
+		else imp = imagePlusTable.get(display);
 		removeMapping(display, imp, deleteImp);
 	}
 
@@ -357,7 +375,12 @@ public class LegacyImageMap extends AbstractContextual {
 	 * delete the given {@link ImagePlus}.
 	 */
 	public void unregisterLegacyImage(final ImagePlus imp, final boolean deleteImp) {
-		final ImageDisplay display = lookupDisplay(imp);
+		// NB: Do not touch the image, which is about to be forgotten anyway.
+		final ImageDisplay display;
+		if (imp == null || legacyService.isLegacyMode()) {
+			display = lookupDisplay(imp);
+		}
+		else display = displayTable.get(imp);
 		removeMapping(display, imp, deleteImp);
 	}
 
@@ -387,6 +410,32 @@ public class LegacyImageMap extends AbstractContextual {
 		return displayTable.keySet();
 	}
 
+	/**
+	 * Gets the manager which spills the pixels of inactive {@link ImagePlus}
+	 * shadows to disk when the heap runs low.
+	 */
+	public LegacyImageMemoryManager getMemoryManager() {
+		return memoryManager;
+	}
+
+	/**
+	 * Gets the number of live entries in the legacy mode tables, i.e. those
+	 * whose keys have not been garbage collected.
+	 */
+	public int getLegacyLiveCount() {
+		return legacyDisplayTable.getLiveCount() +
+			legacyImagePlusTable.getLiveCount() + imagePluses.getLiveCount();
+	}
+
+	/**
+	 * Gets the number of entries purged from the legacy mode tables because
+	 * their keys were garbage collected.
+	 */
+	public long getLegacyClearedCount() {
+		return legacyDisplayTable.getClearedCount() +
+			legacyImagePlusTable.getClearedCount() + imagePluses.getClearedCount();
+	}
+
 	// -- Helper methods --
 
 	/**
@@ -423,9 +472,14 @@ public class LegacyImageMap extends AbstractContextual {
 		}
 		else {
 			final ImagePlus toRemove = imagePlusTable.remove(display);
-			if (toRemove != null) displayTable.remove(toRemove);
+			if (toRemove != null) {
+				displayTable.remove(toRemove);
+				memoryManager.forget(toRemove, false);
+			}
 			imagePlusTable.put(display, imp);
 			displayTable.put(imp, display);
+			memoryManager.touch(imp);
+			memoryManager.checkBudget();
 		}
 
 		clearImagePlusKey(display);
@@ -459,6 +513,7 @@ public class LegacyImageMap extends AbstractContextual {
 			displayTable.remove(imp);
 			legacyDisplayTable.remove(imp);
 			imagePluses.remove(imp);
+			memoryManager.forget(imp, deleteImp);
 			if (deleteImp) LegacyUtils.deleteImagePlus(imp);
 			else {
 				final ImagePlus currImagePlus = WindowManager.getCurrentImage();
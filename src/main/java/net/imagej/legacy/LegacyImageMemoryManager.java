@@ -0,0 +1,769 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.WindowManager;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.awt.image.ColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.scijava.log.LogService;
+
+/**
+ * Keeps the {@link ImagePlus} shadows of the {@link LegacyImageMap} within a
+ * heap budget.
+ * <p>
+ * In modern mode, every image exists twice: as a {@code Dataset} and as its
+ * shadowing {@link ImagePlus}. When the live heap (as measured after the last
+ * garbage collection) passes the configured threshold, the pixels of the
+ * least recently used shadows which are not currently active (no window, not
+ * the current image) are moved to memory-mapped scratch files.
+ * The budget is checked whenever a mapping is added or an image is
+ * {@link #load loaded}. A garbage collection which leaves the heap above the
+ * threshold only requests such a check: the JMX notification thread never
+ * swaps stacks itself.
+ * </p>
+ * <p>
+ * Each image is locked (see {@link ImagePlus#lockSilently()}) for the whole
+ * time its pixels are copied and its stack is swapped, and images which are
+ * locked by someone else are skipped.
+ * </p>
+ * <p>
+ * The {@link ImagePlus} keeps working in the meantime, backed by a virtual
+ * stack: each plane is read back onto the heap the first time it is accessed,
+ * so that legacy code can edit it in place as with a regular stack, and
+ * slices can still be added and deleted. All pixels are reloaded only when
+ * they are about to be used as a whole, i.e. on {@link #load}; plain image
+ * map lookups merely {@link #touch} the image.
+ * </p>
+ * <p>
+ * Recording an access does not take any lock, so that image map lookups stay
+ * cheap; only spilling and reloading are serialized.
+ * </p>
+ * <p>
+ * Only the legacy shadows are spilled: the {@code Dataset} is the
+ * authoritative copy in modern mode, and is what gets harmonized back into
+ * the shadow whenever a legacy command needs it.
+ * </p>
+ */
+public class LegacyImageMemoryManager {
+
+	/** Default fraction of the maximum heap above which images are spilled. */
+	public static final double DEFAULT_HEAP_THRESHOLD = 0.8;
+
+	private final LogService log;
+
+	/** The tracked shadows. */
+	private final Map<ImagePlus, Entry> tracked = new ConcurrentHashMap<>();
+
+	private final NotificationListener heapListener = new NotificationListener() {
+
+		@Override
+		public void handleNotification(final Notification notification,
+			final Object handback)
+		{
+			if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(
+				notification.getType()))
+			{
+				// NB: Only mark; the next owner thread does the spilling.
+				spillRequested = true;
+			}
+		}
+	};
+
+	private boolean enabled = true;
+	private double heapThreshold = DEFAULT_HEAP_THRESHOLD;
+	private File scratchDirectory;
+	private boolean watching;
+
+	/** Whether a garbage collection left the heap above the threshold. */
+	private volatile boolean spillRequested;
+
+	private long spillCount;
+	private long reloadCount;
+
+	/** Garbage collection count when {@link #spilledSinceGC} was reset. */
+	private long gcCount = -1;
+
+	/** Bytes spilled since the last garbage collection. */
+	private long spilledSinceGC;
+
+	public LegacyImageMemoryManager(final LogService log) {
+		this.log = log;
+	}
+
+	// -- LegacyImageMemoryManager methods --
+
+	/** Enables or disables spilling. Disabling reloads all spilled images. */
+	public synchronized void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled) reloadAll();
+	}
+
+	public synchronized boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Sets the fraction of the maximum heap size above which inactive images
+	 * are spilled to disk.
+	 */
+	public synchronized void setHeapThreshold(final double heapThreshold) {
+		if (heapThreshold <= 0 || heapThreshold > 1) {
+			throw new IllegalArgumentException("Invalid heap threshold: " +
+				heapThreshold);
+		}
+		this.heapThreshold = heapThreshold;
+		if (watching) setPoolThresholds();
+	}
+
+	public synchronized double getHeapThreshold() {
+		return heapThreshold;
+	}
+
+	/**
+	 * Sets the directory for scratch files, or null for the default temporary
+	 * directory.
+	 */
+	public synchronized void setScratchDirectory(final File directory) {
+		scratchDirectory = directory;
+	}
+
+	/**
+	 * Marks the given image as just used, and starts tracking it if it is not
+	 * tracked yet. Spilled pixels stay on disk; see {@link #load}.
+	 */
+	public void touch(final ImagePlus imp) {
+		if (imp == null) return;
+		Entry entry = tracked.get(imp);
+		if (entry == null) {
+			final Entry newEntry = new Entry();
+			entry = tracked.putIfAbsent(imp, newEntry);
+			if (entry == null) {
+				entry = newEntry;
+				watchHeap();
+			}
+		}
+		entry.lastAccess = System.nanoTime();
+	}
+
+	/**
+	 * Reloads the pixels of the given image if they were spilled, and marks it
+	 * as just used. To be called right before all pixels of the image are read
+	 * or written, e.g. when harmonizing it with its {@code Dataset}. Images
+	 * which are not tracked are left alone.
+	 * <p>
+	 * If the image is locked by someone else, its pixels stay spilled; the
+	 * image remains fully usable through its virtual stack.
+	 * </p>
+	 */
+	public void load(final ImagePlus imp) {
+		if (imp == null) return;
+		final Entry entry = tracked.get(imp);
+		if (entry == null) return;
+		entry.lastAccess = System.nanoTime();
+		if (entry.spilled != null) reload(imp);
+		if (spillRequested) checkBudget();
+	}
+
+	/**
+	 * Stops tracking the given image.
+	 * 
+	 * @param imp the image to forget
+	 * @param discard whether the image is being deleted; if false, spilled
+	 *          pixels are reloaded so that the image stays usable, otherwise
+	 *          they are just discarded along with the scratch file
+	 */
+	public synchronized void forget(final ImagePlus imp, final boolean discard) {
+		if (imp == null) return;
+		final Entry entry = tracked.remove(imp);
+		if (entry == null || entry.spilled == null) return;
+		if (discard) {
+			entry.spilled.dispose();
+			entry.spilled = null;
+		}
+		else restore(imp, entry);
+	}
+
+	/** Reloads all spilled images and stops tracking any image. */
+	public synchronized void clear() {
+		reloadAll();
+		tracked.clear();
+	}
+
+	/** Reloads the pixels of all spilled images. */
+	public synchronized void reloadAll() {
+		for (final Map.Entry<ImagePlus, Entry> e : tracked.entrySet()) {
+			if (e.getValue().spilled != null) restore(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Spills least recently used inactive images to disk until the estimated
+	 * live heap is back under the threshold.
+	 */
+	public synchronized void checkBudget() {
+		spillRequested = false;
+		if (!enabled) return;
+		final long budget =
+			(long) (heapThreshold * Runtime.getRuntime().maxMemory());
+		long excess = liveHeap() - budget;
+		if (excess <= 0) return;
+
+		final List<Map.Entry<ImagePlus, Entry>> candidates = new ArrayList<>();
+		for (final Map.Entry<ImagePlus, Entry> e : tracked.entrySet()) {
+			if (e.getValue().spilled == null && isInactive(e.getKey())) {
+				candidates.add(e);
+			}
+		}
+		Collections.sort(candidates, LEAST_RECENTLY_USED);
+		for (final Map.Entry<ImagePlus, Entry> e : candidates) {
+			if (excess <= 0) break;
+			final long bytes = bytes(e.getKey());
+			if (spill(e.getKey(), e.getValue())) {
+				excess -= bytes;
+				spilledSinceGC += bytes;
+			}
+		}
+	}
+
+	/** Gets the number of pixel bytes of tracked images held on the heap. */
+	public synchronized long getBytesResident() {
+		long bytes = 0;
+		for (final Map.Entry<ImagePlus, Entry> e : tracked.entrySet()) {
+			final SpilledStack stack = e.getValue().spilled;
+			bytes += stack == null ? bytes(e.getKey()) : stack.residentByteCount();
+		}
+		return bytes;
+	}
+
+	/** Gets the number of pixel bytes currently spilled to scratch files. */
+	public synchronized long getBytesSpilled() {
+		long bytes = 0;
+		for (final Entry entry : tracked.values()) {
+			if (entry.spilled != null) bytes += entry.spilled.spilledByteCount();
+		}
+		return bytes;
+	}
+
+	/** Gets the number of times an image was spilled to disk. */
+	public synchronized long getSpillCount() {
+		return spillCount;
+	}
+
+	/** Gets the number of times a spilled image was reloaded. */
+	public synchronized long getReloadCount() {
+		return reloadCount;
+	}
+
+	/** Stops reacting to garbage collections. */
+	public synchronized void dispose() {
+		if (!watching) return;
+		watching = false;
+		try {
+			((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+				.removeNotificationListener(heapListener);
+		}
+		catch (final ListenerNotFoundException exc) {
+			// NB: Nothing to remove.
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Arranges for {@link #checkBudget()} to run after garbage collections
+	 * which leave the old generation above the threshold.
+	 */
+	private synchronized void watchHeap() {
+		if (watching) return;
+		watching = true;
+		setPoolThresholds();
+		((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+			.addNotificationListener(heapListener, null, null);
+	}
+
+	private void setPoolThresholds() {
+		for (final MemoryPoolMXBean pool : ManagementFactory
+			.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() != MemoryType.HEAP) continue;
+			if (!pool.isCollectionUsageThresholdSupported()) continue;
+			final long max = pool.getUsage().getMax();
+			if (max <= 0) continue;
+			pool.setCollectionUsageThreshold(Math.max(1,
+				(long) (heapThreshold * max)));
+		}
+	}
+
+	/**
+	 * Estimates the live heap: the heap used right after the last garbage
+	 * collection, minus what has been spilled since. Falls back to the
+	 * currently used heap if the collection usage is not available.
+	 */
+	private long liveHeap() {
+		long used = 0;
+		boolean known = false;
+		for (final MemoryPoolMXBean pool : ManagementFactory
+			.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() != MemoryType.HEAP) continue;
+			final MemoryUsage usage = pool.getCollectionUsage();
+			if (usage == null) continue;
+			used += usage.getUsed();
+			known = true;
+		}
+		if (!known) {
+			final Runtime runtime = Runtime.getRuntime();
+			return runtime.totalMemory() - runtime.freeMemory();
+		}
+		long collections = 0;
+		for (final GarbageCollectorMXBean gc : ManagementFactory
+			.getGarbageCollectorMXBeans())
+		{
+			collections += Math.max(0, gc.getCollectionCount());
+		}
+		if (collections != gcCount) {
+			gcCount = collections;
+			spilledSinceGC = 0;
+		}
+		return used - spilledSinceGC;
+	}
+
+	private boolean isInactive(final ImagePlus imp) {
+		if (imp.getWindow() != null) return false;
+		if (imp == WindowManager.getCurrentImage()) return false;
+		if (imp instanceof CompositeImage) return false;
+		return true;
+	}
+
+	/**
+	 * Moves the pixels of the given image to a scratch file, unless the image
+	 * is locked. The lock is held until the stack is swapped, so that nobody
+	 * writes to the arrays being copied in the meantime.
+	 */
+	private boolean spill(final ImagePlus imp, final Entry entry) {
+		if (!imp.lockSilently()) return false;
+		try {
+			final ImageStack stack = imp.getStack();
+			if (stack.isVirtual() || stack.getSize() == 0) return false;
+			final long planeBytes = bytes(imp) / stack.getSize();
+			if (planeBytes > Integer.MAX_VALUE) return false;
+			final SpilledStack spilledStack;
+			try {
+				spilledStack = new SpilledStack(stack, imp.getBitDepth(),
+					(int) planeBytes, scratchDirectory);
+			}
+			catch (final IOException exc) {
+				log.warn("Could not spill image '" + imp.getTitle() + "' to disk",
+					exc);
+				return false;
+			}
+			final DisplayState state = new DisplayState(imp);
+			imp.setStack(spilledStack, imp.getNChannels(), imp.getNSlices(), imp
+				.getNFrames());
+			state.restore(imp);
+			entry.spilled = spilledStack;
+			spillCount++;
+			return true;
+		}
+		finally {
+			imp.unlock();
+		}
+	}
+
+	/** Reloads the pixels of the given image, unless it is locked. */
+	private synchronized void reload(final ImagePlus imp) {
+		final Entry entry = tracked.get(imp);
+		if (entry == null || entry.spilled == null) return;
+		if (!imp.lockSilently()) return;
+		try {
+			restore(imp, entry);
+		}
+		finally {
+			imp.unlock();
+		}
+	}
+
+	private void restore(final ImagePlus imp, final Entry entry) {
+		final SpilledStack spilledStack = entry.spilled;
+		final ImageStack stack = spilledStack.load();
+		final DisplayState state = new DisplayState(imp);
+		final int channels = imp.getNChannels();
+		final int slices = imp.getNSlices();
+		final int frames = imp.getNFrames();
+		if (channels * slices * frames == stack.getSize()) {
+			imp.setStack(stack, channels, slices, frames);
+		}
+		else imp.setStack(stack); // slices were added or deleted
+		state.restore(imp);
+		entry.spilled = null;
+		spilledStack.dispose();
+		reloadCount++;
+	}
+
+	private static long bytes(final ImagePlus imp) {
+		return bytesPerPixel(imp.getBitDepth()) * imp.getWidth() * imp
+			.getHeight() * imp.getStackSize();
+	}
+
+	private static long bytesPerPixel(final int bitDepth) {
+		return bitDepth == 24 ? 4 : bitDepth / 8;
+	}
+
+	private static final Comparator<Map.Entry<ImagePlus, Entry>> //
+	LEAST_RECENTLY_USED = new Comparator<Map.Entry<ImagePlus, Entry>>() {
+
+		@Override
+		public int compare(final Map.Entry<ImagePlus, Entry> e1,
+			final Map.Entry<ImagePlus, Entry> e2)
+		{
+			// NB: nanoTime values must be compared by their difference.
+			final long diff = e1.getValue().lastAccess - e2.getValue().lastAccess;
+			return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+		}
+	};
+
+	// -- Helper classes --
+
+	/** What is known about a tracked shadow. */
+	private static class Entry {
+
+		/** {@link System#nanoTime()} of the last access. */
+		private volatile long lastAccess = System.nanoTime();
+
+		/**
+		 * The stack holding the spilled pixels, or null if they are on the heap.
+		 * Only written while holding the manager's lock.
+		 */
+		private volatile SpilledStack spilled;
+	}
+
+	/** The display settings which {@link ImagePlus#setStack} may reset. */
+	private static class DisplayState {
+
+		private final int slice;
+		private final double min;
+		private final double max;
+		private final ColorModel colorModel;
+
+		private DisplayState(final ImagePlus imp) {
+			slice = imp.getCurrentSlice();
+			min = imp.getDisplayRangeMin();
+			max = imp.getDisplayRangeMax();
+			colorModel = imp.getProcessor().getColorModel();
+		}
+
+		private void restore(final ImagePlus imp) {
+			imp.setSliceWithoutUpdate(Math.min(slice, imp.getStackSize()));
+			if (!(imp.getProcessor() instanceof ColorProcessor)) {
+				imp.getProcessor().setColorModel(colorModel);
+			}
+			imp.setDisplayRange(min, max);
+		}
+	}
+
+	/**
+	 * A virtual stack whose planes live in a memory-mapped scratch file.
+	 * <p>
+	 * Each plane is read back onto the heap the first time its pixels or
+	 * processor are requested, and the same array is handed out from then on,
+	 * so that in-place edits are kept as with a regular {@link ImageStack}.
+	 * Planes which are set or added are likewise kept on the heap.
+	 * </p>
+	 */
+	private static class SpilledStack extends VirtualStack {
+
+		private final int bitDepth;
+
+		/** The mapped planes; null for planes which were never spilled. */
+		private final List<MappedByteBuffer> planes = new ArrayList<>();
+
+		/** The planes read back onto the heap; null while only on disk. */
+		private final List<Object> resident = new ArrayList<>();
+
+		private final List<String> labels = new ArrayList<>();
+		private final File file;
+
+		private SpilledStack(final ImageStack stack, final int bitDepth,
+			final int planeBytes, final File directory) throws IOException
+		{
+			super(stack.getWidth(), stack.getHeight(), stack.getColorModel(), null);
+			this.bitDepth = bitDepth;
+			final int size = stack.getSize();
+			file = File.createTempFile("imagej-legacy-", ".spill", directory);
+			file.deleteOnExit();
+			try (final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+					final FileChannel channel = raf.getChannel())
+			{
+				for (int i = 0; i < size; i++) {
+					final MappedByteBuffer plane = channel.map(
+						FileChannel.MapMode.READ_WRITE, (long) i * planeBytes, planeBytes);
+					plane.order(ByteOrder.nativeOrder());
+					write(plane, stack.getPixels(i + 1));
+					planes.add(plane);
+					resident.add(null);
+					labels.add(stack.getSliceLabel(i + 1));
+				}
+			}
+			catch (final IOException | RuntimeException exc) {
+				dispose();
+				throw exc;
+			}
+		}
+
+		// -- ImageStack methods --
+
+		@Override
+		public synchronized int getSize() {
+			return labels.size();
+		}
+
+		@Override
+		public int getBitDepth() {
+			return bitDepth;
+		}
+
+		@Override
+		public synchronized String getSliceLabel(final int n) {
+			return labels.get(n - 1);
+		}
+
+		@Override
+		public synchronized void setSliceLabel(final String label, final int n) {
+			labels.set(n - 1, label);
+		}
+
+		@Override
+		public synchronized Object getPixels(final int n) {
+			Object pixels = resident.get(n - 1);
+			if (pixels == null) {
+				pixels = read(planes.get(n - 1));
+				resident.set(n - 1, pixels);
+				// NB: The mapping is released once the buffer is collected.
+				planes.set(n - 1, null);
+			}
+			return pixels;
+		}
+
+		@Override
+		public synchronized void setPixels(final Object pixels, final int n) {
+			if (pixels == null) throw new IllegalArgumentException("Null pixels");
+			resident.set(n - 1, pixels);
+			planes.set(n - 1, null);
+		}
+
+		@Override
+		public ImageProcessor getProcessor(final int n) {
+			final int w = getWidth(), h = getHeight();
+			final Object pixels = getPixels(n);
+			final ColorModel cm = getColorModel();
+			switch (bitDepth) {
+				case 8:
+					return new ByteProcessor(w, h, (byte[]) pixels, cm);
+				case 16:
+					return new ShortProcessor(w, h, (short[]) pixels, cm);
+				case 32:
+					return new FloatProcessor(w, h, (float[]) pixels, cm);
+				default:
+					return new ColorProcessor(w, h, (int[]) pixels);
+			}
+		}
+
+		@Override
+		public void setProcessor(final ImageProcessor ip, final int n) {
+			if (ip.getWidth() != getWidth() || ip.getHeight() != getHeight()) {
+				throw new IllegalArgumentException("Wrong dimensions for this stack");
+			}
+			setPixels(ip.getPixels(), n);
+		}
+
+		@Override
+		public void addSlice(final String sliceLabel, final Object pixels) {
+			insertSlice(getSize(), sliceLabel, pixels);
+		}
+
+		@Override
+		public void addSlice(final String sliceLabel, final ImageProcessor ip) {
+			addSlice(sliceLabel, ip, getSize());
+		}
+
+		@Override
+		public void addSlice(final String sliceLabel, final ImageProcessor ip,
+			final int n)
+		{
+			if (ip.getWidth() != getWidth() || ip.getHeight() != getHeight()) {
+				throw new IllegalArgumentException("Dimensions do not match");
+			}
+			insertSlice(n, sliceLabel, ip.getPixels());
+		}
+
+		@Override
+		public synchronized void deleteSlice(final int n) {
+			if (n < 1 || n > getSize()) {
+				throw new IllegalArgumentException("Argument out of range: " + n);
+			}
+			planes.remove(n - 1);
+			resident.remove(n - 1);
+			labels.remove(n - 1);
+		}
+
+		@Override
+		public void deleteLastSlice() {
+			final int size = getSize();
+			if (size > 0) deleteSlice(size);
+		}
+
+		// -- Helper methods --
+
+		private synchronized void insertSlice(final int index, final String label,
+			final Object pixels)
+		{
+			if (pixels == null) throw new IllegalArgumentException("Null pixels");
+			if (index < 0 || index > getSize()) {
+				throw new IllegalArgumentException("Argument out of range: " + index);
+			}
+			planes.add(index, null);
+			resident.add(index, pixels);
+			labels.add(index, label);
+		}
+
+		/** Reads all planes back into a regular, heap-backed stack. */
+		private synchronized ImageStack load() {
+			final ImageStack stack =
+				new ImageStack(getWidth(), getHeight(), getColorModel());
+			for (int i = 0; i < labels.size(); i++) {
+				stack.addSlice(labels.get(i), getPixels(i + 1));
+			}
+			return stack;
+		}
+
+		private synchronized long spilledByteCount() {
+			long bytes = 0;
+			for (final MappedByteBuffer plane : planes) {
+				if (plane != null) bytes += plane.capacity();
+			}
+			return bytes;
+		}
+
+		private synchronized long residentByteCount() {
+			long count = 0;
+			for (final Object pixels : resident) {
+				if (pixels != null) count++;
+			}
+			return count * bytesPerPixel(bitDepth) * getWidth() * getHeight();
+		}
+
+		private Object read(final MappedByteBuffer plane) {
+			plane.clear();
+			final int count = getWidth() * getHeight();
+			switch (bitDepth) {
+				case 8: {
+					final byte[] pixels = new byte[count];
+					plane.get(pixels);
+					return pixels;
+				}
+				case 16: {
+					final short[] pixels = new short[count];
+					plane.asShortBuffer().get(pixels);
+					return pixels;
+				}
+				case 32: {
+					final float[] pixels = new float[count];
+					plane.asFloatBuffer().get(pixels);
+					return pixels;
+				}
+				default: {
+					final int[] pixels = new int[count];
+					plane.asIntBuffer().get(pixels);
+					return pixels;
+				}
+			}
+		}
+
+		private static void write(final MappedByteBuffer plane,
+			final Object pixels)
+		{
+			plane.clear();
+			if (pixels instanceof byte[]) plane.put((byte[]) pixels);
+			else if (pixels instanceof short[]) {
+				plane.asShortBuffer().put((short[]) pixels);
+			}
+			else if (pixels instanceof float[]) {
+				plane.asFloatBuffer().put((float[]) pixels);
+			}
+			else if (pixels instanceof int[]) plane.asIntBuffer().put((int[]) pixels);
+			else throw new IllegalArgumentException("Unsupported pixels: " + pixels);
+		}
+
+		private synchronized void dispose() {
+			// NB: The mappings are released once the buffers are collected.
+			for (int i = 0; i < planes.size(); i++) {
+				planes.set(i, null);
+			}
+			if (!file.delete()) file.deleteOnExit();
+		}
+	}
+
+}
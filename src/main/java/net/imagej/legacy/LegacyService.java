@@ -37,6 +37,9 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -52,6 +55,7 @@ import net.imagej.display.OverlayService;
 import net.imagej.legacy.command.LegacyCommand;
 import net.imagej.legacy.command.LegacyCommandFinder;
 import net.imagej.legacy.command.LegacyCommandInfo;
+import net.imagej.legacy.plugin.LegacyAutoImporter;
 import net.imagej.legacy.ui.LegacyUI;
 import net.imagej.patcher.LegacyEnvironment;
 import net.imagej.patcher.LegacyInjector;
@@ -78,17 +82,22 @@ import org.scijava.log.LogService;
 import org.scijava.menu.MenuService;
 import org.scijava.module.ModuleInfo;
 import org.scijava.module.ModuleService;
+import org.scijava.module.event.ModulesAddedEvent;
+import org.scijava.module.event.ModulesRemovedEvent;
 import org.scijava.options.OptionsService;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
+import org.scijava.plugin.PluginInfo;
 import org.scijava.plugin.PluginService;
 import org.scijava.script.ScriptInfo;
 import org.scijava.script.ScriptService;
 import org.scijava.service.AbstractService;
 import org.scijava.service.Service;
+import org.scijava.thread.ThreadService;
 import org.scijava.ui.ApplicationFrame;
 import org.scijava.ui.UIService;
 import org.scijava.ui.UserInterface;
+import org.scijava.ui.swing.script.AutoImporter;
 import org.scijava.ui.swing.script.TextEditor;
 import org.scijava.ui.viewer.DisplayWindow;
 import org.scijava.util.AppUtils;
@@ -120,6 +129,20 @@ public final class LegacyService extends AbstractService implements
 	ImageJService
 {
 
+	/**
+	 * System property which, when set to {@code true}, logs the timings of
+	 * the startup phases at info level rather than debug level.
+	 */
+	public static final String STARTUP_REPORT_PROPERTY =
+		"imagej.legacy.startupReport";
+
+	/**
+	 * System property which, when set to {@code true}, runs all startup phases
+	 * serially on the initializing thread.
+	 */
+	public static final String SERIAL_STARTUP_PROPERTY =
+		"imagej.legacy.serialStartup";
+
 	/**
 	 * Static reference to the one and only active {@link LegacyService}. The JVM
 	 * can only have one instance of ImageJ 1.x, and hence one LegacyService,
@@ -133,7 +156,8 @@ public final class LegacyService extends AbstractService implements
 		// classes for it itself to be loaded. I.e.: this class must have _no_
 		// references to ij.* classes in its API (supertypes, fields, method
 		// arguments and method return types).
-		LegacyInjector.preinit();
+		// Warm starts define the patched classes from the cache instead.
+		PatchedClassCache.preinit();
 	}
 
 	@Parameter
@@ -160,6 +184,9 @@ public final class LegacyService extends AbstractService implements
 	@Parameter(required = false)
 	private AppService appService;
 
+	@Parameter(required = false)
+	private ThreadService threadService;
+
 	// FIXME: Why isn't this service declared as an optional parameter?
 	private UIService uiService;
 
@@ -190,6 +217,9 @@ public final class LegacyService extends AbstractService implements
 	/** Mapping between modern and legacy image data structures. */
 	private LegacyImageMap imageMap;
 
+	/** Per-thread tracking of the active {@link ij.ImagePlus}. */
+	private ActiveImageContext activeImageContext;
+
 	/**
 	 * A buffer object which keeps all references to ImageJ 1.x separated from
 	 * this class.
@@ -198,13 +228,24 @@ public final class LegacyService extends AbstractService implements
 
 	private final ThreadLocal<Boolean> isProcessingEvents = new ThreadLocal<>();
 
+	/** Timings of the phases of {@link #initialize()}. */
+	private final StartupProfiler startupProfiler = new StartupProfiler();
+
 	/**
 	 * Map of ImageJ2 {@link Command}s which are compatible with the legacy user
 	 * interface. A command is considered compatible if it is not tagged with the
 	 * {@code "no-legacy"} key in its {@link Parameter#attrs()} list. The map is
 	 * keyed on identifier; see the {@link Identifiable} interface.
+	 * <p>
+	 * The map is populated once, and then kept up to date by the
+	 * {@link ModulesAddedEvent} and {@link ModulesRemovedEvent} handlers.
+	 * </p>
 	 */
-	private final Map<String, ModuleInfo> legacyCompatible = new HashMap<>();
+	private final Map<String, ModuleInfo> legacyCompatible = Collections
+		.synchronizedMap(new LinkedHashMap<String, ModuleInfo>());
+
+	/** Whether {@link #legacyCompatible} has been populated yet. */
+	private boolean legacyCompatibleInitialized;
 
 	// -- LegacyService methods --
 
@@ -255,6 +296,26 @@ public final class LegacyService extends AbstractService implements
 		return imageMap;
 	}
 
+	/**
+	 * Gets the timings of the phases this service went through while
+	 * initializing.
+	 */
+	public StartupProfiler getStartupProfiler() {
+		return startupProfiler;
+	}
+
+	/**
+	 * Gets the {@link ActiveImageContext} which tracks the active
+	 * {@link ij.ImagePlus} of each thread of execution.
+	 */
+	public synchronized ActiveImageContext getActiveImageContext() {
+		if (!isActive()) return null;
+		if (activeImageContext == null) {
+			activeImageContext = new ActiveImageContext(getContext());
+		}
+		return activeImageContext;
+	}
+
 	/**
 	 * Runs a legacy command programmatically.
 	 *
@@ -451,7 +512,9 @@ public final class LegacyService extends AbstractService implements
 			// part of another simultaneously existing application context.
 			return;
 		}
-		try {
+		try (final StartupProfiler.Span span =
+			startupProfiler.phase("ImageJ 1.x environment"))
+		{
 			final ClassLoader loader = Thread.currentThread().getContextClassLoader();
 			final boolean ij1Initialized = //
 				LegacyEnvironment.isImageJ1Initialized(loader);
@@ -464,17 +527,30 @@ public final class LegacyService extends AbstractService implements
 			throw new RuntimeException("Failed to instantiate IJ1.", t);
 		}
 
-		synchronized (LegacyService.class) {
-			instance = this;
-			final ClassLoader loader = Thread.currentThread().getContextClassLoader();
-			LegacyInjector.installHooks(loader, new DefaultLegacyHooks(this,
-				ij1Helper));
+		try (final StartupProfiler.Span span =
+			startupProfiler.phase("hook installation"))
+		{
+			synchronized (LegacyService.class) {
+				instance = this;
+				final ClassLoader loader =
+					Thread.currentThread().getContextClassLoader();
+				LegacyInjector.installHooks(loader, new DefaultLegacyHooks(this,
+					ij1Helper));
+			}
 		}
 
-		ij1Helper.initialize();
-		ij1Helper.addAliases(scriptService);
+		try (final StartupProfiler.Span span =
+			startupProfiler.phase("IJ1Helper initialization"))
+		{
+			ij1Helper.initialize();
+		}
 
-		SwitchToModernMode.registerMenuItem();
+		try (final StartupProfiler.Span span =
+			startupProfiler.phase("alias registration"))
+		{
+			ij1Helper.addAliases(scriptService);
+			SwitchToModernMode.registerMenuItem();
+		}
 
 		// NB: We cannot call appService.getApp().getBaseDirectory(), because
 		// that prevents the net.imagej.app.ToplevelImageJApp from getting its
@@ -483,28 +559,78 @@ public final class LegacyService extends AbstractService implements
 		final File topLevel = //
 			AppUtils.getBaseDirectory("imagej.dir", getClass(), null);
 
-		final File plugins = new File(topLevel, "plugins");
-		if (plugins.exists()) {
-			final File scripts = new File(plugins, "Scripts");
-			if (scripts.exists()) scriptService.addScriptDirectory(scripts);
-			scriptService.addScriptDirectory(plugins, new MenuPath("Plugins"));
-		}
+		// run the phases which do not need each other concurrently
+		final StartupScheduler scheduler = new StartupScheduler(startupProfiler,
+			threadService == null || Boolean.getBoolean(SERIAL_STARTUP_PROPERTY) ? //
+				Runnable::run : threadService::run);
+
+		final StartupScheduler.Task<Void> scripts = //
+			scheduler.submit("script directory scanning", () -> {
+				final File plugins = new File(topLevel, "plugins");
+				if (plugins.exists()) {
+					final File scriptsDir = new File(plugins, "Scripts");
+					if (scriptsDir.exists()) {
+						scriptService.addScriptDirectory(scriptsDir);
+					}
+					scriptService.addScriptDirectory(plugins, new MenuPath("Plugins"));
+				}
+			});
 
 		// remove modules blacklisted from the legacy UI
-		final List<ModuleInfo> noLegacyModules = //
-			moduleService.getModules().stream() //
-				.filter(info -> info.is("no-legacy")) //
-				.collect(Collectors.toList());
-		moduleService.removeModules(noLegacyModules);
+		// NB: This includes blacklisted scripts, so it must wait for the scan.
+		final StartupScheduler.Task<Void> blacklisting = //
+			scheduler.submit("module blacklisting", () -> {
+				final List<ModuleInfo> noLegacyModules = //
+					moduleService.getModules().stream() //
+						.filter(info -> info.is("no-legacy")) //
+						.collect(Collectors.toList());
+				moduleService.removeModules(noLegacyModules);
+			}, scripts);
 
 		// wrap ImageJ 1.x commands as SciJava modules
-		final List<CommandInfo> ij1Commands = //
-			new LegacyCommandFinder(this).findCommands();
+		// NB: They are only registered below, after the blacklisting.
+		final StartupScheduler.Task<List<CommandInfo>> discovery = //
+			scheduler.submit("command discovery", () -> //
+			new LegacyCommandFinder(this).findCommands());
 
-		ij1Helper.addMenuItems();
+		// prime the script editor's default imports; nothing waits for this
+		scheduler.submit("default imports", () -> {
+			try {
+				// instantiate the registered plugin, as the script editor does, so
+				// that a disabled importer is not primed for nothing
+				for (final PluginInfo<AutoImporter> info : pluginService
+					.getPluginsOfClass(LegacyAutoImporter.class, AutoImporter.class))
+				{
+					final AutoImporter importer = pluginService.createInstance(info);
+					if (importer != null) importer.getDefaultImports();
+				}
+			}
+			catch (final Throwable t) {
+				log.debug("Could not determine default imports", t);
+			}
+		});
+
+		// the menus can only be built once the module set is complete
+		scheduler.await(scripts, blacklisting, discovery);
+		final List<CommandInfo> ij1Commands = discovery.get();
+
+		try (final StartupProfiler.Span span =
+			startupProfiler.phase("menu building"))
+		{
+			ij1Helper.addMenuItems();
+		}
 
 		// register ImageJ 1.x modules with the module service.
-		moduleService.addModules(ij1Commands);
+		try (final StartupProfiler.Span span =
+			startupProfiler.phase("module registration"))
+		{
+			moduleService.addModules(ij1Commands);
+		}
+
+		if (Boolean.getBoolean(STARTUP_REPORT_PROPERTY)) {
+			log.info(startupProfiler.getReport());
+		}
+		else if (log.isDebug()) log.debug(startupProfiler.getReport());
 	}
 
 	// -- Disposable methods --
@@ -514,6 +640,7 @@ public final class LegacyService extends AbstractService implements
 		if (!isActive()) return;
 
 		ij1Helper.dispose();
+		if (imageMap != null) imageMap.getMemoryManager().dispose();
 
 		final ClassLoader loader = Thread.currentThread().getContextClassLoader();
 		LegacyInjector.installHooks(loader, null);
@@ -559,6 +686,45 @@ public final class LegacyService extends AbstractService implements
 		syncActiveImage();
 	}
 
+	/**
+	 * Adds newly registered legacy-compatible commands and scripts to the
+	 * ImageJ 1.x menus, without rescanning the existing ones.
+	 */
+	@EventHandler
+	private void onEvent(final ModulesAddedEvent event) {
+		final Map<String, ModuleInfo> added = legacyCompatible(event.getItems());
+		if (added.isEmpty()) return;
+		synchronized (legacyCompatible) {
+			if (!legacyCompatibleInitialized) return;
+			legacyCompatible.putAll(added);
+		}
+		if (isActive() && ij1Helper != null) {
+			ij1Helper.addMenuItems(added.values());
+		}
+	}
+
+	/**
+	 * Removes unregistered legacy-compatible commands and scripts from the
+	 * ImageJ 1.x menus.
+	 */
+	@EventHandler
+	private void onEvent(final ModulesRemovedEvent event) {
+		final List<ModuleInfo> removed = new ArrayList<>();
+		synchronized (legacyCompatible) {
+			if (!legacyCompatibleInitialized) return;
+			for (final ModuleInfo info : event.getItems()) {
+				final String key = info.getIdentifier();
+				if (legacyCompatible.get(key) == info) {
+					legacyCompatible.remove(key);
+					removed.add(info);
+				}
+			}
+		}
+		if (!removed.isEmpty() && isActive() && ij1Helper != null) {
+			ij1Helper.removeMenuItems(removed);
+		}
+	}
+
 	@EventHandler
 	private void onEvent(final KyPressedEvent event) {
 		if (!isActive()) return;
@@ -629,32 +795,16 @@ public final class LegacyService extends AbstractService implements
 	 * </p>
 	 */
 	public Map<String, ModuleInfo> getScriptsAndNonLegacyCommands() {
-		final Map<String, ModuleInfo> modules = new LinkedHashMap<>();
-		legacyCompatible.clear();
-		for (final CommandInfo info : commandService.getCommandsOfType(
-			Command.class))
-		{
-			if (info.getMenuPath().size() == 0 || info.is("no-legacy")) {
-				continue;
-			}
-			else if (!info.getAnnotation().visible()) {
-				continue;
-			}
-			final String key = info.getIdentifier();
-			legacyCompatible.put(key, info);
-			modules.put(key, info);
-		}
-		for (final ScriptInfo info : scriptService.getScripts()) {
-			if (info.getMenuPath().size() == 0) {
-				continue;
+		synchronized (legacyCompatible) {
+			if (!legacyCompatibleInitialized) {
+				final List<ModuleInfo> modules = new ArrayList<>();
+				modules.addAll(commandService.getCommandsOfType(Command.class));
+				modules.addAll(scriptService.getScripts());
+				legacyCompatible.putAll(legacyCompatible(modules));
+				legacyCompatibleInitialized = true;
 			}
-			final String path = info.getPath();
-			if (!new File(path).getName().contains("_")) continue;
-			final String key = info.getIdentifier();
-			legacyCompatible.put(key, info);
-			modules.put(key, info);
+			return new LinkedHashMap<>(legacyCompatible);
 		}
-		return modules;
 	}
 
 	/** <strong>This is not part of the public API. DO NOT USE!</strong> */
@@ -674,6 +824,36 @@ public final class LegacyService extends AbstractService implements
 
 	// -- Helper methods --
 
+	/**
+	 * Filters the given modules down to those which belong in the ImageJ 1.x
+	 * menus: visible commands without the {@code "no-legacy"} key, and scripts
+	 * whose file names contain an underscore, as long as they have a menu path.
+	 *
+	 * @return the legacy-compatible modules, keyed on identifier
+	 */
+	private static Map<String, ModuleInfo> legacyCompatible(
+		final Collection<? extends ModuleInfo> modules)
+	{
+		final Map<String, ModuleInfo> compatible = new LinkedHashMap<>();
+		for (final ModuleInfo info : modules) {
+			if (info.getMenuPath().size() == 0) continue;
+			if (info instanceof CommandInfo) {
+				// NB: ImageJ 1.x commands are already in the ImageJ 1.x menus.
+				if (info instanceof LegacyCommandInfo) continue;
+				final CommandInfo command = (CommandInfo) info;
+				if (command.is("no-legacy")) continue;
+				if (!command.getAnnotation().visible()) continue;
+			}
+			else if (info instanceof ScriptInfo) {
+				final String path = ((ScriptInfo) info).getPath();
+				if (path == null || !new File(path).getName().contains("_")) continue;
+			}
+			else continue;
+			compatible.put(info.getIdentifier(), info);
+		}
+		return compatible;
+	}
+
 	/**
 	 * @throws UnsupportedOperationException if this {@code LegacyService} is not
 	 *           the active one.
@@ -0,0 +1,424 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import java.awt.GraphicsEnvironment;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javassist.CtClass;
+import javassist.bytecode.ClassFile;
+
+import net.imagej.patcher.LegacyEnvironment;
+import net.imagej.patcher.LegacyInjector;
+
+import org.scijava.util.ClassUtils;
+import org.scijava.util.FileUtils;
+
+/**
+ * An on-disk cache of the ImageJ 1.x classes as patched by the
+ * {@link LegacyInjector}.
+ * <p>
+ * Patching ImageJ 1.x with javassist is the first thing that needs to happen
+ * in every JVM, and it takes a considerable share of the start-up time. The
+ * result only depends on {@code ij.jar}, on the {@code ij1-patcher} (which
+ * defines the hook set) and on a handful of environment inputs the patcher
+ * consults, such as headlessness. This cache records the bytecode of all
+ * classes the patcher defines, keyed by the SHA-1 checksums of both jars and
+ * by those environment inputs. On a warm start, the cached classes are
+ * defined directly in the class loader, and the {@link LegacyInjector} then
+ * finds ImageJ 1.x already patched.
+ * </p>
+ * <p>
+ * The cache is only used when both {@code ij.jar} and {@code ij1-patcher} are
+ * jar files, and when the class loader accepts classes defined via
+ * reflection. In any other case, ImageJ 1.x is patched as before.
+ * </p>
+ */
+final class PatchedClassCache {
+
+	private static final int VERSION = 1;
+
+	private static final String CACHE_NAME = "patched-classes.cache";
+
+	private final File file;
+	private final String key;
+
+	PatchedClassCache(final File file, final String key) {
+		this.file = file;
+		this.key = key;
+	}
+
+	// -- PatchedClassCache methods --
+
+	/**
+	 * Makes sure ImageJ 1.x is patched in the context class loader, from the
+	 * cache if possible.
+	 * <p>
+	 * This is the cached equivalent of {@link LegacyInjector#preinit()}: on a
+	 * cache miss, it applies the very same patches, recording the result.
+	 * </p>
+	 */
+	static void preinit() {
+		final ClassLoader loader = patchTarget(Thread.currentThread()
+			.getContextClassLoader());
+		final PatchedClassCache cache = loader == null ? null : forLoader(loader);
+		if (cache == null) {
+			LegacyInjector.preinit();
+			return;
+		}
+		final List<PatchedClass> classes = cache.load();
+		if (classes != null) {
+			try {
+				if (define(loader, classes)) return;
+			}
+			catch (final RuntimeException e) {
+				cache.invalidate();
+				throw e;
+			}
+		}
+
+		final Recorder recorder = new Recorder();
+		try {
+			final LegacyEnvironment ij1 = new LegacyEnvironment(loader, //
+				GraphicsEnvironment.isHeadless());
+			ij1.disableInitializer();
+			ij1.noPluginClassLoader();
+			ij1.suppressIJ1ScriptDiscovery();
+			final boolean recording = recorder.attach(ij1);
+			ij1.applyPatches();
+			final List<PatchedClass> patched = recording ? recorder.classes() : null;
+			if (patched != null) cache.save(patched);
+		}
+		catch (final ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Loads the cached classes.
+	 *
+	 * @return the classes, or null if the cache is missing, stale or
+	 *         unreadable
+	 */
+	List<PatchedClass> load() {
+		if (!file.isFile()) return null;
+		try (final DataInputStream in = new DataInputStream(
+			new ByteArrayInputStream(Files.readAllBytes(file.toPath()))))
+		{
+			if (in.readInt() != VERSION || !key.equals(in.readUTF())) return null;
+			final int count = in.readInt();
+			final List<PatchedClass> classes = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				final String name = in.readUTF();
+				final String superName = in.readUTF();
+				final String[] interfaces = new String[in.readInt()];
+				for (int j = 0; j < interfaces.length; j++) {
+					interfaces[j] = in.readUTF();
+				}
+				final byte[] bytecode = new byte[in.readInt()];
+				in.readFully(bytecode);
+				classes.add(new PatchedClass(name, superName, interfaces, bytecode));
+			}
+			return classes;
+		}
+		catch (final IOException e) {
+			return null;
+		}
+	}
+
+	/** Replaces the cached classes. Failures to write are ignored. */
+	void save(final Collection<PatchedClass> classes) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(VERSION);
+			out.writeUTF(key);
+			out.writeInt(classes.size());
+			for (final PatchedClass c : classes) {
+				out.writeUTF(c.name);
+				out.writeUTF(c.superName);
+				out.writeInt(c.interfaces.length);
+				for (final String iface : c.interfaces) {
+					out.writeUTF(iface);
+				}
+				out.writeInt(c.bytecode.length);
+				out.write(c.bytecode);
+			}
+		}
+		catch (final IOException e) {
+			return;
+		}
+		try {
+			LegacyCaches.write(file, bytes.toByteArray());
+		}
+		catch (final IOException e) {
+			// NB: the cache is only a shortcut; patch again next time
+		}
+	}
+
+	/** Deletes the cache file. */
+	void invalidate() {
+		if (file.exists()) file.delete();
+	}
+
+	/**
+	 * Defines the given classes in the given class loader, superclasses and
+	 * interfaces first.
+	 * <p>
+	 * Nothing is defined unless the class loader accepts reflectively defined
+	 * classes and has not loaded any of the given classes yet.
+	 * </p>
+	 *
+	 * @return whether the classes were defined
+	 * @throws RuntimeException if defining failed half-way, which cannot be
+	 *           undone
+	 */
+	static boolean define(final ClassLoader loader,
+		final List<PatchedClass> classes)
+	{
+		final Method findLoadedClass, defineClass;
+		try {
+			findLoadedClass = ClassLoader.class.getDeclaredMethod("findLoadedClass",
+				String.class);
+			findLoadedClass.setAccessible(true);
+			defineClass = ClassLoader.class.getDeclaredMethod("defineClass",
+				String.class, byte[].class, int.class, int.class);
+			defineClass.setAccessible(true);
+			for (final PatchedClass c : classes) {
+				if (findLoadedClass.invoke(loader, c.name) != null) return false;
+			}
+		}
+		catch (final ReflectiveOperationException | RuntimeException e) {
+			// NB: e.g. java.lang is not opened to us on newer Java versions
+			return false;
+		}
+		final Map<String, PatchedClass> pending = new LinkedHashMap<>();
+		for (final PatchedClass c : classes) {
+			pending.put(c.name, c);
+		}
+		while (!pending.isEmpty()) {
+			define(loader, defineClass, pending, pending.keySet().iterator().next());
+		}
+		return true;
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Finds the class loader the {@link LegacyInjector} would patch: the
+	 * outermost one which can see ImageJ 1.x.
+	 */
+	private static ClassLoader patchTarget(ClassLoader loader) {
+		if (loader == null) return null;
+		for (;;) {
+			final ClassLoader parent = loader.getParent();
+			if (parent == null || parent.getResource("ij/IJ.class") == null) {
+				return loader;
+			}
+			loader = parent;
+		}
+	}
+
+	/** Creates the cache for the given class loader, if it can be keyed. */
+	private static PatchedClassCache forLoader(final ClassLoader loader) {
+		final File file = LegacyCaches.getFile(CACHE_NAME);
+		if (file == null) return null;
+		final File ij1Jar = jarFile(loader.getResource("ij/IJ.class"));
+		final File patcherJar = jarFile(ClassUtils.getLocation(
+			LegacyInjector.class));
+		if (ij1Jar == null || patcherJar == null) return null;
+		try {
+			return new PatchedClassCache(file, key(LegacyCaches.checksum(ij1Jar),
+				LegacyCaches.checksum(patcherJar), GraphicsEnvironment.isHeadless()));
+		}
+		catch (final IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Computes the cache key from the checksums of {@code ij.jar} and of the
+	 * {@code ij1-patcher}, plus the environment the patcher consults.
+	 */
+	static String key(final String ij1Checksum, final String patcherChecksum,
+		final boolean headless)
+	{
+		return "ij=" + ij1Checksum + ";patcher=" + patcherChecksum + //
+			";headless=" + headless + //
+			";os=" + System.getProperty("os.name") + //
+			";java=" + System.getProperty("java.specification.version") + //
+			";prefs=" + System.getenv("IJ_PREFS_DIR") + //
+			// NB: the patcher really consults the environment, not the property
+			";home=" + System.getenv("user.home");
+	}
+
+	private static File jarFile(final URL url) {
+		if (url == null) return null;
+		final File file = FileUtils.urlToFile(url);
+		return file != null && file.isFile() ? file : null;
+	}
+
+	private static void define(final ClassLoader loader,
+		final Method defineClass, final Map<String, PatchedClass> pending,
+		final String name)
+	{
+		final PatchedClass c = pending.remove(name);
+		if (c == null) return;
+		if (pending.containsKey(c.superName)) {
+			define(loader, defineClass, pending, c.superName);
+		}
+		for (final String iface : c.interfaces) {
+			if (pending.containsKey(iface)) define(loader, defineClass, pending, iface);
+		}
+		try {
+			defineClass.invoke(loader, c.name, c.bytecode, 0, c.bytecode.length);
+		}
+		catch (final IllegalAccessException | InvocationTargetException e) {
+			throw new RuntimeException("Cannot define cached class " + c.name, e);
+		}
+	}
+
+	// -- Helper classes --
+
+	/** The patched bytecode of a single class. */
+	static final class PatchedClass {
+
+		final String name;
+		final String superName;
+		final String[] interfaces;
+		final byte[] bytecode;
+
+		PatchedClass(final String name, final String superName,
+			final String[] interfaces, final byte[] bytecode)
+		{
+			this.name = name;
+			this.superName = superName == null ? "" : superName;
+			this.interfaces = interfaces;
+			this.bytecode = bytecode;
+		}
+	}
+
+	/**
+	 * Records the classes the {@link LegacyInjector} is about to define, by
+	 * registering itself as the last of its post-patching callbacks.
+	 */
+	private static final class Recorder implements InvocationHandler {
+
+		private List<CtClass> patched;
+
+		/** @return whether recording is possible */
+		private boolean attach(final LegacyEnvironment ij1) {
+			try {
+				final Field injectorField = LegacyEnvironment.class.getDeclaredField(
+					"injector");
+				injectorField.setAccessible(true);
+				final Object injector = injectorField.get(ij1);
+				final Field afterField = LegacyInjector.class.getDeclaredField("after");
+				afterField.setAccessible(true);
+				@SuppressWarnings("unchecked")
+				final List<Object> after = (List<Object>) afterField.get(injector);
+				final Class<?> callback = Class.forName(LegacyInjector.class
+					.getName() + "$Callback", false, LegacyInjector.class
+						.getClassLoader());
+				after.add(Proxy.newProxyInstance(callback.getClassLoader(),
+					new Class<?>[] { callback }, this));
+				return true;
+			}
+			catch (final ReflectiveOperationException | RuntimeException e) {
+				return false;
+			}
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method,
+			final Object[] args) throws Throwable
+		{
+			if (!"call".equals(method.getName())) {
+				return method.invoke(this, args);
+			}
+			// NB: these are exactly the classes CodeHacker#loadClasses defines
+			final Field handledClasses = args[0].getClass().getDeclaredField(
+				"handledClasses");
+			handledClasses.setAccessible(true);
+			final List<CtClass> modified = new ArrayList<>();
+			for (final Object value : ((Map<?, ?>) handledClasses.get(args[0]))
+				.values())
+			{
+				final CtClass ctClass = (CtClass) value;
+				if (ctClass.isModified()) modified.add(ctClass);
+			}
+			patched = modified;
+			return null;
+		}
+
+		/**
+		 * Serializes the recorded classes, once they have been defined.
+		 *
+		 * @return the classes, or null if nothing was recorded
+		 */
+		private List<PatchedClass> classes() {
+			if (patched == null) return null;
+			final List<PatchedClass> classes = new ArrayList<>(patched.size());
+			for (final CtClass ctClass : patched) {
+				// NB: the class is frozen now, but its class file is final
+				final ClassFile classFile = ctClass.getClassFile2();
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try (final DataOutputStream out = new DataOutputStream(bytes)) {
+					classFile.write(out);
+				}
+				catch (final IOException e) {
+					return null;
+				}
+				classes.add(new PatchedClass(classFile.getName(), classFile
+					.getSuperclass(), classFile.getInterfaces(), bytes.toByteArray()));
+			}
+			return classes;
+		}
+	}
+}
@@ -0,0 +1,275 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Times the phases of the legacy layer's startup.
+ * <p>
+ * Each phase is a {@link Span} opened via {@link #phase(String)} and closed
+ * when the phase is done, typically in a try-with-resources block. The
+ * completed phases are available via {@link #getPhases()} and, formatted as a
+ * table, via {@link #getReport()}.
+ * </p>
+ * <p>
+ * When running on a JVM with Flight Recorder (Java 11 and later), every phase
+ * is also emitted as a {@value #EVENT_NAME} event, so that startup can be
+ * analyzed alongside everything else a recording captures. The events are
+ * defined dynamically, so no Flight Recorder API is needed at compile time.
+ * </p>
+ * <p>
+ * Phases may run concurrently on different threads.
+ * </p>
+ */
+public class StartupProfiler {
+
+	/** Name of the Flight Recorder event emitted per phase. */
+	public static final String EVENT_NAME = "net.imagej.legacy.StartupPhase";
+
+	private final List<Phase> phases = new ArrayList<>();
+
+	// -- StartupProfiler methods --
+
+	/**
+	 * Starts timing a phase.
+	 *
+	 * @param name the human-readable name of the phase
+	 * @return the span, to be closed when the phase is done
+	 */
+	public Span phase(final String name) {
+		return new Span(name);
+	}
+
+	/** Gets the completed phases, in the order they were started. */
+	public synchronized List<Phase> getPhases() {
+		final List<Phase> sorted = new ArrayList<>(phases);
+		Collections.sort(sorted, (a, b) -> Long.compare(a.start, b.start));
+		return sorted;
+	}
+
+	/**
+	 * Gets the wall-clock time from the start of the first phase to the end of
+	 * the last one, in milliseconds.
+	 */
+	public synchronized long getTotalMillis() {
+		if (phases.isEmpty()) return 0;
+		long start = Long.MAX_VALUE, end = Long.MIN_VALUE;
+		for (final Phase phase : phases) {
+			start = Math.min(start, phase.start);
+			end = Math.max(end, phase.start + phase.nanos);
+		}
+		return (end - start) / 1000000;
+	}
+
+	/** Formats the completed phases as a table, one phase per line. */
+	public String getReport() {
+		final List<Phase> sorted = getPhases();
+		int width = "total".length();
+		for (final Phase phase : sorted) {
+			width = Math.max(width, phase.getName().length());
+		}
+		final String format = "  %-" + width + "s %8d ms  [%s]%n";
+		final StringBuilder report = new StringBuilder("Legacy startup phases:");
+		report.append(String.format("%n"));
+		for (final Phase phase : sorted) {
+			report.append(String.format(format, phase.getName(), //
+				phase.getMillis(), phase.getThreadName()));
+		}
+		report.append(String.format("  %-" + width + "s %8d ms%n", "total",
+			getTotalMillis()));
+		return report.toString();
+	}
+
+	// -- Helper classes --
+
+	/** A completed phase. */
+	public static class Phase {
+
+		private final String name;
+		private final String threadName;
+		private final long start;
+		private final long nanos;
+
+		private Phase(final String name, final String threadName,
+			final long start, final long nanos)
+		{
+			this.name = name;
+			this.threadName = threadName;
+			this.start = start;
+			this.nanos = nanos;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/** Gets the name of the thread which ran the phase. */
+		public String getThreadName() {
+			return threadName;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		public long getMillis() {
+			return nanos / 1000000;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + getMillis() + " ms";
+		}
+	}
+
+	/** A phase in progress. */
+	public class Span implements AutoCloseable {
+
+		private final String name;
+		private final long start;
+		private final Object event;
+		private boolean closed;
+
+		private Span(final String name) {
+			this.name = name;
+			event = FlightRecorder.begin(name);
+			start = System.nanoTime();
+		}
+
+		@Override
+		public void close() {
+			if (closed) return;
+			closed = true;
+			final long nanos = System.nanoTime() - start;
+			FlightRecorder.end(event);
+			final Phase phase = new Phase(name, //
+				Thread.currentThread().getName(), start, nanos);
+			synchronized (StartupProfiler.this) {
+				phases.add(phase);
+			}
+		}
+	}
+
+	/**
+	 * Emits {@value StartupProfiler#EVENT_NAME} events via
+	 * {@code jdk.jfr.EventFactory}, if available.
+	 */
+	private static final class FlightRecorder {
+
+		private static final Object FACTORY;
+		private static final MethodHandle NEW_EVENT, SET, BEGIN, END, COMMIT;
+
+		static {
+			Object factory = null;
+			MethodHandle newEvent = null, set = null, begin = null, end = null,
+					commit = null;
+			try {
+				final Class<?> annotationElement =
+					Class.forName("jdk.jfr.AnnotationElement");
+				final Class<?> category = Class.forName("jdk.jfr.Category");
+				final Class<?> label = Class.forName("jdk.jfr.Label");
+				final Class<?> name = Class.forName("jdk.jfr.Name");
+				final Class<?> valueDescriptor =
+					Class.forName("jdk.jfr.ValueDescriptor");
+				final Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+				final Class<?> event = Class.forName("jdk.jfr.Event");
+
+				final Constructor<?> annotation =
+					annotationElement.getConstructor(Class.class, Object.class);
+				final Object categories = Array.newInstance(String.class, 2);
+				Array.set(categories, 0, "ImageJ");
+				Array.set(categories, 1, "Legacy");
+				final List<Object> annotations = Arrays.asList( //
+					annotation.newInstance(name, EVENT_NAME), //
+					annotation.newInstance(label, "Legacy Startup Phase"), //
+					annotation.newInstance(category, categories));
+				final List<Object> fields = Collections.singletonList( //
+					valueDescriptor.getConstructor(Class.class, String.class, List.class)
+						.newInstance(String.class, "phase", Collections.singletonList(
+							annotation.newInstance(label, "Phase"))));
+				factory = eventFactory.getMethod("create", List.class, List.class)
+					.invoke(null, annotations, fields);
+
+				final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+				newEvent = lookup.unreflect(eventFactory.getMethod("newEvent"));
+				set = lookup.unreflect(event.getMethod("set", int.class,
+					Object.class));
+				begin = lookup.unreflect(event.getMethod("begin"));
+				end = lookup.unreflect(event.getMethod("end"));
+				commit = lookup.unreflect(event.getMethod("commit"));
+			}
+			catch (final Throwable t) {
+				// no Flight Recorder: phases are only timed
+				factory = null;
+			}
+			FACTORY = factory;
+			NEW_EVENT = newEvent;
+			SET = set;
+			BEGIN = begin;
+			END = end;
+			COMMIT = commit;
+		}
+
+		private static Object begin(final String phase) {
+			if (FACTORY == null) return null;
+			try {
+				final Object event = NEW_EVENT.invoke(FACTORY);
+				SET.invoke(event, 0, phase);
+				BEGIN.invoke(event);
+				return event;
+			}
+			catch (final Throwable t) {
+				return null;
+			}
+		}
+
+		private static void end(final Object event) {
+			if (event == null) return;
+			try {
+				END.invoke(event);
+				COMMIT.invoke(event);
+			}
+			catch (final Throwable t) {
+				// the phase is timed regardless
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs startup phases concurrently, respecting their dependencies.
+ * <p>
+ * Each phase is {@link #submit submitted} together with the tasks it depends
+ * on, and starts on the executor as soon as all of them completed
+ * successfully. A phase whose dependency failed does not run at all, and the
+ * failure surfaces from {@link #await}. Every phase is timed by the
+ * {@link StartupProfiler}, and runs with the context class loader of the
+ * thread which created the scheduler.
+ * </p>
+ * <p>
+ * Phases must only be made independent of one another if they do not touch
+ * the same state, or if the order in which they do is irrelevant; otherwise,
+ * the order must be expressed as a dependency so that the outcome is the same
+ * as that of a serial run.
+ * </p>
+ */
+final class StartupScheduler {
+
+	private final StartupProfiler profiler;
+	private final Executor executor;
+	private final ClassLoader classLoader;
+
+	/**
+	 * @param profiler the profiler timing the phases
+	 * @param executor the executor running the phases; use
+	 *          {@code Runnable::run} to run them serially, in submission order
+	 */
+	StartupScheduler(final StartupProfiler profiler, final Executor executor) {
+		this.profiler = profiler;
+		this.executor = executor;
+		classLoader = Thread.currentThread().getContextClassLoader();
+	}
+
+	// -- StartupScheduler methods --
+
+	/** Schedules a phase without a result. */
+	Task<Void> submit(final String name, final Runnable phase,
+		final Task<?>... dependencies)
+	{
+		return submit(name, () -> {
+			phase.run();
+			return null;
+		}, dependencies);
+	}
+
+	/** Schedules a phase computing a result. */
+	<T> Task<T> submit(final String name, final Callable<T> phase,
+		final Task<?>... dependencies)
+	{
+		final CompletableFuture<?>[] futures =
+			new CompletableFuture<?>[dependencies.length];
+		for (int i = 0; i < dependencies.length; i++) {
+			futures[i] = dependencies[i].future;
+		}
+		return new Task<>(CompletableFuture.allOf(futures).thenApplyAsync(
+			ignored -> run(name, phase), executor));
+	}
+
+	/**
+	 * Waits for the given phases (and hence, for all phases they depend on) to
+	 * complete.
+	 *
+	 * @throws RuntimeException if any of them failed
+	 */
+	void await(final Task<?>... tasks) {
+		for (final Task<?> task : tasks) {
+			task.get();
+		}
+	}
+
+	// -- Helper methods --
+
+	private <T> T run(final String name, final Callable<T> phase) {
+		final Thread thread = Thread.currentThread();
+		final ClassLoader previous = thread.getContextClassLoader();
+		thread.setContextClassLoader(classLoader);
+		try (final StartupProfiler.Span span = profiler.phase(name)) {
+			return phase.call();
+		}
+		catch (final RuntimeException exc) {
+			throw exc;
+		}
+		catch (final Exception exc) {
+			throw new CompletionException(exc);
+		}
+		finally {
+			thread.setContextClassLoader(previous);
+		}
+	}
+
+	// -- Helper classes --
+
+	/** A scheduled phase. */
+	static final class Task<T> {
+
+		private final CompletableFuture<T> future;
+
+		private Task(final CompletableFuture<T> future) {
+			this.future = future;
+		}
+
+		/**
+		 * Waits for the phase to complete.
+		 *
+		 * @return its result
+		 * @throws RuntimeException if it, or a phase it depends on, failed
+		 */
+		T get() {
+			try {
+				return future.join();
+			}
+			catch (final CompletionException exc) {
+				final Throwable cause = exc.getCause();
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				if (cause instanceof Error) throw (Error) cause;
+				throw exc;
+			}
+		}
+	}
+}
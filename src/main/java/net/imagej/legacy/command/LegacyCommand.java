@@ -33,9 +33,14 @@ package net.imagej.legacy.command;
 
 import ij.IJ;
 import ij.Macro;
+import ij.WindowManager;
+
+import net.imagej.legacy.ActiveImageContext;
+import net.imagej.legacy.LegacyService;
 
 import org.scijava.command.Command;
 import org.scijava.plugin.Parameter;
+import org.scijava.thread.ThreadService;
 
 /**
  * Executes an ImageJ v1.x command.
@@ -51,12 +56,28 @@ public class LegacyCommand implements Command {
 	@Parameter
 	private String arg;
 
+	@Parameter(required = false)
+	private LegacyService legacyService;
+
+	@Parameter(required = false)
+	private ThreadService threadService;
+
 	// -- Runnable methods --
 
 	@Override
 	public void run() {
-		try {
-			IJ.runPlugIn(className, arg);
+		final ActiveImageContext activeImageContext =
+			legacyService == null ? null : legacyService.getActiveImageContext();
+		// make the caller's active image current for ImageJ 1.x on this thread
+		try (final ActiveImageContext.Scope scope = activeImageContext == null ?
+			null : activeImageContext.inherit())
+		{
+			// split plane-independent filters across worker threads
+			if (threadService == null || !PlaneParallelFilters.run(threadService,
+				WindowManager.getCurrentImage(), className, arg))
+			{
+				IJ.runPlugIn(className, arg);
+			}
 		}
 		catch (final RuntimeException exc) {
 			// HACK: Suppress ImageJ 1.x "macro canceled" exceptions.
@@ -0,0 +1,307 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.command;
+
+import ij.CompositeImage;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Macro;
+import ij.Prefs;
+import ij.WindowManager;
+import ij.gui.Roi;
+import ij.plugin.filter.ExtendedPlugInFilter;
+import ij.plugin.filter.PlugInFilter;
+import ij.plugin.filter.PlugInFilterRunner;
+import ij.process.ImageProcessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.scijava.thread.ThreadService;
+
+/**
+ * Runs ImageJ 1.x filters known to process each plane independently on
+ * several planes of a stack at once.
+ * <p>
+ * Stack-aware {@code PlugInFilter}s process the planes of a stack one after
+ * the other, unless they ask for {@code PARALLELIZE_STACKS} themselves. For
+ * the filters on the allow-list, {@link LegacyCommand} instead splits the
+ * stack into disjoint sub-stacks sharing the original pixel arrays, runs the
+ * filter on each of them in a {@link ThreadService} worker, and joins. As the
+ * filter operates on each plane independently and in place, the result is
+ * the same as that of a serial run. A filter asking for
+ * {@code FINAL_PROCESSING} gets it once, for the whole image, after the join.
+ * </p>
+ * <p>
+ * The allow-list defaults to ImageJ 1.x filters which do not use threads of
+ * their own; filters which already process planes or lines in parallel, such
+ * as {@code GaussianBlur} or {@code RankFilters}, would gain nothing. Set the
+ * {@value #ALLOW_LIST_PROPERTY} system property to a comma-separated list of
+ * class names to override it (an empty value disables the parallel mode).
+ * Only plain {@link PlugInFilter}s can run plane-parallel; an
+ * {@link ExtendedPlugInFilter} runs serially, even if allow-listed.
+ * </p>
+ * <p>
+ * Only non-interactive runs are parallelized, i.e. runs whose parameters,
+ * including the decision to process the whole stack, come from macro options.
+ * Everything else runs serially, exactly as before.
+ * </p>
+ */
+public final class PlaneParallelFilters {
+
+	/** System property overriding the default allow-list. */
+	public static final String ALLOW_LIST_PROPERTY =
+		"imagej.legacy.planeParallelFilters";
+
+	/** ImageJ 1.x filters which are known to be plane-independent. */
+	private static final Set<String> DEFAULT_ALLOW_LIST =
+		Collections.unmodifiableSet(new HashSet<>(Arrays.asList( //
+			"ij.plugin.filter.Filters", //
+			"ij.plugin.filter.Shadows")));
+
+	private PlaneParallelFilters() {
+		// prevent instantiation of utility class
+	}
+
+	// -- PlaneParallelFilters methods --
+
+	/** Gets the class names of the filters that may run plane-parallel. */
+	public static Set<String> getAllowList() {
+		final String value = System.getProperty(ALLOW_LIST_PROPERTY);
+		if (value == null) return DEFAULT_ALLOW_LIST;
+		final Set<String> allowList = new HashSet<>();
+		for (final String className : value.split(",")) {
+			if (!className.trim().isEmpty()) allowList.add(className.trim());
+		}
+		return allowList;
+	}
+
+	/** Whether the given filter class is on the allow-list. */
+	public static boolean isAllowed(final String className) {
+		return className != null && getAllowList().contains(className);
+	}
+
+	// -- Package-private methods --
+
+	/**
+	 * Runs the given filter on all planes of the given image in parallel, if
+	 * that is possible without changing the outcome.
+	 *
+	 * @return false if the filter was not run because the image or the
+	 *         invocation does not qualify, in which case the caller needs to
+	 *         run it serially
+	 */
+	static boolean run(final ThreadService threadService, final ImagePlus imp,
+		final String className, final String arg)
+	{
+		if (imp == null || !isAllowed(className)) return false;
+		final ImageStack stack = imp.getStack();
+		final int planes = stack.getSize();
+		if (planes < 2 || stack.isVirtual()) return false;
+		// NB: Filters inverts 16-bit stacks as a whole, by their overall range.
+		if (imp.getType() == ImagePlus.GRAY16 && "invert".equals(arg) &&
+			"ij.plugin.filter.Filters".equals(className))
+		{
+			return false;
+		}
+
+		final String options = workerOptions(imp, Macro.getOptions());
+		if (options == null) return false;
+		final int chunks = Math.min(planes, Prefs.getThreads());
+		if (chunks < 2) return false;
+
+		final PartFilter[] filters = new PartFilter[chunks];
+		for (int c = 0; c < chunks; c++) {
+			filters[c] = PartFilter.create(className);
+			if (filters[c] == null) return false;
+		}
+
+		final Roi roi = imp.getRoi();
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int c = 0; c < chunks; c++) {
+			final ImagePlus part = part(imp, stack, //
+				c * planes / chunks + 1, (c + 1) * planes / chunks, roi);
+			final PartFilter filter = filters[c];
+			futures.add(threadService.run(new Runnable() {
+
+				@Override
+				public void run() {
+					final Thread thread = Thread.currentThread();
+					final ImagePlus current = WindowManager.getTempCurrentImage();
+					Macro.setOptions(thread, options);
+					WindowManager.setTempCurrentImage(part);
+					try {
+						// NB: Same as IJ.runPlugIn(part, className, arg).
+						new PlugInFilterRunner(filter, "", arg);
+					}
+					finally {
+						WindowManager.setTempCurrentImage(current);
+						Macro.setOptions(thread, null);
+					}
+				}
+			}));
+		}
+		join(futures);
+
+		if (filters[0].finalProcessing && !IJ.escapePressed()) {
+			filters[0].filter.setup("final", imp);
+		}
+		imp.changes = true;
+		imp.updateAndDraw();
+		return true;
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets the macro options to pass to the workers, or null if the current
+	 * invocation would not process the whole stack non-interactively. This
+	 * mirrors the logic of {@link IJ#setupDialog(ImagePlus, int)}.
+	 */
+	private static String workerOptions(final ImagePlus imp,
+		final String options)
+	{
+		if (options == null) return null;
+		if (options.indexOf("stack ") >= 0) return options;
+		if (imp.isComposite() &&
+			((CompositeImage) imp).getMode() == IJ.COMPOSITE &&
+			!options.contains("slice"))
+		{
+			// composite images are always processed as a whole
+			return options + " stack ";
+		}
+		return null;
+	}
+
+	/**
+	 * Wraps the given range of planes (1-based, inclusive) into an image of its
+	 * own. The planes share their pixel arrays with the original stack, so any
+	 * in-place changes show up there.
+	 */
+	private static ImagePlus part(final ImagePlus imp, final ImageStack stack,
+		final int first, final int last, final Roi roi)
+	{
+		final ImageStack planes = new ImageStack(stack.getWidth(), //
+			stack.getHeight(), stack.getColorModel());
+		for (int i = first; i <= last; i++) {
+			planes.addSlice(stack.getSliceLabel(i), stack.getPixels(i));
+		}
+		final ImagePlus part = new ImagePlus(imp.getTitle(), planes);
+		part.setCalibration(imp.getCalibration());
+		if (roi != null) part.setRoi((Roi) roi.clone());
+		return part;
+	}
+
+	/** Waits for all workers, rethrowing the first failure. */
+	private static void join(final List<Future<?>> futures) {
+		RuntimeException failure = null;
+		for (final Future<?> future : futures) {
+			try {
+				future.get();
+			}
+			catch (final InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				if (failure == null) failure = new RuntimeException(exc);
+			}
+			catch (final ExecutionException exc) {
+				if (failure != null) continue;
+				final Throwable cause = exc.getCause();
+				failure = cause instanceof RuntimeException ? //
+					(RuntimeException) cause : new RuntimeException(cause);
+			}
+		}
+		if (failure != null) throw failure;
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * Runs a filter on one part of the image, deferring its final processing,
+	 * which is meant for the whole image.
+	 */
+	private static class PartFilter implements PlugInFilter {
+
+		private final PlugInFilter filter;
+
+		/** Whether the filter asked for final processing. */
+		private volatile boolean finalProcessing;
+
+		private PartFilter(final PlugInFilter filter) {
+			this.filter = filter;
+		}
+
+		/**
+		 * Instantiates the given filter class, as {@link IJ#runPlugIn} does.
+		 *
+		 * @return the wrapped filter, or null if the class is not a plain
+		 *         {@link PlugInFilter}
+		 */
+		private static PartFilter create(final String className) {
+			final Object filter;
+			try {
+				filter = IJ.getClassLoader().loadClass(className).newInstance();
+			}
+			catch (final ReflectiveOperationException | LinkageError exc) {
+				return null;
+			}
+			if (!(filter instanceof PlugInFilter) || //
+				filter instanceof ExtendedPlugInFilter)
+			{
+				return null;
+			}
+			return new PartFilter((PlugInFilter) filter);
+		}
+
+		@Override
+		public int setup(final String arg, final ImagePlus imp) {
+			if ("final".equals(arg)) {
+				finalProcessing = true;
+				return DONE;
+			}
+			return filter.setup(arg, imp);
+		}
+
+		@Override
+		public void run(final ImageProcessor ip) {
+			filter.run(ip);
+		}
+	}
+
+}
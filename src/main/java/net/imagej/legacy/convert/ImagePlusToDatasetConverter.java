@@ -125,13 +125,9 @@ public class ImagePlusToDatasetConverter extends
 
 		final IJ1Helper ij1Helper = legacyService.getIJ1Helper();
 
-		final int[] imageIDs = ij1Helper.getIDList();
-		if (imageIDs == null) return; // no image IDs
-
 		// Add any ImagePluses in the IJ1 WindowManager that are not already
 		// converted
-		for (final int id : imageIDs) {
-			final ImagePlus imgPlus = ij1Helper.getImage(id);
+		for (final ImagePlus imgPlus : ij1Helper.getImageIndex().getImages()) {
 			if (legacyService.getImageMap().lookupDisplay(imgPlus) == null) {
 				objects.add(imgPlus);
 			}
@@ -109,13 +109,9 @@ public class ImagePlusToImageDisplayConverter extends
 
 		final IJ1Helper ij1Helper = legacyService.getIJ1Helper();
 
-		final int[] imageIDs = ij1Helper.getIDList();
-		if (imageIDs == null) return; // no image IDs
-
 		// Add any ImagePluses in the IJ1 WindowManager that are not already
 		// converted
-		for (final int id : imageIDs) {
-			final ImagePlus imp = ij1Helper.getImage(id);
+		for (final ImagePlus imp : ij1Helper.getImageIndex().getImages()) {
 			if (legacyService.getImageMap().lookupDisplay(imp) == null) {
 				objects.add(imp);
 			}
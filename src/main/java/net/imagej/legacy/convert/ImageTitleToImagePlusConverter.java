@@ -36,9 +36,13 @@ import ij.WindowManager;
 
 import java.util.Collection;
 
+import net.imagej.legacy.IJ1Helper;
+import net.imagej.legacy.LegacyService;
+
 import org.scijava.convert.AbstractConverter;
 import org.scijava.convert.ConvertService;
 import org.scijava.convert.Converter;
+import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.widget.ObjectWidget;
 import org.scijava.widget.WidgetModel;
@@ -66,6 +70,9 @@ public class ImageTitleToImagePlusConverter extends
 	AbstractConverter<ImageTitleToImagePlusConverter.ImageTitle, ImagePlus>
 {
 
+	@Parameter(required = false)
+	private LegacyService legacyService;
+
 	// -- Converter methods --
 
 	@Override
@@ -76,6 +83,14 @@ public class ImageTitleToImagePlusConverter extends
 
 	@Override
 	public void populateInputCandidates(final Collection<Object> objects) {
+		final IJ1Helper ij1Helper =
+			legacyService == null ? null : legacyService.getIJ1Helper();
+		if (ij1Helper != null) {
+			for (final ImagePlus imp : ij1Helper.getImageIndex().getImages()) {
+				objects.add(new ImageTitle(imp));
+			}
+			return;
+		}
 		final int[] imageIDs = WindowManager.getIDList();
 		if (imageIDs == null) return;
 		for (final int imageID : imageIDs) {
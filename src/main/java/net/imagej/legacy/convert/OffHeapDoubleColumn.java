@@ -0,0 +1,276 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.convert;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import net.imagej.table.Column;
+
+/**
+ * A {@link Column} of doubles stored outside the Java heap, in fixed-size
+ * chunks of direct buffers. The column grows by adding chunks, so existing
+ * values are never copied. Chunks are either plain direct buffers or, given a
+ * scratch file, regions of that file mapped into memory, letting the operating
+ * system page the data out.
+ */
+public class OffHeapDoubleColumn extends AbstractList<Double> implements
+	Column<Double>, Closeable
+{
+
+	/** Default number of values per chunk (512 KiB of doubles). */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+	private final int chunkShift;
+	private final int chunkMask;
+	private final List<DoubleBuffer> chunks = new ArrayList<>();
+
+	private final File file;
+	private final FileChannel channel;
+
+	private String header;
+	private int size;
+
+	/** Creates an empty column of direct buffers with the default chunk size. */
+	public OffHeapDoubleColumn(final String header) {
+		this(header, DEFAULT_CHUNK_SIZE, null);
+	}
+
+	/**
+	 * Creates an empty column.
+	 *
+	 * @param header the column header
+	 * @param chunkSize number of values per chunk; rounded up to a power of two
+	 * @param file scratch file to map the chunks from, or null to use plain
+	 *          direct buffers; the file is deleted when the column is closed
+	 */
+	public OffHeapDoubleColumn(final String header, final int chunkSize,
+		final File file)
+	{
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+		}
+		this.header = header;
+		chunkShift = 32 - Integer.numberOfLeadingZeros(chunkSize - 1);
+		chunkMask = (1 << chunkShift) - 1;
+		this.file = file;
+		if (file == null) channel = null;
+		else {
+			try {
+				channel = new RandomAccessFile(file, "rw").getChannel();
+			}
+			catch (final IOException exc) {
+				throw new RuntimeException("Cannot open scratch file: " + file, exc);
+			}
+		}
+	}
+
+	// -- OffHeapDoubleColumn methods --
+
+	/** Gets the value at the given index, without boxing. */
+	public double getValue(final int index) {
+		checkIndex(index);
+		return chunks.get(index >>> chunkShift).get(index & chunkMask);
+	}
+
+	/** Sets the value at the given index, returning the previous value. */
+	public double setValue(final int index, final double value) {
+		checkIndex(index);
+		final DoubleBuffer chunk = chunks.get(index >>> chunkShift);
+		final double prev = chunk.get(index & chunkMask);
+		chunk.put(index & chunkMask, value);
+		return prev;
+	}
+
+	/** Appends the given value to the end of the column. */
+	public void addValue(final double value) {
+		setSize(size + 1);
+		chunks.get((size - 1) >>> chunkShift).put((size - 1) & chunkMask, value);
+	}
+
+	/** Iterates the values of the column without boxing. */
+	public PrimitiveIterator.OfDouble doubleIterator() {
+		return new PrimitiveIterator.OfDouble() {
+
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public double nextDouble() {
+				if (index >= size) throw new NoSuchElementException();
+				final int i = index++;
+				return chunks.get(i >>> chunkShift).get(i & chunkMask);
+			}
+		};
+	}
+
+	/** Gets the number of values per chunk. */
+	public int getChunkSize() {
+		return chunkMask + 1;
+	}
+
+	/** Gets whether the chunks are mapped from a scratch file. */
+	public boolean isMapped() {
+		return channel != null;
+	}
+
+	/** Sets each element, starting at the given offset, to the given values. */
+	public void fill(final Double[] values, final int offset) {
+		if (offset + values.length > size) setSize(offset + values.length);
+		for (int i = 0; i < values.length; i++) {
+			setValue(offset + i, values[i]);
+		}
+	}
+
+	/** Sets the column to the given values. */
+	public void fill(final Double[] values) {
+		setSize(values.length);
+		fill(values, 0);
+	}
+
+	// -- Column methods --
+
+	@Override
+	public String getHeader() {
+		return header;
+	}
+
+	@Override
+	public void setHeader(final String header) {
+		this.header = header;
+	}
+
+	@Override
+	public Class<Double> getType() {
+		return Double.class;
+	}
+
+	// -- List methods --
+
+	@Override
+	public Double get(final int index) {
+		return getValue(index);
+	}
+
+	@Override
+	public Double set(final int index, final Double element) {
+		return setValue(index, element);
+	}
+
+	@Override
+	public boolean add(final Double element) {
+		addValue(element);
+		return true;
+	}
+
+	// -- Sizable methods --
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Sets the size of the column. Growing adds zeroed chunks as needed.
+	 * Shrinking keeps the chunks, so values beyond the new size reappear if the
+	 * column grows again.
+	 */
+	@Override
+	public void setSize(final int size) {
+		if (size < 0) throw new IllegalArgumentException("Invalid size: " + size);
+		final int needed = size == 0 ? 0 : ((size - 1) >>> chunkShift) + 1;
+		while (chunks.size() < needed) {
+			chunks.add(allocate(chunks.size()));
+		}
+		this.size = size;
+		modCount++;
+	}
+
+	// -- Closeable methods --
+
+	/**
+	 * Releases the chunks and, for a mapped column, closes and deletes the
+	 * scratch file. Mapped regions are unmapped once they are garbage
+	 * collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		chunks.clear();
+		size = 0;
+		if (channel != null) {
+			channel.close();
+			if (!file.delete()) file.deleteOnExit();
+		}
+	}
+
+	// -- Helper methods --
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " +
+				size);
+		}
+	}
+
+	private DoubleBuffer allocate(final int chunk) {
+		final int bytes = (chunkMask + 1) * Double.BYTES;
+		final ByteBuffer buffer;
+		if (channel == null) buffer = ByteBuffer.allocateDirect(bytes);
+		else {
+			try {
+				buffer = channel.map(MapMode.READ_WRITE, (long) chunk * bytes, bytes);
+			}
+			catch (final IOException exc) {
+				throw new RuntimeException("Cannot map scratch file: " + file, exc);
+			}
+		}
+		return buffer.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+	}
+
+}
@@ -0,0 +1,186 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.convert;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import net.imagej.table.Column;
+import net.imagej.table.DefaultGenericTable;
+import net.imagej.table.GenericTable;
+
+import ij.measure.ResultsTable;
+
+/**
+ * A {@link GenericTable} for very large measurement tables, whose numeric
+ * columns are {@link OffHeapDoubleColumn}s. Rows are appended without copying
+ * existing data, and the columns can be memory-mapped from scratch files so
+ * the data need not fit in RAM. Since only a handful of rows is ever on
+ * screen, {@link #toResultsTable(int, int)} converts a window of rows to a
+ * {@link ResultsTable} for display.
+ */
+public class OffHeapGenericTable extends DefaultGenericTable implements
+	Closeable
+{
+
+	private final int chunkSize;
+	private final File scratchDirectory;
+
+	/** Creates a table whose columns are kept in direct buffers. */
+	public OffHeapGenericTable() {
+		this(OffHeapDoubleColumn.DEFAULT_CHUNK_SIZE, null);
+	}
+
+	/**
+	 * Creates a table.
+	 *
+	 * @param chunkSize number of values per chunk of each numeric column
+	 * @param scratchDirectory directory in which to create memory-mapped
+	 *          scratch files for the numeric columns, or null to keep them in
+	 *          direct buffers
+	 */
+	public OffHeapGenericTable(final int chunkSize,
+		final File scratchDirectory)
+	{
+		this.chunkSize = chunkSize;
+		this.scratchDirectory = scratchDirectory;
+	}
+
+	// -- OffHeapGenericTable methods --
+
+	/** Appends an off-heap numeric column with the given header. */
+	public OffHeapDoubleColumn appendDoubleColumn(final String header) {
+		final OffHeapDoubleColumn column = new OffHeapDoubleColumn(header,
+			chunkSize, createScratchFile());
+		column.setSize(getRowCount());
+		add(column);
+		return column;
+	}
+
+	/** Appends the given off-heap numeric columns, one per header. */
+	public void appendDoubleColumns(final String... headers) {
+		for (final String header : headers) {
+			appendDoubleColumn(header);
+		}
+	}
+
+	/**
+	 * Appends a row holding the given values, one per column. Columns not
+	 * covered by {@code values} are left at their default value.
+	 */
+	public void appendRow(final double... values) {
+		if (values.length > getColumnCount()) {
+			throw new IllegalArgumentException("Too many values: " +
+				values.length + " > " + getColumnCount());
+		}
+		final int row = getRowCount();
+		setRowCount(row + 1);
+		for (int c = 0; c < values.length; c++) {
+			final Column<?> column = get(c);
+			if (column instanceof OffHeapDoubleColumn) {
+				((OffHeapDoubleColumn) column).setValue(row, values[c]);
+			}
+			else set(c, row, values[c]);
+		}
+	}
+
+	/**
+	 * Converts the given window of rows to a {@link ResultsTable}, e.g. for
+	 * displaying the visible part of the table.
+	 *
+	 * @param fromRow first row to convert (inclusive)
+	 * @param toRow last row to convert (exclusive)
+	 */
+	@SuppressWarnings("deprecation")
+	public ResultsTable toResultsTable(final int fromRow, final int toRow) {
+		if (fromRow < 0 || toRow > getRowCount() || fromRow > toRow) {
+			throw new IllegalArgumentException("Invalid row window: [" + fromRow +
+				", " + toRow + ")");
+		}
+		final ResultsTable table = new ResultsTable();
+		final int columnCount = getColumnCount();
+		for (int c = 0; c < columnCount; c++) {
+			final String header = getColumnHeader(c);
+			if (header != null) table.setHeading(c, header);
+		}
+		for (int r = fromRow; r < toRow; r++) {
+			final int row = r - fromRow;
+			table.incrementCounter();
+			final String label = getRowHeader(r);
+			if (label != null) table.setLabel(label, row);
+			for (int c = 0; c < columnCount; c++) {
+				final Column<?> column = get(c);
+				if (column instanceof OffHeapDoubleColumn) {
+					table.setValue(c, row, ((OffHeapDoubleColumn) column).getValue(r));
+					continue;
+				}
+				final Object value = column.get(r);
+				if (value instanceof Number) {
+					table.setValue(c, row, ((Number) value).doubleValue());
+				}
+				else if (value != null) table.setValue(c, row, value.toString());
+			}
+		}
+		return table;
+	}
+
+	// -- Closeable methods --
+
+	/** Releases the storage of all off-heap columns. */
+	@Override
+	public void close() throws IOException {
+		for (final Column<?> column : this) {
+			if (column instanceof OffHeapDoubleColumn) {
+				((OffHeapDoubleColumn) column).close();
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	private File createScratchFile() {
+		if (scratchDirectory == null) return null;
+		try {
+			final File file = File.createTempFile("column", ".bin",
+				scratchDirectory);
+			file.deleteOnExit();
+			return file;
+		}
+		catch (final IOException exc) {
+			throw new RuntimeException("Cannot create scratch file in " +
+				scratchDirectory, exc);
+		}
+	}
+
+}
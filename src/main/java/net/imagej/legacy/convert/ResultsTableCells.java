@@ -0,0 +1,552 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.convert;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Typed cell access and bulk operations for {@link ResultsTable}s, shared by
+ * {@link ResultsTableWrapper}, {@link ResultsTableColumnWrapper} and the
+ * {@code ResultsTableHarmonizer}.
+ * <p>
+ * A {@link ResultsTable} stores every cell as a {@code double}; textual cells
+ * are {@code NaN} with the text kept on the side. A cell whose value is not
+ * {@code NaN} is formatted by the table itself, so its string form can never
+ * differ from its numeric one and the cell is numeric without looking at the
+ * text at all. Only {@code NaN} cells need their string value inspected, and
+ * for those the table's formatting always yields {@code "NaN"}. This makes the
+ * check free of reflection and of number formatting.
+ * </p>
+ */
+public final class ResultsTableCells {
+
+	/** Getter for the private {@code NaNEmptyCells} flag, resolved once. */
+	private static final MethodHandle NAN_EMPTY_CELLS = getter("NaNEmptyCells");
+
+	/** Getter for the private {@code columns} storage, resolved once. */
+	private static final MethodHandle COLUMNS = getter("columns");
+
+	/** Getter for the private {@code rowLabels} storage, resolved once. */
+	private static final MethodHandle ROW_LABELS = getter("rowLabels");
+
+	/** Getter for the private {@code stringColumns} storage, resolved once. */
+	private static final MethodHandle STRING_COLUMNS = getter("stringColumns");
+
+	/** Setter for the private {@code counter} field, resolved once. */
+	private static final MethodHandle COUNTER = setter("counter");
+
+	/** Getter for the private {@code maxRows} capacity, resolved once. */
+	private static final MethodHandle MAX_ROWS = getter("maxRows");
+
+	/** Setter for the private {@code maxRows} capacity, resolved once. */
+	private static final MethodHandle SET_MAX_ROWS = setter("maxRows");
+
+	/** Setter for the private {@code rowLabels} storage, resolved once. */
+	private static final MethodHandle SET_ROW_LABELS = setter("rowLabels");
+
+	/** Getter for the private {@code decimalPlaces} settings, resolved once. */
+	private static final MethodHandle DECIMAL_PLACES = getter("decimalPlaces");
+
+	/** Getter for the private {@code precision} field, resolved once. */
+	private static final MethodHandle PRECISION = getter("precision");
+
+	/** Precision of a {@link ResultsTable} unless set otherwise. */
+	private static final int DEFAULT_PRECISION = 3;
+
+	/** Scales for fixed-point formatting, up to the nine decimal places. */
+	private static final long[] POW10 = { 1L, 10L, 100L, 1000L, 10000L,
+		100000L, 1000000L, 10000000L, 100000000L, 1000000000L };
+
+	private ResultsTableCells() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Checks if the value at the given position is a String.
+	 *
+	 * @return true if the value at the given location is a String, otherwise
+	 *         false
+	 */
+	public static boolean isString(final ResultsTable table, final int col,
+		final int row)
+	{
+		final double d = table.getValueAsDouble(col, row);
+		return !Double.isNaN(d) ? false : isText(table.getStringValue(col, row));
+	}
+
+	/**
+	 * Gets the value at the given position, as a {@code String} for textual
+	 * cells and as a {@code Double} otherwise.
+	 */
+	public static Object get(final ResultsTable table, final int col,
+		final int row)
+	{
+		final double d = table.getValueAsDouble(col, row);
+		if (!Double.isNaN(d)) return d;
+		final String s = table.getStringValue(col, row);
+		return isText(s) ? s : d;
+	}
+
+	/**
+	 * Gets the value used to fill empty cells of the given table: {@code NaN}
+	 * if {@link ResultsTable#setNaNEmptyCells(boolean)} is on, zero otherwise.
+	 */
+	public static double emptyCellValue(final ResultsTable table) {
+		if (NAN_EMPTY_CELLS == null) return 0;
+		try {
+			return (boolean) NAN_EMPTY_CELLS.invoke(table) ? Double.NaN : 0;
+		}
+		catch (final Throwable t) {
+			// Keep as zero
+			return 0;
+		}
+	}
+
+	/**
+	 * Gets the array backing the given column, without copying. The array may
+	 * be longer than {@link ResultsTable#size()}; only that many leading
+	 * elements are meaningful. It stays live only until the table reallocates
+	 * its storage, i.e. until rows or columns are added beyond its capacity.
+	 * Falls back to {@link ResultsTable#getColumnAsDoubles(int)} (a copy) if
+	 * the storage is not accessible.
+	 *
+	 * @return the column's values, or null if the column does not exist
+	 */
+	public static double[] getColumnArray(final ResultsTable table,
+		final int col)
+	{
+		if (COLUMNS != null) {
+			try {
+				final double[][] columns = (double[][]) COLUMNS.invoke(table);
+				if (col >= 0 && col < columns.length) return columns[col];
+			}
+			catch (final Throwable t) {
+				// fall back to a copy
+			}
+		}
+		return table.getColumnAsDoubles(col);
+	}
+
+	/**
+	 * Gets the array holding the row labels of the given table, without
+	 * copying. Its elements are the very {@code String} instances returned by
+	 * {@link ResultsTable#getLabel(int)}, and it may be longer than
+	 * {@link ResultsTable#size()}. Falls back to collecting the labels into a
+	 * new array if the storage is not accessible.
+	 *
+	 * @return the labels, or null if the table has no row labels
+	 */
+	public static String[] getRowLabels(final ResultsTable table) {
+		if (ROW_LABELS != null) {
+			try {
+				return (String[]) ROW_LABELS.invoke(table);
+			}
+			catch (final Throwable t) {
+				// fall back to a copy
+			}
+		}
+		final String[] labels = new String[table.size()];
+		for (int row = 0; row < labels.length; row++) {
+			labels[row] = table.getLabel(row);
+		}
+		return labels;
+	}
+
+	/**
+	 * Checks if any cell of the given column is a String, given the array
+	 * backing it.
+	 */
+	public static boolean hasStrings(final ResultsTable table, final int col,
+		final double[] values)
+	{
+		final int size = Math.min(table.size(), values.length);
+		for (int row = 0; row < size; row++) {
+			if (Double.isNaN(values[row]) && //
+				isText(table.getStringValue(col, row))) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Deletes the given rows in a single compacting pass over the table's
+	 * storage, instead of shifting every column once per deleted row as
+	 * {@link ResultsTable#deleteRow(int)} does. Falls back to deleting the rows
+	 * one by one, last first, if the storage is not accessible.
+	 *
+	 * @param rows the rows to delete, sorted in ascending order without
+	 *          duplicates
+	 */
+	public static void deleteRows(final ResultsTable table, final int[] rows) {
+		if (rows.length == 0) return;
+		synchronized (table) {
+			if (!compact(table, rows)) {
+				for (int i = rows.length - 1; i >= 0; i--) {
+					table.deleteRow(rows[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Appends rows to the given table in bulk: the storage is grown and the
+	 * counter advanced once, then each column is copied with a single
+	 * {@link System#arraycopy}. Columns with a non-integral value among the
+	 * first 24 rows get the table's precision, as when adding the values one by
+	 * one. Falls back to adding the values one by one if the storage is not
+	 * accessible. Row labels are left alone.
+	 *
+	 * @param cols the table column to fill from each of the given arrays
+	 * @param values the values of each column, indexed by row
+	 * @param from the first row to append, i.e. the table's current size
+	 * @param to the end of the rows to append, exclusive
+	 */
+	public static void appendRows(final ResultsTable table, final int[] cols,
+		final double[][] values, final int from, final int to)
+	{
+		if (from != table.size()) {
+			throw new IllegalArgumentException("Rows must be appended at " + table
+				.size() + ", not " + from);
+		}
+		for (final int col : cols) {
+			if (col < 0) throw new IllegalArgumentException("Column out of range");
+		}
+		if (to <= from) return;
+		synchronized (table) {
+			if (!append(table, cols, values, from, to)) {
+				for (int r = from; r < to; r++) {
+					table.incrementCounter();
+					for (int c = 0; c < cols.length; c++) {
+						table.setValue(cols[c], r, values[c][r]);
+					}
+				}
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Grows the table's storage and copies the given columns into it. */
+	private static boolean append(final ResultsTable table, final int[] cols,
+		final double[][] values, final int from, final int to)
+	{
+		if (COLUMNS == null || ROW_LABELS == null || SET_ROW_LABELS == null ||
+			COUNTER == null || MAX_ROWS == null || SET_MAX_ROWS == null)
+		{
+			return false;
+		}
+		try {
+			// grow the storage once, keeping the capacity above the counter
+			final int maxRows = (int) MAX_ROWS.invoke(table);
+			if (to >= maxRows) {
+				int capacity = maxRows;
+				while (capacity <= to) capacity *= 2;
+				final double[][] columns = (double[][]) COLUMNS.invoke(table);
+				final double empty = emptyCellValue(table);
+				for (int col = 0; col <= table.getLastColumn(); col++) {
+					if (columns[col] == null) continue;
+					columns[col] = Arrays.copyOf(columns[col], capacity);
+					if (empty != 0) {
+						Arrays.fill(columns[col], maxRows, capacity, empty);
+					}
+				}
+				final String[] rowLabels = (String[]) ROW_LABELS.invoke(table);
+				if (rowLabels != null) {
+					SET_ROW_LABELS.invoke(table, //
+						Arrays.copyOf(rowLabels, capacity));
+				}
+				SET_MAX_ROWS.invoke(table, capacity);
+			}
+			COUNTER.invoke(table, to);
+		}
+		catch (final Throwable t) {
+			// cannot happen: accessors resolved for fields of these types
+			throw new IllegalStateException(t);
+		}
+
+		final int places = precision(table);
+		for (int c = 0; c < cols.length; c++) {
+			final int col = cols[c];
+			// NB: Setting a value creates the column if necessary.
+			table.setValue(col, from, values[c][from]);
+			final double[] column = getColumnArray(table, col);
+			System.arraycopy(values[c], from, column, from, to - from);
+			for (int r = from; r < Math.min(to, 24); r++) {
+				final double value = values[c][r];
+				if ((int) value != value && !Double.isNaN(value)) {
+					table.setDecimalPlaces(col, places);
+					break;
+				}
+			}
+		}
+		return true;
+	}
+
+	/** Compacts the table's storage in place, skipping the given rows. */
+	private static boolean compact(final ResultsTable table, final int[] rows) {
+		if (COLUMNS == null || ROW_LABELS == null || STRING_COLUMNS == null ||
+			COUNTER == null) return false;
+		final double[][] columns;
+		final String[] rowLabels;
+		final Map<?, ?> stringColumns;
+		try {
+			columns = (double[][]) COLUMNS.invoke(table);
+			rowLabels = (String[]) ROW_LABELS.invoke(table);
+			stringColumns = (Map<?, ?>) STRING_COLUMNS.invoke(table);
+		}
+		catch (final Throwable t) {
+			return false;
+		}
+
+		final int size = table.size();
+		final int last = table.getLastColumn();
+		for (int col = 0; col <= last; col++) {
+			if (columns[col] != null) compact(columns[col], size, rows);
+		}
+		if (rowLabels != null) compact(rowLabels, size, rows);
+		if (stringColumns != null) {
+			for (final Object stringColumn : stringColumns.values()) {
+				// NB: string columns may be shorter than the table
+				compact((List<?>) stringColumn, rows);
+			}
+		}
+		try {
+			COUNTER.invoke(table, size - rows.length);
+		}
+		catch (final Throwable t) {
+			// cannot happen: setter resolved for an int field
+			throw new IllegalStateException(t);
+		}
+		return true;
+	}
+
+	private static void compact(final double[] values, final int size,
+		final int[] rows)
+	{
+		int dst = rows[0];
+		for (int i = 0; i < rows.length; i++) {
+			final int end = i + 1 < rows.length ? rows[i + 1] : size;
+			final int length = end - rows[i] - 1;
+			System.arraycopy(values, rows[i] + 1, values, dst, length);
+			dst += length;
+		}
+	}
+
+	private static void compact(final Object[] values, final int size,
+		final int[] rows)
+	{
+		int dst = rows[0];
+		for (int i = 0; i < rows.length; i++) {
+			final int end = i + 1 < rows.length ? rows[i + 1] : size;
+			final int length = end - rows[i] - 1;
+			System.arraycopy(values, rows[i] + 1, values, dst, length);
+			dst += length;
+		}
+		for (int i = size - rows.length; i < size; i++) {
+			values[i] = null;
+		}
+	}
+
+	private static void compact(final List<?> values, final int[] rows) {
+		final int size = values.size();
+		int dst = 0, next = 0;
+		for (int src = 0; src < size; src++) {
+			if (next < rows.length && rows[next] == src) {
+				next++;
+				continue;
+			}
+			set(values, dst++, values.get(src));
+		}
+		values.subList(dst, size).clear();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> void set(final List<T> list, final int index,
+		final Object value)
+	{
+		list.set(index, (T) value);
+	}
+
+	/**
+	 * Gets the number of decimal places the given table formats the numbers of
+	 * the given column with: the column's own setting, or the table's precision
+	 * if the column is formatted automatically. Negative values denote
+	 * scientific notation with that many significant digits.
+	 */
+	public static int getDecimalPlaces(final ResultsTable table, final int col) {
+		final short places = decimalPlacesSetting(table, col);
+		return places == ResultsTable.AUTO_FORMAT ? precision(table) : places;
+	}
+
+	/**
+	 * Checks whether the given table formats the integral numbers of the given
+	 * column without decimals.
+	 */
+	public static boolean isAutoFormat(final ResultsTable table, final int col) {
+		return decimalPlacesSetting(table, col) == ResultsTable.AUTO_FORMAT &&
+			precision(table) >= 0;
+	}
+
+	/**
+	 * Formats a number as a {@link ResultsTable} does.
+	 *
+	 * @param places the number of decimal places, as returned by
+	 *          {@link #getDecimalPlaces}
+	 * @param auto whether integral numbers are written without decimals, as
+	 *          returned by {@link #isAutoFormat}
+	 */
+	public static String format(final double value, final int places,
+		final boolean auto)
+	{
+		if (auto && value == (int) value) return ResultsTable.d2s(value, 0);
+		return ResultsTable.d2s(value, places);
+	}
+
+	/**
+	 * Formats a number exactly as {@link #format(double, int, boolean)} does,
+	 * but into the given array and without allocating, where that can be done
+	 * safely: for fixed-point notation not too close to a rounding tie.
+	 * {@link ResultsTable#d2s} rounds the exact binary value half-even; where
+	 * that cannot be decided from a {@code double} product, and where it
+	 * chooses scientific notation, -1 is returned and the caller must use
+	 * {@link #format(double, int, boolean)} instead.
+	 *
+	 * @param dst the array to format into, with room for 32 characters
+	 * @return the number of characters written, or -1 if none were
+	 */
+	public static int format(final double value, final int places,
+		final boolean auto, final byte[] dst)
+	{
+		if (Double.isNaN(value)) return ascii("NaN", dst);
+		if (Double.isInfinite(value)) {
+			return ascii(value > 0 ? "Infinity" : "-Infinity", dst);
+		}
+		final int p = auto && value == (int) value ? 0 : places;
+		if (p < 0 || p >= POW10.length) return -1;
+		final double abs = Math.abs(value);
+		// NB: The same test as in d2s, which also catches Float.MAX_VALUE.
+		if (abs < 0.001 && abs != 0.0 && abs < 1.0 / Math.pow(10, p) ||
+			abs > 999999999999d) return -1;
+		final double scaled = abs * POW10[p];
+		if (scaled >= 1e15) return -1;
+		final double floor = Math.floor(scaled);
+		final double fraction = scaled - floor;
+		if (Math.abs(fraction - 0.5) <= 4 * Math.ulp(scaled)) return -1;
+
+		long digits = (long) floor + (fraction > 0.5 ? 1 : 0);
+		int i = dst.length;
+		for (int d = 0; d < p; d++) {
+			dst[--i] = (byte) ('0' + digits % 10);
+			digits /= 10;
+		}
+		if (p > 0) dst[--i] = '.';
+		do {
+			dst[--i] = (byte) ('0' + digits % 10);
+			digits /= 10;
+		}
+		while (digits != 0);
+		// NB: DecimalFormat keeps the sign of numbers rounding to zero.
+		if (Double.doubleToRawLongBits(value) < 0) dst[--i] = '-';
+		final int length = dst.length - i;
+		System.arraycopy(dst, i, dst, 0, length);
+		return length;
+	}
+
+	private static int ascii(final String s, final byte[] dst) {
+		for (int i = 0; i < s.length(); i++) {
+			dst[i] = (byte) s.charAt(i);
+		}
+		return s.length();
+	}
+
+	private static short decimalPlacesSetting(final ResultsTable table,
+		final int col)
+	{
+		if (DECIMAL_PLACES == null) return ResultsTable.AUTO_FORMAT;
+		try {
+			final short[] places = (short[]) DECIMAL_PLACES.invoke(table);
+			if (col >= 0 && col < places.length) return places[col];
+		}
+		catch (final Throwable t) {
+			// fall back to automatic formatting
+		}
+		return ResultsTable.AUTO_FORMAT;
+	}
+
+	private static int precision(final ResultsTable table) {
+		if (PRECISION == null) return DEFAULT_PRECISION;
+		try {
+			return (short) PRECISION.invoke(table);
+		}
+		catch (final Throwable t) {
+			return DEFAULT_PRECISION;
+		}
+	}
+
+	/** Checks whether the string value of a {@code NaN} cell is real text. */
+	private static boolean isText(final String s) {
+		// Special case for NaN
+		if (s == "" || s == null) return false;
+
+		return !s.equals("NaN");
+	}
+
+	private static MethodHandle setter(final String name) {
+		try {
+			final Field f = ResultsTable.class.getDeclaredField(name);
+			f.setAccessible(true);
+			return MethodHandles.lookup().unreflectSetter(f);
+		}
+		catch (final Exception exc) {
+			return null;
+		}
+	}
+
+	private static MethodHandle getter(final String name) {
+		try {
+			final Field f = ResultsTable.class.getDeclaredField(name);
+			f.setAccessible(true);
+			return MethodHandles.lookup().unreflectGetter(f);
+		}
+		catch (final Exception exc) {
+			return null;
+		}
+	}
+
+}
@@ -31,8 +31,6 @@
 
 package net.imagej.legacy.convert;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -103,8 +101,7 @@ public class ResultsTableColumnWrapper extends GenericColumn {
 	public Object[] toArray() {
 		final Object[] values = new Object[table.size()];
 		for (int i = 0; i < values.length; i++) {
-			if (checkString(i)) values[i] = table.getStringValue(col, i);
-			else values[i] = table.getValueAsDouble(col, i);
+			values[i] = ResultsTableCells.get(table, col, i);
 		}
 		return values;
 	}
@@ -116,8 +113,7 @@ public class ResultsTableColumnWrapper extends GenericColumn {
 			.newInstance(a.getClass().getComponentType(), table.size()) : a;
 
 		for (int i = 0; i < table.size(); i++) {
-			if (checkString(i)) copy[i] = (T) table.getStringValue(col, i);
-			else copy[i] = (T) Double.valueOf(table.getValueAsDouble(col, i));
+			copy[i] = (T) ResultsTableCells.get(table, col, i);
 		}
 		if (copy.length > table.size()) copy[table.size()] = null;
 
@@ -178,16 +174,7 @@ public class ResultsTableColumnWrapper extends GenericColumn {
 	@Override
 	public void clear() {
 		// Determine if empty cells are NaN or 0
-		double fill = 0;
-		try {
-			final Field f = ResultsTable.class.getDeclaredField("NaNEmptyCells");
-			f.setAccessible(true);
-			final boolean nan = (boolean) f.get(table);
-			fill = nan ? Double.NaN : 0;
-		}
-		catch (final Exception exc) {
-			// Keep as zero
-		}
+		final double fill = ResultsTableCells.emptyCellValue(table);
 
 		for (int i = 0; i < table.size(); i++) {
 			// set strings to "", this must be done first. Since setting the string
@@ -199,10 +186,22 @@ public class ResultsTableColumnWrapper extends GenericColumn {
 
 	@Override
 	public Object get(final int index) {
-		if (checkString(index)) return table.getStringValue(col, index);
+		return ResultsTableCells.get(table, col, index);
+	}
+
+	/**
+	 * Gets the numeric value at the given index, without boxing. Textual cells
+	 * are {@code NaN}.
+	 */
+	public double getDouble(final int index) {
 		return table.getValueAsDouble(col, index);
 	}
 
+	/** Checks if the value at the given index is a String. */
+	public boolean isString(final int index) {
+		return ResultsTableCells.isString(table, col, index);
+	}
+
 	/**
 	 * Sets the value at the given index. If {@code element} is a {@code Number}
 	 * it will be stored as {@code double}.
@@ -210,9 +209,7 @@ public class ResultsTableColumnWrapper extends GenericColumn {
 	@Override
 	public Object set(final int index, final Object element) {
 		// Store the previous value
-		Object prev = null;
-		if (checkString(index)) prev = table.getStringValue(col, index);
-		else prev = table.getValueAsDouble(col, index);
+		final Object prev = ResultsTableCells.get(table, col, index);
 
 		// Set the new value
 		if (element instanceof Number) table.setValue(col, index, ((Number) element)
@@ -258,8 +255,7 @@ public class ResultsTableColumnWrapper extends GenericColumn {
 	public List<Object> subList(final int fromIndex, final int toIndex) {
 		final List<Object> l = new ArrayList<>(toIndex - fromIndex);
 		for (int i = fromIndex; i < toIndex; i++) {
-			if (checkString(i)) l.add(table.getStringValue(col, i));
-			else l.add(table.getValueAsDouble(col, i));
+			l.add(ResultsTableCells.get(table, col, i));
 		}
 		return l;
 	}
@@ -276,44 +272,6 @@ public class ResultsTableColumnWrapper extends GenericColumn {
 
 	// -- Helper methods --
 
-	/**
-	 * Checks if the value at the given row in the column is a String.
-	 *
-	 * @param row position to check value at in column
-	 * @return true if the value at the given location is a String, otherwise
-	 *         false
-	 */
-	private boolean checkString(final int row) {
-		final double d = table.getValueAsDouble(col, row);
-		final String s = table.getStringValue(col, row);
-
-		// convert d to a string, as ResultsTable would
-		String c = "";
-		try {
-			final Field f = ResultsTable.class.getDeclaredField("decimalPlaces");
-			f.setAccessible(true);
-			final short[] dec = (short[]) f.get(table);
-			final short places = dec[col];
-			if (places == Short.MIN_VALUE) {
-				final Method m = table.getClass().getDeclaredMethod("n", double.class);
-				m.setAccessible(true);
-				c = (String) m.invoke(table, d);
-			}
-			else {
-				c = ResultsTable.d2s(d, dec[col]);
-			}
-		}
-		catch (final Exception exc) {
-			// if can't get the decimal places or n(...), call d2s with AUTO_FORMAT
-			c = ResultsTable.d2s(d, ResultsTable.AUTO_FORMAT);
-		}
-
-		// Special case for NaN
-		if (((Double) d).isNaN() && (s == "" || s == null)) return false;
-
-		return !s.equals(c);
-	}
-
 	private int findInRange(final Object o, final IntStream range) {
 		return range.filter(i -> cellContains(o, i)).findFirst().orElse(-1);
 	}
@@ -0,0 +1,646 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.convert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import net.imagej.table.Column;
+import net.imagej.table.DefaultGenericTable;
+import net.imagej.table.DoubleColumn;
+import net.imagej.table.GenericColumn;
+import net.imagej.table.GenericTable;
+
+/**
+ * Streams {@link GenericTable}s, such as {@link ResultsTableWrapper}s, to CSV
+ * or to a compact columnar binary format, and reads the binary format back.
+ * <p>
+ * Data is written through a {@link FileChannel} and a single reusable buffer,
+ * never building the whole file in memory. Numbers are formatted straight into
+ * that buffer, without intermediate {@code String}s. How each column is read
+ * is decided once per column, using the unboxed accessors of
+ * {@link ResultsTableWrapper}, {@link DoubleColumn} and
+ * {@link OffHeapDoubleColumn} where available.
+ * </p>
+ * <p>
+ * The binary format is little-endian: a header with the magic number, version,
+ * column and row counts; the header and type of each column; the row labels,
+ * if any; then the data of each column in turn. Numeric columns are stored as
+ * raw doubles, so that {@link #importBinary(File)} can load them with one bulk
+ * read from a memory-mapped file. Columns containing text store a tag and a
+ * value per cell.
+ * </p>
+ */
+public class ResultsTableExporter {
+
+	/** Callback reporting the progress of an export. */
+	public interface ProgressListener {
+
+		/** Reports that {@code done} out of {@code total} cells were written. */
+		void progress(long done, long total);
+	}
+
+	/** Default size of the write buffer (1 MiB). */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Default number of decimal places in CSV for columns without a format of
+	 * their own, as for IJ1 results.
+	 */
+	public static final int DEFAULT_DECIMAL_PLACES = 3;
+
+	private static final int MAGIC = 0x54524A49; // "IJRT"
+	private static final short VERSION = 1;
+
+	private static final byte DOUBLE_COLUMN = 0;
+	private static final byte MIXED_COLUMN = 1;
+
+	private static final byte NULL_CELL = 0;
+	private static final byte NUMBER_CELL = 1;
+	private static final byte STRING_CELL = 2;
+
+	/** Number of rows between progress reports. */
+	private static final int PROGRESS_STEP = 1 << 16;
+
+	/** Size of the regions mapped when reading variable-length data. */
+	private static final int READ_WINDOW = 1 << 24;
+
+	/** Most decimal places {@link ij.measure.ResultsTable#d2s} supports. */
+	private static final int MAX_DECIMAL_PLACES = 9;
+
+	private final int bufferSize;
+	private int decimalPlaces = DEFAULT_DECIMAL_PLACES;
+	private char separator = ',';
+	private ProgressListener listener;
+
+	// -- Fields used while writing --
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private final byte[] digits = new byte[32];
+
+	public ResultsTableExporter() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	public ResultsTableExporter(final int bufferSize) {
+		if (bufferSize < 64) {
+			throw new IllegalArgumentException("Buffer too small: " + bufferSize);
+		}
+		this.bufferSize = bufferSize;
+	}
+
+	// -- ResultsTableExporter methods --
+
+	/**
+	 * Sets the number of decimal places (0-9) of numbers written to CSV from
+	 * columns without a format of their own. The columns of a
+	 * {@link ResultsTableWrapper} are written with the decimal places of the
+	 * wrapped IJ1 table instead.
+	 */
+	public void setDecimalPlaces(final int decimalPlaces) {
+		if (decimalPlaces < 0 || decimalPlaces > MAX_DECIMAL_PLACES) {
+			throw new IllegalArgumentException("Invalid decimal places: " +
+				decimalPlaces);
+		}
+		this.decimalPlaces = decimalPlaces;
+	}
+
+	/** Sets the character separating the cells of a CSV row. */
+	public void setSeparator(final char separator) {
+		this.separator = separator;
+	}
+
+	/** Sets the listener notified of the progress of each export. */
+	public void setProgressListener(final ProgressListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Writes the given table to the given file as CSV. The numbers of a
+	 * {@link ResultsTableWrapper} are formatted as the wrapped IJ1 table does,
+	 * honoring the decimal places of each column. Otherwise, integral numbers
+	 * are written without decimals, others with the configured number of
+	 * decimal places. If any row has a label, the labels form a leading "Label"
+	 * column.
+	 */
+	public synchronized void exportCSV(final GenericTable table,
+		final File file) throws IOException
+	{
+		final int columns = table.getColumnCount();
+		final int rows = table.getRowCount();
+		final CellReader[] readers = readers(table, decimalPlaces);
+		final boolean labels = hasRowLabels(table);
+		final long total = (long) columns * rows;
+
+		open(file);
+		try {
+			boolean first = true;
+			if (labels) {
+				putText("Label");
+				first = false;
+			}
+			for (int c = 0; c < columns; c++) {
+				if (!first) putByte(separator);
+				first = false;
+				putText(table.getColumnHeader(c));
+			}
+			putByte('\n');
+
+			for (int r = 0; r < rows; r++) {
+				first = true;
+				if (labels) {
+					putText(table.getRowHeader(r));
+					first = false;
+				}
+				for (int c = 0; c < columns; c++) {
+					if (!first) putByte(separator);
+					first = false;
+					final CellReader reader = readers[c];
+					if (!reader.isString(r)) {
+						putNumber(reader.getDouble(r), reader.places, reader.auto);
+					}
+					else putText(reader.getString(r));
+				}
+				putByte('\n');
+				if (r % PROGRESS_STEP == PROGRESS_STEP - 1) {
+					progress((long) (r + 1) * columns, total);
+				}
+			}
+			flush();
+			progress(total, total);
+		}
+		finally {
+			close();
+		}
+	}
+
+	/** Writes the given table to the given file in the binary format. */
+	public synchronized void exportBinary(final GenericTable table,
+		final File file) throws IOException
+	{
+		final int columns = table.getColumnCount();
+		final int rows = table.getRowCount();
+		final CellReader[] readers = readers(table, decimalPlaces);
+		final boolean labels = hasRowLabels(table);
+		final long total = (long) columns * rows;
+
+		final boolean[] numeric = new boolean[columns];
+		for (int c = 0; c < columns; c++) {
+			numeric[c] = readers[c].isNumeric(rows);
+		}
+
+		open(file);
+		try {
+			ensure(15);
+			buffer.putInt(MAGIC).putShort(VERSION).putInt(columns).putInt(rows);
+			buffer.put((byte) (labels ? 1 : 0));
+			for (int c = 0; c < columns; c++) {
+				putString(table.getColumnHeader(c));
+				putByte(numeric[c] ? DOUBLE_COLUMN : MIXED_COLUMN);
+			}
+			if (labels) {
+				for (int r = 0; r < rows; r++) {
+					putString(table.getRowHeader(r));
+				}
+			}
+			for (int c = 0; c < columns; c++) {
+				final CellReader reader = readers[c];
+				for (int r = 0; r < rows; r++) {
+					if (numeric[c]) {
+						ensure(8);
+						buffer.putDouble(reader.getDouble(r));
+					}
+					else if (reader.isString(r)) {
+						final String s = reader.getString(r);
+						putByte(s == null ? NULL_CELL : STRING_CELL);
+						if (s != null) putString(s);
+					}
+					else {
+						ensure(9);
+						buffer.put(NUMBER_CELL).putDouble(reader.getDouble(r));
+					}
+					if (r % PROGRESS_STEP == PROGRESS_STEP - 1) {
+						progress((long) c * rows + r + 1, total);
+					}
+				}
+				progress((long) (c + 1) * rows, total);
+			}
+			flush();
+		}
+		finally {
+			close();
+		}
+	}
+
+	/**
+	 * Reads a table written by {@link #exportBinary(GenericTable, File)}.
+	 * Numeric columns become {@link DoubleColumn}s, filled by one bulk read of
+	 * the memory-mapped file each; columns containing text become
+	 * {@link GenericColumn}s.
+	 */
+	public static GenericTable importBinary(final File file)
+		throws IOException
+	{
+		try (final FileChannel in = FileChannel.open(file.toPath(),
+			StandardOpenOption.READ))
+		{
+			final MappedReader reader = new MappedReader(in);
+			if (reader.getInt() != MAGIC) {
+				throw new IOException("Not a results table file: " + file);
+			}
+			final short version = reader.getShort();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version " + version + ": " + file);
+			}
+			final int columns = reader.getInt();
+			final int rows = reader.getInt();
+			final boolean labels = reader.getByte() != 0;
+			final String[] headers = new String[columns];
+			final byte[] types = new byte[columns];
+			for (int c = 0; c < columns; c++) {
+				headers[c] = reader.getString();
+				types[c] = reader.getByte();
+			}
+
+			final GenericTable table = new DefaultGenericTable();
+			table.setRowCount(rows);
+			if (labels) {
+				for (int r = 0; r < rows; r++) {
+					table.setRowHeader(r, reader.getString());
+				}
+			}
+			for (int c = 0; c < columns; c++) {
+				if (types[c] == DOUBLE_COLUMN) {
+					final double[] values = new double[rows];
+					reader.getDoubles(values);
+					final DoubleColumn column = new DoubleColumn(headers[c]);
+					column.setArray(values);
+					column.setSize(rows);
+					table.add(column);
+				}
+				else {
+					final GenericColumn column = new GenericColumn(headers[c]);
+					for (int r = 0; r < rows; r++) {
+						final byte tag = reader.getByte();
+						if (tag == NUMBER_CELL) column.add(reader.getDouble());
+						else if (tag == STRING_CELL) column.add(reader.getString());
+						else column.add(null);
+					}
+					table.add(column);
+				}
+			}
+			return table;
+		}
+	}
+
+	// -- Helper methods --
+
+	private void open(final File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(bufferSize).order(
+				ByteOrder.LITTLE_ENDIAN);
+		}
+		buffer.clear();
+	}
+
+	private void close() throws IOException {
+		try {
+			channel.close();
+		}
+		finally {
+			channel = null;
+		}
+	}
+
+	private void progress(final long done, final long total) {
+		if (listener != null) listener.progress(done, total);
+	}
+
+	/** Makes room for the given number of bytes in the buffer. */
+	private void ensure(final int bytes) throws IOException {
+		if (buffer.remaining() < bytes) flush();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void putByte(final int b) throws IOException {
+		ensure(1);
+		buffer.put((byte) b);
+	}
+
+	private void putBytes(final byte[] bytes) throws IOException {
+		if (bytes.length > buffer.capacity()) {
+			flush();
+			final ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+			while (wrapped.hasRemaining()) {
+				channel.write(wrapped);
+			}
+			return;
+		}
+		ensure(bytes.length);
+		buffer.put(bytes);
+	}
+
+	/** Writes a length-prefixed UTF-8 string; null has length -1. */
+	private void putString(final String s) throws IOException {
+		ensure(4);
+		if (s == null) {
+			buffer.putInt(-1);
+			return;
+		}
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		buffer.putInt(bytes.length);
+		putBytes(bytes);
+	}
+
+	/** Writes a CSV cell, quoting it if needed; null is an empty cell. */
+	private void putText(final String s) throws IOException {
+		if (s == null) return;
+		boolean quote = false;
+		for (int i = 0; i < s.length() && !quote; i++) {
+			final char ch = s.charAt(i);
+			quote = ch == separator || ch == '"' || ch == '\n' || ch == '\r';
+		}
+		if (!quote) {
+			putBytes(s.getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+		putByte('"');
+		putBytes(s.replace("\"", "\"\"").getBytes(StandardCharsets.UTF_8));
+		putByte('"');
+	}
+
+	/**
+	 * Formats the given number into the buffer exactly as
+	 * {@link ij.measure.ResultsTable#d2s} would, with the given decimal places.
+	 * If {@code auto} is set, integral numbers are written without decimals.
+	 * Only scientific notation and near ties, which are rare, allocate.
+	 */
+	private void putNumber(final double value, final int places,
+		final boolean auto) throws IOException
+	{
+		ensure(32);
+		final int length = ResultsTableCells.format(value, places, auto, digits);
+		if (length >= 0) buffer.put(digits, 0, length);
+		else putAscii(ResultsTableCells.format(value, places, auto));
+	}
+
+	private void putAscii(final String s) {
+		for (int i = 0; i < s.length(); i++) {
+			buffer.put((byte) s.charAt(i));
+		}
+	}
+
+	private static boolean hasRowLabels(final GenericTable table) {
+		for (int r = 0; r < table.getRowCount(); r++) {
+			if (table.getRowHeader(r) != null) return true;
+		}
+		return false;
+	}
+
+	private static CellReader[] readers(final GenericTable table,
+		final int decimalPlaces)
+	{
+		final CellReader[] readers = new CellReader[table.getColumnCount()];
+		for (int c = 0; c < readers.length; c++) {
+			readers[c] = reader(table, c);
+			if (table instanceof ResultsTableWrapper) {
+				final ResultsTableWrapper wrapper = (ResultsTableWrapper) table;
+				readers[c].places = wrapper.getDecimalPlaces(c);
+				readers[c].auto = wrapper.isAutoFormat(c);
+			}
+			else readers[c].places = decimalPlaces;
+		}
+		return readers;
+	}
+
+	private static CellReader reader(final GenericTable table, final int col) {
+		if (table instanceof ResultsTableWrapper) {
+			final ResultsTableWrapper wrapper = (ResultsTableWrapper) table;
+			return new CellReader() {
+
+				@Override
+				public boolean isString(final int row) {
+					return wrapper.isString(col, row);
+				}
+
+				@Override
+				public double getDouble(final int row) {
+					return wrapper.getDouble(col, row);
+				}
+
+				@Override
+				public String getString(final int row) {
+					return (String) wrapper.get(col, row);
+				}
+			};
+		}
+		final Column<?> column = table.get(col);
+		if (column instanceof OffHeapDoubleColumn) {
+			final OffHeapDoubleColumn doubles = (OffHeapDoubleColumn) column;
+			return new NumericCellReader() {
+
+				@Override
+				public double getDouble(final int row) {
+					return doubles.getValue(row);
+				}
+			};
+		}
+		if (column instanceof DoubleColumn) {
+			final DoubleColumn doubles = (DoubleColumn) column;
+			return new NumericCellReader() {
+
+				@Override
+				public double getDouble(final int row) {
+					return doubles.getValue(row);
+				}
+			};
+		}
+		return new CellReader() {
+
+			@Override
+			public boolean isString(final int row) {
+				return !(column.get(row) instanceof Number);
+			}
+
+			@Override
+			public double getDouble(final int row) {
+				return ((Number) column.get(row)).doubleValue();
+			}
+
+			@Override
+			public String getString(final int row) {
+				final Object value = column.get(row);
+				return value == null ? null : value.toString();
+			}
+		};
+	}
+
+	// -- Helper classes --
+
+	/** Reads the cells of one column, in the way suited to its storage. */
+	private abstract static class CellReader {
+
+		/** Decimal places of the numbers in CSV. */
+		protected int places = DEFAULT_DECIMAL_PLACES;
+
+		/** Whether integral numbers are written to CSV without decimals. */
+		protected boolean auto = true;
+
+		/** Whether the cell is text (or null) rather than a number. */
+		public abstract boolean isString(int row);
+
+		public abstract double getDouble(int row);
+
+		public abstract String getString(int row);
+
+		/** Whether the first {@code rows} cells are all numbers. */
+		public boolean isNumeric(final int rows) {
+			for (int r = 0; r < rows; r++) {
+				if (isString(r)) return false;
+			}
+			return true;
+		}
+	}
+
+	private abstract static class NumericCellReader extends CellReader {
+
+		@Override
+		public boolean isString(final int row) {
+			return false;
+		}
+
+		@Override
+		public String getString(final int row) {
+			return ResultsTableCells.format(getDouble(row), places, auto);
+		}
+
+		@Override
+		public boolean isNumeric(final int rows) {
+			return true;
+		}
+	}
+
+	/** Sequential reader over a file, mapping it region by region. */
+	private static class MappedReader {
+
+		private final FileChannel channel;
+		private MappedByteBuffer region;
+		private long regionStart;
+
+		public MappedReader(final FileChannel channel) {
+			this.channel = channel;
+		}
+
+		public byte getByte() throws IOException {
+			return require(1).get();
+		}
+
+		public short getShort() throws IOException {
+			return require(2).getShort();
+		}
+
+		public int getInt() throws IOException {
+			return require(4).getInt();
+		}
+
+		public double getDouble() throws IOException {
+			return require(8).getDouble();
+		}
+
+		public String getString() throws IOException {
+			final int length = getInt();
+			if (length < 0) return null;
+			final byte[] bytes = new byte[length];
+			require(length).get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/** Fills the given array with one bulk read from the mapped file. */
+		public void getDoubles(final double[] values) throws IOException {
+			final long bytes = (long) values.length * Double.BYTES;
+			if (bytes > Integer.MAX_VALUE) {
+				// too large to map at once; read in pieces
+				final int step = READ_WINDOW / Double.BYTES;
+				for (int i = 0; i < values.length; i += step) {
+					final int n = Math.min(step, values.length - i);
+					require(n * Double.BYTES).asDoubleBuffer().get(values, i, n);
+					skip(n * Double.BYTES);
+				}
+				return;
+			}
+			final ByteBuffer data = require((int) bytes);
+			data.asDoubleBuffer().get(values);
+			skip((int) bytes);
+		}
+
+		/**
+		 * Ensures the given number of bytes are mapped from the current position
+		 * on, remapping if needed, and returns the mapped region.
+		 */
+		private ByteBuffer require(final int bytes) throws IOException {
+			if (region == null || region.remaining() < bytes) {
+				final long position = region == null ? 0 : regionStart + region
+					.position();
+				final long length = Math.min(Math.max(READ_WINDOW, bytes), channel
+					.size() - position);
+				if (length < bytes) throw new IOException("Unexpected end of file");
+				region = channel.map(MapMode.READ_ONLY, position, length);
+				region.order(ByteOrder.LITTLE_ENDIAN);
+				regionStart = position;
+			}
+			return region;
+		}
+
+		private void skip(final int bytes) {
+			region.position(region.position() + bytes);
+		}
+	}
+
+}
@@ -0,0 +1,297 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.legacy.convert;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+
+import net.imagej.table.DefaultGenericTable;
+import net.imagej.table.DoubleColumn;
+import net.imagej.table.GenericColumn;
+import net.imagej.table.GenericTable;
+
+import org.scijava.Priority;
+import org.scijava.convert.AbstractConverter;
+import org.scijava.convert.Converter;
+import org.scijava.plugin.Plugin;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Converts a {@link ResultsTable} to a columnar {@link DefaultGenericTable}.
+ * <p>
+ * Unlike {@link ResultsTableToGenericTableConverter}, which wraps the table
+ * cell by cell and boxes every value it hands out, this converter inspects
+ * each column once: columns holding only numbers become read-only
+ * {@link DoubleColumn}s viewing the table's own storage, without boxing or
+ * copying, while columns containing text are copied into
+ * {@link GenericColumn}s. Undefined columns are skipped, as the
+ * {@link ResultsTable} display does.
+ * </p>
+ * <p>
+ * The numeric columns fail with a
+ * {@link ConcurrentModificationException} once rows are added to or
+ * removed from the {@link ResultsTable}; use {@link #snapshot(ResultsTable)}
+ * for a table which stays valid regardless. This converter is chosen when a
+ * {@link DefaultGenericTable} is requested explicitly; requests for a
+ * {@link GenericTable} still get the live wrapper.
+ * </p>
+ */
+@Plugin(type = Converter.class, priority = Priority.VERY_LOW)
+public class ResultsTableToDefaultGenericTableConverter extends
+	AbstractConverter<ResultsTable, DefaultGenericTable>
+{
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T convert(final Object src, final Class<T> dest) {
+		if (src == null || dest == null) throw new NullPointerException();
+		if (!(src instanceof ResultsTable)) return null;
+
+		return (T) convertColumnar((ResultsTable) src, false);
+	}
+
+	@Override
+	public Class<DefaultGenericTable> getOutputType() {
+		return DefaultGenericTable.class;
+	}
+
+	@Override
+	public Class<ResultsTable> getInputType() {
+		return ResultsTable.class;
+	}
+
+	// -- Utility methods --
+
+	/**
+	 * Copies the given {@link ResultsTable} into a columnar
+	 * {@link DefaultGenericTable}. Unlike the converted table, the copy is
+	 * unaffected by later changes to the {@link ResultsTable}.
+	 */
+	public static DefaultGenericTable snapshot(final ResultsTable table) {
+		return convertColumnar(table, true);
+	}
+
+	// -- Helper methods --
+
+	private static DefaultGenericTable convertColumnar(final ResultsTable table,
+		final boolean snapshot)
+	{
+		final int rowCount = table.size();
+		final DefaultGenericTable columnar = new DefaultGenericTable();
+		columnar.setRowCount(rowCount);
+
+		for (int col = 0; col <= table.getLastColumn(); col++) {
+			final double[] values = ResultsTableCells.getColumnArray(table, col);
+			if (values == null) continue;
+			final String header = table.getColumnHeading(col);
+			if (ResultsTableCells.hasStrings(table, col, values)) {
+				columnar.add(textColumn(table, col, header));
+			}
+			// NB: A second lookup returns the same array only if it is the
+			// table's own storage rather than a copy.
+			else if (!snapshot && ResultsTableCells.getColumnArray(table,
+				col) == values)
+			{
+				columnar.add(new ResultsTableDoubleColumn(table, col, values,
+					header));
+			}
+			else columnar.add(doubleColumn(values, rowCount, header));
+		}
+
+		for (int row = 0; row < rowCount; row++) {
+			final String label = table.getLabel(row);
+			if (label != null) columnar.setRowHeader(row, label);
+		}
+		return columnar;
+	}
+
+	private static DoubleColumn doubleColumn(final double[] values,
+		final int size, final String header)
+	{
+		// NB: Copy, as the ResultsTable keeps appending into its spare capacity.
+		final DoubleColumn column = new DoubleColumn(header);
+		column.setArray(Arrays.copyOf(values, size));
+		column.setSize(size);
+		return column;
+	}
+
+	private static GenericColumn textColumn(final ResultsTable table,
+		final int col, final String header)
+	{
+		final GenericColumn column = new GenericColumn(header);
+		for (int row = 0; row < table.size(); row++) {
+			column.add(ResultsTableCells.get(table, col, row));
+		}
+		return column;
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * A read-only {@link DoubleColumn} backed directly by the array in which a
+	 * {@link ResultsTable} stores one of its columns.
+	 * <p>
+	 * Nothing is copied or boxed up front. Since the {@link ResultsTable} may
+	 * reallocate its storage, or keep appending into the spare capacity of the
+	 * array, every element access checks that the table still has the same
+	 * number of rows and still stores the column in the same array; if not, a
+	 * {@link ConcurrentModificationException} is thrown. Edits of existing
+	 * cells are seen as they happen.
+	 * </p>
+	 */
+	private static class ResultsTableDoubleColumn extends DoubleColumn {
+
+		private final ResultsTable table;
+		private final int col;
+		private final double[] values;
+		private final int rows;
+
+		/**
+		 * Creates a view of the given column, which must currently be stored in
+		 * the given array.
+		 */
+		private ResultsTableDoubleColumn(final ResultsTable table, final int col,
+			final double[] values, final String header)
+		{
+			super(header);
+			this.table = table;
+			this.col = col;
+			this.values = values;
+			rows = table.size();
+			super.setArray(values);
+			super.setSize(rows);
+		}
+
+		// -- DoubleArray methods --
+
+		@Override
+		public double getValue(final int index) {
+			checkCurrent();
+			return super.getValue(index);
+		}
+
+		@Override
+		public Double get(final int index) {
+			return getValue(index);
+		}
+
+		/**
+		 * Gets the array backing the {@link ResultsTable} column. It is the
+		 * table's own storage and must not be written to.
+		 */
+		@Override
+		public double[] getArray() {
+			// NB: The superclass constructor asks before the fields are set.
+			if (table != null) checkCurrent();
+			return super.getArray();
+		}
+
+		@Override
+		public double setValue(final int index, final double value) {
+			throw new UnsupportedOperationException("setValue(int, double)");
+		}
+
+		@Override
+		public Double set(final int index, final Double element) {
+			throw new UnsupportedOperationException("set(int, Double)");
+		}
+
+		@Override
+		public void addValue(final double value) {
+			throw new UnsupportedOperationException("addValue(double)");
+		}
+
+		@Override
+		public void addValue(final int index, final double value) {
+			throw new UnsupportedOperationException("addValue(int, double)");
+		}
+
+		@Override
+		public void add(final int index, final Double element) {
+			throw new UnsupportedOperationException("add(int, Double)");
+		}
+
+		@Override
+		public boolean removeValue(final double value) {
+			throw new UnsupportedOperationException("removeValue(double)");
+		}
+
+		@Override
+		public void setArray(final double[] array) {
+			throw new UnsupportedOperationException("setArray(double[])");
+		}
+
+		// -- AbstractPrimitiveArray methods --
+
+		@Override
+		public void insert(final int index, final int count) {
+			throw new UnsupportedOperationException("insert(int, int)");
+		}
+
+		@Override
+		public void delete(final int index, final int count) {
+			throw new UnsupportedOperationException("delete(int, int)");
+		}
+
+		@Override
+		public Double remove(final int index) {
+			throw new UnsupportedOperationException("remove(int)");
+		}
+
+		@Override
+		public void clear() {
+			throw new UnsupportedOperationException("clear()");
+		}
+
+		/** Accepts only the current size, which tables set on all columns. */
+		@Override
+		public void setSize(final int size) {
+			if (size != rows) {
+				throw new UnsupportedOperationException("setSize(int)");
+			}
+		}
+
+		// -- Helper methods --
+
+		private void checkCurrent() {
+			if (table.size() != rows || //
+				ResultsTableCells.getColumnArray(table, col) != values)
+			{
+				throw new ConcurrentModificationException("Column " + col +
+					" of the results table has changed");
+			}
+		}
+
+	}
+
+}
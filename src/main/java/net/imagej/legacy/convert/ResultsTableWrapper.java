@@ -31,19 +31,18 @@
 
 package net.imagej.legacy.convert;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 
 import net.imagej.table.Column;
 import net.imagej.table.GenericTable;
 
-import ij.measure.ResultsTable;
-
 /**
  * Wraps a {@link ij.measure.ResultsTable} as a {@link GenericTable}.
  *
@@ -53,6 +52,15 @@ public class ResultsTableWrapper implements GenericTable {
 
 	private final ij.measure.ResultsTable table;
 
+	/** Lazily built map from row label to the first row with that label. */
+	private Map<String, Integer> labelIndex;
+
+	/** The row labels {@link #labelIndex} was built from, by identity. */
+	private String[] indexedLabels;
+
+	/** Number of meaningful elements of {@link #indexedLabels}. */
+	private int indexedRows;
+
 	public ResultsTableWrapper(final ij.measure.ResultsTable table) {
 		this.table = table;
 	}
@@ -76,17 +84,7 @@ public class ResultsTableWrapper implements GenericTable {
 	@Override
 	public Column<? extends Object> appendColumn() {
 		// Determine if empty cells are NaN or 0
-		double fill = 0;
-		try {
-			final Field f = ij.measure.ResultsTable.class.getDeclaredField(
-				"NaNEmptyCells");
-			f.setAccessible(true);
-			final boolean nan = (boolean) f.get(table);
-			fill = nan ? Double.NaN : 0;
-		}
-		catch (final Exception exc) {
-			// Keep as zero
-		}
+		final double fill = ResultsTableCells.emptyCellValue(table);
 		// addValue does not increment the counter (row count) and sets the heading
 		// to "---"
 		table.addValue(table.getLastColumn() + 1, fill);
@@ -179,17 +177,7 @@ public class ResultsTableWrapper implements GenericTable {
 	@Override
 	public void appendRow() {
 		// Determine if empty cells are NaN or 0
-		double fill = 0;
-		try {
-			final Field f = ij.measure.ResultsTable.class.getDeclaredField(
-				"NaNEmptyCells");
-			f.setAccessible(true);
-			final boolean nan = (boolean) f.get(table);
-			fill = nan ? Double.NaN : 0;
-		}
-		catch (final Exception exc) {
-			// Keep as zero
-		}
+		final double fill = ResultsTableCells.emptyCellValue(table);
 
 		for (int i = 0; i <= table.getLastColumn(); i++) {
 			// setValue increments the column whereas addValue does not
@@ -199,8 +187,17 @@ public class ResultsTableWrapper implements GenericTable {
 
 	@Override
 	public void appendRow(final String header) {
+		final boolean indexed = labelIndex != null && indexedRows == table.size();
 		appendRow(); // incremented row count
 		table.setLabel(header, table.size() - 1);
+		if (indexed) {
+			// NB: Earlier rows are checked on the next lookup.
+			if (indexedRows == indexedLabels.length) {
+				indexedLabels = Arrays.copyOf(indexedLabels, 2 * indexedRows + 1);
+			}
+			indexedLabels[indexedRows++] = header;
+			if (header != null) labelIndex.putIfAbsent(header, table.size() - 1);
+		}
 	}
 
 	@Override
@@ -240,30 +237,67 @@ public class ResultsTableWrapper implements GenericTable {
 	@Override
 	public void removeRow(final int row) {
 		table.deleteRow(row);
+		labelIndex = null;
 	}
 
 	@Override
 	public void removeRow(final String header) {
-		for (int i = 0; i < table.size(); i++) {
-			if (table.getLabel(i).equals(header)) {
-				table.deleteRow(i);
-				break;
-			}
-		}
+		final int row = getRowIndex(header);
+		if (row >= 0) removeRow(row);
 	}
 
 	@Override
 	public void removeRows(final int row, final int count) {
-		for (int i = 0; i < count; i++) {
-			table.deleteRow(i + row);
+		if (count <= 0) return;
+		final int end = Math.min(row + count, table.size());
+		final int[] rows = new int[Math.max(end - row, 0)];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = row + i;
 		}
+		removeRows(rows);
 	}
 
+	/**
+	 * Removes, for each given header, the first row with that label which has
+	 * not been removed already, in a single pass over the table.
+	 */
 	@Override
 	public void removeRows(final String... headers) {
-		for (int i = 0; i < headers.length; i++) {
-			removeRow(headers[i]);
+		final Map<String, Integer> pending = new HashMap<>();
+		for (final String header : headers) {
+			pending.merge(header, 1, Integer::sum);
+		}
+		final int[] rows = new int[headers.length];
+		int count = 0;
+		for (int i = 0; i < table.size() && count < rows.length; i++) {
+			final String label = table.getLabel(i);
+			final Integer n = label == null ? null : pending.get(label);
+			if (n == null) continue;
+			if (n == 1) pending.remove(label);
+			else pending.put(label, n - 1);
+			rows[count++] = i;
+		}
+		removeRows(Arrays.copyOf(rows, count));
+	}
+
+	/**
+	 * Removes the given rows in a single compacting pass over the table.
+	 *
+	 * @param rows the rows to remove; indices refer to the table before any
+	 *          removal, out of range and duplicate indices are ignored
+	 */
+	public void removeRows(final int[] rows) {
+		final int[] sorted = rows.clone();
+		Arrays.sort(sorted);
+		int count = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			final int row = sorted[i];
+			if (row < 0 || row >= table.size()) continue;
+			if (count > 0 && sorted[count - 1] == row) continue;
+			sorted[count++] = row;
 		}
+		ResultsTableCells.deleteRows(table, Arrays.copyOf(sorted, count));
+		labelIndex = null;
 	}
 
 	@Override
@@ -295,14 +329,28 @@ public class ResultsTableWrapper implements GenericTable {
 	@Override
 	public void setRowHeader(final int row, final String header) {
 		table.setLabel(header, row);
+		labelIndex = null;
 	}
 
+	/**
+	 * Gets the first row with the given label, using an index built on first
+	 * use and kept up to date by this wrapper's own mutations.
+	 * <p>
+	 * Labels may also be changed on the {@link ij.measure.ResultsTable}
+	 * directly. Each lookup therefore compares the table's labels with those
+	 * the index was built from, by identity only, and rebuilds the index if any
+	 * of them differ. This costs one reference comparison per row, instead of
+	 * a string comparison per row for a plain search.
+	 * </p>
+	 */
 	@Override
 	public int getRowIndex(final String header) {
-		for (int i = 0; i < table.size(); i++) {
-			if (table.getLabel(i).equals(header)) return i;
-		}
-		return -1;
+		if (header == null) return -1;
+		final String[] labels = ResultsTableCells.getRowLabels(table);
+		if (labels == null) return -1;
+		if (!isIndexCurrent(labels)) buildIndex(labels);
+		final Integer row = labelIndex.get(header);
+		return row == null ? -1 : row;
 	}
 
 	/**
@@ -329,17 +377,51 @@ public class ResultsTableWrapper implements GenericTable {
 
 	@Override
 	public Object get(final int col, final int row) {
-		if (checkString(row, col)) return table.getStringValue(col, row);
-		return table.getValueAsDouble(col, row);
+		return ResultsTableCells.get(table, col, row);
 	}
 
 	@Override
 	public Object get(final String colHeader, final int row) {
-		if (checkString(row, table.getColumnIndex(colHeader))) return table
-			.getStringValue(colHeader, row);
+		return ResultsTableCells.get(table, table.getColumnIndex(colHeader), row);
+	}
+
+	/**
+	 * Gets the numeric value at the given row column, without boxing. Textual
+	 * cells are {@code NaN}.
+	 */
+	public double getDouble(final int col, final int row) {
+		return table.getValueAsDouble(col, row);
+	}
+
+	/**
+	 * Gets the numeric value at the given row column, without boxing. Textual
+	 * cells are {@code NaN}.
+	 */
+	public double getDouble(final String colHeader, final int row) {
 		return table.getValueAsDouble(table.getColumnIndex(colHeader), row);
 	}
 
+	/** Checks if the value at the given row column is a String. */
+	public boolean isString(final int col, final int row) {
+		return ResultsTableCells.isString(table, col, row);
+	}
+
+	/**
+	 * Gets the number of decimal places the wrapped table formats the numbers
+	 * of the given column with. Negative values denote scientific notation.
+	 */
+	public int getDecimalPlaces(final int col) {
+		return ResultsTableCells.getDecimalPlaces(table, col);
+	}
+
+	/**
+	 * Checks whether the wrapped table formats the integral numbers of the given
+	 * column without decimals.
+	 */
+	public boolean isAutoFormat(final int col) {
+		return ResultsTableCells.isAutoFormat(table, col);
+	}
+
 	@Override
 	public int size() {
 		return table.getLastColumn() + 1;
@@ -438,6 +520,7 @@ public class ResultsTableWrapper implements GenericTable {
 	@Override
 	public void clear() {
 		table.reset();
+		labelIndex = null;
 	}
 
 	@Override
@@ -501,44 +584,26 @@ public class ResultsTableWrapper implements GenericTable {
 		return l;
 	}
 
-// -- Helper methods --
+	// -- Helper methods --
 
-	/**
-	 * Checks if the value at the given position is a String.
-	 *
-	 * @return true if the value at the given location is a String, otherwise
-	 *         false
-	 */
-	private boolean checkString(final int row, final int col) {
-		final double d = table.getValueAsDouble(col, row);
-		final String s = table.getStringValue(col, row);
-
-		// convert d to a string, as ResultsTable would
-		String c = "";
-		try {
-			final Field f = ij.measure.ResultsTable.class.getDeclaredField(
-				"decimalPlaces");
-			f.setAccessible(true);
-			final short[] dec = (short[]) f.get(table);
-			final short places = dec[col];
-			if (places == Short.MIN_VALUE) {
-				final Method m = table.getClass().getDeclaredMethod("n", double.class);
-				m.setAccessible(true);
-				c = (String) m.invoke(table, d);
-			}
-			else {
-				c = ResultsTable.d2s(d, dec[col]);
-			}
+	/** Checks whether the index was built from exactly the given labels. */
+	private boolean isIndexCurrent(final String[] labels) {
+		if (labelIndex == null || indexedRows != table.size()) return false;
+		for (int i = 0; i < indexedRows; i++) {
+			if (labels[i] != indexedLabels[i]) return false;
 		}
-		catch (final Exception exc) {
-			// if can't get the decimal places or n(...), call d2s with AUTO_FORMAT
-			c = ResultsTable.d2s(d, ij.measure.ResultsTable.AUTO_FORMAT);
-		}
-
-		// Special case for NaN
-		if (((Double) d).isNaN() && (s == "" || s == null)) return false;
+		return true;
+	}
 
-		return !s.equals(c);
+	private void buildIndex(final String[] labels) {
+		final int rows = table.size();
+		final Map<String, Integer> index = new HashMap<>();
+		for (int i = 0; i < rows; i++) {
+			if (labels[i] != null) index.putIfAbsent(labels[i], i);
+		}
+		labelIndex = index;
+		indexedLabels = Arrays.copyOf(labels, rows);
+		indexedRows = rows;
 	}
 
 }
@@ -34,8 +34,12 @@ package net.imagej.legacy.convert;
 import ij.ImagePlus;
 import ij.WindowManager;
 
+import net.imagej.legacy.IJ1Helper;
+import net.imagej.legacy.LegacyService;
+
 import org.scijava.convert.AbstractConverter;
 import org.scijava.convert.Converter;
+import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
 /**
@@ -67,6 +71,9 @@ public class StringToImagePlusConverter extends
 	AbstractConverter<String, ImagePlus>
 {
 
+	@Parameter(required = false)
+	private LegacyService legacyService;
+
 	// -- Converter methods --
 
 	@Override
@@ -78,9 +85,11 @@ public class StringToImagePlusConverter extends
 	public <T> T convert(final Object src, final Class<T> dest) {
 		if (!(src instanceof String)) return null;
 		final String s = (String) src;
+		final IJ1Helper ij1Helper = ij1Helper();
 		try {
 			final int imageID = Integer.parseInt(s);
-			final ImagePlus imp = WindowManager.getImage(imageID);
+			final ImagePlus imp = ij1Helper == null ? //
+				WindowManager.getImage(imageID) : ij1Helper.getImage(imageID);
 			if (imp != null) {
 				@SuppressWarnings("unchecked")
 				final T typedImp = (T) imp;
@@ -90,7 +99,8 @@ public class StringToImagePlusConverter extends
 		catch (final NumberFormatException exc) {
 			// NB: Not a valid image ID; try image title.
 		}
-		final ImagePlus imp = WindowManager.getImage(s);
+		final ImagePlus imp = ij1Helper == null ? //
+			WindowManager.getImage(s) : ij1Helper.getImage(s);
 		@SuppressWarnings("unchecked")
 		final T typedImp = (T) imp;
 		return typedImp;
@@ -106,6 +116,13 @@ public class StringToImagePlusConverter extends
 		return String.class;
 	}
 
+	// -- Helper methods --
+
+	/** Gets the helper whose image index to query, or null if none. */
+	private IJ1Helper ij1Helper() {
+		return legacyService == null ? null : legacyService.getIJ1Helper();
+	}
+
 	// -- Helper classes --
 
 	/**
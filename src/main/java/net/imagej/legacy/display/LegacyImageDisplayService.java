@@ -43,6 +43,7 @@ import net.imagej.display.DataView;
 import net.imagej.display.DatasetView;
 import net.imagej.display.ImageDisplay;
 import net.imagej.display.ImageDisplayService;
+import net.imagej.legacy.ActiveImageContext;
 import net.imagej.legacy.LegacyImageMap;
 import net.imagej.legacy.LegacyService;
 
@@ -114,13 +115,13 @@ public class LegacyImageDisplayService extends AbstractService implements
 	@Override
 	public ImageDisplay getActiveImageDisplay() {
 		ImageDisplay imageDisplay = null;
-		final ImagePlus imp = WindowManager.getCurrentImage();
+		final ImagePlus imp = getActiveImage();
 		if (imp != null) {
 			imageDisplay = getImageMap().registerLegacyImage(imp);
 		}
 		if (imageDisplay != null)
 			return imageDisplay;
-		// Try the delegate ImageDisplayService if the WindowManager fails
+		// Try the delegate ImageDisplayService if ImageJ 1.x has no active image
 		return imageDisplayService().getActiveImageDisplay();
 	}
 
@@ -191,6 +192,19 @@ public class LegacyImageDisplayService extends AbstractService implements
 		return imageDisplayService;
 	}
 
+	/**
+	 * Gets the active {@link ImagePlus} of the current thread of execution, as
+	 * tracked by the {@link ActiveImageContext}.
+	 */
+	private ImagePlus getActiveImage() {
+		final LegacyService legacyService =
+			getContext().getService(LegacyService.class);
+		final ActiveImageContext activeImageContext = legacyService == null ?
+			null : legacyService.getActiveImageContext();
+		return activeImageContext == null ? WindowManager.getCurrentImage() :
+			activeImageContext.getActiveImage();
+	}
+
 	/**
 	 * Helper method to access {@link LegacyImageMap} since we can't have a
 	 * {@link LegacyService} parameter.
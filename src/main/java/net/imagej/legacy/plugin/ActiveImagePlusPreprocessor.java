@@ -38,6 +38,7 @@ import ij.process.ImageProcessor;
 
 import net.imagej.Dataset;
 import net.imagej.display.process.ActiveDatasetPreprocessor;
+import net.imagej.legacy.ActiveImageContext;
 import net.imagej.legacy.LegacyService;
 
 import org.scijava.Priority;
@@ -66,6 +67,12 @@ import org.scijava.plugin.Plugin;
  * parameters, using the active {@link ImagePlus}'s associated
  * {@link ImageStack} and active {@link ImageProcessor} slice, respectively.
  * </p>
+ * <p>
+ * The active {@link ImagePlus} is resolved via the
+ * {@link ActiveImageContext}, so modules running concurrently on behalf of
+ * different callers each see the image active in their own thread of
+ * execution. Without one, the globally current image of ImageJ 1.x is used.
+ * </p>
  * 
  * @author Curtis Rueden
  */
@@ -83,8 +90,10 @@ public class ActiveImagePlusPreprocessor extends
 			getContext().getService(LegacyService.class);
 		if (legacyService == null) return;
 
-		// TODO: Change this to a LegacyService API call?
-		final ImagePlus imp = WindowManager.getCurrentImage();
+		final ActiveImageContext activeImageContext =
+			legacyService.getActiveImageContext();
+		final ImagePlus imp = activeImageContext == null ? WindowManager
+			.getCurrentImage() : activeImageContext.getActiveImage();
 		if (imp == null) return;
 
 		// assign active legacy image to single ImagePlus input
@@ -0,0 +1,529 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.plugin;
+
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.macro.Debugger;
+import ij.macro.Interpreter;
+
+import java.io.ObjectStreamException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import net.imagej.legacy.LegacyImageIndex.BatchModeTable;
+
+/**
+ * Keeps the batch mode images of ImageJ 1.x macros per thread.
+ * <p>
+ * The {@link Interpreter} keeps the images opened in batch mode in static
+ * {@link Vector}s, shared by all macros. This class replaces those vectors by
+ * ones which give each attached thread its own set of images, so that macros
+ * running concurrently on different threads neither see nor close each
+ * other's images. Threads which are not attached share one set, as before.
+ * </p>
+ * <p>
+ * ImageJ 1.x discards the vectors, and leaves batch mode, whenever any macro
+ * leaves batch mode or fails, on whichever thread. The images of attached
+ * threads survive this, as they are kept here rather than in the discarded
+ * vectors; the vectors are installed anew each time a thread attaches, and
+ * before each statement of macros run with the {@link #GUARD} debugger.
+ * Meanwhile, ImageJ 1.x does not keep the images an attached thread shows,
+ * but still makes them the thread's temporary current image; such an image
+ * is added to the thread's images before its next statement, or when it
+ * detaches.
+ * </p>
+ */
+final class BatchModeImages {
+
+	/**
+	 * Debugger which, before each statement, restores the per-thread vectors and
+	 * batch mode if ImageJ 1.x discarded them meanwhile, keeping the image shown
+	 * in the meantime. Use it with
+	 * {@link Debugger#FAST_TRACE} for macros of attached threads.
+	 */
+	static final Debugger GUARD = (interp, mode) -> {
+		guard();
+		return 0;
+	};
+
+	private static final Field IMAGE_TABLE = field("imageTable");
+	private static final Field IMAGE_ACTIVATIONS = field("imageActivations");
+
+	private static final ThreadVector TABLE = new ThreadVector();
+	private static final ThreadVector ACTIVATIONS = new ThreadVector();
+
+	private BatchModeImages() {
+		// prevent instantiation of utility class
+	}
+
+	/** Gives the current thread its own, empty set of batch mode images. */
+	static void attach() {
+		install();
+		TABLE.attach();
+		ACTIVATIONS.attach();
+	}
+
+	/**
+	 * Creates an interpreter for a macro of the current thread, which is
+	 * attached: it runs in batch mode, with the {@link #GUARD} debugger.
+	 *
+	 * @return the {@link Interpreter}
+	 */
+	static Object newInterpreter() {
+		Interpreter.batchMode = true;
+		final Interpreter interpreter = new Interpreter();
+		interpreter.setDebugger(GUARD);
+		// NB: Avoid the debugger's side effects in Interpreter#getVariables().
+		interpreter.setDebugMode(Debugger.FAST_TRACE);
+		return interpreter;
+	}
+
+	/**
+	 * Returns the current thread to the shared set of batch mode images, and
+	 * clears its temporary current image.
+	 *
+	 * @return the images the thread left open in batch mode
+	 */
+	static List<ImagePlus> detach() {
+		if (TABLE.isAttached()) adopt();
+		WindowManager.setTempCurrentImage(null);
+		ACTIVATIONS.detach();
+		final List<ImagePlus> images = new ArrayList<>();
+		for (final Object imp : TABLE.detach()) {
+			if (imp instanceof ImagePlus) images.add((ImagePlus) imp);
+		}
+		return images;
+	}
+
+	/**
+	 * Re-installs the per-thread vectors, and re-enters batch mode, if the
+	 * current thread is attached and ImageJ 1.x discarded the vectors since.
+	 * An image the thread showed meanwhile is added to its images.
+	 */
+	static void guard() {
+		if (!TABLE.isAttached()) return;
+		try {
+			if (IMAGE_TABLE.get(null) != TABLE || //
+				IMAGE_ACTIVATIONS.get(null) != ACTIVATIONS || //
+				!Interpreter.batchMode)
+			{
+				install();
+				Interpreter.batchMode = true;
+			}
+		}
+		catch (final IllegalAccessException exc) {
+			throw new IllegalStateException(exc);
+		}
+		adopt();
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Adds the current thread's temporary current image to the thread's images,
+	 * unless it has a window or is kept already. This is the image ImageJ 1.x
+	 * dropped if the thread showed it while batch mode was off, or while the
+	 * vectors were discarded; {@link #install()} may have moved it to the
+	 * shared images since.
+	 */
+	private static void adopt() {
+		final ImagePlus imp = WindowManager.getTempCurrentImage();
+		if (imp == null || imp.getWindow() != null) return;
+		final BatchModeTable images = TABLE.current();
+		if (images.contains(imp)) return;
+		TABLE.shared.remove(imp);
+		images.add(imp);
+	}
+
+	private static synchronized void install() {
+		install(IMAGE_TABLE, TABLE);
+		install(IMAGE_ACTIVATIONS, ACTIVATIONS);
+	}
+
+	private static void install(final Field field, final ThreadVector vector) {
+		try {
+			final Object current = field.get(null);
+			if (current == vector) return;
+			if (current instanceof Collection) {
+				// keep the images of threads which are not attached
+				vector.shared.addAll((Collection<?>) current);
+			}
+			field.set(null, vector);
+		}
+		catch (final IllegalAccessException exc) {
+			throw new IllegalStateException(exc);
+		}
+	}
+
+	private static Field field(final String name) {
+		try {
+			final Field f = Interpreter.class.getDeclaredField(name);
+			f.setAccessible(true);
+			return f;
+		}
+		catch (final NoSuchFieldException exc) {
+			throw new IllegalStateException(exc);
+		}
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * A {@link Vector} delegating every operation to the (indexed) vector of
+	 * the current thread. Its own storage stays empty. It serializes as a copy
+	 * of the current thread's vector.
+	 */
+	private static class ThreadVector extends BatchModeTable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient Map<Thread, BatchModeTable> attached =
+			new ConcurrentHashMap<>();
+		private final transient BatchModeTable shared = new BatchModeTable();
+
+		private void attach() {
+			attached.put(Thread.currentThread(), new BatchModeTable());
+		}
+
+		private Vector<Object> detach() {
+			final Vector<Object> v = attached.remove(Thread.currentThread());
+			return v == null ? new Vector<>() : v;
+		}
+
+		private boolean isAttached() {
+			return attached.containsKey(Thread.currentThread());
+		}
+
+		private BatchModeTable current() {
+			final BatchModeTable v = attached.get(Thread.currentThread());
+			return v == null ? shared : v;
+		}
+
+		private Object writeReplace() throws ObjectStreamException {
+			return new Vector<>(current());
+		}
+
+		// -- BatchModeTable methods --
+
+		@Override
+		public BatchModeTable forCurrentThread() {
+			return current();
+		}
+
+		@Override
+		public ImagePlus getImage(final int imageID) {
+			return current().getImage(imageID);
+		}
+
+		@Override
+		public ImagePlus getImage(final String title) {
+			return current().getImage(title);
+		}
+
+		@Override
+		public List<ImagePlus> getImages() {
+			return current().getImages();
+		}
+
+		// -- Vector methods --
+
+		@Override
+		public void copyInto(final Object[] anArray) {
+			current().copyInto(anArray);
+		}
+
+		@Override
+		public void trimToSize() {
+			current().trimToSize();
+		}
+
+		@Override
+		public void ensureCapacity(final int minCapacity) {
+			current().ensureCapacity(minCapacity);
+		}
+
+		@Override
+		public void setSize(final int newSize) {
+			current().setSize(newSize);
+		}
+
+		@Override
+		public int capacity() {
+			return current().capacity();
+		}
+
+		@Override
+		public int size() {
+			return current().size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return current().isEmpty();
+		}
+
+		@Override
+		public Enumeration<Object> elements() {
+			return current().elements();
+		}
+
+		@Override
+		public boolean contains(final Object o) {
+			return current().contains(o);
+		}
+
+		@Override
+		public int indexOf(final Object o) {
+			return current().indexOf(o);
+		}
+
+		@Override
+		public int indexOf(final Object o, final int index) {
+			return current().indexOf(o, index);
+		}
+
+		@Override
+		public int lastIndexOf(final Object o) {
+			return current().lastIndexOf(o);
+		}
+
+		@Override
+		public int lastIndexOf(final Object o, final int index) {
+			return current().lastIndexOf(o, index);
+		}
+
+		@Override
+		public Object elementAt(final int index) {
+			return current().elementAt(index);
+		}
+
+		@Override
+		public Object firstElement() {
+			return current().firstElement();
+		}
+
+		@Override
+		public Object lastElement() {
+			return current().lastElement();
+		}
+
+		@Override
+		public void setElementAt(final Object obj, final int index) {
+			current().setElementAt(obj, index);
+		}
+
+		@Override
+		public void removeElementAt(final int index) {
+			current().removeElementAt(index);
+		}
+
+		@Override
+		public void insertElementAt(final Object obj, final int index) {
+			current().insertElementAt(obj, index);
+		}
+
+		@Override
+		public void addElement(final Object obj) {
+			current().addElement(obj);
+		}
+
+		@Override
+		public boolean removeElement(final Object obj) {
+			return current().removeElement(obj);
+		}
+
+		@Override
+		public void removeAllElements() {
+			current().removeAllElements();
+		}
+
+		@Override
+		public Object clone() {
+			return current().clone();
+		}
+
+		@Override
+		public Object[] toArray() {
+			return current().toArray();
+		}
+
+		@Override
+		public <T> T[] toArray(final T[] a) {
+			return current().toArray(a);
+		}
+
+		@Override
+		public Object get(final int index) {
+			return current().get(index);
+		}
+
+		@Override
+		public Object set(final int index, final Object element) {
+			return current().set(index, element);
+		}
+
+		@Override
+		public boolean add(final Object e) {
+			return current().add(e);
+		}
+
+		@Override
+		public boolean remove(final Object o) {
+			return current().remove(o);
+		}
+
+		@Override
+		public void add(final int index, final Object element) {
+			current().add(index, element);
+		}
+
+		@Override
+		public Object remove(final int index) {
+			return current().remove(index);
+		}
+
+		@Override
+		public void clear() {
+			current().clear();
+		}
+
+		@Override
+		public boolean containsAll(final Collection<?> c) {
+			return current().containsAll(c);
+		}
+
+		@Override
+		public boolean addAll(final Collection<? extends Object> c) {
+			return current().addAll(c);
+		}
+
+		@Override
+		public boolean removeAll(final Collection<?> c) {
+			return current().removeAll(c);
+		}
+
+		@Override
+		public boolean retainAll(final Collection<?> c) {
+			return current().retainAll(c);
+		}
+
+		@Override
+		public boolean addAll(final int index,
+			final Collection<? extends Object> c)
+		{
+			return current().addAll(index, c);
+		}
+
+		@Override
+		public String toString() {
+			return current().toString();
+		}
+
+		@Override
+		public List<Object> subList(final int fromIndex, final int toIndex) {
+			return current().subList(fromIndex, toIndex);
+		}
+
+		@Override
+		protected void removeRange(final int fromIndex, final int toIndex) {
+			current().subList(fromIndex, toIndex).clear();
+		}
+
+		@Override
+		public ListIterator<Object> listIterator(final int index) {
+			return current().listIterator(index);
+		}
+
+		@Override
+		public ListIterator<Object> listIterator() {
+			return current().listIterator();
+		}
+
+		@Override
+		public Iterator<Object> iterator() {
+			return current().iterator();
+		}
+
+		@Override
+		public void forEach(final Consumer<? super Object> action) {
+			current().forEach(action);
+		}
+
+		@Override
+		public boolean removeIf(final Predicate<? super Object> filter) {
+			return current().removeIf(filter);
+		}
+
+		@Override
+		public void replaceAll(final UnaryOperator<Object> operator) {
+			current().replaceAll(operator);
+		}
+
+		@Override
+		public void sort(final Comparator<? super Object> c) {
+			current().sort(c);
+		}
+
+		@Override
+		public Spliterator<Object> spliterator() {
+			return current().spliterator();
+		}
+
+		// -- Object methods --
+
+		@Override
+		public boolean equals(final Object o) {
+			return o == this;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this);
+		}
+	}
+
+}
@@ -31,12 +31,15 @@
 
 package net.imagej.legacy.plugin;
 
-import java.io.File;
+import ij.macro.Interpreter;
+
 import java.io.IOException;
 import java.io.Reader;
-import java.lang.reflect.Array;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import javax.script.Bindings;
@@ -96,13 +99,21 @@ public class IJ1MacroEngine extends AbstractScriptEngine {
 		"toolID", "updateDisplay", "updateResults", "wait", "waitForUser" };
 
 	private final IJ1Helper ij1Helper;
+	private final MacroProgramCache programCache;
 	private ScriptModule module;
+	private MacroSession session;
+	private MacroProfiler profiler;
+	private Map<String, Object> sessionValues = Collections.emptyMap();
 
-	private static ThreadLocal<Object> interpreters = new ThreadLocal<>();
-
-	/** Called by ImageJ 1.x at the beginning of each macro execution. */
+	/**
+	 * Formerly called by ImageJ 1.x at the beginning of each macro execution.
+	 *
+	 * @deprecated Inputs are now set directly on the interpreter, so macros no
+	 *             longer call back into the engine; this method does nothing.
+	 */
+	@Deprecated
 	public static void saveInterpreter() {
-		interpreters.set(IJ1Helper.getInterpreter());
+		// NB: No-op.
 	}
 
 	/**
@@ -111,10 +122,57 @@ public class IJ1MacroEngine extends AbstractScriptEngine {
 	 * @param ij1Helper the helper to evaluate the macros
 	 */
 	public IJ1MacroEngine(final IJ1Helper ij1Helper) {
+		this(ij1Helper, MacroProgramCache.getSharedCache());
+	}
+
+	/**
+	 * Constructs an ImageJ 1.x macro engine.
+	 *
+	 * @param ij1Helper the helper to evaluate the macros
+	 * @param programCache the cache of tokenized macros to use
+	 */
+	public IJ1MacroEngine(final IJ1Helper ij1Helper,
+		final MacroProgramCache programCache)
+	{
 		this.ij1Helper = ij1Helper;
+		this.programCache = programCache;
 		engineScopeBindings = new IJ1MacroBindings();
 	}
 
+	/**
+	 * Sets whether this engine evaluates macros in a persistent
+	 * {@link MacroSession}, such that variables and user functions of one
+	 * evaluation are available to the next ones. Switching session mode on or
+	 * off starts afresh.
+	 */
+	public void setSessionMode(final boolean sessionMode) {
+		session = sessionMode ? new MacroSession(programCache) : null;
+		sessionValues = Collections.emptyMap();
+	}
+
+	/** Gets whether this engine evaluates macros in a persistent session. */
+	public boolean isSessionMode() {
+		return session != null;
+	}
+
+	/** Gets the engine's macro session, or null if not in session mode. */
+	public MacroSession getSession() {
+		return session;
+	}
+
+	/**
+	 * Sets the profiler recording where evaluated macros spend their time, or
+	 * null to stop profiling.
+	 */
+	public void setProfiler(final MacroProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	/** Gets the profiler of evaluated macros, or null if not profiling. */
+	public MacroProfiler getProfiler() {
+		return profiler;
+	}
+
 	@Override
 	public Object eval(final String macro) throws ScriptException {
 		// collect input variable key/value pairs from bindings + module inputs
@@ -122,28 +180,43 @@ public class IJ1MacroEngine extends AbstractScriptEngine {
 		inVars.putAll(engineScopeBindings);
 		if (module != null) inVars.putAll(module.getInputs());
 
-		final StringBuilder pre = new StringBuilder();
-
-		// during macro execution, save a reference to the ij.macro.Interpreter
-		final String method = "\"" + getClass().getName() + ".saveInterpreter\"";
-		pre.append("call(" + method + ");\n");
-
-		// prepend variable assignments to the macro
-		for (final Entry<String, Object> entry : inVars.entrySet()) {
-			appendVar(pre, entry.getKey(), entry.getValue());
+		// skip illegal identifiers
+		final Iterator<String> names = inVars.keySet().iterator();
+		while (names.hasNext()) {
+			if (!isValidName(names.next())) names.remove();
 		}
 
-		// run the macro!
-		final String returnValue = ij1Helper.runMacro(pre + macro);
+		final Interpreter interpreter = new Interpreter();
+		final MacroSession s = session;
+		final MacroProfiler p = profiler;
+		if (s != null) {
+			// NB: Bindings still holding the session's own values are not inputs.
+			for (final Entry<String, Object> entry : sessionValues.entrySet()) {
+				if (inVars.get(entry.getKey()) == entry.getValue()) {
+					inVars.remove(entry.getKey());
+				}
+			}
+		}
 
-		// retrieve the interpreter used
-		final Object interpreter = interpreters.get();
-		interpreters.remove();
+		// run the macro, with the inputs set directly as its variables
+		final String returnValue = ij1Helper.runMacroFriendly(() -> {
+			if (p != null) p.attach(interpreter);
+			try {
+				return s == null ? IJ1Helper.runCachedMacro(interpreter, macro, null,
+					inVars, programCache, null) : s.eval(interpreter, macro, inVars);
+			}
+			finally {
+				if (p != null) p.detach(interpreter);
+			}
+		});
 
 		// populate bindings with the results
-		for (final String var : ij1Helper.getVariables(interpreter)) {
-			final String name = var.substring(0, var.indexOf('\t'));
-			engineScopeBindings.put(name, ij1Helper.getVariable(interpreter, name));
+		if (s == null) {
+			engineScopeBindings.putAll(IJ1Helper.getMacroVariables(interpreter));
+		}
+		else {
+			sessionValues = s.getVariables();
+			engineScopeBindings.putAll(sessionValues);
 		}
 
 		if (module != null) {
@@ -195,46 +268,9 @@ public class IJ1MacroEngine extends AbstractScriptEngine {
 
 	// -- Helper methods --
 
-	private void appendVar(final StringBuilder pre, //
-		final String key, final Object value)
-	{
-		// check for illegal identifiers
-		if (ArrayUtils.contains(RESERVED_WORDS, key)) return;
-		if (key.matches(".*[^a-zA-Z0-9_].*")) return;
-
-		if (value == null) return;
-		pre.append(key).append(" = ").append(varValue(value, true)).append(";\n");
-	}
-
-	private String varValue(final Object v, final boolean top) {
-		if (top && v.getClass().isArray()) {
-			// NB: ImageJ 1.x only supports 1-dimensional arrays.
-			final StringBuilder sb = new StringBuilder();
-			for (int i = 0; i < Array.getLength(v); i++) {
-				if (i > 0) sb.append(", ");
-				sb.append(varValue(Array.get(v, i), false));
-			}
-			return "newArray(" + sb.toString() + ")";
-		}
-		else if (ij1Helper.isImagePlus(v)) {
-			return varValue(ij1Helper.getImageID(v), false);
-		}
-		else if (v instanceof File) {
-			return varValue(((File) v).getAbsolutePath(), false);
-		}
-		else if (v instanceof Number || v instanceof Boolean) {
-			return v.toString();
-		}
-		else {
-			return "\"" + quote(v.toString()) + "\"";
-		}
-	}
-
-	private String quote(final String value) {
-		String quoted = value.replaceAll("([\"\\\\])", "\\\\$1");
-		quoted = quoted.replaceAll("\f", "\\\\f").replaceAll("\n", "\\\\n");
-		quoted = quoted.replaceAll("\r", "\\\\r").replaceAll("\t", "\\\\t");
-		return quoted;
+	private boolean isValidName(final String key) {
+		if (ArrayUtils.contains(RESERVED_WORDS, key)) return false;
+		return !key.matches(".*[^a-zA-Z0-9_].*");
 	}
 
 	private Object convertToImagePlus(final Object value) {
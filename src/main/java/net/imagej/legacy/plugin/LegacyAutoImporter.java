@@ -30,15 +30,31 @@
  */
 package net.imagej.legacy.plugin;
 
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import net.imagej.legacy.LegacyCaches;
 
 import org.scijava.log.LogService;
 import org.scijava.log.StderrLogService;
@@ -48,20 +64,46 @@ import org.scijava.ui.swing.script.AutoImporter;
 import org.scijava.util.ClassUtils;
 import org.scijava.util.FileUtils;
 
+/**
+ * Offers the public classes of ImageJ 1.x, TrakEM2 and the ImgLib scripting
+ * package as default imports to the script editor.
+ * <p>
+ * Classes are recognized as public by the access flags in their class files,
+ * i.e. without loading, let alone initializing, them. The resulting import
+ * map is cached on disk (see {@link LegacyCaches}), keyed by checksums of the
+ * scanned jars; when the cache is cold, the class files are inspected in
+ * parallel.
+ * </p>
+ */
 @Plugin(type = AutoImporter.class)
 public class LegacyAutoImporter implements AutoImporter {
 
+	private static final String CACHE_VERSION = "1";
+
 	@Parameter
 	private LogService log;
 
-	private static Map<String, List<String>> defaultImports;
+	/**
+	 * The import map, shared by all instances, so that the one primed during
+	 * startup also serves the instances the script editor creates. It is only
+	 * published once complete.
+	 */
+	private static volatile Map<String, List<String>> defaultImports;
 
 	@Override
-	public synchronized Map<String, List<String>> getDefaultImports() {
-		if (defaultImports != null)
+	public Map<String, List<String>> getDefaultImports() {
+		final Map<String, List<String>> imports = defaultImports;
+		if (imports != null) return imports;
+		synchronized (LegacyAutoImporter.class) {
+			if (defaultImports == null) defaultImports = findDefaultImports();
 			return defaultImports;
+		}
+	}
+
+	// -- Helper methods --
 
-		defaultImports = new HashMap<>();
+	/** Scans the jars for public classes, or reads them from the cache. */
+	private Map<String, List<String>> findDefaultImports() {
 		final String[] classNames =
 			{ "ij.IJ", "ini.trakem2.Project", "script.imglib.math.Compute" };
 
@@ -78,6 +120,7 @@ public class LegacyAutoImporter implements AutoImporter {
 		builder.append(").*\\.class");
 		final Pattern prefixPattern = Pattern.compile(builder.toString());
 
+		final Map<String, URL> bases = new LinkedHashMap<>();
 		for (String baseClassName : classNames) {
 			URL base = ClassUtils.getLocation(baseClassName);
 			if (base == null) {
@@ -92,32 +135,80 @@ public class LegacyAutoImporter implements AutoImporter {
 							+ baseClassName, e);
 					continue;
 			}
+			bases.put(baseClassName, base);
+		}
+
+		final String key = cacheKey(bases);
+		final File cache =
+			key == null ? null : LegacyCaches.getFile("default-imports.cache");
+		final Map<String, List<String>> cached = readCache(cache, key);
+		if (cached != null) return cached;
+
+		final Map<String, List<String>> imports = new HashMap<>();
+		for (final URL base : bases.values()) {
+			final String baseString = base.toString();
 			final int baseLength = baseString.length();
-			for (final URL url : FileUtils.listContents(base)) {
-				final String path = url.toString().substring(baseLength);
-				if (!prefixPattern.matcher(path).matches()) {
-					continue;
+			final List<String> paths = new ArrayList<>();
+			final List<URL> urls = new ArrayList<>();
+			final ZipFile jar = openJar(baseString);
+			try {
+				if (jar != null) {
+					for (final Enumeration<? extends ZipEntry> e = jar.entries(); e
+						.hasMoreElements();)
+					{
+						paths.add(e.nextElement().getName());
+					}
+				}
+				else {
+					for (final URL url : FileUtils.listContents(base)) {
+						paths.add(url.toString().substring(baseLength));
+						urls.add(url);
+					}
 				}
-				// skip anonymous classes
-				if (path.matches(".*\\$[0-9].*")) continue;
-				final String className = path.substring(0, path.length() - 6)
-						.replace('/', '.').replace('$', '.');
-				if (!isPublicClass(className)) continue;
-				int dot = className.lastIndexOf('.');
-				final String packageName = className.substring(0, dot);
-				final String baseName = className.substring(dot + 1);
-				List<String> list = defaultImports.get(packageName);
-				if (list == null) {
-					list = new ArrayList<>();
-					defaultImports.put(packageName, list);
+
+				// inspect the class files in parallel, but keep their order
+				final boolean[] isPublic = new boolean[paths.size()];
+				IntStream.range(0, paths.size()).parallel().forEach(i -> {
+					final String path = paths.get(i);
+					if (!prefixPattern.matcher(path).matches()) return;
+					// skip anonymous classes
+					if (path.matches(".*\\$[0-9].*")) return;
+					// nested classes cannot be imported via their binary names
+					if (path.indexOf('$') >= 0) return;
+					try (final InputStream in = jar != null ? //
+						jar.getInputStream(jar.getEntry(path)) : urls.get(i).openStream())
+					{
+						isPublic[i] = isPublicClass(in);
+					}
+					catch (final IOException exc) {
+						// ignore class that cannot even be read
+					}
+				});
+
+				for (int i = 0; i < isPublic.length; i++) {
+					if (!isPublic[i]) continue;
+					final String path = paths.get(i);
+					final String className = path.substring(0, path.length() - 6)
+							.replace('/', '.');
+					int dot = className.lastIndexOf('.');
+					final String packageName = className.substring(0, dot);
+					final String baseName = className.substring(dot + 1);
+					List<String> list = imports.get(packageName);
+					if (list == null) {
+						list = new ArrayList<>();
+						imports.put(packageName, list);
+					}
+					list.add(baseName);
 				}
-				list.add(baseName);
+			}
+			finally {
+				closeJar(jar);
 			}
 		}
 
 		// remove non-unique class names
 		Map<String, String> reverse = new HashMap<>();
-		for (Map.Entry<String, List<String>> entry : defaultImports.entrySet()) {
+		for (Map.Entry<String, List<String>> entry : imports.entrySet()) {
 			final String packageName = entry.getKey();
 			for (final Iterator<String> iter = entry.getValue().iterator(); iter
 					.hasNext();) {
@@ -127,23 +218,169 @@ public class LegacyAutoImporter implements AutoImporter {
 							+ " (is in both " + packageName + " and "
 							+ reverse.get(className) + ")");
 					iter.remove();
-					defaultImports.get(reverse.get(className))
-							.remove(className);
+					imports.get(reverse.get(className)).remove(className);
 				} else
 					reverse.put(className, packageName);
 			}
 		}
-		return defaultImports;
+
+		writeCache(cache, key, imports);
+		return imports;
+	}
+
+	/**
+	 * Determines whether the given class file declares a public class, by
+	 * skipping its constant pool and reading its access flags.
+	 */
+	static boolean isPublicClass(final InputStream in) throws IOException {
+		final DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != 0xcafebabe) return false;
+		data.skipBytes(4); // minor and major version
+		final int count = data.readUnsignedShort();
+		for (int i = 1; i < count; i++) {
+			final int tag = data.readUnsignedByte();
+			switch (tag) {
+				case 1: // Utf8
+					data.skipBytes(data.readUnsignedShort());
+					break;
+				case 7: // Class
+				case 8: // String
+				case 16: // MethodType
+				case 19: // Module
+				case 20: // Package
+					data.skipBytes(2);
+					break;
+				case 15: // MethodHandle
+					data.skipBytes(3);
+					break;
+				case 3: // Integer
+				case 4: // Float
+				case 9: // Fieldref
+				case 10: // Methodref
+				case 11: // InterfaceMethodref
+				case 12: // NameAndType
+				case 17: // Dynamic
+				case 18: // InvokeDynamic
+					data.skipBytes(4);
+					break;
+				case 5: // Long
+				case 6: // Double
+					data.skipBytes(8);
+					i++; // takes up two slots
+					break;
+				default:
+					throw new IOException("Unknown constant pool tag: " + tag);
+			}
+		}
+		return (data.readUnsignedShort() & Modifier.PUBLIC) != 0;
 	}
 
-	private boolean isPublicClass(String className) {
+	/** Opens the jar behind a {@code jar:file:...!/} URL, if it is one. */
+	private ZipFile openJar(final String baseString) {
+		if (!baseString.startsWith("jar:") || !baseString.endsWith("!/")) {
+			return null;
+		}
+		final File file = FileUtils.urlToFile(baseString.substring(4,
+			baseString.length() - 2));
+		try {
+			return file == null ? null : new ZipFile(file);
+		}
+		catch (final IOException e) {
+			log.debug("Could not open " + file, e);
+			return null;
+		}
+	}
+
+	private void closeJar(final ZipFile jar) {
+		if (jar == null) return;
+		try {
+			jar.close();
+		}
+		catch (final IOException e) {
+			log.debug(e);
+		}
+	}
+
+	/**
+	 * Computes the key of the import cache: the SHA-1 checksums of the scanned
+	 * jars. Class directories are keyed by their file stamps instead.
+	 */
+	private String cacheKey(final Map<String, URL> bases) {
+		final StringBuilder key = new StringBuilder(CACHE_VERSION);
+		for (final Map.Entry<String, URL> entry : bases.entrySet()) {
+			final String baseString = entry.getValue().toString();
+			final boolean isJar = baseString.startsWith("jar:");
+			final File file = FileUtils.urlToFile(isJar ? //
+				baseString.substring(4, baseString.length() - 2) : baseString);
+			if (file == null) return null;
+			key.append(';').append(entry.getKey()).append('=');
+			if (isJar) {
+				final String checksum = checksum(file);
+				if (checksum == null) return null;
+				key.append(checksum);
+			}
+			else {
+				key.append(LegacyCaches.stamps(Collections.singleton(file))
+					.hashCode());
+			}
+		}
+		return key.toString();
+	}
+
+	private String checksum(final File file) {
+		try {
+			return LegacyCaches.checksum(file);
+		}
+		catch (final IOException e) {
+			log.debug("Could not checksum " + file, e);
+			return null;
+		}
+	}
+
+	private Map<String, List<String>> readCache(final File cache,
+		final String key)
+	{
+		if (cache == null || !cache.isFile()) return null;
+		try (final BufferedReader reader = new BufferedReader(new StringReader(
+			new String(Files.readAllBytes(cache.toPath()), StandardCharsets.UTF_8))))
+		{
+			if (!key.equals(reader.readLine())) return null;
+			final Map<String, List<String>> imports = new HashMap<>();
+			for (String line = reader.readLine(); line != null; line = reader
+				.readLine())
+			{
+				final int tab = line.indexOf('\t');
+				if (tab < 0) return null;
+				final List<String> list = new ArrayList<>();
+				for (final String name : line.substring(tab + 1).split(",")) {
+					if (!name.isEmpty()) list.add(name);
+				}
+				imports.put(line.substring(0, tab), list);
+			}
+			return imports;
+		}
+		catch (final IOException e) {
+			log.debug("Could not read " + cache, e);
+			return null;
+		}
+	}
+
+	private void writeCache(final File cache, final String key,
+		final Map<String, List<String>> imports)
+	{
+		if (cache == null) return;
+		final StringBuilder builder = new StringBuilder(key).append('\n');
+		for (final Map.Entry<String, List<String>> entry : imports.entrySet()) {
+			builder.append(entry.getKey()).append('\t');
+			builder.append(String.join(",", entry.getValue())).append('\n');
+		}
 		try {
-			return (Class.forName(className).getModifiers() & Modifier.PUBLIC) != 0;
+			LegacyCaches.write(cache, builder.toString().getBytes(
+				StandardCharsets.UTF_8));
 		}
-		catch (Throwable t) {
-			// ignore class that cannot even be loaded
+		catch (final IOException e) {
+			log.debug("Could not write " + cache, e);
 		}
-		return false;
 	}
 
 	public static void main(String... args) {
@@ -0,0 +1,254 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.plugin;
+
+import ij.ImagePlus;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.legacy.IJ1Helper;
+
+/**
+ * Runs ImageJ 1.x macros concurrently on a fixed number of worker threads, in
+ * batch mode.
+ * <p>
+ * Each job runs in its own macro interpreter, with its own set of batch mode
+ * images (see {@link BatchModeImages}); the images a job leaves open are
+ * handed over with its {@link Result}. At most a given number of jobs wait
+ * for a worker; beyond that, {@link #submit(String, Map)} blocks until a
+ * worker is free, so that submitting e.g. one job per file of a large folder
+ * does not queue them all up in memory.
+ * </p>
+ * <p>
+ * Some ImageJ 1.x state remains global, such as the batch mode flag itself,
+ * the Log window and the {@code ResultsTable}; macros run by this executor
+ * should therefore stay in batch mode and keep their measurements to
+ * themselves. If a job leaves batch mode anyway, or fails, which makes ImageJ
+ * 1.x leave batch mode too, the other jobs re-enter it before their next
+ * statement, keeping their images, including one shown meanwhile. A statement
+ * running while batch mode is off may still see no batch mode images, e.g. in
+ * {@code nImages}.
+ * </p>
+ */
+public class MacroExecutor implements AutoCloseable {
+
+	private final MacroProgramCache cache;
+	private final ExecutorService workers;
+
+	/** Permits for running or waiting jobs. */
+	private final Semaphore slots;
+
+	/**
+	 * Creates an executor with one worker per available processor.
+	 *
+	 * @param queueCapacity how many jobs may wait for a worker
+	 */
+	public MacroExecutor(final int queueCapacity) {
+		this(Runtime.getRuntime().availableProcessors(), queueCapacity);
+	}
+
+	/**
+	 * @param threads the number of worker threads
+	 * @param queueCapacity how many jobs may wait for a worker
+	 */
+	public MacroExecutor(final int threads, final int queueCapacity) {
+		this(threads, queueCapacity, MacroProgramCache.getSharedCache());
+	}
+
+	/**
+	 * @param threads the number of worker threads
+	 * @param queueCapacity how many jobs may wait for a worker
+	 * @param cache where to take the tokenized macros from
+	 */
+	public MacroExecutor(final int threads, final int queueCapacity,
+		final MacroProgramCache cache)
+	{
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Invalid thread count: " + threads);
+		}
+		if (queueCapacity < 0) {
+			throw new IllegalArgumentException("Invalid queue capacity: " +
+				queueCapacity);
+		}
+		this.cache = cache;
+		slots = new Semaphore(threads + queueCapacity);
+		final AtomicInteger count = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(threads, runnable -> {
+			// NB: The name makes Macro.getOptions() and Macro.abort() work.
+			final Thread thread = new Thread(runnable, "Run$_Macro worker-" + //
+				count.incrementAndGet() + " Macro$");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	// -- MacroExecutor methods --
+
+	/**
+	 * Submits a macro to be run, blocking while the queue is full.
+	 *
+	 * @param macro the macro source
+	 * @param inputs values of the input variables, by name
+	 * @return the future result of the job
+	 * @throws InterruptedException if interrupted while waiting for the queue
+	 * @throws RejectedExecutionException if the executor was shut down
+	 */
+	public Future<Result> submit(final String macro, final Map<String, ?> inputs)
+		throws InterruptedException
+	{
+		slots.acquire();
+		try {
+			return workers.submit(() -> {
+				try {
+					return execute(macro, inputs);
+				}
+				finally {
+					slots.release();
+				}
+			});
+		}
+		catch (final RejectedExecutionException exc) {
+			slots.release();
+			throw exc;
+		}
+	}
+
+	/** Stops accepting jobs; jobs already submitted still run. */
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+	/**
+	 * Waits for all submitted jobs to finish, after {@link #shutdown()}.
+	 *
+	 * @return true if all jobs finished, false if the timeout elapsed first
+	 */
+	public boolean awaitTermination(final long timeout, final TimeUnit unit)
+		throws InterruptedException
+	{
+		return workers.awaitTermination(timeout, unit);
+	}
+
+	// -- AutoCloseable methods --
+
+	/**
+	 * Shuts down, and waits for the submitted jobs to finish. If interrupted
+	 * while waiting, the jobs are cancelled, and the interrupt status is kept.
+	 */
+	@Override
+	public void close() {
+		shutdown();
+		try {
+			while (!awaitTermination(1, TimeUnit.MINUTES)) {
+				// keep waiting
+			}
+		}
+		catch (final InterruptedException exc) {
+			workers.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// -- Helper methods --
+
+	private Result execute(final String macro, final Map<String, ?> inputs) {
+		BatchModeImages.attach();
+		try {
+			final Object interpreter = BatchModeImages.newInterpreter();
+			final String returnValue = IJ1Helper.runCachedMacro(interpreter, macro,
+				null, inputs, cache, null);
+			final Map<String, Object> variables = //
+				IJ1Helper.getMacroVariables(interpreter);
+			return new Result(returnValue, variables, BatchModeImages.detach());
+		}
+		finally {
+			// NB: No-op if the images were already handed over.
+			BatchModeImages.detach();
+		}
+	}
+
+	// -- Helper classes --
+
+	/** The result of one macro job. */
+	public static class Result {
+
+		private final String returnValue;
+		private final Map<String, Object> variables;
+		private final List<ImagePlus> images;
+
+		private Result(final String returnValue,
+			final Map<String, Object> variables, final List<ImagePlus> images)
+		{
+			this.returnValue = returnValue;
+			this.variables = Collections.unmodifiableMap(variables);
+			this.images = Collections.unmodifiableList(images);
+		}
+
+		/** Gets the value returned by the macro. */
+		public String getReturnValue() {
+			return returnValue;
+		}
+
+		/** Gets whether the macro was aborted, e.g. because of an error. */
+		public boolean isAborted() {
+			return "[aborted]".equals(returnValue);
+		}
+
+		/**
+		 * Gets the variables the macro left, as
+		 * {@link IJ1Helper#getMacroVariables(Object)} does.
+		 */
+		public Map<String, Object> getVariables() {
+			return variables;
+		}
+
+		/**
+		 * Gets the images the macro left open in batch mode. They are no longer
+		 * known to ImageJ 1.x, and it is up to the caller to keep or discard
+		 * them.
+		 */
+		public List<ImagePlus> getImages() {
+			return images;
+		}
+	}
+
+}
@@ -0,0 +1,372 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.plugin;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import net.imagej.legacy.IJ1Helper;
+import net.imagej.legacy.IJ1Helper.MacroListener;
+import net.imagej.table.DefaultGenericTable;
+import net.imagej.table.GenericTable;
+
+/**
+ * Profiles ImageJ 1.x macros, recording wall time, execution counts and
+ * allocated bytes per macro line, user function and command.
+ * <p>
+ * The profiler hooks into an ImageJ 1.x macro interpreter as a
+ * {@link MacroListener}, which is notified before each statement and before
+ * each command. The time between two notifications is attributed to the
+ * statement's line, to the innermost user function, and to the command
+ * started in between, if any. Interpreters without profiler are not slowed
+ * down at all.
+ * </p>
+ * <p>
+ * Function calls are detected by their first statement, and nested calls by
+ * where their local variables start on the interpreter's stack; a function
+ * calling itself without arguments and local variables therefore shows up as
+ * consecutive rather than nested calls. Without access to the interpreter's
+ * internals (see {@link IJ1Helper#isMacroInterpreterAccessible()}), only
+ * lines and commands are profiled.
+ * </p>
+ */
+public class MacroProfiler {
+
+	private static final String MAIN = "main";
+
+	private static final String[] HEADERS = { "Kind", "Name", "Count",
+		"Total (ms)", "Self (ms)", "Allocated (bytes)" };
+
+	/** Allocated bytes are only available on some JVMs. */
+	private static final com.sun.management.ThreadMXBean ALLOCATIONS =
+		allocations();
+
+	private final Hook hook = new Hook();
+
+	private final Map<Integer, Stats> lines = new LinkedHashMap<>();
+	private final Map<String, Stats> functions = new LinkedHashMap<>();
+	private final Map<String, Stats> commands = new LinkedHashMap<>();
+
+	/** Nanoseconds per collapsed stack, including lines and commands. */
+	private final Map<String, long[]> stacks = new LinkedHashMap<>();
+
+	// -- state of the current run --
+
+	private Thread thread;
+	private Object interpreter;
+	private final List<Frame> frames = new ArrayList<>();
+	private int line = -1;
+	private String command;
+	private long start, startBytes;
+
+	// -- MacroProfiler methods --
+
+	/**
+	 * Starts profiling the given ImageJ 1.x macro interpreter, which is about
+	 * to run a macro on the current thread. Results accumulate over several
+	 * runs until {@link #reset()}.
+	 */
+	public synchronized void attach(final Object interp) {
+		if (thread != null) {
+			throw new IllegalStateException("Profiler is already attached");
+		}
+		thread = Thread.currentThread();
+		interpreter = interp;
+		frames.clear();
+		line = -1;
+		command = null;
+		IJ1Helper.addMacroListener(interp, hook);
+		start = System.nanoTime();
+		startBytes = allocatedBytes();
+	}
+
+	/** Stops profiling the given interpreter. */
+	public synchronized void detach(final Object interp) {
+		if (interp != interpreter) return;
+		mark();
+		IJ1Helper.removeMacroListener(interp);
+		thread = null;
+		interpreter = null;
+	}
+
+	/** Discards all results. */
+	public synchronized void reset() {
+		lines.clear();
+		functions.clear();
+		commands.clear();
+		stacks.clear();
+	}
+
+	/**
+	 * Gets the results as a table, with one row per line, user function and
+	 * command, each sorted by decreasing total time.
+	 */
+	public synchronized GenericTable toTable() {
+		final GenericTable table = new DefaultGenericTable();
+		for (final String header : HEADERS) {
+			table.appendColumn(header);
+		}
+		final Map<String, Stats> byLine = new LinkedHashMap<>();
+		for (final Entry<Integer, Stats> entry : lines.entrySet()) {
+			byLine.put("line " + entry.getKey(), entry.getValue());
+		}
+		addRows(table, "line", byLine);
+		addRows(table, "function", withInclusiveTimes());
+		addRows(table, "command", commands);
+		return table;
+	}
+
+	/**
+	 * Writes the results as collapsed stacks, as consumed by flame graph
+	 * tools: one line per stack, with frames separated by semicolons, followed
+	 * by the time spent there in microseconds.
+	 */
+	public synchronized void writeCollapsedStacks(final Writer writer)
+		throws IOException
+	{
+		for (final Entry<String, long[]> entry : stacks.entrySet()) {
+			final long micros = entry.getValue()[0] / 1000;
+			if (micros == 0) continue;
+			writer.write(entry.getKey());
+			writer.write(' ');
+			writer.write(Long.toString(micros));
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	// -- Helper methods --
+
+	/** Called before each statement. */
+	private synchronized void statement(final int lineNumber,
+		final String function, final boolean entry, final int startOfLocals)
+	{
+		if (Thread.currentThread() != thread) return;
+		mark();
+		enter(function, entry, startOfLocals);
+		line = lineNumber;
+		command = null;
+		stats(lines, line).count++;
+	}
+
+	/** Called before each command. */
+	private synchronized void command(final String cmd) {
+		if (Thread.currentThread() != thread) return;
+		mark();
+		command = cmd;
+		stats(commands, cmd).count++;
+	}
+
+	/**
+	 * Updates the call stack for a statement of the given function.
+	 *
+	 * @param entry whether the statement is the first one of the function
+	 */
+	private void enter(final String function, final boolean entry,
+		final int startOfLocals)
+	{
+		while (!frames.isEmpty()) {
+			final Frame top = frames.get(frames.size() - 1);
+			if (top.startOfLocals < startOfLocals) break;
+			if (top.startOfLocals == startOfLocals && !entry && //
+				top.name.equals(function))
+			{
+				// the same call continues
+				return;
+			}
+			frames.remove(frames.size() - 1);
+		}
+		if (function == null) return;
+		final String parent = frames.isEmpty() ? MAIN : //
+			frames.get(frames.size() - 1).stack;
+		frames.add(new Frame(function, startOfLocals, parent + ";" + function));
+		stats(functions, function).count++;
+	}
+
+	/** Attributes the time since the previous notification. */
+	private void mark() {
+		final long now = System.nanoTime();
+		final long bytes = allocatedBytes();
+		if (line >= 0) {
+			final long nanos = now - start;
+			final long allocated = bytes - startBytes;
+			stats(lines, line).add(nanos, allocated);
+			final Frame frame = frames.isEmpty() ? null : //
+				frames.get(frames.size() - 1);
+			stats(functions, frame == null ? MAIN : frame.name).add(nanos,
+				allocated);
+			String stack = (frame == null ? MAIN : frame.stack) + ";line " + line;
+			if (command != null) {
+				stats(commands, command).add(nanos, allocated);
+				stack += ";" + command.replace(';', ',');
+			}
+			long[] total = stacks.get(stack);
+			if (total == null) stacks.put(stack, total = new long[1]);
+			total[0] += nanos;
+		}
+		start = now;
+		startBytes = bytes;
+	}
+
+	/**
+	 * Gets the function stats, with total times including nested calls, as
+	 * summed up from the collapsed stacks.
+	 */
+	private Map<String, Stats> withInclusiveTimes() {
+		final Map<String, Stats> result = new LinkedHashMap<>();
+		for (final Entry<String, Stats> entry : functions.entrySet()) {
+			final Stats stats = new Stats();
+			stats.count = entry.getValue().count;
+			stats.selfNanos = entry.getValue().selfNanos;
+			stats.bytes = entry.getValue().bytes;
+			result.put(entry.getKey(), stats);
+		}
+		final Set<String> seen = new HashSet<>();
+		for (final Entry<String, long[]> entry : stacks.entrySet()) {
+			seen.clear();
+			final String[] names = entry.getKey().split(";");
+			for (final String name : names) {
+				// NB: Count recursive functions once per stack.
+				final Stats stats = result.get(name);
+				if (stats != null && seen.add(name)) {
+					stats.nanos += entry.getValue()[0];
+				}
+			}
+		}
+		if (result.containsKey(MAIN)) result.get(MAIN).count = 1;
+		return result;
+	}
+
+	private static void addRows(final GenericTable table, final String kind,
+		final Map<String, Stats> stats)
+	{
+		final List<Entry<String, Stats>> entries = new ArrayList<>(stats
+			.entrySet());
+		Collections.sort(entries, (e1, e2) -> Long.compare(e2.getValue().nanos,
+			e1.getValue().nanos));
+		for (final Entry<String, Stats> entry : entries) {
+			final Stats s = entry.getValue();
+			final int row = table.getRowCount();
+			table.appendRow();
+			table.set("Kind", row, kind);
+			table.set("Name", row, entry.getKey());
+			table.set("Count", row, s.count);
+			table.set("Total (ms)", row, s.nanos / 1e6);
+			table.set("Self (ms)", row, s.selfNanos / 1e6);
+			table.set("Allocated (bytes)", row, ALLOCATIONS == null ? null
+				: s.bytes);
+		}
+	}
+
+	private long allocatedBytes() {
+		if (ALLOCATIONS == null) return 0;
+		return ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread()
+			.getId());
+	}
+
+	private static com.sun.management.ThreadMXBean allocations() {
+		try {
+			final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+			final com.sun.management.ThreadMXBean sunBean =
+				(com.sun.management.ThreadMXBean) bean;
+			if (!sunBean.isThreadAllocatedMemorySupported()) return null;
+			sunBean.setThreadAllocatedMemoryEnabled(true);
+			return sunBean;
+		}
+		catch (final LinkageError | UnsupportedOperationException exc) {
+			return null;
+		}
+	}
+
+	private static <K> Stats stats(final Map<K, Stats> map, final K key) {
+		Stats stats = map.get(key);
+		if (stats == null) map.put(key, stats = new Stats());
+		return stats;
+	}
+
+	// -- Helper classes --
+
+	private static class Stats {
+
+		private long count, nanos, selfNanos, bytes;
+
+		private void add(final long elapsed, final long allocated) {
+			nanos += elapsed;
+			selfNanos += elapsed;
+			bytes += allocated;
+		}
+	}
+
+	private static class Frame {
+
+		private final String name;
+		private final int startOfLocals;
+		private final String stack;
+
+		private Frame(final String name, final int startOfLocals,
+			final String stack)
+		{
+			this.name = name;
+			this.startOfLocals = startOfLocals;
+			this.stack = stack;
+		}
+	}
+
+	private class Hook implements MacroListener {
+
+		@Override
+		public void statement(final int lineNumber, final String function,
+			final boolean entry, final int startOfLocals)
+		{
+			MacroProfiler.this.statement(lineNumber, function, entry,
+				startOfLocals);
+		}
+
+		@Override
+		public void command(final String cmd) {
+			MacroProfiler.this.command(cmd);
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.plugin;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.imagej.legacy.IJ1Helper;
+
+/**
+ * Caches tokenized ImageJ 1.x macros, so that evaluating the same macro source
+ * again skips tokenizing it.
+ * <p>
+ * A tokenized program is not safe to run twice at the same time: running it
+ * re-initializes its global variables in place. Programs are therefore checked
+ * out for the duration of one run and released afterwards; concurrent runs of
+ * the same source each get their own copy. Sources are compared in full, so
+ * hash collisions cannot mix up programs. The least recently used sources are
+ * evicted beyond the cache's capacity.
+ * </p>
+ */
+public class MacroProgramCache {
+
+	/** Default number of distinct macro sources kept. */
+	public static final int DEFAULT_CAPACITY = 32;
+
+	private static final MacroProgramCache SHARED_CACHE =
+		new MacroProgramCache();
+
+	private final int capacity;
+
+	/** Idle programs per source, in access order. */
+	private final LinkedHashMap<String, Deque<Object>> programs =
+		new LinkedHashMap<>(16, 0.75f, true);
+
+	private long hits;
+	private long misses;
+
+	public MacroProgramCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public MacroProgramCache(final int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	// -- MacroProgramCache methods --
+
+	/** Gets the cache shared by all {@link IJ1MacroEngine}s. */
+	public static MacroProgramCache getSharedCache() {
+		return SHARED_CACHE;
+	}
+
+	/**
+	 * Checks out a tokenized program for the given macro source, tokenizing it
+	 * if no idle program is cached. Pass the program to
+	 * {@link #release(String, Object)} once it has run.
+	 *
+	 * @return the tokenized {@code ij.macro.Program}
+	 * @see IJ1Helper#tokenizeMacro(String)
+	 */
+	public Object checkout(final String source) {
+		synchronized (this) {
+			final Deque<Object> idle = programs.get(source);
+			final Object program = idle == null ? null : idle.poll();
+			if (program != null) {
+				hits++;
+				return program;
+			}
+			misses++;
+		}
+		return IJ1Helper.tokenizeMacro(source);
+	}
+
+	/** Returns a program obtained by {@link #checkout(String)} to the cache. */
+	public synchronized void release(final String source,
+		final Object program)
+	{
+		Deque<Object> idle = programs.get(source);
+		if (idle == null) {
+			idle = new ArrayDeque<>(1);
+			programs.put(source, idle);
+		}
+		idle.push(program);
+		final Iterator<Map.Entry<String, Deque<Object>>> iter = programs
+			.entrySet().iterator();
+		while (programs.size() > capacity && iter.hasNext()) {
+			iter.next();
+			iter.remove();
+		}
+	}
+
+	/** Discards all cached programs. */
+	public synchronized void clear() {
+		programs.clear();
+	}
+
+	/** Gets the number of distinct macro sources cached. */
+	public synchronized int size() {
+		return programs.size();
+	}
+
+	/** Gets the number of checkouts served from the cache. */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/** Gets the number of checkouts which had to tokenize the macro. */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+}
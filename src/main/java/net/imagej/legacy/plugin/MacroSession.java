@@ -0,0 +1,217 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.imagej.legacy.IJ1Helper;
+
+/**
+ * An ImageJ 1.x macro session, in which variables and user functions persist
+ * across evaluations, as in a read-eval-print loop.
+ * <p>
+ * Every variable left by a successful evaluation is visible to later
+ * evaluations as a global variable, also inside user functions; declaring it
+ * again with {@code var} re-initializes it. User functions defined at the top
+ * level of an evaluated macro are available to later evaluations, until
+ * redefined. Since an ImageJ 1.x program can only call functions it contains
+ * itself, the source of the session's functions is appended to each macro,
+ * and the combination is tokenized as a whole; the {@link MacroProgramCache}
+ * keeps the tokenized programs, so that a macro evaluated again while the
+ * functions are unchanged is not tokenized again.
+ * </p>
+ * <p>
+ * The function definitions are found by the ImageJ 1.x tokenizer, and kept as
+ * the source lines they span. Definitions sharing a line with other top-level
+ * statements are not kept, and definitions sharing lines with each other are
+ * only kept, or replaced, together. Keeping functions needs access to the
+ * interpreter's internals (see {@link IJ1Helper#isMacroInterpreterAccessible()}
+ * ); without it, only variables persist.
+ * </p>
+ */
+public class MacroSession {
+
+	private final MacroProgramCache cache;
+
+	/** Variables of previous evaluations, by name. */
+	private final Map<String, Object> variables = new LinkedHashMap<>();
+
+	/**
+	 * Sources of the user functions of previous evaluations, by name. Functions
+	 * defined on shared lines map to the same source instance.
+	 */
+	private final Map<String, String> functions = new LinkedHashMap<>();
+
+	public MacroSession() {
+		this(MacroProgramCache.getSharedCache());
+	}
+
+	public MacroSession(final MacroProgramCache cache) {
+		this.cache = cache;
+	}
+
+	// -- MacroSession methods --
+
+	/**
+	 * Evaluates the given macro in this session.
+	 *
+	 * @param macro the macro source
+	 * @param inputs values of input variables, by name; they take precedence
+	 *          over variables of previous evaluations
+	 * @return the value returned by the macro, or {@code "[aborted]"} if the
+	 *         macro was aborted
+	 */
+	public String eval(final String macro, final Map<String, ?> inputs) {
+		return eval(IJ1Helper.newInterpreter(), macro, inputs);
+	}
+
+	/**
+	 * Evaluates the given macro in this session, using the given ImageJ 1.x
+	 * macro interpreter.
+	 *
+	 * @see #eval(String, Map)
+	 */
+	public synchronized String eval(final Object interpreter,
+		final String macro, final Map<String, ?> inputs)
+	{
+		final Map<String, String> defined = functions(macro);
+		// NB: Redefined functions must not be appended again: of several
+		// definitions, ImageJ 1.x calls the last one, or the first one when
+		// overriding a built-in function.
+		final Set<String> replaced = Collections.newSetFromMap(
+			new IdentityHashMap<String, Boolean>());
+		for (final String name : defined.keySet()) {
+			final String function = functions.get(name);
+			if (function != null) replaced.add(function);
+		}
+		final Set<String> kept = Collections.newSetFromMap(
+			new IdentityHashMap<String, Boolean>());
+		// NB: The macro comes first, so that line numbers in error messages
+		// still match its source.
+		final StringBuilder source = new StringBuilder(macro);
+		for (final String function : functions.values()) {
+			if (replaced.contains(function) || !kept.add(function)) continue;
+			source.append("\n").append(function);
+		}
+		final String returnValue = IJ1Helper.runCachedMacro(interpreter, source
+			.toString(), null, inputs, cache, variables);
+		if (!"[aborted]".equals(returnValue) && !defined.isEmpty()) {
+			functions.values().removeAll(replaced);
+			functions.putAll(defined);
+		}
+		return returnValue;
+	}
+
+	/**
+	 * Gets the values of the session's variables, as
+	 * {@link IJ1Helper#getMacroVariables(Object)} does.
+	 */
+	public synchronized Map<String, Object> getVariables() {
+		return IJ1Helper.getMacroValues(variables);
+	}
+
+	/** Gets the names of the session's user functions. */
+	public synchronized Set<String> getFunctionNames() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(functions
+			.keySet()));
+	}
+
+	/** Forgets all variables and user functions. */
+	public synchronized void reset() {
+		variables.clear();
+		functions.clear();
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Finds the top-level user function definitions in the given macro source.
+	 *
+	 * @return the source lines of each function, by name; functions defined on
+	 *         shared lines map to the same source instance
+	 */
+	private Map<String, String> functions(final String macro) {
+		final Map<String, String> functions = new LinkedHashMap<>();
+		if (!IJ1Helper.isMacroInterpreterAccessible()) return functions;
+		final Object program = cache.checkout(macro);
+		final Map<String, int[]> ranges;
+		try {
+			ranges = IJ1Helper.getMacroFunctionLines(program);
+		}
+		finally {
+			cache.release(macro, program);
+		}
+		if (ranges.isEmpty()) return functions;
+
+		// NB: Split lines as java.io.StreamTokenizer counts them.
+		final String[] lines = macro.split("\r\n|\r|\n", -1);
+		final List<String> names = new ArrayList<>();
+		int first = 0, last = 0;
+		for (final Map.Entry<String, int[]> entry : ranges.entrySet()) {
+			final int[] range = entry.getValue();
+			if (!names.isEmpty() && range[0] > last) {
+				addFunctions(functions, names, lines, first, last);
+				names.clear();
+			}
+			if (names.isEmpty()) first = range[0];
+			last = Math.max(last, range[1]);
+			names.add(entry.getKey());
+		}
+		addFunctions(functions, names, lines, first, last);
+		return functions;
+	}
+
+	/** Maps the given names to the given (1-based, inclusive) lines. */
+	private static void addFunctions(final Map<String, String> functions,
+		final List<String> names, final String[] lines, final int first,
+		final int last)
+	{
+		final StringBuilder source = new StringBuilder();
+		for (int line = first; line <= last; line++) {
+			if (line > first) source.append("\n");
+			source.append(lines[line - 1]);
+		}
+		final String function = source.toString();
+		for (final String name : names) {
+			functions.put(name, function);
+		}
+	}
+
+}
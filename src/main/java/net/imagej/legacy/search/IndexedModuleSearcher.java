@@ -0,0 +1,131 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.scijava.app.AppService;
+import org.scijava.event.EventHandler;
+import org.scijava.module.ModuleInfo;
+import org.scijava.module.ModuleService;
+import org.scijava.module.event.ModulesAddedEvent;
+import org.scijava.module.event.ModulesRemovedEvent;
+import org.scijava.plugin.AbstractRichPlugin;
+import org.scijava.plugin.Parameter;
+import org.scijava.prefs.PrefService;
+import org.scijava.search.SearchResult;
+import org.scijava.search.Searcher;
+import org.scijava.search.module.ModuleSearchResult;
+import org.scijava.search.module.ModuleSearcher;
+
+/**
+ * Searches the available modules via a {@link ModuleIndex}, rather than by
+ * matching every module against every keystroke like {@link ModuleSearcher}
+ * does.
+ * <p>
+ * This searcher is deliberately not annotated as a plugin: the
+ * {@link SearchBarHacker} registers it in place of the {@link ModuleSearcher}
+ * when it adds the search bar to the ImageJ 1.x main window. The replacement
+ * is context-wide, since the search service hands the same searchers to every
+ * client: once the legacy search bar exists, any other search bar or caller
+ * of the search service gets these results, ranked as below and limited by
+ * the legacy {@link SearchOptions}, instead of those of the
+ * {@link ModuleSearcher}. Without the legacy search bar, e.g. when headless
+ * or when search is disabled, nothing is replaced.
+ * </p>
+ * <p>
+ * The index is built once, and then kept up to date by the
+ * {@link ModulesAddedEvent} and {@link ModulesRemovedEvent} handlers. The
+ * {@code resultLimit} of the {@link SearchOptions} is applied while ranking.
+ * </p>
+ */
+public class IndexedModuleSearcher extends AbstractRichPlugin implements
+	Searcher
+{
+
+	@Parameter
+	private ModuleService moduleService;
+
+	@Parameter
+	private AppService appService;
+
+	@Parameter(required = false)
+	private PrefService prefService;
+
+	private ModuleIndex index;
+
+	// -- Searcher methods --
+
+	@Override
+	public String title() {
+		return "Commands";
+	}
+
+	@Override
+	public List<SearchResult> search(final String text, final boolean fuzzy) {
+		final int limit = prefService == null ? 8 : //
+			prefService.getInt(SearchOptions.class, "resultLimit", 8);
+		final String baseDir = //
+			appService.getApp().getBaseDirectory().getAbsolutePath();
+		final List<SearchResult> results = new ArrayList<>();
+		for (final ModuleInfo info : getIndex().search(text, fuzzy, limit)) {
+			results.add(new ModuleSearchResult(info, baseDir));
+		}
+		return results;
+	}
+
+	// -- Internal methods --
+
+	/** Gets the index of all modules, building it on first use. */
+	synchronized ModuleIndex getIndex() {
+		if (index == null) {
+			final ModuleIndex modules = new ModuleIndex();
+			modules.addAll(moduleService.getModules());
+			index = modules;
+		}
+		return index;
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	private synchronized void onEvent(final ModulesAddedEvent event) {
+		if (index != null) index.addAll(event.getItems());
+	}
+
+	@EventHandler
+	private synchronized void onEvent(final ModulesRemovedEvent event) {
+		if (index != null) index.removeAll(event.getItems());
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.search;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.scijava.MenuEntry;
+import org.scijava.MenuPath;
+import org.scijava.module.ModuleInfo;
+import org.scijava.script.ScriptInfo;
+
+/**
+ * An inverted index over the titles, menu paths and script names of modules,
+ * for searching them as you type.
+ * <p>
+ * Every word of the indexed text is entered into a sorted word map, to find
+ * modules by word prefixes, and every trigram into a trigram map, to find
+ * modules by substrings and by similarity. Each posting list is a
+ * {@link BitSet} of module numbers, which keeps lookups and incremental
+ * updates cheap even with many thousands of modules.
+ * </p>
+ * <p>
+ * Queries are ranked by how well they match: exact titles first, then
+ * title prefixes, word prefixes and substrings, then matches in the menu
+ * path or script name and finally, for fuzzy searches, the trigram
+ * similarity. Only the requested number of best results is ever kept.
+ * </p>
+ */
+public class ModuleIndex {
+
+	private static final int GRAM = 3;
+
+	private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	/** The indexed modules, by module number; null for free numbers. */
+	private final List<Document> documents = new ArrayList<>();
+
+	/** Module numbers, keyed on module identifier. */
+	private final Map<String, Integer> numbers = new HashMap<>();
+
+	private final Deque<Integer> free = new ArrayDeque<>();
+
+	private final TreeMap<String, BitSet> words = new TreeMap<>();
+
+	private final Map<String, BitSet> grams = new HashMap<>();
+
+	// -- ModuleIndex methods --
+
+	/** Adds the given modules, replacing those with the same identifiers. */
+	public synchronized void addAll(
+		final Collection<? extends ModuleInfo> modules)
+	{
+		for (final ModuleInfo info : modules) {
+			if (info == null || !isSearchable(info)) continue;
+			remove(info.getIdentifier());
+			final int number = free.isEmpty() ? documents.size() : free.pop();
+			final Document document = new Document(info);
+			if (number == documents.size()) documents.add(document);
+			else documents.set(number, document);
+			numbers.put(info.getIdentifier(), number);
+			for (final String word : document.words) {
+				words.computeIfAbsent(word, k -> new BitSet()).set(number);
+			}
+			for (final String gram : document.grams) {
+				grams.computeIfAbsent(gram, k -> new BitSet()).set(number);
+			}
+		}
+	}
+
+	/**
+	 * Removes the given modules. Modules which were replaced by other ones with
+	 * the same identifiers in the meantime are left alone.
+	 */
+	public synchronized void removeAll(
+		final Collection<? extends ModuleInfo> modules)
+	{
+		for (final ModuleInfo info : modules) {
+			if (info == null) continue;
+			final Integer number = numbers.get(info.getIdentifier());
+			if (number != null && documents.get(number).info == info) {
+				remove(info.getIdentifier());
+			}
+		}
+	}
+
+	/** Gets the number of indexed modules. */
+	public synchronized int size() {
+		return numbers.size();
+	}
+
+	/**
+	 * Finds the modules best matching the given text.
+	 *
+	 * @param text the text to search for
+	 * @param fuzzy whether to include modules which match only approximately
+	 * @param limit the maximum number of results; zero or less for no limit
+	 * @return the matching modules, best match first
+	 */
+	public synchronized List<ModuleInfo> search(final String text,
+		final boolean fuzzy, final int limit)
+	{
+		final String query = normalize(text);
+		if (query.isEmpty()) return Collections.emptyList();
+		final String[] queryWords = query.split(" ");
+		final Set<String> queryGrams = grams(query);
+
+		// candidates: all query words are word prefixes...
+		final BitSet candidates = prefixMatches(queryWords);
+		// ...or enough of the query's trigrams occur
+		if (!queryGrams.isEmpty()) {
+			final int[] hits = new int[documents.size()];
+			for (final String gram : queryGrams) {
+				final BitSet postings = grams.get(gram);
+				if (postings == null) continue;
+				for (int i = postings.nextSetBit(0); i >= 0; i = postings
+					.nextSetBit(i + 1))
+				{
+					hits[i]++;
+				}
+			}
+			// NB: a substring has all of them, a typo misses a few
+			final int required = fuzzy ? (queryGrams.size() + 1) / 2 : //
+				queryGrams.size();
+			for (int i = 0; i < hits.length; i++) {
+				if (hits[i] >= required) candidates.set(i);
+			}
+		}
+
+		// rank, keeping only the best matches
+		final Comparator<Match> order = Comparator.comparingDouble(
+			(final Match m) -> m.score).reversed().thenComparing(
+				m -> m.document.title);
+		final PriorityQueue<Match> best = new PriorityQueue<>(order.reversed());
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates
+			.nextSetBit(i + 1))
+		{
+			final Document document = documents.get(i);
+			final double score = document.score(query, queryWords, queryGrams,
+				fuzzy);
+			if (score <= 0) continue;
+			final Match match = new Match(document, score);
+			if (limit > 0 && best.size() >= limit) {
+				if (order.compare(match, best.peek()) >= 0) continue;
+				best.poll();
+			}
+			best.add(match);
+		}
+		final List<Match> sorted = new ArrayList<>(best);
+		sorted.sort(order);
+		final List<ModuleInfo> result = new ArrayList<>(sorted.size());
+		for (final Match match : sorted) {
+			result.add(match.document.info);
+		}
+		return result;
+	}
+
+	// -- Helper methods --
+
+	/** Modules the user can find: visible, enabled and in the menus. */
+	private static boolean isSearchable(final ModuleInfo info) {
+		if (!info.isVisible() || !info.isEnabled()) return false;
+		final MenuPath path = info.getMenuPath();
+		return path != null && path.getLeaf() != null;
+	}
+
+	private void remove(final String identifier) {
+		final Integer number = numbers.remove(identifier);
+		if (number == null) return;
+		final Document document = documents.set(number, null);
+		for (final String word : document.words) {
+			clear(words, word, number);
+		}
+		for (final String gram : document.grams) {
+			clear(grams, gram, number);
+		}
+		free.push(number);
+	}
+
+	private static void clear(final Map<String, BitSet> postings,
+		final String key, final int number)
+	{
+		final BitSet bits = postings.get(key);
+		bits.clear(number);
+		if (bits.isEmpty()) postings.remove(key);
+	}
+
+	/** Finds the modules in which every query word starts some word. */
+	private BitSet prefixMatches(final String[] queryWords) {
+		BitSet result = null;
+		for (final String queryWord : queryWords) {
+			final BitSet matches = new BitSet();
+			for (final BitSet postings : words.subMap(queryWord, true,
+				queryWord + Character.MAX_VALUE, false).values())
+			{
+				matches.or(postings);
+			}
+			if (result == null) result = matches;
+			else result.and(matches);
+			if (result.isEmpty()) break;
+		}
+		return result == null ? new BitSet() : result;
+	}
+
+	/** Lower-cases the text and reduces it to words separated by spaces. */
+	static String normalize(final String text) {
+		if (text == null) return "";
+		return NON_WORD.matcher(text.toLowerCase(Locale.ENGLISH)).replaceAll(" ")
+			.trim();
+	}
+
+	/** Gets the trigrams of the words of the given normalized text. */
+	static Set<String> grams(final String text) {
+		final Set<String> result = new HashSet<>();
+		for (final String word : text.split(" ")) {
+			for (int i = 0; i + GRAM <= word.length(); i++) {
+				result.add(word.substring(i, i + GRAM));
+			}
+		}
+		return result;
+	}
+
+	/** Computes the Dice coefficient of the two trigram sets. */
+	private static double similarity(final Set<String> a, final Set<String> b) {
+		if (a.isEmpty() || b.isEmpty()) return 0;
+		int common = 0;
+		for (final String gram : a) {
+			if (b.contains(gram)) common++;
+		}
+		return 2.0 * common / (a.size() + b.size());
+	}
+
+	private static boolean allPrefixes(final String[] queryWords,
+		final String[] words)
+	{
+		for (final String queryWord : queryWords) {
+			boolean found = false;
+			for (final String word : words) {
+				if (word.startsWith(queryWord)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) return false;
+		}
+		return true;
+	}
+
+	// -- Helper classes --
+
+	/** The searchable text of an indexed module. */
+	private static class Document {
+
+		private final ModuleInfo info;
+		private final String title, path, name;
+		private final String[] titleWords, otherWords;
+		private final Set<String> titleGrams;
+		private final Set<String> words = new HashSet<>();
+		private final Set<String> grams = new HashSet<>();
+
+		private Document(final ModuleInfo info) {
+			this.info = info;
+			title = normalize(info.getTitle());
+			final StringBuilder sb = new StringBuilder();
+			for (final MenuEntry entry : info.getMenuPath()) {
+				sb.append(entry.getName()).append(' ');
+			}
+			path = normalize(sb.toString());
+			name = info instanceof ScriptInfo && ((ScriptInfo) info)
+				.getPath() != null ? normalize(new File(((ScriptInfo) info)
+					.getPath()).getName()) : "";
+			titleWords = title.split(" ");
+			otherWords = normalize(path + " " + name).split(" ");
+			titleGrams = ModuleIndex.grams(title);
+			Collections.addAll(words, titleWords);
+			Collections.addAll(words, otherWords);
+			words.remove("");
+			grams.addAll(titleGrams);
+			grams.addAll(ModuleIndex.grams(path));
+			grams.addAll(ModuleIndex.grams(name));
+		}
+
+		/** Scores how well this module matches; zero if it does not. */
+		private double score(final String query, final String[] queryWords,
+			final Set<String> queryGrams, final boolean fuzzy)
+		{
+			final double score;
+			if (title.equals(query)) score = 1000;
+			else if (title.startsWith(query)) score = 800;
+			else if (allPrefixes(queryWords, titleWords)) score = 600;
+			else if (title.contains(query)) score = 400;
+			else if (allPrefixes(queryWords, otherWords)) score = 300;
+			else if (path.contains(query) || name.contains(query)) score = 250;
+			else if (!fuzzy) return 0;
+			else {
+				final double similarity = Math.max(similarity(queryGrams, titleGrams),
+					0.75 * similarity(queryGrams, grams));
+				if (similarity < 0.3) return 0;
+				score = 200 * similarity;
+			}
+			// NB: among equally good matches, prefer the shorter titles
+			return score - Math.min(title.length(), 100) / 100.0;
+		}
+	}
+
+	private static class Match {
+
+		private final Document document;
+		private final double score;
+
+		private Match(final Document document, final double score) {
+			this.document = document;
+			this.score = score;
+		}
+	}
+}
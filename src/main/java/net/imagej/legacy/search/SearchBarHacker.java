@@ -50,8 +50,14 @@ import org.scijava.Context;
 import org.scijava.command.CommandInfo;
 import org.scijava.command.CommandService;
 import org.scijava.module.ModuleService;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.plugin.PluginService;
 import org.scijava.prefs.PrefService;
 import org.scijava.search.SearchAction;
+import org.scijava.search.SearchService;
+import org.scijava.search.Searcher;
+import org.scijava.search.module.ModuleSearcher;
+import org.scijava.thread.ThreadService;
 import org.scijava.ui.swing.search.SwingSearchBar;
 
 /**
@@ -115,6 +121,9 @@ public class SearchBarHacker {
 			Arrays.stream(pc).forEach(panel::add);
 		}
 
+		// search the modules via an index instead of one by one
+		useIndexedModuleSearcher();
+
 		// Define a subclass that closes on default action as appropriate.
 		class LegacySearchBar extends SwingSearchBar {
 			public LegacySearchBar() { super(context); }
@@ -206,6 +215,39 @@ public class SearchBarHacker {
 		return searchBar;
 	}
 
+	/**
+	 * Replaces the {@link ModuleSearcher}, which matches every module on every
+	 * keystroke, with the {@link IndexedModuleSearcher}, and builds its index
+	 * in the background so that it is ready by the first keystroke.
+	 * <p>
+	 * NB: This swaps the searcher plugins of the whole context, not just those
+	 * of the legacy search bar, as the search service offers no per-bar set of
+	 * searchers. It happens at most once, since the {@link ModuleSearcher} is
+	 * gone afterwards.
+	 * </p>
+	 */
+	private void useIndexedModuleSearcher() {
+		final PluginService pluginService = //
+			context.getService(PluginService.class);
+		if (pluginService == null) return;
+		final PluginInfo<?> linear = pluginService.getPlugin(ModuleSearcher.class);
+		if (linear == null) return;
+		final PluginInfo<Searcher> indexed = new PluginInfo<>(
+			IndexedModuleSearcher.class, Searcher.class);
+		indexed.setPriority(linear.getPriority());
+		pluginService.removePlugin(linear);
+		pluginService.addPlugin(indexed);
+
+		final SearchService searchService = //
+			context.getService(SearchService.class);
+		final ThreadService threadService = //
+			context.getService(ThreadService.class);
+		if (searchService == null || threadService == null) return;
+		final IndexedModuleSearcher searcher = //
+			searchService.getInstance(IndexedModuleSearcher.class);
+		if (searcher != null) threadService.run(searcher::getIndex);
+	}
+
 	private void nullShortcut(final IJ1Helper ij1Helper, final String menuLabel,
 		final String subMenuLabel, final String itemLabel)
 	{
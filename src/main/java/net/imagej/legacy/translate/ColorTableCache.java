@@ -0,0 +1,309 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import ij.process.LUT;
+
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.display.ColorTable;
+import net.imglib2.display.ColorTable8;
+
+/**
+ * Content-addressed cache of 8-bit {@link LUT}s and {@link ColorTable8}s.
+ * <p>
+ * Most images use one of a handful of standard color tables, so building a
+ * new {@link LUT} (and its {@link IndexColorModel}) for every channel on every
+ * sync is wasted work. This cache interns both directions of the translation
+ * by the 768 bytes of their red, green and blue palette entries. All cached
+ * objects are weakly held: once no display or image refers to them anymore
+ * they are dropped from the cache.
+ * </p>
+ * <p>
+ * The interned {@link LUT}s are shared, and must not be modified. In
+ * particular, their display range is never set: it lives in the image
+ * processors and composite images instead, as
+ * {@link ij.process.ImageProcessor#setColorModel} only keeps the color model
+ * of a LUT, and {@link ij.CompositeImage#setChannelLut} keeps a clone.
+ * </p>
+ */
+public class ColorTableCache {
+
+	// -- instance variables --
+
+	/** LUTs already derived from a given {@link ColorTable} instance. */
+	private final Map<ColorTable, Entry> entriesByTable = new WeakHashMap<>();
+
+	/** Interned LUTs, by palette content. */
+	private final Map<Key, WeakEntry<LUT>> luts = new HashMap<>();
+
+	/** Interned color tables, by palette content. */
+	private final Map<Key, WeakEntry<ColorTable8>> colorTables = new HashMap<>();
+
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+	private final AtomicLong lutHits = new AtomicLong();
+	private final AtomicLong lutMisses = new AtomicLong();
+	private final AtomicLong colorTableHits = new AtomicLong();
+	private final AtomicLong colorTableMisses = new AtomicLong();
+	private final AtomicLong skippedAssignments = new AtomicLong();
+
+	// -- public interface --
+
+	/**
+	 * Gets an 8-bit LUT with the same palette as the given ColorTable.
+	 * <p>
+	 * ColorTable16's are merely down-sampled. If this is a non-false-color image
+	 * (i.e. the data is in the palette entries) data will be lost. For
+	 * false-color images (data is in the indices, palette is just for
+	 * visualization) the default palette is typically a ramp so the ColorTable8
+	 * version is functionally equivalent.
+	 * </p>
+	 * 
+	 * @return a shared LUT, which must not be modified; its display range is
+	 *         0-0
+	 */
+	public synchronized LUT getLUT(final ColorTable cTable) {
+		final Entry entry = entry(cTable);
+		if (entry.lut == null) entry.lut = intern(entry.key);
+		else lutHits.incrementAndGet();
+		return entry.lut;
+	}
+
+	/**
+	 * Gets a ColorTable8 with the same palette as the given IndexColorModel.
+	 * Note that legacy ImageJ LUT's are a kind of IndexColorModel. The returned
+	 * table is shared and must not be modified.
+	 */
+	public ColorTable8 getColorTable(final IndexColorModel icm) {
+		final Key key = new Key(icm);
+		synchronized (this) {
+			expungeStaleEntries();
+			final ColorTable8 cached = get(colorTables, key);
+			if (cached != null) {
+				colorTableHits.incrementAndGet();
+				return cached;
+			}
+			colorTableMisses.incrementAndGet();
+			final ColorTable8 cTable =
+				new ColorTable8(key.channel(0), key.channel(1), key.channel(2));
+			colorTables.put(key, new WeakEntry<>(key, cTable, queue));
+			// the palette of this table is known without resampling it
+			entriesByTable.put(cTable, new Entry(key));
+			return cTable;
+		}
+	}
+
+	/**
+	 * Returns true if the given color model already has exactly the palette of
+	 * the given ColorTable (after down-sampling to 8 bits), so that assigning
+	 * the corresponding LUT would change nothing. This neither builds nor
+	 * interns a LUT.
+	 */
+	public synchronized boolean hasPalette(final ColorModel cm,
+		final ColorTable cTable)
+	{
+		if (!(cm instanceof IndexColorModel)) return false;
+		final IndexColorModel icm = (IndexColorModel) cm;
+		if (icm.getMapSize() != 256) return false;
+		final Entry entry = entry(cTable);
+		final LUT lut = entry.lut;
+		// a processor given our LUT keeps its color model
+		final boolean same = lut != null && (icm == lut || icm == lut
+			.getColorModel()) || entry.key.equals(new Key(icm));
+		if (same) skippedAssignments.incrementAndGet();
+		return same;
+	}
+
+	/** Forgets all cached LUTs and color tables. Counters are preserved. */
+	public synchronized void clear() {
+		entriesByTable.clear();
+		luts.clear();
+		colorTables.clear();
+		expungeStaleEntries();
+	}
+
+	/** Gets the number of LUT requests served from the cache. */
+	public long getLUTHits() {
+		return lutHits.get();
+	}
+
+	/** Gets the number of LUT requests which had to build a new LUT. */
+	public long getLUTMisses() {
+		return lutMisses.get();
+	}
+
+	/** Gets the number of ColorTable requests served from the cache. */
+	public long getColorTableHits() {
+		return colorTableHits.get();
+	}
+
+	/** Gets the number of ColorTable requests which built a new table. */
+	public long getColorTableMisses() {
+		return colorTableMisses.get();
+	}
+
+	/** Gets the number of LUT assignments skipped as already up to date. */
+	public long getSkippedAssignments() {
+		return skippedAssignments.get();
+	}
+
+	/** Gets the number of interned LUTs and color tables still alive. */
+	public synchronized int size() {
+		expungeStaleEntries();
+		return luts.size() + colorTables.size();
+	}
+
+	// -- helper methods --
+
+	private synchronized Entry entry(final ColorTable cTable) {
+		expungeStaleEntries();
+		final Entry known = entriesByTable.get(cTable);
+		if (known != null) return known;
+		final Entry entry = new Entry(new Key(cTable));
+		entriesByTable.put(cTable, entry);
+		return entry;
+	}
+
+	/** Looks up (or creates) the canonical LUT for the given palette. */
+	private LUT intern(final Key key) {
+		final LUT cached = get(luts, key);
+		if (cached != null) {
+			lutHits.incrementAndGet();
+			return cached;
+		}
+		lutMisses.incrementAndGet();
+		final LUT lut = new LUT(key.channel(0), key.channel(1), key.channel(2));
+		luts.put(key, new WeakEntry<>(key, lut, queue));
+		return lut;
+	}
+
+	private static <T> T get(final Map<Key, WeakEntry<T>> map, final Key key) {
+		final WeakEntry<T> ref = map.get(key);
+		return ref == null ? null : ref.get();
+	}
+
+	/** Removes the map entries whose interned object has been collected. */
+	private void expungeStaleEntries() {
+		Object ref;
+		while ((ref = queue.poll()) != null) {
+			final WeakEntry<?> entry = (WeakEntry<?>) ref;
+			if (luts.get(entry.key) == entry) luts.remove(entry.key);
+			if (colorTables.get(entry.key) == entry) colorTables.remove(entry.key);
+		}
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * The palette belonging to one ColorTable instance, and its interned LUT
+	 * once requested.
+	 */
+	private static class Entry {
+
+		private final Key key;
+		private LUT lut;
+
+		private Entry(final Key key) {
+			this.key = key;
+		}
+	}
+
+	/** A weak reference which remembers the key it is stored under. */
+	private static class WeakEntry<T> extends WeakReference<T> {
+
+		private final Key key;
+
+		private WeakEntry(final Key key, final T referent,
+			final ReferenceQueue<Object> queue)
+		{
+			super(referent, queue);
+			this.key = key;
+		}
+	}
+
+	/** The 8-bit red, green and blue palette entries of a color table. */
+	private static class Key {
+
+		private final byte[] rgb = new byte[3 * 256];
+		private final int hash;
+
+		private Key(final ColorTable cTable) {
+			for (int i = 0; i < 256; i++) {
+				rgb[i] = (byte) cTable.getResampled(ColorTable.RED, 256, i);
+				rgb[256 + i] = (byte) cTable.getResampled(ColorTable.GREEN, 256, i);
+				rgb[512 + i] = (byte) cTable.getResampled(ColorTable.BLUE, 256, i);
+			}
+			hash = Arrays.hashCode(rgb);
+		}
+
+		private Key(final IndexColorModel icm) {
+			final byte[] reds = new byte[256];
+			final byte[] greens = new byte[256];
+			final byte[] blues = new byte[256];
+			icm.getReds(reds);
+			icm.getGreens(greens);
+			icm.getBlues(blues);
+			System.arraycopy(reds, 0, rgb, 0, 256);
+			System.arraycopy(greens, 0, rgb, 256, 256);
+			System.arraycopy(blues, 0, rgb, 512, 256);
+			hash = Arrays.hashCode(rgb);
+		}
+
+		private byte[] channel(final int c) {
+			return Arrays.copyOfRange(rgb, c * 256, (c + 1) * 256);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Key)) return false;
+			final Key other = (Key) o;
+			return hash == other.hash && Arrays.equals(rgb, other.rgb);
+		}
+	}
+
+}
@@ -48,7 +48,6 @@ import net.imagej.display.DatasetView;
 import net.imagej.display.ImageDisplay;
 import net.imagej.display.ImageDisplayService;
 import net.imglib2.display.ColorTable;
-import net.imglib2.display.ColorTable8;
 import net.imglib2.type.numeric.RealType;
 
 /**
@@ -59,10 +58,34 @@ import net.imglib2.type.numeric.RealType;
  */
 public class ColorTableHarmonizer implements DisplayHarmonizer {
 
+	/** LUTs and color tables shared by all harmonizers by default. */
+	private static final ColorTableCache SHARED_CACHE = new ColorTableCache();
+
 	private final ImageDisplayService imgDispSrv;
+	private final ColorTableCache cache;
+	private final PlaneStatisticsCache statsCache;
 
 	public ColorTableHarmonizer(ImageDisplayService imgDispSrv) {
+		this(imgDispSrv, SHARED_CACHE);
+	}
+
+	public ColorTableHarmonizer(ImageDisplayService imgDispSrv,
+		ColorTableCache cache)
+	{
+		this(imgDispSrv, cache, GrayPixelHarmonizer.getSharedCache());
+	}
+
+	public ColorTableHarmonizer(ImageDisplayService imgDispSrv,
+		ColorTableCache cache, PlaneStatisticsCache statsCache)
+	{
 		this.imgDispSrv = imgDispSrv;
+		this.cache = cache;
+		this.statsCache = statsCache;
+	}
+
+	/** Gets the cache shared by harmonizers not given one explicitly. */
+	public static ColorTableCache getSharedCache() {
+		return SHARED_CACHE;
 	}
 	
 	/**
@@ -131,8 +154,7 @@ public class ColorTableHarmonizer implements DisplayHarmonizer {
 	private void setCompositeImageLUTsToDefault(final CompositeImage ci) {
 		for (int i = 0; i < ci.getNChannels(); i++) {
 			final ColorTable cTable = ColorTables.getDefaultColorTable(i);
-			final LUT lut = make8BitLUT(cTable);
-			ci.setChannelLut(lut, i + 1);
+			setChannelLut(ci, cTable, i + 1);
 		}
 	}
 
@@ -148,12 +170,33 @@ public class ColorTableHarmonizer implements DisplayHarmonizer {
 		else {
 			for (int i = 0; i < ci.getNChannels(); i++) {
 				final ColorTable cTable = cTables.get(i);
-				final LUT lut = make8BitLUT(cTable);
-				ci.setChannelLut(lut, i + 1);
+				setChannelLut(ci, cTable, i + 1);
 			}
 		}
 	}
 
+	/**
+	 * Sets the LUT of one channel of a CompositeImage, unless it already has the
+	 * palette of the given ColorTable.
+	 */
+	private void setChannelLut(final CompositeImage ci, final ColorTable cTable,
+		final int channel)
+	{
+		if (cache.hasPalette(ci.getChannelLut(channel), cTable)) return;
+		ci.setChannelLut(cache.getLUT(cTable), channel);
+	}
+
+	/**
+	 * Sets the single LUT of an ImagePlus, unless it already has the palette of
+	 * the given ColorTable.
+	 */
+	private void setImagePlusLUT(final ImagePlus imp, final ColorTable cTable) {
+		final ImageProcessor proc = imp.getProcessor();
+		if (cache.hasPalette(proc.getColorModel(), cTable)) return;
+		proc.setColorModel(cache.getLUT(cTable));
+		// or imp.getStack().setColorModel(lut);
+	}
+
 	/**
 	 * Sets the correct legacy ImageJ CompositeImage display mode based upon input
 	 * data values.
@@ -186,9 +229,7 @@ public class ColorTableHarmonizer implements DisplayHarmonizer {
 	{
 		ColorTable cTable = ds.getColorTable(0);
 		if (cTable == null) cTable = ColorTables.GRAYS;
-		final LUT lut = make8BitLUT(cTable);
-		imp.getProcessor().setColorModel(lut);
-		// or imp.getStack().setColorModel(lut);
+		setImagePlusLUT(imp, cTable);
 	}
 
 	/** Sets the single LUT of an ImagePlus to the first ColorTable of a Dataset */
@@ -197,9 +238,7 @@ public class ColorTableHarmonizer implements DisplayHarmonizer {
 	{
 		ColorTable cTable = view.getColorTables().get(0);
 		if (cTable == null) cTable = ColorTables.GRAYS;
-		final LUT lut = make8BitLUT(cTable);
-		imp.getProcessor().setColorModel(lut);
-		// or imp.getStack().setColorModel(lut);
+		setImagePlusLUT(imp, cTable);
 	}
 
 	/**
@@ -217,14 +256,24 @@ public class ColorTableHarmonizer implements DisplayHarmonizer {
 		final double[] max = new double[channelCount];
 		double overallMin = Double.POSITIVE_INFINITY;
 		double overallMax = Double.NEGATIVE_INFINITY;
+		final boolean signed16 =
+			imp.getBitDepth() == 16 && imp.getCalibration().isSigned16Bit();
 		for (int c = 0; c < channelCount; c++) {
 			double lo = view.getChannelMin(c);
 			double hi = view.getChannelMax(c);
 			// ShortProcessor backed data cannot handle negative display range
-			if ((imp.getBitDepth() == 16) && (imp.getCalibration().isSigned16Bit())) {
+			if (signed16) {
 				lo += 32768;
 				hi += 32768;
 			}
+			if (!(lo <= hi)) {
+				// the view has no usable range: use the data range of the channel
+				final double[] range = dataRange(imp, c);
+				if (range != null) {
+					lo = range[0];
+					hi = range[1];
+				}
+			}
 			min[c] = lo;
 			max[c] = hi;
 			overallMin = Math.min(overallMin,lo);
@@ -272,42 +321,6 @@ public class ColorTableHarmonizer implements DisplayHarmonizer {
 		}
 	}
 
-	/**
-	 * Makes a ColorTable8 from an IndexColorModel. Note that legacy ImageJ LUT's
-	 * are a kind of IndexColorModel.
-	 */
-	private ColorTable8 make8BitColorTable(final IndexColorModel icm) {
-		final byte[] reds = new byte[256];
-		final byte[] greens = new byte[256];
-		final byte[] blues = new byte[256];
-		icm.getReds(reds);
-		icm.getGreens(greens);
-		icm.getBlues(blues);
-		return new ColorTable8(reds, greens, blues);
-	}
-
-	/**
-	 * Makes an 8-bit LUT from a ColorTable.
-	 * <p>
-	 * ColorTable16's are merely down-sampled.  If this is a non-false-color
-	 * image (i.e. the data is in the palette entries) data will be lost.  For
-	 * false-color images (data is in the indices, palette is just for 
-	 * visualization) the default palette is typically a ramp so the ColorTable8
-	 * version is functionally equivalent.
-	 */
-	private LUT make8BitLUT(final ColorTable cTable) {
-		final byte[] reds = new byte[256];
-		final byte[] greens = new byte[256];
-		final byte[] blues = new byte[256];
-
-		for (int i = 0; i < 256; i++) {
-			reds  [i] = (byte) cTable.getResampled(ColorTable.RED,   256, i);
-			greens[i] = (byte) cTable.getResampled(ColorTable.GREEN, 256, i);
-			blues [i] = (byte) cTable.getResampled(ColorTable.BLUE,  256, i);
-		}
-		return new LUT(reds, greens, blues);
-	}
-
 	/** Assigns the color tables of the active view of a ImageDisplay. */
 	private void assignColorTables(final ImageDisplay disp,
 		final List<ColorTable> colorTables,
@@ -409,7 +422,17 @@ public class ColorTableHarmonizer implements DisplayHarmonizer {
 
 		Dataset dataset = imgDispSrv.getActiveDataset(disp);
 		RealType<?> type = dataset.getType();
+		final boolean signed16 =
+			imp.getBitDepth() == 16 && imp.getCalibration().isSigned16Bit();
 		for (int c = 0; c < channelCount; c++) {
+			if (!(min[c] <= max[c])) {
+				// the legacy range is unusable: use the data range of the channel
+				final double[] range = dataRange(imp, c);
+				if (range != null) {
+					min[c] = signed16 ? range[0] - 32768.0 : range[0];
+					max[c] = signed16 ? range[1] - 32768.0 : range[1];
+				}
+			}
 			double mn = outOfBounds(min[c], type) ? type.getMinValue() : min[c];
 			double mx = outOfBounds(max[c], type) ? type.getMaxValue() : max[c];
 			if (mn > mx) {
@@ -419,6 +442,17 @@ public class ColorTableHarmonizer implements DisplayHarmonizer {
 		}
 	}
 
+	/**
+	 * Gets the range of the values of one channel of a gray ImagePlus, in legacy
+	 * units. The range is computed at most once per synchronization. Returns
+	 * null for color images and when no range is known.
+	 */
+	private double[] dataRange(final ImagePlus imp, final int c) {
+		if (imp.getType() == ImagePlus.COLOR_RGB) return null;
+		if (c >= imp.getNChannels()) return null;
+		return statsCache.getChannelRange(imp, c);
+	}
+
 	private boolean outOfBounds(double val, RealType<?> type) {
 		if (val < type.getMinValue()) return true;
 		if (val > type.getMaxValue()) return true;
@@ -443,7 +477,7 @@ public class ColorTableHarmonizer implements DisplayHarmonizer {
 //				if (icm.getPixelSize() == 16) // is 16 bit table
 //					cTable = make16BitColorTable(icm);
 //				else // 8 bit color table
-				cTable = make8BitColorTable(icm);
+				cTable = cache.getColorTable(icm);
 				colorTables.add(cTable);
 			}
 		}
@@ -454,7 +488,7 @@ public class ColorTableHarmonizer implements DisplayHarmonizer {
 //				if (luts[i].getPixelSize() == 16) // is 16 bit table
 //					cTable = make16BitColorTable(luts[i]);
 //				else // 8 bit color table
-				cTable = make8BitColorTable(luts[i]);
+				cTable = cache.getColorTable(luts[i]);
 				colorTables.add(cTable);
 			}
 		}
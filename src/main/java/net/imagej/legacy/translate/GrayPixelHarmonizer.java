@@ -56,13 +56,39 @@ import net.imglib2.util.Intervals;
  */
 public class GrayPixelHarmonizer implements DataHarmonizer {
 
+	/** Plane statistics shared by all harmonizers by default. */
+	private static final PlaneStatisticsCache SHARED_CACHE =
+		new PlaneStatisticsCache();
+
 	// -- instance variables --
 
+	private final PlaneStatisticsCache statsCache;
+
 	private double[] savedPlane;
 	private int savedPos;
 
+	// -- constructors --
+
+	public GrayPixelHarmonizer() {
+		this(SHARED_CACHE);
+	}
+
+	public GrayPixelHarmonizer(final PlaneStatisticsCache statsCache) {
+		this.statsCache = statsCache;
+	}
+
+	/** Gets the cache shared by harmonizers not given one explicitly. */
+	public static PlaneStatisticsCache getSharedCache() {
+		return SHARED_CACHE;
+	}
+
 	// -- public api --
 
+	/** Gets the cache of plane statistics used along with this harmonizer. */
+	public PlaneStatisticsCache getStatisticsCache() {
+		return statsCache;
+	}
+
 	// NOTE: to propagate a VirtualStack's first plane pixel changes we save it
 	// early in the harmonization process and refer to it later. This code is part
 	// of that process
@@ -43,6 +43,7 @@ import net.imagej.ImgPlus;
 import net.imagej.axis.Axes;
 import net.imagej.display.ImageDisplay;
 import net.imagej.display.ImageDisplayService;
+import net.imagej.legacy.LegacyImageMap;
 import net.imagej.legacy.LegacyService;
 import net.imagej.space.SpaceUtils;
 import net.imglib2.type.numeric.RealType;
@@ -113,6 +114,8 @@ public class Harmonizer extends AbstractContextual {
 		updateLegacyImage(final ImageDisplay display, final ImagePlus imp)
 	{
 		final Dataset ds = imageDisplayService.getActiveDataset(display);
+		loadPixels(imp);
+		grayPixelHarmonizer.getStatisticsCache().invalidate(imp);
 		/*
 		boolean binaryTypeChange = false;
 		if (imp.getBitDepth() == 8) {
@@ -171,10 +174,13 @@ public class Harmonizer extends AbstractContextual {
 			throw new IllegalArgumentException(
 					"cannot update a display with an ImagePlus that has an empty stack");
 
+		loadPixels(imp);
+
 		// NB - Remember current plane data and use in pixel harmonizers later.
 		// This makes sure that IJ2 can propagate IJ1 changes to current plane for
 		// virtual stacks.
 		saveCurrentSlice(imp);
+		grayPixelHarmonizer.getStatisticsCache().invalidate(imp);
 
 		final Dataset ds = imageDisplayService.getActiveDataset(display);
 
@@ -352,6 +358,15 @@ public class Harmonizer extends AbstractContextual {
 		return true;
 	}
 
+	/**
+	 * Brings back the pixels of the given {@link ImagePlus} if they were spilled
+	 * to disk, since the pixel harmonizers skip virtual stacks.
+	 */
+	private void loadPixels(final ImagePlus imp) {
+		final LegacyImageMap imageMap = legacyService.getImageMap();
+		if (imageMap != null) imageMap.getMemoryManager().load(imp);
+	}
+
 	/**
 	 * Creates a new {@link ImageStack} of data from a {@link ImageDisplay} and
 	 * assigns it to given {@link ImagePlus}
@@ -0,0 +1,178 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches {@link PlaneStatistics} of legacy ImageJ planes, so that the data
+ * range of a channel is computed at most once per synchronization.
+ * <p>
+ * Statistics are computed on demand, i.e. only when a display range has to be
+ * derived from the data, rather than while copying pixels. Entries are keyed
+ * by the identity of the plane's pixel array and the version of its
+ * {@link ImagePlus}. The {@link Harmonizer} bumps the version via
+ * {@link #invalidate(ImagePlus)} at the start of every synchronization, which
+ * is when pixels may have changed behind its back; no attempt is made to
+ * detect in-place edits in between. Both keys are weakly held.
+ * </p>
+ */
+public class PlaneStatisticsCache {
+
+	// -- instance variables --
+
+	private final Map<ImagePlus, Long> versions = new WeakHashMap<>();
+	private final Map<Object, Entry> planes = new WeakHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	// -- public interface --
+
+	/** Marks all cached statistics of the given image as stale. */
+	public synchronized void invalidate(final ImagePlus imp) {
+		versions.put(imp, version(imp) + 1);
+	}
+
+	/**
+	 * Gets the cached statistics of the given plane.
+	 * 
+	 * @param imp the image containing the plane
+	 * @param n one-based index of the plane within the image's stack
+	 * @return the statistics, or null if none are cached for the current
+	 *         version of the image
+	 */
+	public PlaneStatistics get(final ImagePlus imp, final int n) {
+		final ImageStack stack = imp.getStack();
+		if (stack.isVirtual()) return null;
+		final Object pixels = stack.getPixels(n);
+		if (pixels == null) return null;
+		synchronized (this) {
+			final Entry entry = planes.get(pixels);
+			if (entry == null || entry.version != version(imp)) {
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return entry.stats;
+		}
+	}
+
+	/**
+	 * Gets the statistics of the given plane, computing and caching them if
+	 * they are not known for the current version of the image yet. Virtual
+	 * stacks are not cached, as their planes do not have a stable identity.
+	 * 
+	 * @param imp the image containing the plane
+	 * @param n one-based index of the plane within the image's stack
+	 */
+	public PlaneStatistics getStatistics(final ImagePlus imp, final int n) {
+		final PlaneStatistics cached = get(imp, n);
+		if (cached != null) return cached;
+		final ImageStack stack = imp.getStack();
+		final ImageProcessor proc = stack.getProcessor(n);
+		final PlaneStatistics stats = new PlaneStatistics();
+		final int size = proc.getPixelCount();
+		for (int i = 0; i < size; i++) {
+			stats.add(proc.getf(i));
+		}
+		final Object pixels = proc.getPixels();
+		if (!stack.isVirtual() && pixels != null) {
+			synchronized (this) {
+				planes.put(pixels, new Entry(version(imp), stats));
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Gets the range of the values of one channel of the given image, across
+	 * all of its slices and frames.
+	 * 
+	 * @param imp the image containing the channel
+	 * @param c zero-based index of the channel
+	 * @return the minimum and maximum in legacy ImageJ units, or null if the
+	 *         image is a virtual stack or the channel contains no numbers
+	 */
+	public double[] getChannelRange(final ImagePlus imp, final int c) {
+		if (imp.getStack().isVirtual()) return null;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int t = 1; t <= imp.getNFrames(); t++) {
+			for (int z = 1; z <= imp.getNSlices(); z++) {
+				final PlaneStatistics stats =
+					getStatistics(imp, imp.getStackIndex(c + 1, z, t));
+				if (stats.getMin() < min) min = stats.getMin();
+				if (stats.getMax() > max) max = stats.getMax();
+			}
+		}
+		return min <= max ? new double[] { min, max } : null;
+	}
+
+	/** Gets the number of lookups answered from the cache. */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/** Gets the number of lookups which found no current statistics. */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	// -- helper methods --
+
+	private long version(final ImagePlus imp) {
+		final Long version = versions.get(imp);
+		return version == null ? 0 : version;
+	}
+
+	// -- Helper classes --
+
+	private static class Entry {
+
+		private final long version;
+		private final PlaneStatistics stats;
+
+		private Entry(final long version, final PlaneStatistics stats) {
+			this.version = version;
+			this.stats = stats;
+		}
+	}
+
+}
@@ -35,6 +35,11 @@ import ij.IJ;
 import ij.plugin.filter.Analyzer;
 import ij.text.TextWindow;
 
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Objects;
+
+import net.imagej.legacy.convert.ResultsTableCells;
 import net.imagej.table.DefaultResultsTable;
 import net.imagej.table.ResultsTable;
 import net.imagej.table.Table;
@@ -44,6 +49,16 @@ import org.scijava.display.DisplayService;
 
 /**
  * Harmonizes data between legacy ImageJ and modern ImageJ ResultsTables
+ * <p>
+ * Full syncs copy whole columns at once. The harmonizer also remembers the
+ * last pair of tables it synced, along with their row count and a fingerprint
+ * of their columns. When the same pair is synced again and the source has
+ * only grown since, just the new rows are appended. Appending rows to a large
+ * table, e.g. from repeated "Analyze Particles" runs, thus costs time
+ * proportional to the new rows only. As a sanity check the last previously
+ * synced row must still match; edits to earlier rows made in between are not
+ * detected.
+ * </p>
  * 
  * @author Barry DeZonia
  */
@@ -53,6 +68,17 @@ public class ResultsTableHarmonizer {
 
 	private final DisplayService displayService;
 
+	private boolean incremental = true;
+
+	// state of the last sync, for incremental updates
+
+	private Reference<ij.measure.ResultsTable> syncedLegacy =
+		new WeakReference<>(null);
+	private Reference<ResultsTable> syncedModern = new WeakReference<>(null);
+	private int syncedRows;
+	private long syncedLegacyColumns;
+	private long syncedModernColumns;
+
 	// -- constructor --
 
 	public ResultsTableHarmonizer(DisplayService dispSrv) {
@@ -61,6 +87,19 @@ public class ResultsTableHarmonizer {
 
 	// -- ResultsTableHarmonizer methods --
 
+	/** Gets whether unchanged table pairs are synced by appending new rows. */
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Sets whether unchanged table pairs are synced by appending new rows only.
+	 * When disabled, every sync rebuilds the target table.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+		if (!incremental) forgetSync();
+	}
 
 	// NB - since modern ImageJ currently supports null (empty) column names we
 	// need to set headings by col which is deprecated in IJ1.
@@ -72,8 +111,25 @@ public class ResultsTableHarmonizer {
 		ResultsTable table = getFirstResultsTable(display);
 		if (table == null) {
 			Analyzer.setResultsTable(null);
+			forgetSync();
 			return;
 		}
+
+		// append only the new rows if the IJ1 table is the one we synced last
+		ij.measure.ResultsTable current = Analyzer.getResultsTable();
+		int[] currentCols =
+			current == null ? null : legacyColumnIndices(current, table);
+		if (current != null && canAppend(current, table, currentCols, table
+			.getRowCount(), current.getCounter()))
+		{
+			copyRows(table, current, currentCols, syncedRows, //
+				table.getRowCount());
+			IJ.getTextPanel(); // HACK - force IJ1 to append data
+			Analyzer.setResultsTable(current);
+			rememberSync(current, table);
+			return;
+		}
+
 		ij.measure.ResultsTable ij1Table = new ij.measure.ResultsTable();
 		ij1Table.setDefaultHeadings();
 		for (int c = 0; c < table.getColumnCount(); c++) {
@@ -94,21 +150,11 @@ public class ResultsTableHarmonizer {
 				}
 			}
 		}
-		for (int r = 0; r < table.getRowCount(); r++) {
-			ij1Table.incrementCounter();
-			ij1Table.setLabel(table.getRowHeader(r), r);
-			for (int c = 0; c < table.getColumnCount(); c++) {
-				String header = table.getColumnHeader(c);
-				int ij1ColIndex = c;
-				if (header != null) {
-					ij1ColIndex = ij1Table.getColumnIndex(header);
-				}
-				double value = table.get(c, r);
-				ij1Table.setValue(ij1ColIndex, r, value);
-			}
-		}
+		int[] ij1Cols = legacyColumnIndices(ij1Table, table);
+		copyRows(table, ij1Table, ij1Cols, 0, table.getRowCount());
 		IJ.getTextPanel(); // HACK - force IJ1 to append data
 		Analyzer.setResultsTable(ij1Table);
+		rememberSync(ij1Table, table);
 	}
 
 	public void setModernImageJResultsTable() {
@@ -118,6 +164,7 @@ public class ResultsTableHarmonizer {
 
 		// were there no ij1 results?
 		if (ij1Table == null) {
+			forgetSync();
 			if (display == null) return;
 			if (table == null) return;
 			display.remove(table);
@@ -137,23 +184,36 @@ public class ResultsTableHarmonizer {
 			if (display != null) display.add(table);
 		}
 
-		// rebuild table
-		table.clear();
-		table.setRowCount(0);
-		for (int c = 0; c <= ij1Table.getLastColumn(); c++) {
-			if (ij1Table.columnExists(c)) {
-				table.appendColumn(ij1Table.getColumnHeading(c));
+		int[] ij1Cols = existingColumns(ij1Table);
+		if (canAppend(ij1Table, table, ij1Cols, ij1Table.getCounter(), table
+			.getRowCount()))
+		{
+			// append only the rows added since the last sync
+			for (int r = syncedRows; r < ij1Table.getCounter(); r++) {
+				table.appendRow(ij1Table.getLabel(r));
+				for (int c = 0; c < ij1Cols.length; c++) {
+					table.setValue(c, r, ij1Table.getValueAsDouble(ij1Cols[c], r));
+				}
 			}
 		}
-		for (int r = 0; r < ij1Table.getCounter(); r++) {
-			table.appendRow(ij1Table.getLabel(r));
-			for (int modIjCol = 0, c = 0; c <= ij1Table.getLastColumn(); c++) {
-				if (ij1Table.columnExists(c)) {
-					double value = ij1Table.getValueAsDouble(c, r);
-					table.setValue(modIjCol++, r, value);
-				}
+		else {
+			// rebuild table, copying whole columns
+			table.clear();
+			table.setRowCount(0);
+			for (int c = 0; c < ij1Cols.length; c++) {
+				table.appendColumn(ij1Table.getColumnHeading(ij1Cols[c]));
+			}
+			int rows = ij1Table.getCounter();
+			table.setRowCount(rows);
+			for (int c = 0; c < ij1Cols.length; c++) {
+				double[] values = ij1Table.getColumnAsDoubles(ij1Cols[c]);
+				System.arraycopy(values, 0, table.get(c).getArray(), 0, rows);
+			}
+			for (int r = 0; r < rows; r++) {
+				table.setRowHeader(r, ij1Table.getLabel(r));
 			}
 		}
+		rememberSync(ij1Table, table);
 
 		// close IJ1's table
 		TextWindow window = ij.measure.ResultsTable.getResultsWindow();
@@ -177,4 +237,118 @@ public class ResultsTableHarmonizer {
 		}
 		return null;
 	}
+
+	/**
+	 * Appends the given rows of a modern table to an IJ1 table, filling whole
+	 * columns at once. IJ1 infers decimal places just as when measuring.
+	 */
+	private void copyRows(ResultsTable table, ij.measure.ResultsTable ij1Table,
+		int[] ij1Cols, int from, int to)
+	{
+		double[][] columns = new double[ij1Cols.length][];
+		for (int c = 0; c < columns.length; c++) {
+			columns[c] = table.get(c).getArray();
+		}
+		ResultsTableCells.appendRows(ij1Table, ij1Cols, columns, from, to);
+		for (int r = from; r < to; r++) {
+			ij1Table.setLabel(table.getRowHeader(r), r);
+		}
+	}
+
+	/** Gets the IJ1 column index of each column of the modern table. */
+	private int[] legacyColumnIndices(ij.measure.ResultsTable ij1Table,
+		ResultsTable table)
+	{
+		int[] ij1Cols = new int[table.getColumnCount()];
+		for (int c = 0; c < ij1Cols.length; c++) {
+			String header = table.getColumnHeader(c);
+			ij1Cols[c] = header == null ? c : ij1Table.getColumnIndex(header);
+		}
+		return ij1Cols;
+	}
+
+	/** Gets the indices of the IJ1 columns that exist, in order. */
+	private int[] existingColumns(ij.measure.ResultsTable ij1Table) {
+		int count = 0;
+		for (int c = 0; c <= ij1Table.getLastColumn(); c++) {
+			if (ij1Table.columnExists(c)) count++;
+		}
+		int[] ij1Cols = new int[count];
+		for (int i = 0, c = 0; c <= ij1Table.getLastColumn(); c++) {
+			if (ij1Table.columnExists(c)) ij1Cols[i++] = c;
+		}
+		return ij1Cols;
+	}
+
+	/**
+	 * Checks whether the given pair of tables was synced last and is unchanged
+	 * since, except for rows appended to the source.
+	 *
+	 * @param ij1Cols the IJ1 column index of each modern column
+	 */
+	private boolean canAppend(ij.measure.ResultsTable ij1Table,
+		ResultsTable table, int[] ij1Cols, int sourceRows, int targetRows)
+	{
+		if (!incremental) return false;
+		if (syncedLegacy.get() != ij1Table || syncedModern.get() != table) {
+			return false;
+		}
+		if (targetRows != syncedRows || sourceRows < syncedRows) return false;
+		if (legacyFingerprint(ij1Table) != syncedLegacyColumns) return false;
+		if (modernFingerprint(table) != syncedModernColumns) return false;
+		if (ij1Cols.length != table.getColumnCount()) return false;
+		return syncedRows == 0 || lastRowMatches(ij1Table, table, ij1Cols);
+	}
+
+	private boolean lastRowMatches(ij.measure.ResultsTable ij1Table,
+		ResultsTable table, int[] ij1Cols)
+	{
+		int r = syncedRows - 1;
+		if (!Objects.equals(ij1Table.getLabel(r), table.getRowHeader(r))) {
+			return false;
+		}
+		for (int c = 0; c < ij1Cols.length; c++) {
+			if (ij1Cols[c] < 0) return false;
+			double legacy = ij1Table.getValueAsDouble(ij1Cols[c], r);
+			if (Double.compare(legacy, table.getValue(c, r)) != 0) return false;
+		}
+		return true;
+	}
+
+	private void rememberSync(ij.measure.ResultsTable ij1Table,
+		ResultsTable table)
+	{
+		if (!incremental) return;
+		syncedLegacy = new WeakReference<>(ij1Table);
+		syncedModern = new WeakReference<>(table);
+		syncedRows = ij1Table.getCounter();
+		syncedLegacyColumns = legacyFingerprint(ij1Table);
+		syncedModernColumns = modernFingerprint(table);
+	}
+
+	private void forgetSync() {
+		syncedLegacy = new WeakReference<>(null);
+		syncedModern = new WeakReference<>(null);
+		syncedRows = 0;
+	}
+
+	/** Hashes the indices and headings of the existing IJ1 columns. */
+	private long legacyFingerprint(ij.measure.ResultsTable ij1Table) {
+		long hash = 17;
+		for (int c = 0; c <= ij1Table.getLastColumn(); c++) {
+			if (!ij1Table.columnExists(c)) continue;
+			hash = 31 * hash + c;
+			hash = 31 * hash + Objects.hashCode(ij1Table.getColumnHeading(c));
+		}
+		return hash;
+	}
+
+	/** Hashes the headers of the modern columns. */
+	private long modernFingerprint(ResultsTable table) {
+		long hash = table.getColumnCount();
+		for (int c = 0; c < table.getColumnCount(); c++) {
+			hash = 31 * hash + Objects.hashCode(table.getColumnHeader(c));
+		}
+		return hash;
+	}
 }
@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.legacy;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.gui.NewImage;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import net.imagej.patcher.LegacyInjector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Unit tests for {@link ActiveImageContext}.
+ */
+public class ActiveImageContextTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	private Context context;
+	private ThreadService threadService;
+	private ActiveImageContext activeImageContext;
+
+	@Before
+	public void setUp() {
+		context = new Context(ThreadService.class);
+		threadService = context.getService(ThreadService.class);
+		activeImageContext = new ActiveImageContext(context);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testScopesNest() {
+		final ImagePlus outer = image("outer");
+		final ImagePlus inner = image("inner");
+		try (final ActiveImageContext.Scope scope1 =
+			activeImageContext.activate(outer))
+		{
+			assertSame(outer, activeImageContext.getActiveImage());
+			assertSame(outer, WindowManager.getCurrentImage());
+			try (final ActiveImageContext.Scope scope2 =
+				activeImageContext.activate(inner))
+			{
+				assertSame(inner, activeImageContext.getActiveImage());
+			}
+			assertSame(outer, activeImageContext.getActiveImage());
+		}
+		assertNull(WindowManager.getTempCurrentImage());
+	}
+
+	@Test
+	public void testChildThreadsInherit() throws Exception {
+		final ImagePlus imp = image("parent");
+		try (final ActiveImageContext.Scope scope =
+			activeImageContext.activate(imp))
+		{
+			final Future<ImagePlus> resolved = threadService.run(() -> {
+				assertNull(WindowManager.getTempCurrentImage());
+				try (final ActiveImageContext.Scope inherited =
+					activeImageContext.inherit())
+				{
+					assertSame(imp, WindowManager.getCurrentImage());
+				}
+				assertNull(WindowManager.getTempCurrentImage());
+				return activeImageContext.getActiveImage();
+			});
+			assertSame(imp, resolved.get());
+		}
+	}
+
+	@Test
+	public void testNullMasksInheritedImage() throws Exception {
+		final ImagePlus imp = image("parent");
+		try (final ActiveImageContext.Scope scope =
+			activeImageContext.activate(imp))
+		{
+			final Future<ImagePlus> resolved = threadService.run(() -> {
+				try (final ActiveImageContext.Scope masked =
+					activeImageContext.activate(null))
+				{
+					try (final ActiveImageContext.Scope inherited =
+						activeImageContext.inherit())
+					{
+						assertNull(WindowManager.getTempCurrentImage());
+					}
+					// nested workers see the mask, too
+					assertNull(threadService.run(() -> activeImageContext
+						.getActiveImage()).get());
+					return activeImageContext.getActiveImage();
+				}
+			});
+			assertNull(resolved.get());
+			assertSame(imp, activeImageContext.getActiveImage());
+		}
+	}
+
+	@Test
+	public void testConcurrentPipelines() throws Exception {
+		final ImagePlus a = image("a");
+		final ImagePlus b = image("b");
+		final CountDownLatch bothActive = new CountDownLatch(2);
+		final Future<ImagePlus> resultA = threadService.run(pipeline(a,
+			bothActive));
+		final Future<ImagePlus> resultB = threadService.run(pipeline(b,
+			bothActive));
+		assertSame(a, resultA.get());
+		assertSame(b, resultB.get());
+		assertNotSame(resultA.get(), resultB.get());
+	}
+
+	// -- Helper methods --
+
+	private Callable<ImagePlus> pipeline(final ImagePlus imp,
+		final CountDownLatch bothActive)
+	{
+		return () -> {
+			try (final ActiveImageContext.Scope scope =
+				activeImageContext.activate(imp))
+			{
+				bothActive.countDown();
+				bothActive.await();
+				// resolve from a nested worker, as a module execution would
+				return threadService.run(() -> activeImageContext.getActiveImage())
+					.get();
+			}
+		};
+	}
+
+	private static ImagePlus image(final String title) {
+		return NewImage.createByteImage(title, 4, 4, 1, NewImage.FILL_BLACK);
+	}
+}
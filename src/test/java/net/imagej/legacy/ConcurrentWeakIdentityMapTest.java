@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ConcurrentWeakIdentityMap}.
+ */
+public class ConcurrentWeakIdentityMapTest {
+
+	@Test
+	public void testIdentitySemantics() {
+		final ConcurrentWeakIdentityMap<String, Integer> map =
+			new ConcurrentWeakIdentityMap<>();
+		final String a = new String("key");
+		final String b = new String("key");
+		map.put(a, 1);
+		map.put(b, 2);
+		assertEquals(2, map.size());
+		assertEquals(Integer.valueOf(1), map.get(a));
+		assertEquals(Integer.valueOf(2), map.get(b));
+		assertNull(map.get("key"));
+		assertEquals(Integer.valueOf(1), map.remove(a));
+		assertFalse(map.containsKey(a));
+		assertTrue(map.containsKey(b));
+		assertEquals(Integer.valueOf(2), map.putIfAbsent(b, 3));
+		assertSame(b, map.keySet().iterator().next());
+	}
+
+	@Test
+	public void testClearedKeysArePurged() throws InterruptedException {
+		final ConcurrentWeakIdentityMap<Object, Object> map =
+			new ConcurrentWeakIdentityMap<>();
+		final Object kept = new Object();
+		map.put(kept, "kept");
+		for (int i = 0; i < 100; i++) {
+			map.put(new Object(), "garbage");
+		}
+		for (int i = 0; i < 50 && map.getLiveCount() > 1; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertEquals(1, map.getLiveCount());
+		assertEquals(100, map.getClearedCount());
+		assertEquals("kept", map.get(kept));
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final ConcurrentWeakIdentityMap<Object, Integer> map =
+			new ConcurrentWeakIdentityMap<>();
+		final int threadCount = 16;
+		final int keyCount = 64;
+		final int iterations = 20000;
+		final Object[] keys = new Object[keyCount];
+		for (int k = 0; k < keyCount; k++) {
+			keys[k] = new Object();
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < threadCount; t++) {
+				futures.add(executor.submit(() -> {
+					start.await();
+					final ThreadLocalRandom random = ThreadLocalRandom.current();
+					for (int i = 0; i < iterations; i++) {
+						final int k = random.nextInt(keyCount);
+						switch (random.nextInt(4)) {
+							case 0:
+								map.put(keys[k], k);
+								break;
+							case 1:
+								map.remove(keys[k]);
+								break;
+							case 2:
+								map.putIfAbsent(new Object(), -1);
+								break;
+							default:
+								final Integer value = map.get(keys[k]);
+								if (value != null && value >= 0) {
+									assertEquals(k, value.intValue());
+								}
+						}
+						for (final Object key : map.keySet()) {
+							assertTrue(key != null);
+							break;
+						}
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		// every remaining entry for a known key must map to that key's index
+		for (int k = 0; k < keyCount; k++) {
+			final Integer value = map.get(keys[k]);
+			if (value != null) assertEquals(k, value.intValue());
+		}
+	}
+
+}
@@ -85,17 +85,24 @@ public class ImageJ1EncapsulationTest {
 
 			if (className.startsWith(IJ1Helper.class.getName()) ||
 					/* TODO: At least some of them should not need to access ImageJ 1.x classes directly! */
+					className.startsWith(net.imagej.legacy.ActiveImageContext.class.getName()) ||
 					className.startsWith(net.imagej.legacy.DefaultLegacyHooks.class.getName()) ||
+					className.startsWith(net.imagej.legacy.LegacyImageIndex.class.getName()) ||
 					className.startsWith(net.imagej.legacy.LegacyImageMap.class.getName()) ||
+					className.startsWith(net.imagej.legacy.LegacyImageMemoryManager.class.getName()) ||
 					className.startsWith(net.imagej.legacy.OptionsSynchronizer.class.getName()) ||
 					className.startsWith(net.imagej.legacy.SwitchToModernMode.class.getName()) ||
 					className.startsWith(net.imagej.legacy.command.LegacyCommand.class.getName()) ||
+					className.startsWith(net.imagej.legacy.command.PlaneParallelFilters.class.getName()) ||
 					className.startsWith(net.imagej.legacy.convert.DatasetToImagePlusConverter.class.getName()) ||
 					className.startsWith(net.imagej.legacy.convert.ImageDisplayToImagePlusConverter.class.getName()) ||
 					className.startsWith(net.imagej.legacy.convert.ImagePlusToDatasetConverter.class.getName()) ||
 					className.startsWith(net.imagej.legacy.convert.ImagePlusToImageDisplayConverter.class.getName()) ||
 					className.startsWith(net.imagej.legacy.convert.ImageTitleToImagePlusConverter.class.getName()) ||
+					className.startsWith(net.imagej.legacy.convert.OffHeapGenericTable.class.getName()) ||
+					className.startsWith("net.imagej.legacy.convert.ResultsTableCells") ||
 					className.startsWith(net.imagej.legacy.convert.ResultsTableColumnWrapper.class.getName()) ||
+					className.startsWith(net.imagej.legacy.convert.ResultsTableToDefaultGenericTableConverter.class.getName()) ||
 					className.startsWith(net.imagej.legacy.convert.ResultsTableToGenericTableConverter.class.getName()) ||
 					className.startsWith(net.imagej.legacy.convert.ResultsTableWrapper.class.getName()) ||
 					className.startsWith(net.imagej.legacy.convert.StringToImagePlusConverter.class.getName()) ||
@@ -103,6 +110,7 @@ public class ImageJ1EncapsulationTest {
 					className.startsWith(net.imagej.legacy.display.LegacyImageDisplayService.class.getName()) ||
 					className.startsWith(net.imagej.legacy.display.LegacyImageDisplayViewer.class.getName()) ||
 					className.startsWith(net.imagej.legacy.plugin.ActiveImagePlusPreprocessor.class.getName()) ||
+					className.startsWith("net.imagej.legacy.plugin.BatchModeImages") ||
 					className.startsWith(net.imagej.legacy.plugin.DefaultLegacyOpener.class.getName()) ||
 					className.startsWith(net.imagej.legacy.plugin.IJ1MacroEngine.class.getName()) ||
 					className.startsWith(net.imagej.legacy.plugin.LegacyInitializer.class.getName()) ||
@@ -113,6 +121,7 @@ public class ImageJ1EncapsulationTest {
 					className.startsWith(net.imagej.legacy.translate.ColorDisplayCreator.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.ColorImagePlusCreator.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.ColorPixelHarmonizer.class.getName()) ||
+					className.startsWith(net.imagej.legacy.translate.ColorTableCache.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.ColorTableHarmonizer.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.CompositeHarmonizer.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.DefaultImageTranslator.class.getName()) ||
@@ -126,6 +135,8 @@ public class ImageJ1EncapsulationTest {
 					className.startsWith(net.imagej.legacy.translate.NameHarmonizer.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.OverlayHarmonizer.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.PlaneHarmonizer.class.getName()) ||
+					className.startsWith(net.imagej.legacy.translate.PlaneStatistics.class.getName()) ||
+					className.startsWith(net.imagej.legacy.translate.PlaneStatisticsCache.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.PositionHarmonizer.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.ResultsTableHarmonizer.class.getName()))
 			{
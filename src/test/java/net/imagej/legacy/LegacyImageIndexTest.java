@@ -0,0 +1,184 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ij.ImagePlus;
+import ij.macro.Interpreter;
+import ij.process.ByteProcessor;
+
+import java.lang.reflect.Field;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Vector;
+
+import net.imagej.patcher.LegacyInjector;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link LegacyImageIndex}.
+ */
+public class LegacyImageIndexTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	/** The images considered to be shown in a window. */
+	private Set<ImagePlus> displayed;
+
+	private LegacyImageIndex index;
+
+	@Before
+	public void setUp() {
+		displayed = new HashSet<>();
+		index = new LegacyImageIndex() {
+
+			@Override
+			boolean isDisplayed(final ImagePlus imp) {
+				return displayed.contains(imp);
+			}
+		};
+	}
+
+	@Test
+	public void testGetImageByID() {
+		final ImagePlus a = show("a");
+		final ImagePlus b = show("b");
+		assertSame(a, index.getImage(a.getID()));
+		assertSame(b, index.getImage(b.getID()));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	public void testGetImageByTitle() {
+		final ImagePlus first = show("same");
+		show("same");
+		assertSame(first, index.getImage("same"));
+		assertNull(index.getImage("other"));
+	}
+
+	@Test
+	public void testRenamed() {
+		final ImagePlus imp = show("before");
+		imp.setTitle("after");
+		// the stale title must not match any more
+		assertNull(index.getImage("before"));
+		index.add(imp);
+		assertSame(imp, index.getImage("after"));
+	}
+
+	@Test
+	public void testClosedWindow() {
+		final ImagePlus a = show("a");
+		final ImagePlus b = show("b");
+		// the window closed without the index being notified
+		displayed.remove(a);
+		assertNull(index.getImage(a.getID()));
+		assertNull(index.getImage("a"));
+		assertEquals(1, index.size());
+		assertSame(b, index.getImage("b"));
+	}
+
+	@Test
+	public void testGetImages() {
+		final ImagePlus a = show("a");
+		final ImagePlus b = show("b");
+		final ImagePlus c = show("c");
+		assertEquals(Arrays.asList(a, b, c), index.getImages());
+		displayed.remove(b);
+		assertEquals(Arrays.asList(a, c), index.getImages());
+		assertEquals(2, index.size());
+		index.remove(a);
+		assertEquals(Arrays.asList(c), index.getImages());
+	}
+
+	@Test
+	public void testBatchModeImages() throws Exception {
+		final Field imageTable = Interpreter.class.getDeclaredField("imageTable");
+		imageTable.setAccessible(true);
+		Interpreter.batchMode = true;
+		try {
+			final ImagePlus a = batch("a");
+			final ImagePlus b = batch("b");
+			final ImagePlus shown = show("shown");
+			assertSame(b, index.getImage(b.getID()));
+			assertTrue(imageTable.get(null) instanceof
+				LegacyImageIndex.BatchModeTable);
+
+			// images added after indexing are indexed, too
+			final ImagePlus c = batch("b");
+			assertSame(c, index.getImage(c.getID()));
+			assertSame(b, index.getImage("b"));
+			assertEquals(Arrays.asList(a, b, c, shown), index.getImages());
+
+			Interpreter.removeBatchModeImage(b);
+			assertNull(index.getImage(b.getID()));
+			assertSame(c, index.getImage("b"));
+			assertSame(shown, index.getImage("shown"));
+			assertEquals(Arrays.asList(a, c, shown), index.getImages());
+
+			// as do modifications the index does not follow one by one
+			((Vector<?>) imageTable.get(null)).clear();
+			assertNull(index.getImage(a.getID()));
+		}
+		finally {
+			Interpreter.batchMode = false;
+			imageTable.set(null, null);
+		}
+	}
+
+	// -- Helper methods --
+
+	private ImagePlus batch(final String title) {
+		final ImagePlus imp = new ImagePlus(title, new ByteProcessor(2, 2));
+		Interpreter.addBatchModeImage(imp);
+		return imp;
+	}
+
+	private ImagePlus show(final String title) {
+		final ImagePlus imp = new ImagePlus(title, new ByteProcessor(2, 2));
+		displayed.add(imp);
+		index.add(imp);
+		return imp;
+	}
+
+}
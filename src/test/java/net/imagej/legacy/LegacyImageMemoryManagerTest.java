@@ -0,0 +1,241 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.io.File;
+
+import net.imagej.patcher.LegacyInjector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.scijava.log.StderrLogService;
+
+/**
+ * Tests {@link LegacyImageMemoryManager}.
+ */
+public class LegacyImageMemoryManagerTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private LegacyImageMemoryManager manager;
+
+	@Before
+	public void setUp() {
+		manager = new LegacyImageMemoryManager(new StderrLogService());
+		manager.setScratchDirectory(folder.getRoot());
+	}
+
+	@After
+	public void tearDown() {
+		manager.dispose();
+	}
+
+	@Test
+	public void testSpillAndReload() {
+		final ImagePlus imp = image(3);
+		manager.touch(imp);
+		spillAll();
+		assertEquals(1, manager.getSpillCount());
+		assertTrue(imp.getStack().isVirtual());
+		assertEquals(1, folder.getRoot().list().length);
+		assertEquals(3, imp.getStackSize());
+
+		// a plain access does not bring the pixels back
+		manager.touch(imp);
+		assertEquals(0, manager.getReloadCount());
+		assertTrue(imp.getStack().isVirtual());
+
+		manager.load(imp);
+		assertEquals(1, manager.getReloadCount());
+		assertFalse(imp.getStack().isVirtual());
+		assertEquals(0, manager.getBytesSpilled());
+		assertEquals(3 * 16, manager.getBytesResident());
+		assertEquals(0, folder.getRoot().list().length);
+		for (int n = 1; n <= 3; n++) {
+			assertEquals(n, imp.getStack().getProcessor(n).get(0, 0));
+			assertEquals("slice" + n, imp.getStack().getSliceLabel(n));
+		}
+	}
+
+	@Test
+	public void testReadThrough() {
+		final ImagePlus imp = image(3);
+		manager.touch(imp);
+		spillAll();
+		// the current plane stays on the heap, for the image's processor
+		assertEquals(2 * 16, manager.getBytesSpilled());
+		assertEquals(16, manager.getBytesResident());
+		// reading a plane brings just that plane back onto the heap
+		assertEquals(2, imp.getStack().getProcessor(2).get(3, 3));
+		assertEquals(16, manager.getBytesSpilled());
+		assertEquals(2 * 16, manager.getBytesResident());
+		assertTrue(imp.getStack().isVirtual());
+	}
+
+	@Test
+	public void testEditAfterSpill() {
+		final ImagePlus imp = image(3);
+		manager.touch(imp);
+		spillAll();
+
+		// edit planes in place, as legacy code would
+		final ImageStack stack = imp.getStack();
+		stack.getProcessor(2).set(1, 1, 77);
+		imp.getProcessor().set(2, 2, 88);
+		stack.addSlice("added", new ByteProcessor(4, 4));
+		stack.deleteSlice(3);
+		assertEquals(3, stack.getSize());
+
+		manager.load(imp);
+		final ImageStack reloaded = imp.getStack();
+		assertFalse(reloaded.isVirtual());
+		assertEquals(3, reloaded.getSize());
+		assertEquals(77, reloaded.getProcessor(2).get(1, 1));
+		assertEquals(88, reloaded.getProcessor(imp.getCurrentSlice()).get(2, 2));
+		assertEquals("added", reloaded.getSliceLabel(3));
+	}
+
+	@Test
+	public void testForgetDiscards() {
+		final ImagePlus imp = image(2);
+		manager.touch(imp);
+		spillAll();
+		manager.forget(imp, true);
+		assertEquals(0, manager.getBytesSpilled());
+		assertEquals(0, manager.getBytesResident());
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testForgetReloads() {
+		final ImagePlus imp = image(2);
+		manager.touch(imp);
+		spillAll();
+		manager.forget(imp, false);
+		assertFalse(imp.getStack().isVirtual());
+		assertEquals(2, imp.getStack().getProcessor(2).get(0, 0));
+		assertEquals(0, folder.getRoot().list().length);
+		// untracked images are not spilled
+		spillAll();
+		assertEquals(1, manager.getSpillCount());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedFirst() {
+		final ImagePlus old = image(1);
+		final ImagePlus recent = image(1);
+		manager.touch(old);
+		manager.touch(recent);
+		manager.touch(old);
+		manager.setHeapThreshold(1);
+		// nothing to do while under budget
+		manager.checkBudget();
+		assertEquals(0, manager.getSpillCount());
+		spillAll();
+		assertEquals(2, manager.getSpillCount());
+		assertTrue(recent.getStack().isVirtual());
+		assertTrue(old.getStack().isVirtual());
+	}
+
+	@Test
+	public void testLockedImagesAreSkipped() {
+		final ImagePlus imp = image(2);
+		manager.touch(imp);
+		assertTrue(imp.lockSilently());
+		spillAll();
+		assertEquals(0, manager.getSpillCount());
+		assertFalse(imp.getStack().isVirtual());
+		imp.unlock();
+
+		spillAll();
+		assertEquals(1, manager.getSpillCount());
+		assertFalse(imp.isLocked());
+		// while locked by someone else, the pixels stay on disk
+		assertTrue(imp.lockSilently());
+		manager.load(imp);
+		assertEquals(0, manager.getReloadCount());
+		assertEquals(2, imp.getStack().getProcessor(2).get(0, 0));
+		imp.unlock();
+		manager.load(imp);
+		assertEquals(1, manager.getReloadCount());
+		assertFalse(imp.getStack().isVirtual());
+		assertFalse(imp.isLocked());
+	}
+
+	@Test
+	public void testLoadIgnoresUntrackedImages() {
+		final ImagePlus imp = image(1);
+		manager.load(imp);
+		assertEquals(0, manager.getBytesResident());
+	}
+
+	// -- Helper methods --
+
+	/** Spills every inactive image, by making any live heap excessive. */
+	private void spillAll() {
+		// NB: The live heap is only known once a collection has happened.
+		System.gc();
+		manager.setHeapThreshold(Double.MIN_VALUE);
+		manager.checkBudget();
+	}
+
+	/** Creates a 4x4 stack whose n-th plane is filled with n. */
+	private static ImagePlus image(final int size) {
+		final ImageStack stack = new ImageStack(4, 4);
+		for (int n = 1; n <= size; n++) {
+			final ImageProcessor proc = new ByteProcessor(4, 4);
+			proc.setValue(n);
+			proc.fill();
+			stack.addSlice("slice" + n, proc);
+		}
+		return new ImagePlus("image", stack);
+	}
+
+}
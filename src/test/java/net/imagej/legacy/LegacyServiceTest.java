@@ -31,17 +31,24 @@
 
 package net.imagej.legacy;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 
 import ij.IJ;
 
+import java.io.StringReader;
+
 import net.imagej.patcher.LegacyInjector;
 
 import org.junit.After;
 import org.junit.Test;
 import org.scijava.Context;
+import org.scijava.MenuPath;
+import org.scijava.module.ModuleService;
+import org.scijava.script.ScriptInfo;
 
 /**
  * Unit tests for {@link LegacyService}.
@@ -93,5 +100,25 @@ public class LegacyServiceTest {
 		assumeTrue(legacyService != null);
 	}
 
-}
+	@Test
+	public void testLegacyCompatibleModulesFollowEvents() {
+		context = new Context(LegacyService.class);
+		final LegacyService legacyService =
+			context.getService(LegacyService.class);
+		assumeTrue(legacyService != null);
+		final ModuleService moduleService = context.service(ModuleService.class);
+
+		final ScriptInfo script = new ScriptInfo(context, "/scripts/My_Script.js",
+			new StringReader(""));
+		script.setMenuPath(new MenuPath("Plugins>My Script"));
+		final String key = script.getIdentifier();
+		assertFalse(legacyService.getScriptsAndNonLegacyCommands().containsKey(key));
+
+		moduleService.addModule(script);
+		assertTrue(legacyService.getScriptsAndNonLegacyCommands().containsKey(key));
 
+		moduleService.removeModule(script);
+		assertFalse(legacyService.getScriptsAndNonLegacyCommands().containsKey(key));
+	}
+
+}
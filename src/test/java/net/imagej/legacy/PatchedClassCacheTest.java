@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import net.imagej.legacy.PatchedClassCache.PatchedClass;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.util.FileUtils;
+
+/**
+ * Tests {@link PatchedClassCache}.
+ */
+public class PatchedClassCacheTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = FileUtils.createTemporaryDirectory("patched-classes", "");
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteRecursively(dir);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final File file = new File(dir, "patched-classes.cache");
+		final String key = PatchedClassCache.key("ij", "patcher", true);
+		new PatchedClassCache(file, key).save(Arrays.asList(patched(Base.class),
+			patched(Derived.class)));
+
+		final List<PatchedClass> classes = new PatchedClassCache(file, key).load();
+		assertNotNull(classes);
+		assertEquals(2, classes.size());
+		assertEquals(Derived.class.getName(), classes.get(1).name);
+		assertEquals(Base.class.getName(), classes.get(1).superName);
+		assertArrayEquals(bytecode(Derived.class), classes.get(1).bytecode);
+
+		// a different ij.jar, patcher or environment invalidates the cache
+		assertNull(new PatchedClassCache(file, //
+			PatchedClassCache.key("ij2", "patcher", true)).load());
+		assertNull(new PatchedClassCache(file, //
+			PatchedClassCache.key("ij", "patcher2", true)).load());
+		assertNull(new PatchedClassCache(file, //
+			PatchedClassCache.key("ij", "patcher", false)).load());
+	}
+
+	@Test
+	public void testDefineSuperclassesFirst() throws IOException,
+		ClassNotFoundException
+	{
+		final ClassLoader loader = new ClassLoader(null) {};
+		// NB: the subclass comes first, as it can in the cache
+		final boolean defined = PatchedClassCache.define(loader, Arrays.asList(
+			patched(Derived.class), patched(Base.class)));
+		assumeTrue("Cannot define classes reflectively", defined);
+
+		final Class<?> derived = Class.forName(Derived.class.getName(), false,
+			loader);
+		assertEquals(loader, derived.getClassLoader());
+		assertEquals(loader, derived.getSuperclass().getClassLoader());
+
+		// classes are never defined twice
+		assertEquals(false, PatchedClassCache.define(loader, Arrays.asList(
+			patched(Base.class))));
+	}
+
+	// -- Helper methods --
+
+	private static PatchedClass patched(final Class<?> c) throws IOException {
+		return new PatchedClass(c.getName(), c.getSuperclass().getName(),
+			new String[0], bytecode(c));
+	}
+
+	private static byte[] bytecode(final Class<?> c) throws IOException {
+		final String resource = c.getName().replace('.', '/') + ".class";
+		try (final InputStream in = c.getClassLoader().getResourceAsStream(
+			resource))
+		{
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[16384];
+			for (;;) {
+				final int count = in.read(buffer);
+				if (count < 0) return out.toByteArray();
+				out.write(buffer, 0, count);
+			}
+		}
+	}
+
+	// -- Helper classes --
+
+	public static class Base {
+		// NB: only the class hierarchy matters
+	}
+
+	public static class Derived extends Base {
+		// NB: only the class hierarchy matters
+	}
+}
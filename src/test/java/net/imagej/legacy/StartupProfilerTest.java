@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link StartupProfiler}.
+ */
+public class StartupProfilerTest {
+
+	@Test
+	public void testPhases() throws InterruptedException {
+		final StartupProfiler profiler = new StartupProfiler();
+		try (final StartupProfiler.Span span = profiler.phase("first")) {
+			Thread.sleep(5);
+		}
+		final Thread worker = new Thread(() -> {
+			try (final StartupProfiler.Span span = profiler.phase("concurrent")) {
+				// nothing to do
+			}
+		}, "startup-worker");
+		worker.start();
+		try (final StartupProfiler.Span span = profiler.phase("second")) {
+			worker.join();
+		}
+
+		final List<StartupProfiler.Phase> phases = profiler.getPhases();
+		assertEquals(3, phases.size());
+		assertEquals("first", phases.get(0).getName());
+		assertTrue(phases.get(0).getMillis() >= 5);
+		assertTrue(profiler.getTotalMillis() >= phases.get(0).getMillis());
+
+		final String report = profiler.getReport();
+		assertTrue(report.contains("first"));
+		assertTrue(report.contains("[startup-worker]"));
+		assertTrue(report.contains("total"));
+	}
+}
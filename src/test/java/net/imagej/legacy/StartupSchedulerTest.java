@@ -0,0 +1,131 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests {@link StartupScheduler}.
+ */
+public class StartupSchedulerTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testDependencies() {
+		final StartupProfiler profiler = new StartupProfiler();
+		final StartupScheduler scheduler =
+			new StartupScheduler(profiler, executor);
+		final List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+		final StartupScheduler.Task<Void> scan = scheduler.submit("scan", () -> {
+			sleep(50);
+			order.add("scan");
+		});
+		final StartupScheduler.Task<Void> filter = scheduler.submit("filter",
+			() -> {
+				order.add("filter");
+			}, scan);
+		final StartupScheduler.Task<List<String>> discovery = scheduler.submit(
+			"discovery", () -> Arrays.asList("a", "b"));
+		scheduler.await(filter, discovery);
+
+		assertEquals(Arrays.asList("scan", "filter"), order);
+		assertEquals(Arrays.asList("a", "b"), discovery.get());
+		assertEquals(3, profiler.getPhases().size());
+	}
+
+	@Test
+	public void testFailure() {
+		final StartupScheduler scheduler =
+			new StartupScheduler(new StartupProfiler(), executor);
+		final List<String> ran = Collections.synchronizedList(new ArrayList<>());
+		final StartupScheduler.Task<Void> failing = scheduler.submit("failing",
+			() -> {
+				throw new IllegalStateException("boom");
+			});
+		final StartupScheduler.Task<Void> dependent = scheduler.submit(
+			"dependent", () -> {
+				ran.add("dependent");
+			}, failing);
+		try {
+			scheduler.await(dependent);
+			fail("Expected failure");
+		}
+		catch (final IllegalStateException exc) {
+			assertEquals("boom", exc.getMessage());
+		}
+		assertEquals(Collections.emptyList(), ran);
+	}
+
+	@Test
+	public void testSerial() {
+		final StartupScheduler scheduler =
+			new StartupScheduler(new StartupProfiler(), Runnable::run);
+		final List<String> order = new ArrayList<>();
+		scheduler.submit("first", () -> {
+			order.add("first");
+		});
+		scheduler.submit("second", () -> {
+			order.add("second");
+		});
+		assertEquals(Arrays.asList("first", "second"), order);
+	}
+
+	// -- Helper methods --
+
+	private static void sleep(final long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
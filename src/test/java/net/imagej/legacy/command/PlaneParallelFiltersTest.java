@@ -0,0 +1,199 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.command;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Macro;
+import ij.Prefs;
+import ij.plugin.filter.PlugInFilter;
+import ij.process.ImageProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.imagej.patcher.LegacyInjector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Tests {@link PlaneParallelFilters}.
+ */
+public class PlaneParallelFiltersTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	private static final String FILTERS = "ij.plugin.filter.Filters";
+
+	private static final String SHADOWS = "ij.plugin.filter.Shadows";
+
+	private Context context;
+	private ThreadService threadService;
+	private int threads;
+
+	@Before
+	public void setUp() {
+		context = new Context(ThreadService.class);
+		threadService = context.getService(ThreadService.class);
+		threads = Prefs.getThreads();
+		Prefs.setThreads(4);
+	}
+
+	@After
+	public void tearDown() {
+		System.clearProperty(PlaneParallelFilters.ALLOW_LIST_PROPERTY);
+		Prefs.setThreads(threads);
+		Macro.setOptions(null);
+		context.dispose();
+	}
+
+	@Test
+	public void testAllowList() {
+		assertTrue(PlaneParallelFilters.isAllowed(FILTERS));
+		assertTrue(PlaneParallelFilters.isAllowed(SHADOWS));
+		assertFalse(PlaneParallelFilters.isAllowed(
+			"ij.plugin.filter.GaussianBlur"));
+		assertFalse(PlaneParallelFilters.isAllowed(
+			"ij.plugin.filter.RankFilters"));
+		System.setProperty(PlaneParallelFilters.ALLOW_LIST_PROPERTY,
+			"ij.plugin.filter.Binary");
+		assertTrue(PlaneParallelFilters.isAllowed("ij.plugin.filter.Binary"));
+		assertFalse(PlaneParallelFilters.isAllowed(FILTERS));
+		System.setProperty(PlaneParallelFilters.ALLOW_LIST_PROPERTY, "");
+		assertFalse(PlaneParallelFilters.isAllowed(FILTERS));
+	}
+
+	@Test
+	public void testSameAsSerial() {
+		assertSameAsSerial(FILTERS, "smooth");
+		assertSameAsSerial(FILTERS, "edge");
+		assertSameAsSerial(SHADOWS, "north");
+	}
+
+	@Test
+	public void testFinalProcessing() {
+		System.setProperty(PlaneParallelFilters.ALLOW_LIST_PROPERTY,
+			FinalProcessingFilter.class.getName());
+		FinalProcessingFilter.finalImages.clear();
+		final ImagePlus imp = stack();
+
+		Macro.setOptions(Thread.currentThread(), "stack");
+		assertTrue(PlaneParallelFilters.run(threadService, imp,
+			FinalProcessingFilter.class.getName(), ""));
+
+		assertEquals(1, FinalProcessingFilter.finalImages.size());
+		assertSame(imp, FinalProcessingFilter.finalImages.get(0));
+		assertEquals(0, imp.getDisplayRangeMin(), 0);
+		assertEquals(1000, imp.getDisplayRangeMax(), 0);
+	}
+
+	@Test
+	public void testInteractiveRunsSerially() {
+		Macro.setOptions(Thread.currentThread(), null);
+		assertFalse(PlaneParallelFilters.run(threadService, stack(), FILTERS,
+			"smooth"));
+	}
+
+	// -- Helper methods --
+
+	private void assertSameAsSerial(final String className, final String arg) {
+		final ImagePlus serial = stack();
+		final ImagePlus parallel = stack();
+
+		Macro.setOptions(Thread.currentThread(), "stack");
+		IJ.runPlugIn(serial, className, arg);
+		assertTrue(PlaneParallelFilters.run(threadService, parallel, className,
+			arg));
+
+		for (int i = 1; i <= serial.getStackSize(); i++) {
+			assertArrayEquals((short[]) serial.getStack().getPixels(i),
+				(short[]) parallel.getStack().getPixels(i));
+		}
+		assertEquals(serial.getDisplayRangeMin(), parallel.getDisplayRangeMin(),
+			0);
+		assertEquals(serial.getDisplayRangeMax(), parallel.getDisplayRangeMax(),
+			0);
+	}
+
+	private static ImagePlus stack() {
+		final Random random = new Random(17);
+		final ImageStack stack = new ImageStack(32, 32);
+		for (int i = 0; i < 13; i++) {
+			final short[] pixels = new short[32 * 32];
+			for (int j = 0; j < pixels.length; j++) {
+				pixels[j] = (short) random.nextInt(4096);
+			}
+			stack.addSlice("plane " + i, pixels);
+		}
+		return new ImagePlus("planes", stack);
+	}
+
+	// -- Helper classes --
+
+	/** A filter asking for final processing, which sets the display range. */
+	public static class FinalProcessingFilter implements PlugInFilter {
+
+		private static final List<ImagePlus> finalImages = new ArrayList<>();
+
+		@Override
+		public int setup(final String arg, final ImagePlus imp) {
+			if ("final".equals(arg)) {
+				synchronized (finalImages) {
+					finalImages.add(imp);
+				}
+				imp.setDisplayRange(0, 1000);
+				return DONE;
+			}
+			return IJ.setupDialog(imp, DOES_16 | FINAL_PROCESSING);
+		}
+
+		@Override
+		public void run(final ImageProcessor ip) {
+			ip.add(1);
+		}
+	}
+}
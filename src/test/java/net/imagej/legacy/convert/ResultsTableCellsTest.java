@@ -0,0 +1,128 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.convert;
+
+import static org.junit.Assert.assertEquals;
+
+import ij.measure.ResultsTable;
+
+import java.nio.charset.StandardCharsets;
+
+import net.imagej.patcher.LegacyInjector;
+
+import org.junit.Test;
+
+/**
+ * Tests the allocation-free number formatting of {@link ResultsTableCells}
+ * against {@link ResultsTable#d2s}.
+ */
+public class ResultsTableCellsTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	@Test
+	public void testRoundsHalfEven() {
+		assertFormat("0.062", 0.0625, 3, false);
+		assertFormat("0.12", 0.125, 2, false);
+		assertFormat("2", 2.5, 0, false);
+		assertFormat("4", 3.5, 0, false);
+		// the binary value of 1.0005 is slightly below the tie
+		assertFormat("1.000", 1.0005, 3, false);
+	}
+
+	@Test
+	public void testScientificNotation() {
+		assertFormat("5.000E-4", 0.0005, 3, false);
+		assertFormat("9.900E-4", 0.00099, 2, false);
+		assertFormat("0.0005", 0.0005, 4, false);
+		assertFormat("999999999999.000", 999999999999d, 3, false);
+		assertFormat("1.000E12", 999999999999.4, 0, false);
+		assertFormat("1.000E12", 1e12, 0, true);
+		assertFormat("1.23E2", 123, -2, false);
+	}
+
+	@Test
+	public void testSpecialValues() {
+		assertFormat("3.4e38", Float.MAX_VALUE, 3, false);
+		assertFormat("NaN", Double.NaN, 3, false);
+		assertFormat("-Infinity", Double.NEGATIVE_INFINITY, 3, false);
+		assertFormat("-0.000", -0.0, 3, false);
+		assertFormat("-0", -0.0, 3, true);
+		assertFormat("-0", -0.3, 0, false);
+		assertFormat("-0.00", -0.004, 2, false);
+	}
+
+	@Test
+	public void testAutoFormat() {
+		assertFormat("42", 42, 3, true);
+		assertFormat("42.000", 42, 3, false);
+		// beyond the int range, integral numbers keep their decimals
+		assertFormat("3000000000.000", 3e9, 3, true);
+	}
+
+	@Test
+	public void testMatchesD2S() {
+		final byte[] dst = new byte[32];
+		for (int i = -20000; i <= 20000; i++) {
+			final double value = i / 1024.0 + i * 1e-7;
+			for (int places = 0; places <= 9; places++) {
+				final int length =
+					ResultsTableCells.format(value, places, false, dst);
+				if (length < 0) continue;
+				assertEquals(ResultsTable.d2s(value, places), new String(dst, 0,
+					length, StandardCharsets.US_ASCII));
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Checks that the given number is formatted as expected, both as the
+	 * {@link ResultsTable} would and without allocating where possible.
+	 */
+	private static void assertFormat(final String expected, final double value,
+		final int places, final boolean auto)
+	{
+		assertEquals(expected, ResultsTableCells.format(value, places, auto));
+		final byte[] dst = new byte[32];
+		final int length = ResultsTableCells.format(value, places, auto, dst);
+		if (length >= 0) {
+			assertEquals(expected, new String(dst, 0, length,
+				StandardCharsets.US_ASCII));
+		}
+	}
+
+}
@@ -32,10 +32,19 @@
 package net.imagej.legacy.convert;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ConcurrentModificationException;
+import java.util.List;
 
 import net.imagej.patcher.LegacyInjector;
 import net.imagej.table.Column;
+import net.imagej.table.DefaultGenericTable;
+import net.imagej.table.DoubleColumn;
 import net.imagej.table.GenericTable;
 import net.imagej.table.Table;
 
@@ -130,6 +139,22 @@ public class ResultsTableConversionTest {
 		}
 	}
 
+	@Test
+	public void testColumnWrapperTypedGet() {
+		final ResultsTableColumnWrapper c = new ResultsTableColumnWrapper(table, 3);
+
+		for (int i = 0; i < table.size(); i++) {
+			assertEquals(i == 2, c.isString(i));
+			if (i == 2) assertTrue(Double.isNaN(c.getDouble(i)));
+			else assertEquals(values[3][i], c.getDouble(i), 0);
+		}
+
+		// NaN cells without text are numeric
+		table.setValue(3, 0, Double.NaN);
+		assertFalse(c.isString(0));
+		assertTrue(((Double) c.get(0)).isNaN());
+	}
+
 	@Test
 	public void testColumnWrapper() {
 		final Column<Object> c = new ResultsTableColumnWrapper(table, 4);
@@ -215,6 +240,51 @@ public class ResultsTableConversionTest {
 		}
 	}
 
+	@Test
+	public void testResultsTableWrapperRemoveRows() {
+		final ResultsTableWrapper t = new ResultsTableWrapper(table);
+		assertEquals(0, t.getRowIndex("label1"));
+		assertEquals(4, t.getRowIndex("label5"));
+		assertEquals(-1, t.getRowIndex("nope"));
+
+		// removes rows 1 and 2, not 1 and 3
+		t.removeRows(1, 2);
+		assertEquals(3, t.getRowCount());
+		assertEquals(values[0][0], (Double) t.get(0, 0), 0);
+		assertEquals(values[0][3], (Double) t.get(0, 1), 0);
+		assertEquals("see ya!", t.get(4, 2));
+		assertEquals(2, t.getRowIndex("label5"));
+
+		t.appendRow("label6");
+		assertEquals(3, t.getRowIndex("label6"));
+
+		t.removeRows("label1", "label6");
+		assertEquals(2, t.getRowCount());
+		assertEquals(-1, t.getRowIndex("label1"));
+		assertEquals(1, t.getRowIndex("label5"));
+	}
+
+	@Test
+	public void testResultsTableWrapperDirectLabels() {
+		final ResultsTableWrapper t = new ResultsTableWrapper(table);
+		assertEquals(4, t.getRowIndex("label5"));
+		assertEquals(-1, t.getRowIndex("relabeled"));
+
+		// labels set on the ResultsTable itself are found...
+		table.setLabel("relabeled", 3);
+		assertEquals(3, t.getRowIndex("relabeled"));
+		// ... also when an earlier row takes over an indexed label
+		table.setLabel("label5", 1);
+		assertEquals(1, t.getRowIndex("label5"));
+		table.setLabel(null, 1);
+		assertEquals(4, t.getRowIndex("label5"));
+
+		t.appendRow("label6");
+		table.setLabel("label6", 0);
+		assertEquals(0, t.getRowIndex("label6"));
+		assertEquals(-1, t.getRowIndex("label1"));
+	}
+
 	@Test
 	public void testConvert() {
 		context = new Context();
@@ -235,4 +305,144 @@ public class ResultsTableConversionTest {
 
 		context.dispose();
 	}
+
+	@Test
+	public void testConvertColumnar() {
+		context = new Context();
+		convertService = context.service(ConvertService.class);
+
+		final DefaultGenericTable t =
+			convertService.convert(table, DefaultGenericTable.class);
+
+		assertEquals(5, t.getColumnCount());
+		assertEquals(5, t.getRowCount());
+		assertEquals("label1", t.getRowHeader(0));
+		assertEquals("label5", t.getRowHeader(4));
+
+		// purely numeric columns are unboxed
+		assertTrue(t.get(0) instanceof DoubleColumn);
+		assertFalse(t.get(1) instanceof DoubleColumn);
+
+		for (int i = 0; i < t.getColumnCount(); i++) {
+			assertEquals(headings[i], t.getColumnHeader(i));
+			for (int j = 0; j < t.getRowCount(); j++) {
+				if (stringValues[i][j] != null) assertEquals(stringValues[i][j], t.get(
+					i, j));
+				else assertEquals(values[i][j], (Double) t.get(i, j), 0);
+			}
+		}
+
+		// numeric columns are read-only views of the table's storage
+		final DoubleColumn column = (DoubleColumn) t.get(0);
+		final DoubleColumn copy =
+			(DoubleColumn) ResultsTableToDefaultGenericTableConverter.snapshot(
+				table).get(0);
+		try {
+			column.setValue(3, 66);
+			fail("View should be read-only");
+		}
+		catch (final UnsupportedOperationException exc) {
+			// expected
+		}
+		table.setValue(0, 3, 77);
+		assertEquals(77, column.getValue(3), 0);
+
+		// ... which fail once rows are added, unlike snapshots
+		table.incrementCounter();
+		table.addValue(0, 55);
+		try {
+			column.getValue(3);
+			fail("View should notice the added row");
+		}
+		catch (final ConcurrentModificationException exc) {
+			// expected
+		}
+		assertEquals(values[0][3], copy.getValue(3), 0);
+		assertEquals(5, copy.size());
+
+		// requests for a GenericTable still get the live wrapper
+		assertTrue(convertService.convert(table,
+			GenericTable.class) instanceof ResultsTableWrapper);
+
+		context.dispose();
+	}
+
+	@Test
+	public void testOffHeapTableWindow() throws Exception {
+		try (final OffHeapGenericTable t = new OffHeapGenericTable(4, null)) {
+			t.appendDoubleColumns("x", "y");
+			for (int i = 0; i < 10; i++) {
+				t.appendRow(i, 2 * i + 0.5);
+			}
+			t.setRowHeader(7, "seven");
+			assertEquals(10, t.getRowCount());
+			assertEquals(19.5, (Double) t.get(1, 9), 0);
+
+			final ResultsTable window = t.toResultsTable(6, 9);
+			assertEquals(3, window.size());
+			assertEquals("x", window.getColumnHeading(0));
+			assertEquals("y", window.getColumnHeading(1));
+			assertEquals(6, window.getValueAsDouble(0, 0), 0);
+			assertEquals(16.5, window.getValueAsDouble(1, 2), 0);
+			assertEquals("seven", window.getLabel(1));
+		}
+	}
+
+	@Test
+	public void testExportBinaryRoundTrip() throws Exception {
+		final ResultsTableWrapper t = new ResultsTableWrapper(table);
+		final File file = File.createTempFile("results", ".bin");
+		try {
+			new ResultsTableExporter().exportBinary(t, file);
+			final GenericTable read = ResultsTableExporter.importBinary(file);
+
+			assertEquals(5, read.getColumnCount());
+			assertEquals(5, read.getRowCount());
+			assertTrue(read.get(0) instanceof DoubleColumn);
+			assertEquals("label1", read.getRowHeader(0));
+			for (int i = 0; i < read.getColumnCount(); i++) {
+				assertEquals(headings[i], read.getColumnHeader(i));
+				for (int j = 0; j < read.getRowCount(); j++) {
+					assertEquals(t.get(i, j), read.get(i, j));
+				}
+			}
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testExportCSV() throws Exception {
+		final File file = File.createTempFile("results", ".csv");
+		try {
+			new ResultsTableExporter().exportCSV(new ResultsTableWrapper(table),
+				file);
+			final List<String> lines = Files.readAllLines(file.toPath());
+			assertEquals(6, lines.size());
+			assertEquals("Label,col 1,col2,col-3,col_4,col 5", lines.get(0));
+			assertEquals("label1,100,hello,a,0.001,0", lines.get(1));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testExportCSVDecimalPlaces() throws Exception {
+		table.setDecimalPlaces(table.getColumnIndex("col 1"), 2);
+		table.setDecimalPlaces(table.getColumnIndex("col_4"), 4);
+		final File file = File.createTempFile("results", ".csv");
+		try {
+			final ResultsTableExporter exporter = new ResultsTableExporter();
+			exporter.setDecimalPlaces(1);
+			exporter.exportCSV(new ResultsTableWrapper(table), file);
+			final List<String> lines = Files.readAllLines(file.toPath());
+			assertEquals("label1,100.00,hello,a,0.0010,0", lines.get(1));
+			assertEquals(",0.00,0,b,85.0156,-10", lines.get(2));
+		}
+		finally {
+			file.delete();
+		}
+	}
 }
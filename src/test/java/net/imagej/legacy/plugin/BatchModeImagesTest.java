@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.legacy.plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.macro.Interpreter;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Vector;
+
+import net.imagej.patcher.LegacyInjector;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests {@link BatchModeImages}.
+ */
+public class BatchModeImagesTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	@After
+	public void tearDown() {
+		BatchModeImages.detach();
+		Interpreter.batchMode = false;
+	}
+
+	@Test
+	public void testVectorMethods() throws Exception {
+		final ImagePlus imp = new ImagePlus();
+		BatchModeImages.attach();
+		Interpreter.batchMode = true;
+		Interpreter.addBatchModeImage(imp);
+
+		final Vector<?> table = (Vector<?>) imageTable().get(null);
+		final Object[] copy = new Object[1];
+		table.copyInto(copy);
+		assertArrayEquals(new Object[] { imp }, copy);
+		assertEquals(imp, table.firstElement());
+		assertEquals(0, table.lastIndexOf(imp));
+		assertEquals(1, table.subList(0, 1).size());
+	}
+
+	@Test
+	public void testGuard() throws Exception {
+		final ImagePlus imp = new ImagePlus();
+		BatchModeImages.attach();
+		Interpreter.batchMode = true;
+		Interpreter.addBatchModeImage(imp);
+
+		// as when a macro on another thread leaves batch mode
+		Interpreter.batchMode = false;
+		imageTable().set(null, null);
+
+		BatchModeImages.guard();
+		assertTrue(Interpreter.batchMode);
+		assertEquals(1, Interpreter.getBatchModeImageCount());
+		final ImagePlus imp2 = new ImagePlus();
+		Interpreter.addBatchModeImage(imp2);
+
+		final List<ImagePlus> images = BatchModeImages.detach();
+		assertEquals(2, images.size());
+		assertEquals(imp, images.get(0));
+		assertEquals(imp2, images.get(1));
+	}
+
+	@Test
+	public void testGuardKeepsDroppedImage() throws Exception {
+		final ImagePlus imp = new ImagePlus();
+		BatchModeImages.attach();
+		Interpreter.batchMode = true;
+		Interpreter.addBatchModeImage(imp);
+
+		// as when a macro on another thread fails, while this one shows an image
+		Interpreter.batchMode = false;
+		imageTable().set(null, null);
+		final ImagePlus dropped = new ImagePlus();
+		WindowManager.setTempCurrentImage(dropped);
+		Interpreter.addBatchModeImage(dropped);
+
+		BatchModeImages.guard();
+		assertTrue(Interpreter.batchMode);
+		assertEquals(2, Interpreter.getBatchModeImageCount());
+
+		final List<ImagePlus> images = BatchModeImages.detach();
+		assertEquals(2, images.size());
+		assertEquals(imp, images.get(0));
+		assertEquals(dropped, images.get(1));
+	}
+
+	private static Field imageTable() throws NoSuchFieldException {
+		final Field field = Interpreter.class.getDeclaredField("imageTable");
+		field.setAccessible(true);
+		return field;
+	}
+
+}
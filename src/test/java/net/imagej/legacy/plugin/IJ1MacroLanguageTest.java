@@ -31,11 +31,14 @@
 
 package net.imagej.legacy.plugin;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.concurrent.ExecutionException;
 
 import javax.script.Bindings;
@@ -43,6 +46,8 @@ import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 
+import net.imagej.table.GenericTable;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -121,6 +126,105 @@ public class IJ1MacroLanguageTest {
 		assertNull(engine.get("goodbye"));
 	}
 
+	@Test
+	public void testArrayBindings() throws ScriptException {
+		final ScriptLanguage language = scriptService.getLanguageByExtension("ijm");
+		final ScriptEngine engine = language.getScriptEngine();
+
+		engine.put("values", new double[] { 1, 2, 3.5 });
+		engine.put("names", new String[] { "a", "b" });
+		engine.eval("" + //
+			"var offset = 1;\n" + //
+			"sum = 0;\n" + //
+			"for (i = 0; i < values.length; i++) sum += values[i];\n" + //
+			"squares = newArray(values.length);\n" + //
+			"for (i = 0; i < values.length; i++) squares[i] = values[i] * values[i];\n" + //
+			"joined = names[0] + names[1];\n" + //
+			"parts = split(\"x,y\", \",\");\n" + //
+			"offset = sum + offset;\n" //
+		);
+		assertEquals(6.5, engine.get("sum"));
+		assertArrayEquals(new double[] { 1, 4, 12.25 }, (double[]) engine.get(
+			"squares"), 0);
+		assertEquals("ab", engine.get("joined"));
+		assertArrayEquals(new String[] { "x", "y" }, (String[]) engine.get(
+			"parts"));
+		assertEquals(7.5, engine.get("offset"));
+	}
+
+	@Test
+	public void testSessionMode() throws ScriptException {
+		final ScriptLanguage language = scriptService.getLanguageByExtension("ijm");
+		final IJ1MacroEngine engine = (IJ1MacroEngine) language.getScriptEngine();
+		engine.setSessionMode(true);
+
+		engine.eval("" + //
+			"var count = 0;\n" + //
+			"function inc(n) { count += n; return count; }\n" + //
+			"x = 5;\n" //
+		);
+		engine.eval("y = inc(x);");
+		engine.eval("z = inc(10) + y;");
+		assertEquals(15.0, engine.get("count"));
+		assertEquals(20.0, engine.get("z"));
+
+		// bindings changed from outside take precedence
+		engine.put("x", 100);
+		engine.eval("w = inc(x);");
+		assertEquals(115.0, engine.get("w"));
+	}
+
+	@Test
+	public void testSessionModeFunctionLibrary() throws ScriptException {
+		final ScriptLanguage language = scriptService.getLanguageByExtension("ijm");
+		final IJ1MacroEngine engine = (IJ1MacroEngine) language.getScriptEngine();
+		engine.setSessionMode(true);
+
+		engine.eval("" + //
+			"function twice(v) { return 2 * v; }\n" + //
+			"function d2s(n, d) { return \"custom\"; }\n" //
+		);
+		engine.eval("function quad(v) { return twice(twice(v)); }");
+		engine.eval("" + //
+			"for (i = 0; i < 3; i++) q = quad(i);\n" + //
+			"s = d2s(q, 2);\n" + //
+			"r = round(2.6);\n" //
+		);
+		assertEquals(8.0, engine.get("q"));
+		assertEquals("custom", engine.get("s"));
+		assertEquals(3.0, engine.get("r"));
+	}
+
+	@Test
+	public void testProfiler() throws IOException, ScriptException {
+		final ScriptLanguage language = scriptService.getLanguageByExtension("ijm");
+		final IJ1MacroEngine engine = (IJ1MacroEngine) language.getScriptEngine();
+		final MacroProfiler profiler = new MacroProfiler();
+		engine.setProfiler(profiler);
+
+		engine.eval("" + //
+			"function fib(n) {\n" + //
+			"  if (n < 2) return n;\n" + //
+			"  return fib(n - 1) + fib(n - 2);\n" + //
+			"}\n" + //
+			"x = fib(10);\n" //
+		);
+		assertEquals(55.0, engine.get("x"));
+
+		final GenericTable table = profiler.toTable();
+		int fibRow = -1;
+		for (int row = 0; row < table.getRowCount(); row++) {
+			if ("fib".equals(table.get("Name", row))) fibRow = row;
+		}
+		assertEquals("function", table.get("Kind", fibRow));
+		assertEquals(177L, table.get("Count", fibRow));
+
+		final StringWriter stacks = new StringWriter();
+		profiler.writeCollapsedStacks(stacks);
+		assertTrue(stacks.toString().startsWith("main;"));
+		assertTrue(stacks.toString().contains(";fib;fib;"));
+	}
+
 	@Test
 	public void testParameters() throws InterruptedException, ExecutionException,
 		IOException, ScriptException
@@ -0,0 +1,119 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.legacy.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import net.imagej.patcher.LegacyInjector;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link MacroExecutor}.
+ */
+public class MacroExecutorTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	@Test
+	public void testConcurrentBatchModeImages() throws Exception {
+		final String macro = "" + //
+			"newImage(\"img\" + i, \"8-bit black\", 64, 64, 1);\n" + //
+			"setColor(i);\n" + //
+			"fillRect(0, 0, 64, 64);\n" + //
+			"newImage(\"scratch\", \"8-bit black\", 8, 8, 1);\n" + //
+			"close();\n" + //
+			"selectImage(\"img\" + i);\n" + //
+			"getStatistics(area, mean);\n" + //
+			"count = nImages;\n" + //
+			"return \"\" + mean;\n";
+
+		final List<Future<MacroExecutor.Result>> futures = new ArrayList<>();
+		try (final MacroExecutor executor = new MacroExecutor(4, 2)) {
+			for (int i = 0; i < 16; i++) {
+				futures.add(executor.submit(macro, Collections.singletonMap("i", i)));
+			}
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			final MacroExecutor.Result result = futures.get(i).get();
+			assertFalse(result.isAborted());
+			assertEquals("" + i, result.getReturnValue());
+			assertEquals(1.0, result.getVariables().get("count"));
+			assertEquals(1, result.getImages().size());
+			assertEquals("img" + i, result.getImages().get(0).getTitle());
+		}
+	}
+
+	@Test
+	public void testFailingJob() throws Exception {
+		final String macro = "" + //
+			"for (k = 0; k < 20; k++) {\n" + //
+			"\tnewImage(\"img\" + i + \"-\" + k, \"8-bit black\", 16, 16, 1);\n" + //
+			"}\n";
+		// NB: ImageJ 1.x leaves batch mode, on all threads, when a macro fails.
+		final String failing = "x = 1;\nundefinedFunction();\n";
+
+		final List<Future<MacroExecutor.Result>> futures = new ArrayList<>();
+		final List<Future<MacroExecutor.Result>> failures = new ArrayList<>();
+		try (final MacroExecutor executor = new MacroExecutor(4, 4)) {
+			for (int i = 0; i < 16; i++) {
+				futures.add(executor.submit(macro, Collections.singletonMap("i", i)));
+				if (i % 4 == 0) {
+					failures.add(executor.submit(failing, Collections
+						.<String, Object> emptyMap()));
+				}
+			}
+		}
+		for (final Future<MacroExecutor.Result> failure : failures) {
+			assertTrue(failure.get().isAborted());
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			final MacroExecutor.Result result = futures.get(i).get();
+			assertFalse(result.isAborted());
+			assertEquals(20, result.getImages().size());
+			for (int k = 0; k < 20; k++) {
+				assertEquals("img" + i + "-" + k, result.getImages().get(k)
+					.getTitle());
+			}
+		}
+	}
+
+}
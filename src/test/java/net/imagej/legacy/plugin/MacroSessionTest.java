@@ -0,0 +1,103 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.legacy.plugin;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import net.imagej.patcher.LegacyInjector;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link MacroSession}.
+ */
+public class MacroSessionTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	private static final Map<String, Object> NO_INPUTS = Collections
+		.emptyMap();
+
+	@Test
+	public void testFunctionDefinitions() {
+		final MacroSession session = new MacroSession();
+		session.eval("" + //
+			"s = \"function inString() {\";\n" + //
+			"// function inLineComment() {\n" + //
+			"/* function inBlockComment() {\n" + //
+			"} */\n" + //
+			"function nested(n) {\n" + //
+			"\tif (n > 0) { return \"{\" + nested(n - 1) + \"}\"; }\n" + //
+			"\treturn \"\";\n" + //
+			"}\n" + //
+			"function d2s(n, decimals) { return \"custom\"; }\n", NO_INPUTS);
+		assertEquals(Arrays.asList("nested", "d2s"), Arrays.asList(session
+			.getFunctionNames().toArray()));
+
+		session.eval("a = nested(2); b = d2s(1, 2); c = round(2.6);",
+			NO_INPUTS);
+		final Map<String, Object> variables = session.getVariables();
+		assertEquals("function inString() {", variables.get("s"));
+		assertEquals("{{}}", variables.get("a"));
+		assertEquals("custom", variables.get("b"));
+		assertEquals(3.0, variables.get("c"));
+	}
+
+	@Test
+	public void testRedefinition() {
+		final MacroSession session = new MacroSession();
+		session.eval("" + //
+			"function f() { return 1; }\n" + //
+			"function d2s(n, decimals) { return \"first\"; }\n", NO_INPUTS);
+		session.eval("" + //
+			"function f() { return 2; }\n" + //
+			"function d2s(n, decimals) { return \"second\"; }\n", NO_INPUTS);
+		session.eval("a = f(); b = d2s(1, 2);", NO_INPUTS);
+		final Map<String, Object> variables = session.getVariables();
+		assertEquals(2.0, variables.get("a"));
+		assertEquals("second", variables.get("b"));
+	}
+
+	@Test
+	public void testDefinitionSharingStatementLine() {
+		final MacroSession session = new MacroSession();
+		session.eval("x = 1; function f() { return x; }", NO_INPUTS);
+		assertEquals(Collections.emptySet(), session.getFunctionNames());
+	}
+
+}
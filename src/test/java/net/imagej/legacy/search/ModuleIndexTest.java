@@ -0,0 +1,137 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.MenuPath;
+import org.scijava.command.CommandInfo;
+import org.scijava.module.ModuleInfo;
+
+/**
+ * Tests {@link ModuleIndex}.
+ */
+public class ModuleIndexTest {
+
+	private ModuleIndex index;
+	private CommandInfo gaussian, unsharp, median, gamma;
+
+	@Before
+	public void setUp() {
+		gaussian = command("Process>Filters>Gaussian Blur...");
+		unsharp = command("Process>Filters>Unsharp Mask...");
+		median = command("Process>Filters>Median...");
+		gamma = command("Process>Math>Gamma...");
+		index = new ModuleIndex();
+		index.addAll(Arrays.asList(gaussian, unsharp, median, gamma));
+	}
+
+	@Test
+	public void testRanking() {
+		// title prefixes come before word prefixes and menu path matches;
+		// equally good matches are ordered by title length
+		assertEquals(Arrays.asList(gamma, gaussian), //
+			index.search("ga", false, 0));
+		assertEquals(Arrays.asList(unsharp), index.search("mask", false, 0));
+		assertEquals(Arrays.asList(gaussian), index.search("gau blu", false, 0));
+		assertEquals(Arrays.asList(gamma), index.search("math", false, 0));
+		assertEquals(4, index.search("process", false, 0).size());
+	}
+
+	@Test
+	public void testFuzzy() {
+		assertEquals(Collections.emptyList(), index.search("gausian", false, 0));
+		assertEquals(Arrays.asList(gaussian), index.search("gausian", true, 0));
+		assertEquals(Arrays.asList(median), index.search("madian", true, 0));
+	}
+
+	@Test
+	public void testLimit() {
+		assertEquals(Arrays.asList(median, unsharp), //
+			index.search("filters", false, 2));
+	}
+
+	@Test
+	public void testIncrementalUpdates() {
+		final CommandInfo gauss3D = command("Process>Filters>Gaussian Blur 3D...");
+		index.addAll(Collections.singletonList(gauss3D));
+		assertEquals(Arrays.asList(gaussian, gauss3D), //
+			index.search("gaussian", false, 0));
+
+		index.removeAll(Collections.singletonList(gaussian));
+		assertEquals(Arrays.asList(gauss3D), index.search("gaussian", false, 0));
+		assertEquals(4, index.size());
+
+		// re-adding a module replaces it rather than duplicating it
+		index.addAll(Collections.singletonList(gauss3D));
+		assertEquals(4, index.size());
+	}
+
+	@Test
+	public void testInvisibleModules() {
+		final CommandInfo hidden = command("Process>Filters>Gaussian Secret...");
+		hidden.setVisible(false);
+		index.addAll(Collections.singletonList(hidden));
+		assertEquals(4, index.size());
+	}
+
+	@Test
+	public void testManyModules() {
+		final List<ModuleInfo> modules = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			modules.add(command("Plugins>Group " + i % 50 + ">Command " + i));
+		}
+		index.addAll(modules);
+		final List<ModuleInfo> result = index.search("command 123", true, 8);
+		assertEquals(8, result.size());
+		assertEquals("Command 123", result.get(0).getTitle());
+		assertTrue(result.get(1).getTitle().startsWith("Command 123"));
+	}
+
+	// -- Helper methods --
+
+	private static CommandInfo command(final String menuPath) {
+		final CommandInfo info = new CommandInfo("com.example." + //
+			menuPath.replaceAll("[^A-Za-z0-9]", "_"));
+		info.setMenuPath(new MenuPath(menuPath));
+		return info;
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.LUT;
+
+import net.imagej.patcher.LegacyInjector;
+import net.imglib2.display.ColorTable8;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ColorTableCache}.
+ */
+public class ColorTableCacheTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	@Test
+	public void testLUTCounters() {
+		final ColorTableCache cache = new ColorTableCache();
+		final ColorTable8 gray = ramp(1, 1, 1);
+
+		final LUT lut = cache.getLUT(gray);
+		assertEquals(0, cache.getLUTHits());
+		assertEquals(1, cache.getLUTMisses());
+		assertSame(lut, cache.getLUT(gray));
+		assertEquals(1, cache.getLUTHits());
+
+		// another table with the same palette shares the LUT
+		assertSame(lut, cache.getLUT(ramp(1, 1, 1)));
+		assertEquals(2, cache.getLUTHits());
+		assertEquals(1, cache.getLUTMisses());
+
+		// color tables are counted separately
+		final ColorTable8 table = cache.getColorTable(lut);
+		assertSame(table, cache.getColorTable(lut));
+		assertEquals(1, cache.getColorTableMisses());
+		assertEquals(1, cache.getColorTableHits());
+		assertEquals(2, cache.getLUTHits());
+		assertEquals(1, cache.getLUTMisses());
+	}
+
+	@Test
+	public void testSkippedAssignments() {
+		final ColorTableCache cache = new ColorTableCache();
+		final ColorTable8 red = ramp(1, 0, 0);
+		final ColorTable8 green = ramp(0, 1, 0);
+		final ByteProcessor ip = new ByteProcessor(4, 4);
+
+		// comparing builds no LUT
+		assertFalse(cache.hasPalette(ip.getColorModel(), red));
+		assertEquals(0, cache.getSkippedAssignments());
+		assertEquals(0, cache.getLUTMisses());
+		assertEquals(0, cache.getLUTHits());
+
+		ip.setColorModel(cache.getLUT(red));
+		assertTrue(cache.hasPalette(ip.getColorModel(), red));
+		assertTrue(cache.hasPalette(ip.getColorModel(), ramp(1, 0, 0)));
+		assertFalse(cache.hasPalette(ip.getColorModel(), green));
+		assertEquals(2, cache.getSkippedAssignments());
+		assertEquals(1, cache.getLUTMisses());
+		assertEquals(0, cache.getLUTHits());
+	}
+
+	@Test
+	public void testSharedLUTIsNotModified() {
+		final ColorTableCache cache = new ColorTableCache();
+		final ImageStack stack = new ImageStack(4, 4);
+		for (int c = 0; c < 2; c++) {
+			stack.addSlice(new ByteProcessor(4, 4));
+		}
+		final ImagePlus imp = new ImagePlus("composite", stack);
+		imp.setDimensions(2, 1, 1);
+		final CompositeImage ci = new CompositeImage(imp, CompositeImage.COLOR);
+		final LUT lut = cache.getLUT(ramp(0, 0, 1));
+		ci.setChannelLut(lut, 1);
+		ci.setC(1);
+		ci.setDisplayRange(10, 20);
+		assertEquals(0, lut.min, 0);
+		assertEquals(0, lut.max, 0);
+		assertTrue(cache.hasPalette(ci.getChannelLut(1), ramp(0, 0, 1)));
+	}
+
+	// -- Helper methods --
+
+	private static ColorTable8 ramp(final int r, final int g, final int b) {
+		final byte[][] values = new byte[3][256];
+		for (int i = 0; i < 256; i++) {
+			values[0][i] = (byte) (r * i);
+			values[1][i] = (byte) (g * i);
+			values[2][i] = (byte) (b * i);
+		}
+		return new ColorTable8(values);
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+import net.imagej.patcher.LegacyInjector;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link PlaneStatisticsCache}.
+ */
+public class PlaneStatisticsCacheTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	@Test
+	public void testComputeOnce() {
+		final PlaneStatisticsCache cache = new PlaneStatisticsCache();
+		final ImagePlus imp = image(1, 1, 1);
+		assertNull(cache.get(imp, 1));
+		final PlaneStatistics stats = cache.getStatistics(imp, 1);
+		assertEquals(0, stats.getMin(), 0);
+		assertEquals(99, stats.getMax(), 0);
+		assertEquals(100, stats.getCount());
+		assertSame(stats, cache.getStatistics(imp, 1));
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void testInvalidate() {
+		final PlaneStatisticsCache cache = new PlaneStatisticsCache();
+		final ImagePlus imp = image(1, 1, 1);
+		cache.getStatistics(imp, 1);
+		// edit the pixels, then synchronize, as the harmonizer would
+		imp.getProcessor().add(50);
+		cache.invalidate(imp);
+		assertNull(cache.get(imp, 1));
+		final PlaneStatistics stats = cache.getStatistics(imp, 1);
+		assertEquals(50, stats.getMin(), 0);
+		assertEquals(149, stats.getMax(), 0);
+		assertSame(stats, cache.get(imp, 1));
+	}
+
+	@Test
+	public void testChannelRange() {
+		final PlaneStatisticsCache cache = new PlaneStatisticsCache();
+		final ImagePlus imp = image(2, 3, 2);
+		// the channels are interleaved, and the last plane is the brightest
+		assertArrayEquals(new double[] { 0, 109 }, cache.getChannelRange(imp, 0),
+			0);
+		assertEquals(0, cache.getHits());
+		assertArrayEquals(new double[] { 0, 109 }, cache.getChannelRange(imp, 0),
+			0);
+		assertEquals(imp.getStackSize() / 2, cache.getHits());
+		assertArrayEquals(new double[] { 1, 110 }, cache.getChannelRange(imp, 1),
+			0);
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Creates a 10x10 hyperstack whose n-th plane holds the values n - 1 + [0,
+	 * 99] in raster order.
+	 */
+	private ImagePlus image(final int c, final int z, final int t) {
+		final ImageStack stack = new ImageStack(10, 10);
+		for (int n = 0; n < c * z * t; n++) {
+			final ByteProcessor proc = new ByteProcessor(10, 10);
+			for (int i = 0; i < 100; i++) {
+				proc.set(i, n + i);
+			}
+			stack.addSlice(null, proc);
+		}
+		final ImagePlus imp = new ImagePlus("stats", stack);
+		imp.setDimensions(c, z, t);
+		return imp;
+	}
+
+}